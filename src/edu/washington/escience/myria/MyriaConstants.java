@@ -72,6 +72,12 @@ public final class MyriaConstants {
    */
   public static final String EXEC_ENV_VAR_QUERY_ID = "queryId";
 
+  /**
+   * The Bloom filters built by the hash joins of a subquery, see
+   * {@link edu.washington.escience.myria.operator.SharedBloomFilters}.
+   */
+  public static final String EXEC_ENV_VAR_BLOOM_FILTERS = "bloomFilters";
+
   /**
    * Profiling mode.
    */
@@ -297,6 +303,23 @@ public final class MyriaConstants {
     "com.google.common.hash.Hashing", "java.nio.charset.Charset"
   };
 
+  /**
+   * The maximum number of compiled expressions kept by each process, see
+   * {@link edu.washington.escience.myria.expression.evaluate.ExpressionCompiler}.
+   */
+  public static final int EXPRESSION_CACHE_SIZE = 1024;
+
+  /**
+   * The priority of a query which does not specify one. A query of priority {@code p} gets {@code p} times the share of
+   * the query execution threads of a query of priority 1.
+   */
+  public static final int DEFAULT_QUERY_PRIORITY = 1;
+
+  /**
+   * How long a fragment may run before it yields its thread to the other fragments waiting for one, in nanoseconds.
+   */
+  public static final long FRAGMENT_TIME_SLICE_NANOS = 50 * 1000 * 1000L;
+
   /** Private constructor to disallow building utility class. */
   private MyriaConstants() {}
 
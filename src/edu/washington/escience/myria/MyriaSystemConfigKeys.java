@@ -31,6 +31,13 @@ public final class MyriaSystemConfigKeys {
   public static final String OPERATOR_INPUT_BUFFER_RECOVER_TRIGGER =
       "operator.consumer.inputbuffer.recover.trigger";
 
+  /**
+   * The max number of bytes that the {@link FlowControlBagInputBuffer}s of all {@link Consumer} operators in a worker,
+   * or in the master, should hold together. 0 for a quarter of the max heap size.
+   */
+  public static final String OPERATOR_INPUT_BUFFER_BUDGET_BYTES =
+      "operator.consumer.inputbuffer.budget.bytes";
+
   public static final String TCP_SEND_BUFFER_SIZE_BYTES = "tcp.sendbuffer.size.bytes";
 
   public static final String TCP_RECEIVE_BUFFER_SIZE_BYTES = "tcp.receivebuffer.size.bytes";
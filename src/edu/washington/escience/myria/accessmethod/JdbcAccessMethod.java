@@ -34,6 +34,7 @@ import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.TupleWriter;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.storage.TupleBatch;
@@ -699,6 +700,8 @@ class JdbcTupleBatchIterator implements Iterator<TupleBatch> {
   private TupleBatch nextTB = null;
   /** statement is closed or not. */
   private boolean statementClosed = false;
+  /** The dictionaries shared by the string columns of all the generated batches. */
+  private final StringDictionary[] dictionaries;
 
   /**
    * Constructs a JdbcTupleBatchIterator from the given ResultSet and Schema objects.
@@ -709,6 +712,7 @@ class JdbcTupleBatchIterator implements Iterator<TupleBatch> {
   JdbcTupleBatchIterator(final ResultSet resultSet, final Schema schema) {
     this.resultSet = resultSet;
     this.schema = schema;
+    dictionaries = ColumnFactory.allocateDictionaries(schema);
   }
 
   @Override
@@ -734,7 +738,8 @@ class JdbcTupleBatchIterator implements Iterator<TupleBatch> {
       return null;
     }
     final int numFields = schema.numColumns();
-    final List<ColumnBuilder<?>> columnBuilders = ColumnFactory.allocateColumns(schema);
+    final List<ColumnBuilder<?>> columnBuilders =
+        ColumnFactory.allocateColumns(schema, dictionaries);
     int numTuples = 0;
     for (numTuples = 0; numTuples < TupleBatch.BATCH_SIZE; ++numTuples) {
       if (!resultSet.next()) {
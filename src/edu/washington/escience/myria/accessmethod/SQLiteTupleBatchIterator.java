@@ -17,6 +17,7 @@ import com.almworks.sqlite4java.SQLiteStatement;
 
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.storage.TupleBatch;
@@ -34,6 +35,8 @@ public class SQLiteTupleBatchIterator implements Iterator<TupleBatch> {
   private final SQLiteConnection connection;
   /** The Schema of the TupleBatches returned by this Iterator. */
   private final Schema schema;
+  /** The dictionaries shared by the string columns of all the returned TupleBatches. */
+  private final StringDictionary[] dictionaries;
 
   /**
    * Wraps a SQLiteStatement result set in an Iterator<TupleBatch>.
@@ -52,6 +55,7 @@ public class SQLiteTupleBatchIterator implements Iterator<TupleBatch> {
         statement.step();
       }
       this.schema = schema;
+      dictionaries = ColumnFactory.allocateDictionaries(schema);
     } catch (final SQLiteException e) {
       throw new RuntimeException(e);
     }
@@ -75,7 +79,8 @@ public class SQLiteTupleBatchIterator implements Iterator<TupleBatch> {
 
     /* Allocate TupleBatch parameters */
     final int numFields = schema.numColumns();
-    final List<ColumnBuilder<?>> columnBuilders = ColumnFactory.allocateColumns(schema);
+    final List<ColumnBuilder<?>> columnBuilders =
+        ColumnFactory.allocateColumns(schema, dictionaries);
 
     /**
      * Loop through resultSet, adding one row at a time. Stop when numTuples hits BATCH_SIZE or there are no more
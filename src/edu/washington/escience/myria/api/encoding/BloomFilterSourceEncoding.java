@@ -0,0 +1,14 @@
+package edu.washington.escience.myria.api.encoding;
+
+import edu.washington.escience.myria.api.encoding.QueryConstruct.ConstructArgs;
+import edu.washington.escience.myria.operator.BloomFilterSource;
+
+public class BloomFilterSourceEncoding extends LeafOperatorEncoding<BloomFilterSource> {
+
+  @Required public String argBloomFilter;
+
+  @Override
+  public BloomFilterSource construct(ConstructArgs args) {
+    return new BloomFilterSource(argBloomFilter);
+  }
+}
@@ -23,6 +23,8 @@ import edu.washington.escience.myria.operator.Operator;
 @JsonSubTypes({
   @Type(name = "Aggregate", value = AggregateEncoding.class),
   @Type(name = "Apply", value = ApplyEncoding.class),
+  @Type(name = "BloomFilterProbe", value = BloomFilterProbeEncoding.class),
+  @Type(name = "BloomFilterSource", value = BloomFilterSourceEncoding.class),
   @Type(name = "BroadcastConsumer", value = BroadcastConsumerEncoding.class),
   @Type(name = "BroadcastProducer", value = BroadcastProducerEncoding.class),
   @Type(name = "CatalogScan", value = CatalogScanEncoding.class),
@@ -54,6 +56,7 @@ import edu.washington.escience.myria.operator.Operator;
   @Type(name = "MergeJoin", value = MergeJoinEncoding.class),
   @Type(name = "MultiGroupByAggregate", value = MultiGroupByAggregateEncoding.class),
   @Type(name = "NChiladaFileScan", value = NChiladaFileScanEncoding.class),
+  @Type(name = "ParallelPipeline", value = ParallelPipelineEncoding.class),
   @Type(name = "RightHashCountingJoin", value = RightHashCountingJoinEncoding.class),
   @Type(name = "RightHashJoin", value = RightHashJoinEncoding.class),
   @Type(name = "SampledDbInsertTemp", value = SampledDbInsertTempEncoding.class),
@@ -65,6 +68,7 @@ import edu.washington.escience.myria.operator.Operator;
   @Type(name = "ShuffleProducer", value = ShuffleProducerEncoding.class),
   @Type(name = "SingleGroupByAggregate", value = SingleGroupByAggregateEncoding.class),
   @Type(name = "Singleton", value = SingletonEncoding.class),
+  @Type(name = "SketchMerge", value = SketchMergeEncoding.class),
   @Type(name = "SketchOperator", value = SketchOperatorEncoding.class),
   @Type(name = "StatefulApply", value = StatefulApplyEncoding.class),
   @Type(name = "SymmetricHashJoin", value = SymmetricHashJoinEncoding.class),
@@ -0,0 +1,73 @@
+package edu.washington.escience.myria.api.encoding;
+
+import java.util.List;
+
+import javax.ws.rs.core.Response.Status;
+
+import edu.washington.escience.myria.api.MyriaApiException;
+import edu.washington.escience.myria.api.encoding.QueryConstruct.ConstructArgs;
+import edu.washington.escience.myria.operator.Operator;
+import edu.washington.escience.myria.operator.ParallelPipeline;
+import edu.washington.escience.myria.operator.UnaryOperator;
+
+/**
+ * JSON encoding of a {@link ParallelPipeline}.
+ *
+ * The pipeline is a list of unary operators, top-most first, encoded the same way as the operators of a fragment. The
+ * argChild of each one is the opId of the next one, and the argChild of the last one is the argChild of this operator.
+ */
+public class ParallelPipelineEncoding extends UnaryOperatorEncoding<ParallelPipeline> {
+
+  @Required public List<OperatorEncoding<? extends Operator>> argPipeline;
+  /** The number of batches processed at the same time, or null for the number of cores. */
+  public Integer argParallelism;
+
+  @Override
+  public ParallelPipeline construct(final ConstructArgs args) throws MyriaApiException {
+    UnaryOperator top = null;
+    UnaryOperator bottom = null;
+    for (OperatorEncoding<? extends Operator> encoding : argPipeline) {
+      final UnaryOperator op = (UnaryOperator) encoding.construct(args);
+      if (bottom == null) {
+        top = op;
+      } else {
+        bottom.setChild(op);
+      }
+      bottom = op;
+    }
+    if (argParallelism == null) {
+      return new ParallelPipeline(null, top);
+    }
+    return new ParallelPipeline(null, top, argParallelism);
+  }
+
+  @Override
+  protected void validateExtra() {
+    if (argPipeline.isEmpty()) {
+      throw new MyriaApiException(Status.BAD_REQUEST, "the pipeline must not be empty");
+    }
+    if (argParallelism != null && argParallelism <= 0) {
+      throw new MyriaApiException(
+          Status.BAD_REQUEST, "argParallelism must be positive, got " + argParallelism);
+    }
+    for (int i = 0; i < argPipeline.size(); ++i) {
+      final OperatorEncoding<? extends Operator> op = argPipeline.get(i);
+      op.validate();
+      if (!(op instanceof UnaryOperatorEncoding)) {
+        throw new MyriaApiException(
+            Status.BAD_REQUEST,
+            "the pipeline must be a chain of unary operators, found operator "
+                + op.opId
+                + " of type "
+                + op.getClass());
+      }
+      final Integer expectedChild =
+          i + 1 < argPipeline.size() ? argPipeline.get(i + 1).opId : argChild;
+      if (!((UnaryOperatorEncoding<?>) op).argChild.equals(expectedChild)) {
+        throw new MyriaApiException(
+            Status.BAD_REQUEST,
+            "the child of operator " + op.opId + " in the pipeline must be " + expectedChild);
+      }
+    }
+  }
+}
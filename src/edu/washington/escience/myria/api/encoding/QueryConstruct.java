@@ -124,14 +124,17 @@ public class QueryConstruct {
    * @param plans the physical query plan
    * @param ftMode the fault tolerance mode under which the query will be executed
    * @param profilingMode how the query should be profiled
+   * @param priority the priority of the query
    */
   public static void setQueryExecutionOptions(
       final Map<Integer, SubQueryPlan> plans,
       final FTMode ftMode,
-      @Nonnull final Set<ProfilingMode> profilingMode) {
+      @Nonnull final Set<ProfilingMode> profilingMode,
+      final int priority) {
     for (SubQueryPlan plan : plans.values()) {
       plan.setFTMode(ftMode);
       plan.setProfilingMode(profilingMode);
+      plan.setPriority(priority);
     }
   }
 
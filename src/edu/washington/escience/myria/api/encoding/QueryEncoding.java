@@ -7,6 +7,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
 
+import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.MyriaConstants.FTMode;
 import edu.washington.escience.myria.MyriaConstants.ProfilingMode;
 import edu.washington.escience.myria.api.MyriaApiException;
@@ -29,6 +30,8 @@ public class QueryEncoding extends MyriaApiEncoding {
   public List<ProfilingMode> profilingMode = ImmutableList.of();
   /** The fault-tolerance mode used in this query, default: none. */
   public FTMode ftMode = FTMode.NONE;
+  /** The priority of this query, i.e., its weight when sharing the workers' threads. Default: 1. */
+  public int priority = MyriaConstants.DEFAULT_QUERY_PRIORITY;
 
   /** The old physical query plan encoding. */
   public List<PlanFragmentEncoding> fragments;
@@ -39,6 +42,7 @@ public class QueryEncoding extends MyriaApiEncoding {
   protected void validateExtra() throws MyriaApiException {
     Preconditions.checkArgument(
         (fragments == null) ^ (plan == null), "exactly one of fragments or plan must be specified");
+    Preconditions.checkArgument(priority > 0, "priority must be positive, got %s", priority);
     /* If they gave us an old plan type, convert it to a new plan type. */
     if (fragments != null) {
       plan = new SubQueryEncoding(fragments);
@@ -16,10 +16,18 @@ public class RightHashJoinEncoding extends BinaryOperatorEncoding<RightHashJoin>
   @Required public int[] argColumns2;
   @Required public int[] argSelect1;
   @Required public int[] argSelect2;
+  public String argBloomFilter;
+  public int argBloomFilterBits = 1 << 20;
+  public int argBloomFilterHashes = 3;
 
   @Override
   public RightHashJoin construct(ConstructArgs args) {
-    return new RightHashJoin(
-        argColumnNames, null, null, argColumns1, argColumns2, argSelect1, argSelect2);
+    RightHashJoin join =
+        new RightHashJoin(
+            argColumnNames, null, null, argColumns1, argColumns2, argSelect1, argSelect2);
+    if (argBloomFilter != null) {
+      join.setBloomFilter(argBloomFilter, argBloomFilterBits, argBloomFilterHashes);
+    }
+    return join;
   }
 }
@@ -4,6 +4,7 @@ import java.util.Set;
 
 import edu.washington.escience.myria.api.encoding.QueryConstruct.ConstructArgs;
 import edu.washington.escience.myria.operator.network.GenericShuffleProducer;
+import edu.washington.escience.myria.operator.network.ShuffleCombiner;
 import edu.washington.escience.myria.operator.network.partition.PartitionFunction;
 import edu.washington.escience.myria.util.MyriaUtils;
 
@@ -14,6 +15,7 @@ import edu.washington.escience.myria.util.MyriaUtils;
 public class ShuffleProducerEncoding extends AbstractProducerEncoding<GenericShuffleProducer> {
   @Required public PartitionFunction argPf;
   public StreamingStateEncoding<?> argBufferStateType;
+  public ShuffleCombiner argCombiner;
 
   @Override
   public GenericShuffleProducer construct(final ConstructArgs args) {
@@ -28,6 +30,7 @@ public class ShuffleProducerEncoding extends AbstractProducerEncoding<GenericShu
     if (argBufferStateType != null) {
       producer.setBackupBuffer(argBufferStateType);
     }
+    producer.setCombiner(argCombiner);
     return producer;
   }
 }
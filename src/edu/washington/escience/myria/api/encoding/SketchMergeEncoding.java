@@ -0,0 +1,14 @@
+package edu.washington.escience.myria.api.encoding;
+
+import edu.washington.escience.myria.api.MyriaApiException;
+import edu.washington.escience.myria.api.encoding.QueryConstruct.ConstructArgs;
+import edu.washington.escience.myria.operator.agg.SketchMerge;
+
+public class SketchMergeEncoding extends UnaryOperatorEncoding<SketchMerge> {
+  public boolean argEmitPacked = false;
+
+  @Override
+  public SketchMerge construct(ConstructArgs args) throws MyriaApiException {
+    return new SketchMerge(null, argEmitPacked);
+  }
+}
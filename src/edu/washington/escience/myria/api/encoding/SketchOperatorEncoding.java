@@ -14,9 +14,10 @@ public class SketchOperatorEncoding extends UnaryOperatorEncoding<SketchOperator
     @Required public int[] argGroupFields;
     @Required public int argColumns;
     @Required public int argRows;
+    public boolean argPacked = false;
 
     @Override
     public SketchOperator construct(@Nonnull QueryConstruct.ConstructArgs args) throws MyriaApiException {
-        return new SketchOperator(null,argGroupFields, argColumns,argRows );
+        return new SketchOperator(null,argGroupFields, argColumns,argRows, argPacked);
     }
 }
@@ -16,6 +16,10 @@ public class SymmetricHashJoinEncoding extends BinaryOperatorEncoding<SymmetricH
   public boolean argSetSemanticsLeft = false;
   public boolean argSetSemanticsRight = false;
   public JoinPullOrder argOrder = JoinPullOrder.ALTER;
+  public long argMemoryBudget = 0;
+  public String argBloomFilter;
+  public int argBloomFilterBits = 1 << 20;
+  public int argBloomFilterHashes = 3;
 
   @Override
   public SymmetricHashJoin construct(final ConstructArgs args) {
@@ -31,6 +35,10 @@ public class SymmetricHashJoinEncoding extends BinaryOperatorEncoding<SymmetricH
             argSetSemanticsLeft,
             argSetSemanticsRight);
     join.setPullOrder(argOrder);
+    join.setMemoryBudget(argMemoryBudget);
+    if (argBloomFilter != null) {
+      join.setBloomFilter(argBloomFilter, argBloomFilterBits, argBloomFilterHashes);
+    }
     return join;
   }
 }
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.BitSet;
+import java.util.List;
 
 import org.joda.time.DateTime;
 
@@ -19,6 +20,7 @@ import edu.washington.escience.myria.proto.DataProto.IntColumnMessage;
 import edu.washington.escience.myria.proto.DataProto.LongColumnMessage;
 import edu.washington.escience.myria.proto.DataProto.StringColumnMessage;
 import edu.washington.escience.myria.storage.ReadableColumn;
+import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.util.ImmutableIntArray;
 
 /**
@@ -74,6 +76,59 @@ public abstract class Column<T extends Comparable<?>> implements ReadableColumn,
   @Override
   public abstract Type getType();
 
+  /**
+   * Returns the values of an Integer column as an array, for loops that read a whole column. Columns backed by an array
+   * return it without copying, so the result must not be modified and may be longer than {@link #size()}.
+   *
+   * @return the values of this column, starting at index 0.
+   */
+  public int[] getIntArray() {
+    final int[] ret = new int[size()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = getInt(i);
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the values of a Long column as an array. See {@link #getIntArray()}.
+   *
+   * @return the values of this column, starting at index 0.
+   */
+  public long[] getLongArray() {
+    final long[] ret = new long[size()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = getLong(i);
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the values of a Float column as an array. See {@link #getIntArray()}.
+   *
+   * @return the values of this column, starting at index 0.
+   */
+  public float[] getFloatArray() {
+    final float[] ret = new float[size()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = getFloat(i);
+    }
+    return ret;
+  }
+
+  /**
+   * Returns the values of a Double column as an array. See {@link #getIntArray()}.
+   *
+   * @return the values of this column, starting at index 0.
+   */
+  public double[] getDoubleArray() {
+    final double[] ret = new double[size()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = getDouble(i);
+    }
+    return ret;
+  }
+
   /**
    * Serializes this column as a protobuf message into the specified output stream.
    *
@@ -106,6 +161,16 @@ public abstract class Column<T extends Comparable<?>> implements ReadableColumn,
     return new FilteredColumn<T>(this, filter);
   }
 
+  /**
+   * Creates a new Column containing the contents of this column including only the specified rows.
+   *
+   * @param rows the rows to be kept, in increasing order. The array is kept by reference and must not be modified.
+   * @return a new Column containing the contents of this column including only the specified rows.
+   */
+  public Column<T> filter(final int[] rows) {
+    return new FilteredColumn<T>(this, rows);
+  }
+
   /**
    * @param type the type of the column to be returned.
    * @return a new empty column of the specified type.
@@ -130,6 +195,110 @@ public abstract class Column<T extends Comparable<?>> implements ReadableColumn,
     throw new UnsupportedOperationException("Allocating an empty column of type " + type);
   }
 
+  /**
+   * Gathers rows of a column split into chunks into a new column, with one copy into an array of the column type. Rows
+   * may be gathered in any order and any number of times.
+   *
+   * @param type the type of the column.
+   * @param chunks the chunks of the column. All of them but the last must hold {@link TupleBatch#BATCH_SIZE} rows, as
+   *          the batches of a {@link edu.washington.escience.myria.storage.TupleBuffer} do.
+   * @param rows the rows to be gathered, numbered across the chunks.
+   * @param from the index in {@code rows} of the first row to be gathered.
+   * @param to the index in {@code rows} after the last row to be gathered.
+   * @return a new column holding the gathered rows.
+   */
+  public static Column<?> gather(
+      final Type type,
+      final List<? extends Column<?>> chunks,
+      final int[] rows,
+      final int from,
+      final int to) {
+    final int numRows = to - from;
+    final int chunkSize = TupleBatch.BATCH_SIZE;
+    switch (type) {
+      case BOOLEAN_TYPE:
+        {
+          final BitSet data = new BitSet(numRows);
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data.set(i, chunks.get(row / chunkSize).getBoolean(row % chunkSize));
+          }
+          return new BooleanColumn(data, numRows);
+        }
+      case DATETIME_TYPE:
+        {
+          final DateTime[] data = new DateTime[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = chunks.get(row / chunkSize).getDateTime(row % chunkSize);
+          }
+          return new DateTimeColumn(data, numRows);
+        }
+      case DOUBLE_TYPE:
+        {
+          final double[][] source = new double[chunks.size()][];
+          for (int c = 0; c < source.length; ++c) {
+            source[c] = chunks.get(c).getDoubleArray();
+          }
+          final double[] data = new double[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = source[row / chunkSize][row % chunkSize];
+          }
+          return new DoubleColumn(data, numRows);
+        }
+      case FLOAT_TYPE:
+        {
+          final float[][] source = new float[chunks.size()][];
+          for (int c = 0; c < source.length; ++c) {
+            source[c] = chunks.get(c).getFloatArray();
+          }
+          final float[] data = new float[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = source[row / chunkSize][row % chunkSize];
+          }
+          return new FloatColumn(data, numRows);
+        }
+      case INT_TYPE:
+        {
+          final int[][] source = new int[chunks.size()][];
+          for (int c = 0; c < source.length; ++c) {
+            source[c] = chunks.get(c).getIntArray();
+          }
+          final int[] data = new int[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = source[row / chunkSize][row % chunkSize];
+          }
+          return new IntArrayColumn(data, numRows);
+        }
+      case LONG_TYPE:
+        {
+          final long[][] source = new long[chunks.size()][];
+          for (int c = 0; c < source.length; ++c) {
+            source[c] = chunks.get(c).getLongArray();
+          }
+          final long[] data = new long[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = source[row / chunkSize][row % chunkSize];
+          }
+          return new LongColumn(data, numRows);
+        }
+      case STRING_TYPE:
+        {
+          final String[] data = new String[numRows];
+          for (int i = 0; i < numRows; ++i) {
+            final int row = rows[from + i];
+            data[i] = chunks.get(row / chunkSize).getString(row % chunkSize);
+          }
+          return new StringArrayColumn(data, numRows);
+        }
+    }
+    throw new UnsupportedOperationException("Gathering a column of type " + type);
+  }
+
   /**
    * A default implementation to serialize any Boolean column to a proto. Full copy.
    *
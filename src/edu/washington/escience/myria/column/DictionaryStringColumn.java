@@ -0,0 +1,99 @@
+package edu.washington.escience.myria.column;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A column of String values stored as codes into a {@link StringDictionary}. Columns that share a dictionary give equal
+ * strings equal codes, so their values can be hashed and compared by code.
+ */
+public final class DictionaryStringColumn extends StringColumn {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The dictionary the codes refer to. */
+  private final transient StringDictionary dictionary;
+  /** The strings of the dictionary, by code, when this column was built. */
+  private final transient String[] strings;
+  /** The number of valid entries in {@link #strings}. */
+  private final transient int dictionarySize;
+  /** The code of each value. */
+  private final transient int[] codes;
+  /** Number of elements in this column. */
+  private final transient int numStrings;
+
+  /**
+   * Constructs a new column.
+   *
+   * @param dictionary the dictionary the codes refer to.
+   * @param codes the code of each value. Kept by reference and must not be modified.
+   * @param numStrings number of tuples.
+   */
+  public DictionaryStringColumn(
+      final StringDictionary dictionary, final int[] codes, final int numStrings) {
+    this.dictionary = dictionary;
+    strings = dictionary.getStrings();
+    dictionarySize = dictionary.size();
+    this.codes = codes;
+    this.numStrings = numStrings;
+  }
+
+  @Override
+  public String getString(final int row) {
+    return strings[codes[Preconditions.checkElementIndex(row, numStrings)]];
+  }
+
+  /**
+   * @param row the row.
+   * @return the dictionary code of the value in the row.
+   */
+  public int getCode(final int row) {
+    return codes[Preconditions.checkElementIndex(row, numStrings)];
+  }
+
+  /**
+   * @return the dictionary the codes refer to.
+   */
+  public StringDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @return the number of codes of the dictionary that values of this column may use. Every code is smaller.
+   */
+  public int getDictionarySize() {
+    return dictionarySize;
+  }
+
+  /**
+   * @param code a code smaller than {@link #getDictionarySize()}.
+   * @return the string of the code.
+   */
+  public String decode(final int code) {
+    return strings[Preconditions.checkElementIndex(code, dictionarySize)];
+  }
+
+  /**
+   * @param other another column.
+   * @return true if the codes of both columns refer to the same dictionary, so equal codes mean equal strings.
+   */
+  public boolean sharesDictionary(final DictionaryStringColumn other) {
+    return dictionary == other.dictionary;
+  }
+
+  @Override
+  public int size() {
+    return numStrings;
+  }
+
+  /**
+   * The dictionary is only meaningful to the process that built it: serialize the strings.
+   *
+   * @return a column holding the strings.
+   */
+  private Object writeReplace() {
+    final String[] values = new String[numStrings];
+    for (int i = 0; i < numStrings; ++i) {
+      values[i] = getString(i);
+    }
+    return new StringArrayColumn(values, numStrings);
+  }
+}
@@ -0,0 +1,75 @@
+package edu.washington.escience.myria.column;
+
+import java.nio.DoubleBuffer;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.Type;
+
+/**
+ * A read-only view of a column of Double values in a buffer, such as the one a batch was received in. The values
+ * are not copied.
+ */
+public final class DoubleBufferColumn extends Column<Double> {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The values, from position 0 to the limit. Never modified. */
+  private final transient DoubleBuffer data;
+
+  /**
+   * @param data the values, from position 0 to the limit. Kept by reference and must not be modified.
+   */
+  public DoubleBufferColumn(final DoubleBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public Double getObject(final int row) {
+    return Double.valueOf(getDouble(row));
+  }
+
+  @Override
+  public double getDouble(final int row) {
+    return data.get(Preconditions.checkElementIndex(row, data.limit()));
+  }
+
+  @Override
+  public double[] getDoubleArray() {
+    final double[] ret = new double[data.limit()];
+    data.duplicate().get(ret);
+    return ret;
+  }
+
+  @Override
+  public Type getType() {
+    return Type.DOUBLE_TYPE;
+  }
+
+  @Override
+  public int size() {
+    return data.limit();
+  }
+
+  /**
+   * Buffers are not serializable: serialize a copy of the values.
+   *
+   * @return a column holding a copy of the values.
+   */
+  private Object writeReplace() {
+    return new DoubleColumn(getDoubleArray(), size());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(size()).append(" elements: [");
+    for (int i = 0; i < size(); ++i) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(data.get(i));
+    }
+    sb.append(']');
+    return sb.toString();
+  }
+}
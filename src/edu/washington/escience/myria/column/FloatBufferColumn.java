@@ -0,0 +1,75 @@
+package edu.washington.escience.myria.column;
+
+import java.nio.FloatBuffer;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.Type;
+
+/**
+ * A read-only view of a column of Float values in a buffer, such as the one a batch was received in. The values
+ * are not copied.
+ */
+public final class FloatBufferColumn extends Column<Float> {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The values, from position 0 to the limit. Never modified. */
+  private final transient FloatBuffer data;
+
+  /**
+   * @param data the values, from position 0 to the limit. Kept by reference and must not be modified.
+   */
+  public FloatBufferColumn(final FloatBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public Float getObject(final int row) {
+    return Float.valueOf(getFloat(row));
+  }
+
+  @Override
+  public float getFloat(final int row) {
+    return data.get(Preconditions.checkElementIndex(row, data.limit()));
+  }
+
+  @Override
+  public float[] getFloatArray() {
+    final float[] ret = new float[data.limit()];
+    data.duplicate().get(ret);
+    return ret;
+  }
+
+  @Override
+  public Type getType() {
+    return Type.FLOAT_TYPE;
+  }
+
+  @Override
+  public int size() {
+    return data.limit();
+  }
+
+  /**
+   * Buffers are not serializable: serialize a copy of the values.
+   *
+   * @return a column holding a copy of the values.
+   */
+  private Object writeReplace() {
+    return new FloatColumn(getFloatArray(), size());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(size()).append(" elements: [");
+    for (int i = 0; i < size(); ++i) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(data.get(i));
+    }
+    sb.append(']');
+    return sb.toString();
+  }
+}
@@ -39,6 +39,11 @@ public final class IntArrayColumn extends IntColumn {
     return data[row];
   }
 
+  @Override
+  public int[] getIntArray() {
+    return data;
+  }
+
   @Override
   public int size() {
     return position;
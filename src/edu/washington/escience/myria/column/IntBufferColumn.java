@@ -0,0 +1,54 @@
+package edu.washington.escience.myria.column;
+
+import java.nio.IntBuffer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A read-only view of a column of Integer values in a buffer, such as the one a batch was received in. The values
+ * are not copied.
+ */
+public final class IntBufferColumn extends IntColumn {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The values, from position 0 to the limit. Never modified. */
+  private final transient IntBuffer data;
+
+  /**
+   * @param data the values, from position 0 to the limit. Kept by reference and must not be modified.
+   */
+  public IntBufferColumn(final IntBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public Integer getObject(final int row) {
+    return Integer.valueOf(getInt(row));
+  }
+
+  @Override
+  public int getInt(final int row) {
+    return data.get(Preconditions.checkElementIndex(row, data.limit()));
+  }
+
+  @Override
+  public int[] getIntArray() {
+    final int[] ret = new int[data.limit()];
+    data.duplicate().get(ret);
+    return ret;
+  }
+
+  @Override
+  public int size() {
+    return data.limit();
+  }
+
+  /**
+   * Buffers are not serializable: serialize a copy of the values.
+   *
+   * @return a column holding a copy of the values.
+   */
+  private Object writeReplace() {
+    return new IntArrayColumn(getIntArray(), size());
+  }
+}
@@ -0,0 +1,75 @@
+package edu.washington.escience.myria.column;
+
+import java.nio.LongBuffer;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.Type;
+
+/**
+ * A read-only view of a column of Long values in a buffer, such as the one a batch was received in. The values
+ * are not copied.
+ */
+public final class LongBufferColumn extends Column<Long> {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The values, from position 0 to the limit. Never modified. */
+  private final transient LongBuffer data;
+
+  /**
+   * @param data the values, from position 0 to the limit. Kept by reference and must not be modified.
+   */
+  public LongBufferColumn(final LongBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public Long getObject(final int row) {
+    return Long.valueOf(getLong(row));
+  }
+
+  @Override
+  public long getLong(final int row) {
+    return data.get(Preconditions.checkElementIndex(row, data.limit()));
+  }
+
+  @Override
+  public long[] getLongArray() {
+    final long[] ret = new long[data.limit()];
+    data.duplicate().get(ret);
+    return ret;
+  }
+
+  @Override
+  public Type getType() {
+    return Type.LONG_TYPE;
+  }
+
+  @Override
+  public int size() {
+    return data.limit();
+  }
+
+  /**
+   * Buffers are not serializable: serialize a copy of the values.
+   *
+   * @return a column holding a copy of the values.
+   */
+  private Object writeReplace() {
+    return new LongColumn(getLongArray(), size());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(size()).append(" elements: [");
+    for (int i = 0; i < size(); ++i) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(data.get(i));
+    }
+    sb.append(']');
+    return sb.toString();
+  }
+}
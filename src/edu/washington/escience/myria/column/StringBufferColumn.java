@@ -0,0 +1,72 @@
+package edu.washington.escience.myria.column;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A read-only view of a column of String values in a buffer, e.g. the buffer a batch was received in. The strings are
+ * UTF-8 encoded one after the other, and are decoded when first read.
+ */
+public final class StringBufferColumn extends StringColumn {
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The encoded strings. Never modified. */
+  private final transient ByteBuffer data;
+  /** The start of each string in {@link #data}, followed by the end of the last one. Never modified. */
+  private final transient IntBuffer offsets;
+  /** The strings decoded so far. Racing readers decode the same string, which is harmless. */
+  private final transient String[] decoded;
+
+  /**
+   * @param data the encoded strings. Kept by reference and must not be modified.
+   * @param offsets the start of each string in {@code data}, followed by the end of the last one. Kept by reference and
+   *          must not be modified.
+   */
+  public StringBufferColumn(final ByteBuffer data, final IntBuffer offsets) {
+    Preconditions.checkArgument(offsets.limit() > 0, "the end of the last string is missing");
+    this.data = data;
+    this.offsets = offsets;
+    decoded = new String[offsets.limit() - 1];
+  }
+
+  @Override
+  public String getString(final int row) {
+    String ret = decoded[Preconditions.checkElementIndex(row, decoded.length)];
+    if (ret == null) {
+      final int start = offsets.get(row);
+      final int length = offsets.get(row + 1) - start;
+      if (data.hasArray()) {
+        ret = new String(data.array(), data.arrayOffset() + start, length, StandardCharsets.UTF_8);
+      } else {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer source = data.duplicate();
+        source.position(start);
+        source.get(bytes);
+        ret = new String(bytes, StandardCharsets.UTF_8);
+      }
+      decoded[row] = ret;
+    }
+    return ret;
+  }
+
+  @Override
+  public int size() {
+    return decoded.length;
+  }
+
+  /**
+   * Buffers are not serializable: serialize the decoded strings.
+   *
+   * @return a column holding the decoded strings.
+   */
+  private Object writeReplace() {
+    final String[] strings = new String[size()];
+    for (int i = 0; i < strings.length; ++i) {
+      strings[i] = getString(i);
+    }
+    return new StringArrayColumn(strings, strings.length);
+  }
+}
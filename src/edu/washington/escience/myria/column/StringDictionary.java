@@ -0,0 +1,106 @@
+package edu.washington.escience.myria.column;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
+
+/**
+ * An append-only dictionary of distinct strings, shared by the {@link DictionaryStringColumn}s of a stream of
+ * batches so that equal strings get equal codes in all of them.
+ *
+ * The dictionary only serves low-cardinality columns: once it holds {@link #MAX_SIZE} strings it is full, and strings
+ * that are not already in it can no longer be encoded. Strings already in it keep their codes.
+ *
+ * Instances are not thread-safe; a dictionary is filled by the single thread producing the batches. Columns keep the
+ * strings array they were built with, whose first {@link #size()} entries are never modified afterwards, so they can
+ * be read from any thread the batch is handed to.
+ */
+public final class StringDictionary {
+  /** The most distinct strings a dictionary holds. */
+  public static final int MAX_SIZE = 1 << 12;
+
+  /** The code of each string in the dictionary. */
+  private final ObjectIntHashMap<String> codes;
+  /** The strings in the dictionary, by code. */
+  private String[] strings;
+  /** The number of strings in the dictionary. */
+  private int size;
+  /** If true, no more strings can be added. */
+  private boolean full;
+
+  /** Constructs an empty dictionary. */
+  public StringDictionary() {
+    codes = new ObjectIntHashMap<>();
+    strings = new String[16];
+  }
+
+  /**
+   * Constructs a dictionary that holds the given strings and no more.
+   *
+   * @param distinct the strings, by code. They must be distinct. Kept by reference and must not be modified.
+   */
+  public StringDictionary(final String[] distinct) {
+    codes = new ObjectIntHashMap<>(distinct.length);
+    for (int code = 0; code < distinct.length; ++code) {
+      Preconditions.checkArgument(
+          codes.getIfAbsent(distinct[code], -1) == -1, "duplicate string %s", distinct[code]);
+      codes.put(distinct[code], code);
+    }
+    strings = distinct;
+    size = distinct.length;
+    full = true;
+  }
+
+  /**
+   * @param value a string.
+   * @return the code of the string, adding it to the dictionary if needed, or -1 if it is not in the dictionary and
+   *         the dictionary is full.
+   */
+  public int encode(final String value) {
+    int code = codes.getIfAbsent(value, -1);
+    if (code != -1 || full) {
+      return code;
+    }
+    if (size == MAX_SIZE) {
+      full = true;
+      return -1;
+    }
+    if (size == strings.length) {
+      strings = Arrays.copyOf(strings, Math.min(size * 2, MAX_SIZE));
+    }
+    code = size++;
+    strings[code] = value;
+    codes.put(value, code);
+    return code;
+  }
+
+  /**
+   * @param code the code of a string in the dictionary.
+   * @return the string.
+   */
+  public String decode(final int code) {
+    return strings[Preconditions.checkElementIndex(code, size)];
+  }
+
+  /**
+   * @return true if strings that are not in the dictionary can no longer be added.
+   */
+  public boolean isFull() {
+    return full;
+  }
+
+  /**
+   * @return the number of strings in the dictionary.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the strings in the dictionary, by code. Only the first {@link #size()} entries are valid.
+   */
+  String[] getStrings() {
+    return strings;
+  }
+}
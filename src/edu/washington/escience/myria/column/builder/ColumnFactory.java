@@ -6,6 +6,7 @@ import java.util.List;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.proto.DataProto.ColumnMessage;
 
 /**
@@ -65,6 +66,46 @@ public final class ColumnFactory {
     return columns;
   }
 
+  /**
+   * Allocates an array of Columns to match the given Schema, dictionary encoding the string columns that have a
+   * dictionary.
+   *
+   * @param schema the Schema
+   * @param dictionaries the dictionary of each column, null for columns that are not dictionary encoded. See
+   *          {@link #allocateDictionaries(Schema)}.
+   * @return the list of Columns
+   */
+  public static List<ColumnBuilder<?>> allocateColumns(
+      final Schema schema, final StringDictionary[] dictionaries) {
+    final List<Type> columnTypes = schema.getColumnTypes();
+    final ArrayList<ColumnBuilder<?>> columns = new ArrayList<ColumnBuilder<?>>(columnTypes.size());
+    for (int i = 0; i < columnTypes.size(); ++i) {
+      if (dictionaries[i] == null) {
+        columns.add(allocateColumn(columnTypes.get(i)));
+      } else {
+        columns.add(new StringColumnBuilder(dictionaries[i]));
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Allocates a dictionary for each string column of the given Schema, to be shared by the columns of a stream of
+   * batches.
+   *
+   * @param schema the Schema
+   * @return the dictionary of each column, null for columns that are not strings.
+   */
+  public static StringDictionary[] allocateDictionaries(final Schema schema) {
+    final StringDictionary[] dictionaries = new StringDictionary[schema.numColumns()];
+    for (int i = 0; i < dictionaries.length; ++i) {
+      if (schema.getColumnType(i) == Type.STRING_TYPE) {
+        dictionaries[i] = new StringDictionary();
+      }
+    }
+    return dictionaries;
+  }
+
   /**
    * Deserializes a ColumnMessage into the appropriate Column.
    *
@@ -11,8 +11,10 @@ import com.almworks.sqlite4java.SQLiteStatement;
 import com.google.common.base.Preconditions;
 
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
 import edu.washington.escience.myria.column.StringArrayColumn;
 import edu.washington.escience.myria.column.StringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.column.mutable.StringMutableColumn;
 import edu.washington.escience.myria.proto.DataProto.ColumnMessage;
 import edu.washington.escience.myria.proto.DataProto.StringColumnMessage;
@@ -31,6 +33,10 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
   private final String[] data;
   /** Number of elements in this column. */
   private int numStrings;
+  /** The dictionary used to encode the strings, or null. */
+  private final StringDictionary dictionary;
+  /** The dictionary code of each string, or null if the strings are not dictionary encoded. */
+  private int[] codes;
 
   /**
    * If the builder has built the column.
@@ -39,8 +45,22 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
 
   /** Constructs an empty column that can hold up to TupleBatch.BATCH_SIZE elements. */
   public StringColumnBuilder() {
+    this(new String[TupleBatch.BATCH_SIZE], 0);
+  }
+
+  /**
+   * Constructs an empty column that can hold up to TupleBatch.BATCH_SIZE elements, and builds a
+   * {@link DictionaryStringColumn} if all the strings fit in the given dictionary. Once the dictionary is full, a batch
+   * made only of strings already in it is still encoded with their existing codes.
+   *
+   * @param dictionary the dictionary used to encode the strings, typically shared by the builders of all the batches of
+   *          a scan.
+   */
+  public StringColumnBuilder(final StringDictionary dictionary) {
     numStrings = 0;
     data = new String[TupleBatch.BATCH_SIZE];
+    this.dictionary = Objects.requireNonNull(dictionary, "dictionary");
+    codes = new int[TupleBatch.BATCH_SIZE];
   }
 
   /**
@@ -52,6 +72,7 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
   private StringColumnBuilder(final String[] data, final int numStrings) {
     this.numStrings = numStrings;
     this.data = data;
+    dictionary = null;
   }
 
   /**
@@ -87,10 +108,30 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
     if (numStrings >= TupleBatch.BATCH_SIZE) {
       throw new BufferOverflowException();
     }
+    encode(value, numStrings);
     data[numStrings++] = value;
     return this;
   }
 
+  /**
+   * Record the dictionary code of a string, or give up on dictionary encoding if the string is not in the dictionary
+   * and the dictionary is full.
+   *
+   * @param value the string.
+   * @param row the row of the string.
+   */
+  private void encode(final String value, final int row) {
+    if (codes == null) {
+      return;
+    }
+    final int code = dictionary.encode(value);
+    if (code == -1) {
+      codes = null;
+    } else {
+      codes[row] = code;
+    }
+  }
+
   @Override
   public Type getType() {
     return Type.STRING_TYPE;
@@ -120,6 +161,9 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
   @Override
   public StringColumn build() {
     built = true;
+    if (codes != null) {
+      return new DictionaryStringColumn(dictionary, codes, numStrings);
+    }
     return new StringArrayColumn(data, numStrings);
   }
 
@@ -135,6 +179,7 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
         !built, "No further changes are allowed after the builder has built the column.");
     Preconditions.checkElementIndex(row, numStrings);
     Objects.requireNonNull(value, "value");
+    encode(value, row);
     data[row] = value;
   }
 
@@ -146,6 +191,8 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
     if (numStrings + size > data.length) {
       throw new BufferOverflowException();
     }
+    /* The new rows hold no strings, hence no codes. */
+    codes = null;
     numStrings += size;
     return this;
   }
@@ -154,6 +201,7 @@ public final class StringColumnBuilder extends ColumnBuilder<String> {
   public StringColumnBuilder expandAll() {
     Preconditions.checkState(
         !built, "No further changes are allowed after the builder has built the column.");
+    codes = null;
     numStrings = data.length;
     return this;
   }
@@ -72,9 +72,9 @@ public abstract class BinaryExpression extends ExpressionOperator {
   protected final String getInfixBinaryString(
       final String infix, final ExpressionOperatorParameter parameters) {
     return new StringBuilder("(")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(infix)
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(')')
         .toString();
   }
@@ -90,9 +90,9 @@ public abstract class BinaryExpression extends ExpressionOperator {
   protected final String getObjectComparisonString(
       final SimplePredicate.Op op, final ExpressionOperatorParameter parameters) {
     return new StringBuilder("(")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(".compareTo(")
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(')')
         .append(op.toJavaString())
         .append(0)
@@ -112,9 +112,9 @@ public abstract class BinaryExpression extends ExpressionOperator {
       final String functionName, final ExpressionOperatorParameter parameters) {
     return new StringBuilder(functionName)
         .append('(')
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(',')
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(')')
         .toString();
   }
@@ -130,7 +130,7 @@ public abstract class BinaryExpression extends ExpressionOperator {
       final String functionName, final ExpressionOperatorParameter parameters) {
     return new StringBuilder(functionName)
         .append('(')
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(')')
         .toString();
   }
@@ -149,7 +149,7 @@ public abstract class BinaryExpression extends ExpressionOperator {
       final String additionalParameter) {
     return new StringBuilder(functionName)
         .append('(')
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(",")
         .append(additionalParameter)
         .append(')')
@@ -167,7 +167,7 @@ public class CastExpression extends BinaryExpression {
         .append("((")
         .append(targetType)
         .append(")(")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append("))")
         .toString();
   }
@@ -179,7 +179,7 @@ public class CastExpression extends BinaryExpression {
 
     /* Trivial casts are, of course, allowed. See also #626. */
     if (castFrom == castTo) {
-      return getLeft().getJavaString(parameters);
+      return getLeft().getSubstitutedJavaString(parameters);
     }
 
     switch (getCastType(castFrom, castTo)) {
@@ -53,6 +53,18 @@ public class Expression implements Serializable {
    * Variable name of state.
    */
   public static final String STATE = "state";
+  /**
+   * Prefix of the variable names of the input column arrays in batch mode, followed by the column index.
+   */
+  public static final String COLUMN_ARRAY = "col";
+  /**
+   * Variable name of the number of rows in batch mode.
+   */
+  public static final String NUM_ROWS = "numRows";
+  /**
+   * Variable name of the selection vector of a batch predicate.
+   */
+  public static final String SELECTION = "selection";
 
   /**
    * This is not really unused, it's used automagically by Jackson deserialization.
@@ -86,6 +86,17 @@ public abstract class ExpressionOperator implements Serializable {
    */
   public abstract String getJavaString(final ExpressionOperatorParameter parameters);
 
+  /**
+   * The Java code of this expression as an operand of another one: the code of its substitute if the parameters have
+   * one, e.g., a folded constant or a reference to a column holding a shared subexpression, or its own code otherwise.
+   *
+   * @param parameters parameters that are needed to create the java expression
+   * @return the entire tree represented as an expression, after substitution.
+   */
+  public final String getSubstitutedJavaString(final ExpressionOperatorParameter parameters) {
+    return parameters.substitute(this).getJavaString(parameters);
+  }
+
   /**
    * @param parameters parameters that are needed to create the java expression
    * @return Java code to efficiently append results to an output column
@@ -48,19 +48,19 @@ public class HashExpression extends NAryExpression {
     @Override
     public String getJavaString(final ExpressionOperatorParameter parameters) {
         StringBuilder retval = new StringBuilder("com.google.common.hash.Hashing.murmur3_128( (int)(" )
-                .append(getChildren().get(0).getJavaString(parameters))
+                .append(getChildren().get(0).getSubstitutedJavaString(parameters))
                 .append(")).newHasher()");
         for(int i = 1; i < getChildren().size(); i++){
             retval.append(".putObject(");
-            retval.append(getChildren().get(i).getJavaString(parameters));
+            retval.append(getChildren().get(i).getSubstitutedJavaString(parameters));
             retval.append(", edu.washington.escience.myria.util.TypeFunnel.INSTANCE)");
         }
         retval.append(".hash().asInt()");
         return retval.toString();
       /*  return new StringBuilder("com.google.common.hash.Hashing.murmur3_128( (int)(" )
-                .append(getChildren().get(0).getJavaString(parameters))
+                .append(getChildren().get(0).getSubstitutedJavaString(parameters))
                 .append(")).newHasher().putObject(")
-                .append(getChildren().get(1).getJavaString(parameters))
+                .append(getChildren().get(1).getSubstitutedJavaString(parameters))
                 .append(", edu.washington.escience.myria.util.TypeFunnel.INSTANCE).hash().asInt()")
                 .toString();*/
     }
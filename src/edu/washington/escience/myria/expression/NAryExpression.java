@@ -59,16 +59,16 @@ public abstract class NAryExpression extends ExpressionOperator {
   protected final String getDotFunctionCallString(
       final String functionName, final ExpressionOperatorParameter parameters) {
     StringBuilder callString =
-        new StringBuilder(children.get(0).getJavaString(parameters))
+        new StringBuilder(children.get(0).getSubstitutedJavaString(parameters))
             .append(functionName)
             .append("(");
     Iterator<ExpressionOperator> it = children.iterator();
     it.next(); // skip first child because it is what we call
     if (it.hasNext()) {
-      callString.append(it.next().getJavaString(parameters));
+      callString.append(it.next().getSubstitutedJavaString(parameters));
       while (it.hasNext()) {
         callString.append(",");
-        callString.append(it.next().getJavaString(parameters));
+        callString.append(it.next().getSubstitutedJavaString(parameters));
       }
     }
     callString.append(")");
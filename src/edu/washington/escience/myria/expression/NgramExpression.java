@@ -38,10 +38,10 @@ public class NgramExpression extends BinaryExpression {
   public String getJavaString(final ExpressionOperatorParameter parameters) {
     return new StringBuilder()
         .append("String val = (")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(");\n")
         .append("int n = (int) (")
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(");\n")
         .append("int numNgrams = val.length() - n + 1;\n")
         .append("String[] ngrams = new String[numNgrams];\n")
@@ -56,10 +56,10 @@ public class NgramExpression extends BinaryExpression {
   public String getJavaExpressionWithAppend(final ExpressionOperatorParameter parameters) {
     return new StringBuilder()
         .append("String val = (")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(");\n")
         .append("int n = (int) (")
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(");\n")
         .append("int numNgrams = val.length() - n + 1;\n")
         .append(Expression.COUNT)
@@ -37,7 +37,7 @@ public class SequenceExpression extends UnaryExpression {
   public String getJavaString(final ExpressionOperatorParameter parameters) {
     return new StringBuilder()
         .append("LongStream.range(0, (")
-        .append(getOperand().getJavaString(parameters))
+        .append(getOperand().getSubstitutedJavaString(parameters))
         .append(")).toArray()")
         .toString();
   }
@@ -47,11 +47,11 @@ public class SequenceExpression extends UnaryExpression {
     return new StringBuilder()
         .append(Expression.COUNT)
         .append(".appendInt((int) (")
-        .append(getOperand().getJavaString(parameters))
+        .append(getOperand().getSubstitutedJavaString(parameters))
         .append("));\n")
         // It would be nice to replace this loop with IntStream.forEach(), but Janino doesn't support lambdas.
         .append("for (long i = 0; i < (long) (")
-        .append(getOperand().getJavaString(parameters))
+        .append(getOperand().getSubstitutedJavaString(parameters))
         .append("); ++i) {\n")
         .append(Expression.RESULT)
         .append(".appendLong(i);\n}")
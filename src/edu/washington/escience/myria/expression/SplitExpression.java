@@ -37,10 +37,10 @@ public class SplitExpression extends BinaryExpression {
   @Override
   public String getJavaString(final ExpressionOperatorParameter parameters) {
     return new StringBuilder("java.util.regex.Pattern.compile(")
-        .append(getRight().getJavaString(parameters))
+        .append(getRight().getSubstitutedJavaString(parameters))
         .append(")")
         .append(".split(")
-        .append(getLeft().getJavaString(parameters))
+        .append(getLeft().getSubstitutedJavaString(parameters))
         .append(", -1)")
         .toString();
   }
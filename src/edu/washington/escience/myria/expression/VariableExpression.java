@@ -41,6 +41,15 @@ public class VariableExpression extends ZeroaryExpression {
 
   @Override
   public String getJavaString(final ExpressionOperatorParameter parameters) {
+    if (parameters.isBatch() && hasColumnArray(getOutputType(parameters))) {
+      // In batch mode, numeric columns are read from a primitive array.
+      return new StringBuilder(Expression.COLUMN_ARRAY)
+          .append(columnIdx)
+          .append('[')
+          .append(Expression.ROW)
+          .append(']')
+          .toString();
+    }
     // We generate a variable access into the tuple buffer.
     return new StringBuilder(Expression.TB)
         .append(".get")
@@ -53,6 +62,22 @@ public class VariableExpression extends ZeroaryExpression {
         .toString();
   }
 
+  /**
+   * @param type the type of a column.
+   * @return true if, in batch mode, the values of a column of this type are read from a primitive array.
+   */
+  public static boolean hasColumnArray(final Type type) {
+    switch (type) {
+      case INT_TYPE:
+      case LONG_TYPE:
+      case FLOAT_TYPE:
+      case DOUBLE_TYPE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /**
    * @return the column index of this variable.
    */
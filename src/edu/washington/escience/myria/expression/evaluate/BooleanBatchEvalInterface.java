@@ -0,0 +1,19 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import edu.washington.escience.myria.storage.TupleBatch;
+
+/**
+ * Interface for evaluating janino predicates on many rows of a tuple batch in one call.
+ */
+public interface BooleanBatchEvalInterface {
+  /**
+   * Keep the rows of a selection vector on which the predicate holds. The selection vector is compacted in place, so a
+   * conjunction can be evaluated one predicate at a time on the rows that are still selected.
+   *
+   * @param tb a tuple batch
+   * @param selection the rows of the tb to evaluate, in increasing order
+   * @param numRows the number of rows in the selection vector
+   * @return the number of rows kept at the front of the selection vector
+   */
+  int select(final TupleBatch tb, final int[] selection, final int numRows);
+}
@@ -2,13 +2,9 @@ package edu.washington.escience.myria.expression.evaluate;
 
 import java.lang.reflect.InvocationTargetException;
 
-import org.codehaus.commons.compiler.CompilerFactoryFactory;
-import org.codehaus.commons.compiler.IExpressionEvaluator;
-
 import com.google.common.base.Preconditions;
 
 import edu.washington.escience.myria.DbException;
-import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.expression.Expression;
 import edu.washington.escience.myria.storage.TupleBatch;
@@ -22,6 +18,11 @@ public class BooleanEvaluator extends Evaluator {
    */
   private BooleanEvalInterface evaluator;
 
+  /**
+   * Expression evaluator working on a selection vector.
+   */
+  private BooleanBatchEvalInterface batchEvaluator;
+
   /**
    * Default constructor.
    *
@@ -42,22 +43,50 @@ public class BooleanEvaluator extends Evaluator {
   @Override
   public void compile() throws DbException {
     try {
-      IExpressionEvaluator se =
-          CompilerFactoryFactory.getDefaultCompilerFactory().newExpressionEvaluator();
-
-      se.setDefaultImports(MyriaConstants.DEFAULT_JANINO_IMPORTS);
-
       evaluator =
           (BooleanEvalInterface)
-              se.createFastEvaluator(
+              ExpressionCompiler.createFastExpressionEvaluator(
                   getJavaExpressionWithAppend(),
                   BooleanEvalInterface.class,
                   new String[] {Expression.TB, Expression.ROW});
+
+      batchEvaluator =
+          (BooleanBatchEvalInterface)
+              ExpressionCompiler.createFastScriptEvaluator(
+                  getBatchJavaCode(),
+                  BooleanBatchEvalInterface.class,
+                  new String[] {Expression.TB, Expression.SELECTION, Expression.NUM_ROWS});
     } catch (Exception e) {
       throw new DbException("Error when compiling expression " + this, e);
     }
   }
 
+  /**
+   * @return the Java code keeping the rows of {@link Expression#SELECTION} on which the predicate holds, see
+   *         {@link BooleanBatchEvalInterface}.
+   */
+  private String getBatchJavaCode() {
+    return new StringBuilder(getColumnArrayDeclarations())
+        .append("int numSelected = 0;\n")
+        .append("for (int selectionIdx = 0; selectionIdx < ")
+        .append(Expression.NUM_ROWS)
+        .append("; ++selectionIdx) {\n")
+        .append("final int ")
+        .append(Expression.ROW)
+        .append(" = ")
+        .append(Expression.SELECTION)
+        .append("[selectionIdx];\n")
+        .append("if (")
+        .append(getExpression().getJavaExpression(getParameters().forBatch()))
+        .append(") {\n")
+        .append(Expression.SELECTION)
+        .append("[numSelected++] = ")
+        .append(Expression.ROW)
+        .append(";\n}\n}\n")
+        .append("return numSelected;")
+        .toString();
+  }
+
   /**
    * Evaluates the {@link #getJavaExpressionWithAppend()} using the {@link #evaluator}.
    *
@@ -71,4 +100,17 @@ public class BooleanEvaluator extends Evaluator {
         evaluator != null, "Call compile first or copy the data if it is the same in the input.");
     return evaluator.evaluate(tb, rowId);
   }
+
+  /**
+   * Keeps the rows of a selection vector on which the predicate holds, compacting the selection vector in place.
+   *
+   * @param tb a tuple batch
+   * @param selection the rows of the tb to evaluate, in increasing order
+   * @param numRows the number of rows in the selection vector
+   * @return the number of rows kept at the front of the selection vector
+   */
+  public int select(final TupleBatch tb, final int[] selection, final int numRows) {
+    Preconditions.checkArgument(batchEvaluator != null, "Call compile first.");
+    return batchEvaluator.select(tb, selection, numRows);
+  }
 }
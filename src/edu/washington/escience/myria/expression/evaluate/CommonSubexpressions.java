@@ -0,0 +1,344 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.expression.AndExpression;
+import edu.washington.escience.myria.expression.ConditionalExpression;
+import edu.washington.escience.myria.expression.ConstantExpression;
+import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.ExpressionOperator;
+import edu.washington.escience.myria.expression.OrExpression;
+import edu.washington.escience.myria.expression.RandomExpression;
+import edu.washington.escience.myria.expression.StateExpression;
+import edu.washington.escience.myria.expression.VariableExpression;
+import edu.washington.escience.myria.expression.ZeroaryExpression;
+import edu.washington.escience.myria.storage.TupleBatch;
+
+/**
+ * Simplifies the expressions of an operator, e.g., the emit expressions of an
+ * {@link edu.washington.escience.myria.operator.Apply}, before they are compiled.
+ *
+ * <ul>
+ * <li>Subexpressions that do not depend on the row, such as {@code 2 * 3.14} or the worker id, are evaluated once and
+ * replaced by a constant.</li>
+ * <li>Subexpressions that occur more than once, in the same expression or in different ones, are evaluated once per
+ * batch into an extra column by {@link #evaluate(TupleBatch)}, and the expressions read that column instead.</li>
+ * </ul>
+ *
+ * The expressions are not modified: the replacements are substitutions of the {@link ExpressionOperatorParameter} used
+ * to generate their code. Subexpressions reading the state or drawing random numbers are never shared.
+ */
+public final class CommonSubexpressions {
+  /** The prefix of the names of the columns holding shared subexpressions. */
+  private static final String COLUMN_NAME_PREFIX = "shared";
+
+  /** The expressions, to be evaluated on the batches returned by {@link #evaluate(TupleBatch)}. */
+  private final ImmutableList<Expression> expressions;
+  /** The parameters to evaluate {@link #expressions} with. */
+  private final ExpressionOperatorParameter parameters;
+  /** The schema of the input followed by the columns of the shared subexpressions up to each of them. */
+  private final ImmutableList<Schema> schemas;
+  /** The evaluators of the shared subexpressions, in the order of their columns. */
+  private final ImmutableList<GenericEvaluator> sharedEvaluators;
+
+  /**
+   * @param expressions the expressions.
+   * @param parameters the parameters of the expressions.
+   * @throws DbException if a constant subexpression or a shared subexpression cannot be compiled.
+   */
+  public CommonSubexpressions(
+      final List<Expression> expressions, final ExpressionOperatorParameter parameters)
+      throws DbException {
+    final Map<ExpressionOperator, ExpressionOperator> substitutions = new HashMap<>();
+    for (final Expression expr : expressions) {
+      foldConstants(expr.getRootExpressionOperator(), true, parameters, substitutions);
+    }
+
+    final List<ExpressionOperator> roots = new ArrayList<>();
+    for (final Expression expr : expressions) {
+      roots.add(expr.getRootExpressionOperator());
+    }
+    final List<ExpressionOperator> shared = findShared(roots, substitutions.keySet());
+
+    /* Shared subexpressions only contain smaller ones: each is computed from the input and the earlier ones. */
+    Schema extendedSchema = parameters.getSchema();
+    final ImmutableList.Builder<GenericEvaluator> evaluators = ImmutableList.builder();
+    final ImmutableList.Builder<Schema> extendedSchemas = ImmutableList.builder();
+    for (final ExpressionOperator op : shared) {
+      final String name = uniqueName(extendedSchema);
+      final GenericEvaluator evaluator =
+          new GenericEvaluator(
+              new Expression(name, op),
+              parameters.withSubstitutions(extendedSchema, substitutions));
+      evaluator.compile();
+      evaluators.add(evaluator);
+      substitutions.put(op, new VariableExpression(extendedSchema.numColumns()));
+      extendedSchema = Schema.appendColumn(extendedSchema, op.getOutputType(parameters), name);
+      extendedSchemas.add(extendedSchema);
+    }
+    sharedEvaluators = evaluators.build();
+    schemas = extendedSchemas.build();
+    this.parameters = parameters.withSubstitutions(extendedSchema, substitutions);
+
+    /* An expression that is shared as a whole just copies its column. */
+    final ImmutableList.Builder<Expression> newExpressions = ImmutableList.builder();
+    for (final Expression expr : expressions) {
+      final ExpressionOperator root = expr.getRootExpressionOperator();
+      final ExpressionOperator substitute = this.parameters.substitute(root);
+      if (substitute instanceof VariableExpression) {
+        newExpressions.add(new Expression(expr.getOutputName(), substitute));
+      } else {
+        newExpressions.add(expr);
+      }
+    }
+    this.expressions = newExpressions.build();
+  }
+
+  /**
+   * @return the expressions, to be evaluated on the batches returned by {@link #evaluate(TupleBatch)}.
+   */
+  public List<Expression> getExpressions() {
+    return expressions;
+  }
+
+  /**
+   * @return the parameters to evaluate {@link #getExpressions()} with.
+   */
+  public ExpressionOperatorParameter getParameters() {
+    return parameters;
+  }
+
+  /**
+   * @return the number of subexpressions evaluated into extra columns.
+   */
+  public int numShared() {
+    return sharedEvaluators.size();
+  }
+
+  /**
+   * @param tb a batch of the input.
+   * @return the batch with a column appended for each shared subexpression.
+   * @throws InvocationTargetException exception thrown from janino
+   */
+  public TupleBatch evaluate(final TupleBatch tb) throws InvocationTargetException {
+    if (sharedEvaluators.isEmpty()) {
+      return tb;
+    }
+    final List<Column<?>> columns = new ArrayList<>(tb.getDataColumns());
+    TupleBatch ret = tb;
+    for (int i = 0; i < sharedEvaluators.size(); ++i) {
+      columns.add(sharedEvaluators.get(i).evaluateColumn(ret).getResultColumns().get(0));
+      ret = new TupleBatch(schemas.get(i), ImmutableList.copyOf(columns), tb.numTuples());
+    }
+    return ret;
+  }
+
+  /**
+   * Replace the largest subexpressions that do not depend on the row by their value.
+   *
+   * @param op a subexpression.
+   * @param isRoot whether {@code op} is the root of its expression, which is left to
+   *          {@link ConstantEvaluator}.
+   * @param parameters the parameters of the expressions.
+   * @param substitutions the substitutions, to which the constants are added.
+   * @throws DbException if a constant subexpression cannot be compiled.
+   */
+  private static void foldConstants(
+      final ExpressionOperator op,
+      final boolean isRoot,
+      final ExpressionOperatorParameter parameters,
+      final Map<ExpressionOperator, ExpressionOperator> substitutions)
+      throws DbException {
+    if (op instanceof ZeroaryExpression) {
+      return;
+    }
+    final Expression expr = new Expression(op);
+    if (!isRoot && !op.hasArrayOutputType() && expr.isConstant()) {
+      ExpressionOperator constant;
+      try {
+        constant =
+            toConstant(
+                op.getOutputType(parameters), new ConstantEvaluator(expr, parameters).eval());
+      } catch (DbException e) {
+        /* E.g., a division by zero that a conditional never evaluates: leave it to the generated code. */
+        constant = null;
+      }
+      if (constant != null) {
+        substitutions.put(op, constant);
+        return;
+      }
+    }
+    for (final ExpressionOperator child : op.getChildren()) {
+      foldConstants(child, false, parameters, substitutions);
+    }
+  }
+
+  /**
+   * @param type the type of a value.
+   * @param value the value.
+   * @return the constant expression of the value, or {@code null} if it has no Java literal.
+   */
+  private static ExpressionOperator toConstant(final Type type, final Object value) {
+    final String literal;
+    switch (type) {
+      case BOOLEAN_TYPE:
+      case STRING_TYPE:
+        return new ConstantExpression(type, value.toString());
+      case INT_TYPE:
+        literal = value.toString();
+        break;
+      case LONG_TYPE:
+        literal = value.toString() + 'L';
+        break;
+      case FLOAT_TYPE:
+        if (!Float.isFinite((Float) value)) {
+          return null;
+        }
+        literal = value.toString() + 'F';
+        break;
+      case DOUBLE_TYPE:
+        if (!Double.isFinite((Double) value)) {
+          return null;
+        }
+        literal = value.toString();
+        break;
+      default:
+        return null;
+    }
+    /* Parenthesize negative numbers, so that e.g. a - (-1) does not become a decrement. */
+    if (literal.charAt(0) == '-') {
+      return new ConstantExpression(type, '(' + literal + ')');
+    }
+    return new ConstantExpression(type, literal);
+  }
+
+  /**
+   * Find the subexpressions worth evaluating once per batch: those that are computed more than once, counting the
+   * subexpressions of a shared subexpression only once. Larger subexpressions are considered first, so that the parts
+   * of a shared subexpression are not shared too unless they also occur elsewhere.
+   *
+   * A shared subexpression is computed on every row, so it must be computed on every row by at least one of its
+   * occurrences: a subexpression only found in a branch of a conditional, which may guard against e.g. a division by
+   * zero, is not shared.
+   *
+   * @param roots the roots of the expressions.
+   * @param folded the subexpressions replaced by a constant.
+   * @return the shared subexpressions, smallest first.
+   */
+  private static List<ExpressionOperator> findShared(
+      final List<ExpressionOperator> roots, final Set<ExpressionOperator> folded) {
+    final Set<ExpressionOperator> candidates = new LinkedHashSet<>();
+    final LinkedList<ExpressionOperator> ops = new LinkedList<>(roots);
+    while (!ops.isEmpty()) {
+      final ExpressionOperator op = ops.pop();
+      if (folded.contains(op) || op instanceof ZeroaryExpression) {
+        continue;
+      }
+      final Expression expr = new Expression(op);
+      if (!op.hasArrayOutputType()
+          && !expr.isConstant()
+          && !expr.hasOperator(StateExpression.class)
+          && !expr.hasOperator(RandomExpression.class)) {
+        candidates.add(op);
+      }
+      ops.addAll(getEvaluatedChildren(op));
+    }
+
+    final List<ExpressionOperator> sorted = new ArrayList<>(candidates);
+    sorted.sort(Comparator.comparingInt(CommonSubexpressions::size).reversed());
+    final Set<ExpressionOperator> shared = new HashSet<>();
+    final List<ExpressionOperator> ret = new LinkedList<>();
+    for (final ExpressionOperator candidate : sorted) {
+      if (countOccurrences(candidate, roots, folded, shared) > 1) {
+        shared.add(candidate);
+        ret.add(0, candidate);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @param op a subexpression.
+   * @return the children of {@code op} that are evaluated whenever it is, i.e., all but the branches of a conditional
+   *         and the right operands of the short-circuiting boolean operators.
+   */
+  private static List<ExpressionOperator> getEvaluatedChildren(final ExpressionOperator op) {
+    if (op instanceof ConditionalExpression
+        || op instanceof AndExpression
+        || op instanceof OrExpression) {
+      return op.getChildren().subList(0, 1);
+    }
+    return op.getChildren();
+  }
+
+  /**
+   * @param target a subexpression.
+   * @param roots the roots of the expressions.
+   * @param folded the subexpressions replaced by a constant.
+   * @param shared the subexpressions already shared, whose subexpressions are only computed once.
+   * @return the number of times {@code target} is computed.
+   */
+  private static int countOccurrences(
+      final ExpressionOperator target,
+      final List<ExpressionOperator> roots,
+      final Set<ExpressionOperator> folded,
+      final Set<ExpressionOperator> shared) {
+    int count = 0;
+    final Set<ExpressionOperator> visitedShared = new HashSet<>();
+    final LinkedList<ExpressionOperator> ops = new LinkedList<>(roots);
+    while (!ops.isEmpty()) {
+      final ExpressionOperator op = ops.pop();
+      if (folded.contains(op)) {
+        continue;
+      }
+      if (op.equals(target)) {
+        ++count;
+        continue;
+      }
+      if (shared.contains(op) && !visitedShared.add(op)) {
+        continue;
+      }
+      ops.addAll(op.getChildren());
+    }
+    return count;
+  }
+
+  /**
+   * @param op a subexpression.
+   * @return the number of operators in it.
+   */
+  private static int size(final ExpressionOperator op) {
+    int ret = 1;
+    for (final ExpressionOperator child : op.getChildren()) {
+      ret += size(child);
+    }
+    return ret;
+  }
+
+  /**
+   * @param schema a schema.
+   * @return a column name that is not in the schema.
+   */
+  private static String uniqueName(final Schema schema) {
+    String name = COLUMN_NAME_PREFIX + schema.numColumns();
+    while (schema.getColumnNames().contains(name)) {
+      name = "_" + name;
+    }
+    return name;
+  }
+}
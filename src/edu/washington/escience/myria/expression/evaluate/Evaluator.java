@@ -1,10 +1,15 @@
 package edu.washington.escience.myria.expression.evaluate;
 
+import java.util.LinkedList;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 import com.google.common.base.Preconditions;
 
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.expression.Expression;
 import edu.washington.escience.myria.expression.ExpressionOperator;
 import edu.washington.escience.myria.expression.StateExpression;
@@ -96,6 +101,46 @@ public abstract class Evaluator {
     return getExpression().getJavaExpression(parameters);
   }
 
+  /**
+   * @return Java code declaring, ahead of a loop over {@link Expression#TB}, the primitive array of each numeric input
+   *         column that the expression reads in batch mode, see {@link ExpressionOperatorParameter#isBatch()}.
+   */
+  protected String getColumnArrayDeclarations() {
+    final SortedSet<Integer> columns = new TreeSet<>();
+    final LinkedList<ExpressionOperator> ops = new LinkedList<>();
+    ops.add(getExpression().getRootExpressionOperator());
+    while (!ops.isEmpty()) {
+      final ExpressionOperator op = parameters.substitute(ops.pop());
+      if (op instanceof VariableExpression) {
+        final int columnIdx = ((VariableExpression) op).getColumnIdx();
+        if (VariableExpression.hasColumnArray(getInputSchema().getColumnType(columnIdx))) {
+          columns.add(columnIdx);
+        }
+      }
+      ops.addAll(op.getChildren());
+    }
+
+    final StringBuilder sb = new StringBuilder();
+    for (final int columnIdx : columns) {
+      final Type columnType = getInputSchema().getColumnType(columnIdx);
+      sb.append("final ")
+          .append(columnType.toJavaArrayType().getSimpleName())
+          .append(' ')
+          .append(Expression.COLUMN_ARRAY)
+          .append(columnIdx)
+          .append(" = ((")
+          .append(Column.class.getName())
+          .append(") ")
+          .append(Expression.TB)
+          .append(".getDataColumns().get(")
+          .append(columnIdx)
+          .append(")).get")
+          .append(columnType.getName())
+          .append("Array();\n");
+    }
+    return sb.toString();
+  }
+
   /**
    * @return the output name
    */
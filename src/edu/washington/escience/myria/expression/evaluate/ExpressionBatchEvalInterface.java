@@ -0,0 +1,20 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.storage.TupleBatch;
+
+/**
+ * Interface for evaluating a single-valued {@link edu.washington.escience.myria.expression.Expression} over every row
+ * of a tuple batch in one call, so that the loop over the rows is compiled together with the expression.
+ */
+public interface ExpressionBatchEvalInterface {
+  /**
+   * The interface evaluating a single-valued {@link edu.washington.escience.myria.expression.Expression} that does not
+   * access any state. The generated code reads the numeric input columns as primitive arrays and writes the results
+   * into a primitive array, see {@link ExpressionOperatorParameter#isBatch()}.
+   *
+   * @param tb a tuple batch
+   * @return a column holding the result of each row of the tb
+   */
+  Column<?> evaluate(final TupleBatch tb);
+}
@@ -0,0 +1,167 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.CompilerFactoryFactory;
+import org.codehaus.commons.compiler.IExpressionEvaluator;
+import org.codehaus.commons.compiler.IScriptEvaluator;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import edu.washington.escience.myria.MyriaConstants;
+
+/**
+ * Compiles the Java code generated from expressions with Janino, through a process-wide cache.
+ *
+ * The same expressions are compiled over and over: by every fragment of a query that applies them, by every iteration
+ * of a loop, and by every run of a query that is submitted again. The generated code only depends on the expression and
+ * on the types of the columns it reads, which appear in the code (e.g., {@code tb.getLong(0, row)}), so the compiled
+ * evaluators are cached by their code and reused until evicted in least-recently-used order. Evaluators are stateless
+ * instances of the interface they implement, so they can be shared between operators and threads.
+ */
+public final class ExpressionCompiler {
+  /** logger for this class. */
+  private static final org.slf4j.Logger LOGGER =
+      org.slf4j.LoggerFactory.getLogger(ExpressionCompiler.class);
+
+  /** The compiled evaluators. */
+  private static final Cache<Key, Object> CACHE =
+      CacheBuilder.newBuilder().maximumSize(MyriaConstants.EXPRESSION_CACHE_SIZE).build();
+
+  /** Private constructor to disallow building utility class. */
+  private ExpressionCompiler() {}
+
+  /**
+   * Compile a script, i.e., a method body, into an instance of an interface with a single method.
+   *
+   * @param script the body of the method.
+   * @param interfaceToImplement the interface, whose method has the parameters named by {@code parameterNames}.
+   * @param parameterNames the names of the parameters of the method.
+   * @return an instance of {@code interfaceToImplement}.
+   * @throws CompileException the script does not compile.
+   */
+  public static Object createFastScriptEvaluator(
+      final String script, final Class<?> interfaceToImplement, final String[] parameterNames)
+      throws CompileException {
+    return get(new Key(false, script, interfaceToImplement, parameterNames));
+  }
+
+  /**
+   * Compile an expression into an instance of an interface with a single method, which returns the expression.
+   *
+   * @param expression the expression returned by the method.
+   * @param interfaceToImplement the interface, whose method has the parameters named by {@code parameterNames}.
+   * @param parameterNames the names of the parameters of the method.
+   * @return an instance of {@code interfaceToImplement}.
+   * @throws CompileException the expression does not compile.
+   */
+  public static Object createFastExpressionEvaluator(
+      final String expression, final Class<?> interfaceToImplement, final String[] parameterNames)
+      throws CompileException {
+    return get(new Key(true, expression, interfaceToImplement, parameterNames));
+  }
+
+  /**
+   * @param key what to compile.
+   * @return the cached evaluator, compiled if there was none.
+   * @throws CompileException the code does not compile.
+   */
+  private static Object get(final Key key) throws CompileException {
+    try {
+      return CACHE.get(key, () -> compile(key));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), CompileException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * @param key what to compile.
+   * @return the evaluator.
+   * @throws Exception the code does not compile, or the compiler could not be created.
+   */
+  private static Object compile(final Key key) throws Exception {
+    LOGGER.debug("Compiling {}", key.code);
+    if (key.isExpression) {
+      final IExpressionEvaluator ee =
+          CompilerFactoryFactory.getDefaultCompilerFactory().newExpressionEvaluator();
+      ee.setDefaultImports(MyriaConstants.DEFAULT_JANINO_IMPORTS);
+      return ee.createFastEvaluator(
+          key.code, key.interfaceToImplement, key.parameterNames.toArray(new String[0]));
+    }
+    final IScriptEvaluator se =
+        CompilerFactoryFactory.getDefaultCompilerFactory().newScriptEvaluator();
+    se.setDefaultImports(MyriaConstants.DEFAULT_JANINO_IMPORTS);
+    return se.createFastEvaluator(
+        key.code, key.interfaceToImplement, key.parameterNames.toArray(new String[0]));
+  }
+
+  /**
+   * @return the number of compiled evaluators in the cache.
+   */
+  public static long size() {
+    return CACHE.size();
+  }
+
+  /**
+   * Discard all compiled evaluators.
+   */
+  public static void clear() {
+    CACHE.invalidateAll();
+  }
+
+  /**
+   * What is compiled: the code and the signature of the method it implements.
+   */
+  private static final class Key {
+    /** True for an expression, false for a script. */
+    private final boolean isExpression;
+    /** The code. */
+    private final String code;
+    /** The interface to implement. */
+    private final Class<?> interfaceToImplement;
+    /** The names of the parameters of the method. */
+    private final List<String> parameterNames;
+
+    /**
+     * @param isExpression true for an expression, false for a script.
+     * @param code the code.
+     * @param interfaceToImplement the interface to implement.
+     * @param parameterNames the names of the parameters of the method.
+     */
+    Key(
+        final boolean isExpression,
+        final String code,
+        final Class<?> interfaceToImplement,
+        final String[] parameterNames) {
+      this.isExpression = isExpression;
+      this.code = Objects.requireNonNull(code, "code");
+      this.interfaceToImplement = Objects.requireNonNull(interfaceToImplement, "interface");
+      this.parameterNames = Arrays.asList(parameterNames.clone());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(isExpression, code, interfaceToImplement, parameterNames);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return isExpression == other.isExpression
+          && code.equals(other.code)
+          && interfaceToImplement.equals(other.interfaceToImplement)
+          && parameterNames.equals(other.parameterNames);
+    }
+  }
+}
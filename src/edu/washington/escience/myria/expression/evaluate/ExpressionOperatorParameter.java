@@ -1,6 +1,11 @@
 package edu.washington.escience.myria.expression.evaluate;
 
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
 import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.expression.ExpressionOperator;
 
 /**
  * Object that carries parameters down the expression tree.
@@ -12,6 +17,10 @@ public class ExpressionOperatorParameter {
   private final Schema stateSchema;
   /** The id of the worker that is running the expression. */
   private final Integer workerID;
+  /** Whether the generated code loops over a whole batch, see {@link #isBatch()}. */
+  private final boolean batch;
+  /** Subexpressions replaced by another expression when generating code, see {@link #substitute}. */
+  private final ImmutableMap<ExpressionOperator, ExpressionOperator> substitutions;
 
   /**
    * Simple constructor.
@@ -20,6 +29,8 @@ public class ExpressionOperatorParameter {
     schema = null;
     stateSchema = null;
     workerID = null;
+    batch = false;
+    substitutions = ImmutableMap.of();
   }
 
   /**
@@ -29,6 +40,8 @@ public class ExpressionOperatorParameter {
     this.schema = schema;
     stateSchema = null;
     workerID = null;
+    batch = false;
+    substitutions = ImmutableMap.of();
   }
 
   /**
@@ -39,6 +52,8 @@ public class ExpressionOperatorParameter {
     this.schema = schema;
     this.stateSchema = stateSchema;
     workerID = null;
+    batch = false;
+    substitutions = ImmutableMap.of();
   }
 
   /**
@@ -49,6 +64,8 @@ public class ExpressionOperatorParameter {
     this.schema = schema;
     stateSchema = null;
     this.workerID = workerID;
+    batch = false;
+    substitutions = ImmutableMap.of();
   }
 
   /**
@@ -61,6 +78,64 @@ public class ExpressionOperatorParameter {
     this.schema = schema;
     this.stateSchema = stateSchema;
     this.workerID = workerID;
+    batch = false;
+    substitutions = ImmutableMap.of();
+  }
+
+  /**
+   * @param schema the input schema
+   * @param stateSchema the schema of the state
+   * @param workerID id of the worker that is running the expression, or null
+   * @param batch whether the generated code loops over a whole batch
+   * @param substitutions subexpressions replaced by another expression when generating code
+   */
+  private ExpressionOperatorParameter(
+      final Schema schema,
+      final Schema stateSchema,
+      final Integer workerID,
+      final boolean batch,
+      final ImmutableMap<ExpressionOperator, ExpressionOperator> substitutions) {
+    this.schema = schema;
+    this.stateSchema = stateSchema;
+    this.workerID = workerID;
+    this.batch = batch;
+    this.substitutions = substitutions;
+  }
+
+  /**
+   * @return a copy of these parameters for generating code that loops over a whole batch
+   */
+  public ExpressionOperatorParameter forBatch() {
+    return new ExpressionOperatorParameter(schema, stateSchema, workerID, true, substitutions);
+  }
+
+  /**
+   * @param newSchema the input schema, which must start with the columns of the current one
+   * @param newSubstitutions subexpressions to replace by another expression when generating code, e.g., by a constant
+   *          or by a {@link edu.washington.escience.myria.expression.VariableExpression} of {@code newSchema}
+   * @return a copy of these parameters with the given input schema and substitutions
+   */
+  public ExpressionOperatorParameter withSubstitutions(
+      final Schema newSchema,
+      final Map<ExpressionOperator, ExpressionOperator> newSubstitutions) {
+    return new ExpressionOperatorParameter(
+        newSchema, stateSchema, workerID, batch, ImmutableMap.copyOf(newSubstitutions));
+  }
+
+  /**
+   * @param op a subexpression
+   * @return the expression to generate code for in place of {@code op}, which is {@code op} itself unless it was
+   *         substituted
+   */
+  public ExpressionOperator substitute(final ExpressionOperator op) {
+    if (substitutions.isEmpty()) {
+      return op;
+    }
+    final ExpressionOperator ret = substitutions.get(op);
+    if (ret == null) {
+      return op;
+    }
+    return ret;
   }
 
   /**
@@ -83,4 +158,15 @@ public class ExpressionOperatorParameter {
   public int getWorkerId() {
     return workerID;
   }
+
+  /**
+   * In batch mode, the generated code has the values of each numeric input column {@code i} in a primitive array
+   * {@code coli}, as returned by e.g. {@link edu.washington.escience.myria.column.Column#getIntArray()}, and the input
+   * {@link edu.washington.escience.myria.storage.TupleBatch} in {@code tb} for the other columns.
+   *
+   * @return whether the generated code loops over a whole batch
+   */
+  public boolean isBatch() {
+    return batch;
+  }
 }
@@ -7,18 +7,19 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.codehaus.commons.compiler.CompileException;
-import org.codehaus.commons.compiler.CompilerFactoryFactory;
-import org.codehaus.commons.compiler.IScriptEvaluator;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 import edu.washington.escience.myria.DbException;
-import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.column.ConstantValueColumn;
+import edu.washington.escience.myria.column.DoubleColumn;
+import edu.washington.escience.myria.column.FloatColumn;
+import edu.washington.escience.myria.column.IntArrayColumn;
+import edu.washington.escience.myria.column.LongColumn;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.column.builder.WritableColumn;
@@ -45,6 +46,11 @@ public class GenericEvaluator extends Evaluator {
    */
   private ExpressionEvalInterface evaluator;
 
+  /**
+   * Expression evaluator looping over a whole batch, or null if this expression cannot be evaluated that way.
+   */
+  private ExpressionBatchEvalInterface batchEvaluator;
+
   /**
    * Default constructor.
    *
@@ -68,20 +74,10 @@ public class GenericEvaluator extends Evaluator {
         "This expression does not need to be compiled.");
 
     String javaExpression = getJavaExpressionWithAppend();
-    IScriptEvaluator se;
-    try {
-      se = CompilerFactoryFactory.getDefaultCompilerFactory().newScriptEvaluator();
-    } catch (Exception e) {
-      LOGGER.error("Could not create expression evaluator", e);
-      throw new DbException("Could not create expression evaluator", e);
-    }
-
-    se.setDefaultImports(MyriaConstants.DEFAULT_JANINO_IMPORTS);
-
     try {
       evaluator =
           (ExpressionEvalInterface)
-              se.createFastEvaluator(
+              ExpressionCompiler.createFastScriptEvaluator(
                   javaExpression,
                   ExpressionEvalInterface.class,
                   new String[] {
@@ -95,6 +91,101 @@ public class GenericEvaluator extends Evaluator {
       LOGGER.error("Error when compiling expression {}: {}", javaExpression, e);
       throw new DbException("Error when compiling expression: " + javaExpression, e);
     }
+
+    if (!canEvaluateBatch()) {
+      return;
+    }
+    String batchJavaCode = getBatchJavaCode();
+    try {
+      batchEvaluator =
+          (ExpressionBatchEvalInterface)
+              ExpressionCompiler.createFastScriptEvaluator(
+                  batchJavaCode, ExpressionBatchEvalInterface.class, new String[] {Expression.TB});
+    } catch (CompileException e) {
+      LOGGER.error("Error when compiling expression {}: {}", batchJavaCode, e);
+      throw new DbException("Error when compiling expression: " + batchJavaCode, e);
+    }
+  }
+
+  /**
+   * An expression can be evaluated a whole batch at a time when it produces one numeric value per row and does not
+   * access the state. Its results are then written into a primitive array rather than appended to a column builder.
+   *
+   * @return true if {@link #compile()} also generates a loop over a whole batch.
+   */
+  private boolean canEvaluateBatch() {
+    return !getExpression().isMultivalued()
+        && !needsState()
+        && getExpression().getRootExpressionOperator().getJavaExpressionWithAppend(getParameters())
+            == null
+        && VariableExpression.hasColumnArray(getOutputType());
+  }
+
+  /**
+   * @return the Java code evaluating this expression on every row of {@link Expression#TB}, see
+   *         {@link ExpressionBatchEvalInterface}.
+   */
+  private String getBatchJavaCode() {
+    final Type type = getOutputType();
+    final String arrayType = type.toJavaArrayType().getSimpleName();
+    final StringBuilder sb = new StringBuilder();
+    sb.append("final int ")
+        .append(Expression.NUM_ROWS)
+        .append(" = ")
+        .append(Expression.TB)
+        .append(".numTuples();\n");
+    sb.append(getColumnArrayDeclarations());
+    sb.append("final ")
+        .append(arrayType)
+        .append(' ')
+        .append(Expression.RESULT)
+        .append(" = new ")
+        .append(type.toJavaType().getSimpleName())
+        .append('[')
+        .append(Expression.NUM_ROWS)
+        .append("];\n");
+    sb.append("for (int ")
+        .append(Expression.ROW)
+        .append(" = 0; ")
+        .append(Expression.ROW)
+        .append(" < ")
+        .append(Expression.NUM_ROWS)
+        .append("; ++")
+        .append(Expression.ROW)
+        .append(") {\n")
+        .append(Expression.RESULT)
+        .append('[')
+        .append(Expression.ROW)
+        .append("] = ")
+        .append(getExpression().getJavaExpression(getParameters().forBatch()))
+        .append(";\n}\n");
+    sb.append("return new ")
+        .append(getResultColumnClass(type).getName())
+        .append('(')
+        .append(Expression.RESULT)
+        .append(", ")
+        .append(Expression.NUM_ROWS)
+        .append(");");
+    return sb.toString();
+  }
+
+  /**
+   * @param type a numeric type.
+   * @return the column class wrapping a primitive array of that type.
+   */
+  private static Class<?> getResultColumnClass(final Type type) {
+    switch (type) {
+      case INT_TYPE:
+        return IntArrayColumn.class;
+      case LONG_TYPE:
+        return LongColumn.class;
+      case FLOAT_TYPE:
+        return FloatColumn.class;
+      case DOUBLE_TYPE:
+        return DoubleColumn.class;
+      default:
+        throw new IllegalArgumentException("No primitive array column of type " + type);
+    }
   }
 
   /**
@@ -209,6 +300,15 @@ public class GenericEvaluator extends Evaluator {
       return new EvaluatorResult(
           tb.getDataColumns().get(((VariableExpression) op).getColumnIdx()), constCounts);
     }
+    // Numeric single-valued expressions run a loop compiled together with the expression.
+    if (batchEvaluator != null) {
+      try {
+        return new EvaluatorResult(batchEvaluator.evaluate(tb), constCounts);
+      } catch (Exception e) {
+        LOGGER.error(getJavaExpressionWithAppend(), e);
+        throw e;
+      }
+    }
     // For multivalued expressions, we may get more than `TupleBatch.BATCH_SIZE` results,
     // so we need to pass in a `TupleBuffer` rather than a `ColumnBuilder` to `eval()`,
     // and return a `List<Column>` rather than a `Column` of results.
@@ -17,6 +17,7 @@ import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.evaluate.CommonSubexpressions;
 import edu.washington.escience.myria.expression.evaluate.ConstantEvaluator;
 import edu.washington.escience.myria.expression.evaluate.ExpressionOperatorParameter;
 import edu.washington.escience.myria.expression.evaluate.GenericEvaluator;
@@ -42,6 +43,11 @@ public class Apply extends UnaryOperator {
    */
   @Nonnull private ImmutableList<GenericEvaluator> emitEvaluators = ImmutableList.of();
 
+  /**
+   * Evaluates the subexpressions shared by the {@link #emitExpressions} into extra columns of each input batch.
+   */
+  private CommonSubexpressions commonSubexpressions;
+
   /**
    * Buffer to hold finished and in-progress TupleBatches.
    */
@@ -68,6 +74,21 @@ public class Apply extends UnaryOperator {
     emitEvaluators = ImmutableList.copyOf(evaluators);
   }
 
+  /**
+   * @return the {@link #commonSubexpressions}
+   */
+  protected CommonSubexpressions getCommonSubexpressions() {
+    return commonSubexpressions;
+  }
+
+  /**
+   * @param commonSubexpressions the {@link #commonSubexpressions} to set. The emit evaluators must have been created
+   *          from its expressions and parameters.
+   */
+  protected void setCommonSubexpressions(final CommonSubexpressions commonSubexpressions) {
+    this.commonSubexpressions = commonSubexpressions;
+  }
+
   /**
    * @return if there are no multivalued emit expressions
    */
@@ -110,14 +131,15 @@ public class Apply extends UnaryOperator {
     while (!outputBuffer.hasFilledTB()) {
       TupleBatch inputTuples = getChild().nextReady();
       if (inputTuples != null) {
+        inputTuples = commonSubexpressions.evaluate(inputTuples);
         // Evaluate expressions on each column and store counts and results.
         List<ReadableColumn> resultCountColumns = new ArrayList<>();
-        List<ReadableColumn> resultColumns = new ArrayList<>();
+        List<List<Column<?>>> resultColumns = new ArrayList<>();
         List<Column<?>> resultColumnsForTB = new ArrayList<>();
         for (final GenericEvaluator eval : emitEvaluators) {
           EvaluatorResult evalResult = eval.evaluateColumn(inputTuples);
           resultCountColumns.add(evalResult.getResultCounts());
-          resultColumns.add(evalResult.getResults());
+          resultColumns.add(evalResult.getResultColumns());
           Preconditions.checkArgument(
               eval.getExpression().isMultivalued() || (evalResult.getResultColumns().size() == 1),
               "A single-valued expression cannot have more than one result column.");
@@ -131,39 +153,8 @@ public class Apply extends UnaryOperator {
               new TupleBatch(getSchema(), resultColumnsForTB, inputTuples.numTuples()));
         } else {
           // Generate the Cartesian product and append to output buffer.
-          int[] resultCounts = new int[emitEvaluators.size()];
-          int[] cumResultCounts = new int[emitEvaluators.size()];
-          int[] lastCumResultCounts = new int[emitEvaluators.size()];
-          int[] iteratorIndexes = new int[emitEvaluators.size()];
-
-          for (int rowIdx = 0; rowIdx < inputTuples.numTuples(); ++rowIdx) {
-            // First, get all result counts for this row.
-            boolean emptyProduct = false;
-            for (int i = 0; i < resultCountColumns.size(); ++i) {
-              int resultCount = resultCountColumns.get(i).getInt(rowIdx);
-              resultCounts[i] = resultCount;
-              lastCumResultCounts[i] = cumResultCounts[i];
-              cumResultCounts[i] += resultCounts[i];
-              if (resultCount == 0) {
-                // If at least one evaluator returned zero results, the Cartesian product is empty.
-                emptyProduct = true;
-              }
-            }
-
-            if (!emptyProduct) {
-              // Initialize each iterator to its starting index.
-              Arrays.fill(iteratorIndexes, 0);
-              // Iterate over each element of the Cartesian product and append to output.
-              do {
-                for (int iteratorIdx = 0; iteratorIdx < iteratorIndexes.length; ++iteratorIdx) {
-                  int resultRowIdx =
-                      lastCumResultCounts[iteratorIdx] + iteratorIndexes[iteratorIdx];
-                  outputBuffer.appendFromColumn(
-                      iteratorIdx, resultColumns.get(iteratorIdx), resultRowIdx);
-                }
-              } while (!computeNextCombination(resultCounts, iteratorIndexes));
-            }
-          }
+          final int[][] gatherIndexes = expand(resultCountColumns, inputTuples.numTuples());
+          gatherResults(resultColumns, gatherIndexes);
         }
       } else {
         // We don't want to keep polling in a loop since this method is non-blocking.
@@ -175,37 +166,91 @@ public class Apply extends UnaryOperator {
   }
 
   /**
-   * This method mutates {@link iteratorIndexes} on each call to yield the next element of the Cartesian product of
-   * {@link upperBounds} in lexicographic order. If all elements have been exhausted, it returns true, otherwise it
-   * returns false.
+   * Computes which results of the emit expressions make up each output row. The output rows of an input row are the
+   * elements of the Cartesian product of the results of each expression on that row, in lexicographic order.
    *
-   * @param upperBounds an immutable array of elements representing the sets we are forming the Cartesian product of,
-   *          where each set is of the form [0, i), where i is an element of {@link upperBounds}
-   * @param iteratorIndexes a mutable array of elements representing the current element of the Cartesian product
-   * @return if we have exhausted all elements of the Cartesian product
+   * @param resultCountColumns the number of results of each emit expression on each input row
+   * @param numInputRows the number of input rows
+   * @return for each emit expression, the index in its results of the value of each output row
    */
-  private boolean computeNextCombination(final int[] upperBounds, final int[] iteratorIndexes) {
-    boolean endOfIteration = false;
-    int lastIteratorPos = iteratorIndexes.length - 1;
-    // Count backward from the innermost iterator to the outermost.
-    for (int iteratorPos = lastIteratorPos; iteratorPos >= 0; --iteratorPos) {
-      // If the current iterator is not exhausted, increment it and exit the loop,
-      // otherwise reset the current iterator and continue.
-      if (iteratorIndexes[iteratorPos] < upperBounds[iteratorPos] - 1) {
-        iteratorIndexes[iteratorPos] += 1;
-        break;
-      } else {
-        // If the outermost iterator is exhausted, we are done.
-        if (iteratorPos == 0) {
-          endOfIteration = true;
-          break;
-        } else {
-          // Reset the current iterator and continue.
-          iteratorIndexes[iteratorPos] = 0;
+  private int[][] expand(final List<ReadableColumn> resultCountColumns, final int numInputRows) {
+    final int numExpressions = resultCountColumns.size();
+    final int[][] resultCounts = new int[numExpressions][numInputRows];
+    final int[] outputCounts = new int[numInputRows];
+    int numOutputRows = 0;
+    for (int rowIdx = 0; rowIdx < numInputRows; ++rowIdx) {
+      int outputCount = 1;
+      for (int i = 0; i < numExpressions; ++i) {
+        resultCounts[i][rowIdx] = resultCountColumns.get(i).getInt(rowIdx);
+        outputCount = Math.multiplyExact(outputCount, resultCounts[i][rowIdx]);
+      }
+      outputCounts[rowIdx] = outputCount;
+      numOutputRows = Math.addExact(numOutputRows, outputCount);
+    }
+
+    final int[][] gatherIndexes = new int[numExpressions][numOutputRows];
+    // Index of the first result of each expression on the current input row.
+    final int[] firstResults = new int[numExpressions];
+    int firstOutputRow = 0;
+    for (int rowIdx = 0; rowIdx < numInputRows; ++rowIdx) {
+      final int outputCount = outputCounts[rowIdx];
+      if (outputCount > 0) {
+        // Each result of expression i is repeated for `stride` consecutive output rows, which cycle through the
+        // results of the later expressions, and the whole run is repeated for each combination of the earlier ones.
+        int stride = outputCount;
+        for (int i = 0; i < numExpressions; ++i) {
+          final int[] indexes = gatherIndexes[i];
+          final int resultCount = resultCounts[i][rowIdx];
+          stride /= resultCount;
+          int outputRow = firstOutputRow;
+          final int endOutputRow = firstOutputRow + outputCount;
+          while (outputRow < endOutputRow) {
+            for (int result = 0; result < resultCount; ++result) {
+              Arrays.fill(indexes, outputRow, outputRow + stride, firstResults[i] + result);
+              outputRow += stride;
+            }
+          }
         }
       }
+      for (int i = 0; i < numExpressions; ++i) {
+        firstResults[i] += resultCounts[i][rowIdx];
+      }
+      firstOutputRow += outputCount;
+    }
+    return gatherIndexes;
+  }
+
+  /**
+   * Materializes the output rows computed by {@link #expand} into the output buffer, one column at a time. The first
+   * batch tops up the partial batch of the buffer, so that the later full ones are appended without another copy and
+   * only the last one is left in progress.
+   *
+   * @param resultColumns the results of each emit expression
+   * @param gatherIndexes for each emit expression, the index in its results of the value of each output row
+   */
+  private void gatherResults(
+      final List<List<Column<?>>> resultColumns, final int[][] gatherIndexes) {
+    final Schema schema = getSchema();
+    final int numOutputRows = gatherIndexes[0].length;
+    final int numInProgress = outputBuffer.numTuples() - outputBuffer.getReadyTuplesNum();
+    int from = 0;
+    int to = Math.min(numOutputRows, TupleBatch.BATCH_SIZE - numInProgress);
+    while (from < numOutputRows) {
+      final List<Column<?>> columns = new ArrayList<>(gatherIndexes.length);
+      for (int i = 0; i < gatherIndexes.length; ++i) {
+        columns.add(
+            Column.gather(
+                schema.getColumnType(i), resultColumns.get(i), gatherIndexes[i], from, to));
+      }
+      final TupleBatch tb = new TupleBatch(schema, columns, to - from);
+      if (tb.numTuples() == TupleBatch.BATCH_SIZE) {
+        outputBuffer.absorb(tb);
+      } else {
+        tb.compactInto(outputBuffer);
+      }
+      from = to;
+      to = Math.min(numOutputRows, from + TupleBatch.BATCH_SIZE);
     }
-    return endOfIteration;
   }
 
   @Override
@@ -215,10 +260,12 @@ public class Apply extends UnaryOperator {
     Schema inputSchema = Objects.requireNonNull(getChild().getSchema());
 
     List<GenericEvaluator> evals = new ArrayList<>();
-    final ExpressionOperatorParameter parameters =
-        new ExpressionOperatorParameter(inputSchema, getNodeID());
+    final CommonSubexpressions shared =
+        new CommonSubexpressions(
+            emitExpressions, new ExpressionOperatorParameter(inputSchema, getNodeID()));
+    final ExpressionOperatorParameter parameters = shared.getParameters();
 
-    for (Expression expr : emitExpressions) {
+    for (Expression expr : shared.getExpressions()) {
       GenericEvaluator evaluator;
       if (expr.isConstant()) {
         evaluator = new ConstantEvaluator(expr, parameters);
@@ -232,6 +279,7 @@ public class Apply extends UnaryOperator {
       evals.add(evaluator);
     }
     setEmitEvaluators(evals);
+    setCommonSubexpressions(shared);
     outputBuffer = new TupleBatchBuffer(getSchema());
   }
 
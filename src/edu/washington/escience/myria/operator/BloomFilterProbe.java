@@ -0,0 +1,114 @@
+package edu.washington.escience.myria.operator;
+
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.util.BloomFilter;
+import edu.washington.escience.myria.util.MyriaArrayUtils;
+
+/**
+ * Drops the tuples of the probe side of a hash join whose join key is not in the build side, as told by the Bloom
+ * filters of {@link BloomFilterSource}s. It is meant to run before the probe side is shuffled to the join, so that
+ * tuples which cannot join are not sent over the network.
+ *
+ * The right child produces packed filters in {@link BloomFilterSource#PACKED_SCHEMA}, typically one per worker through
+ * a broadcast. They are all merged before any tuple of the left child is let through. Tuples whose key was added to a
+ * filter are always kept, and a few others may be, so the join still sees every tuple it would have joined. The join
+ * key columns must have the same types on both sides, or their keys will not hash the same.
+ */
+public final class BloomFilterProbe extends BinaryOperator {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** The join key columns of the left child. */
+  private final int[] keyColumns;
+  /** The merged filters, or {@code null} if none arrived yet. */
+  private transient BloomFilter filter;
+
+  /**
+   * @param left the probe side of the join.
+   * @param right the operator producing packed filters of the build side.
+   * @param keyColumns the join key columns of the probe side. Order matters.
+   */
+  public BloomFilterProbe(final Operator left, final Operator right, final int[] keyColumns) {
+    super(left, right);
+    this.keyColumns = MyriaArrayUtils.warnIfNotSet(keyColumns);
+  }
+
+  @Override
+  protected TupleBatch fetchNextReady() throws DbException {
+    final Operator right = getRight();
+    while (!right.eos()) {
+      final TupleBatch rightTB = right.nextReady();
+      if (rightTB == null) {
+        if (right.eos()) {
+          break;
+        }
+        return null;
+      }
+      for (int row = 0; row < rightTB.numTuples(); ++row) {
+        mergeFilter(
+            BloomFilter.unpack(
+                rightTB.getInt(0, row), rightTB.getInt(1, row), rightTB.getString(2, row)));
+      }
+    }
+
+    final Operator left = getLeft();
+    for (TupleBatch tb = left.nextReady(); tb != null; tb = left.nextReady()) {
+      if (filter == null) {
+        /* The build side is empty: nothing can join. */
+        continue;
+      }
+      final BitSet bits = filter.mightContainRows(tb, keyColumns);
+      final int numKept = bits.cardinality();
+      if (numKept == tb.numTuples()) {
+        return tb;
+      }
+      if (numKept == 0) {
+        continue;
+      }
+      return tb.filter(bits);
+    }
+    return null;
+  }
+
+  /**
+   * @param other a filter of the build side.
+   */
+  private void mergeFilter(final BloomFilter other) {
+    if (filter == null) {
+      filter = other;
+    } else {
+      filter.merge(other);
+    }
+  }
+
+  @Override
+  protected void init(final ImmutableMap<String, Object> execEnvVars) throws DbException {
+    final Schema filterSchema = BloomFilterSource.PACKED_SCHEMA;
+    Preconditions.checkState(
+        getRight().getSchema().getColumnTypes().equals(filterSchema.getColumnTypes()),
+        "the right child must produce packed Bloom filters");
+    filter = null;
+  }
+
+  @Override
+  protected void cleanup() throws DbException {
+    filter = null;
+  }
+
+  @Override
+  protected Schema generateSchema() {
+    final Operator left = getLeft();
+    if (left == null) {
+      return null;
+    }
+    return left.getSchema();
+  }
+}
@@ -0,0 +1,94 @@
+package edu.washington.escience.myria.operator;
+
+import java.util.Objects;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.parallel.LocalFragment;
+import edu.washington.escience.myria.parallel.LocalFragmentResourceManager;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.BloomFilter;
+
+/**
+ * Emits the Bloom filter a hash join of the same subquery on this worker built on the join keys of its build side, see
+ * {@link RightHashJoin#setBloomFilter} and {@link SymmetricHashJoin#setBloomFilter}.
+ *
+ * The filter is emitted as a single tuple in {@link #PACKED_SCHEMA} once the join has seen its whole build side, so a
+ * worker ships one tuple no matter how many keys it saw. Broadcasting these tuples to a {@link BloomFilterProbe} on
+ * every worker lets the probe side drop the tuples which cannot join before they are shuffled to the join.
+ */
+public final class BloomFilterSource extends LeafOperator {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** The schema of a packed Bloom filter. */
+  public static final Schema PACKED_SCHEMA =
+      Schema.ofFields("NumBits", Type.INT_TYPE, "NumHashes", Type.INT_TYPE, "Bits", Type.STRING_TYPE);
+
+  /** The name the join publishes its filter under. */
+  private final String name;
+  /** The filters of the subquery. */
+  private transient SharedBloomFilters filters;
+  /** The fragment to wake up when the filter is published, or {@code null} outside of a fragment. */
+  private transient LocalFragment fragment;
+  /** If the filter has been emitted. */
+  private transient boolean emitted;
+
+  /**
+   * @param name the name the join publishes its filter under.
+   */
+  public BloomFilterSource(final String name) {
+    this.name = Objects.requireNonNull(name, "name");
+  }
+
+  @Override
+  protected TupleBatch fetchNextReady() throws DbException {
+    if (emitted) {
+      return null;
+    }
+    final BloomFilter filter = filters.get(name, fragment);
+    if (filter == null) {
+      return null;
+    }
+    emitted = true;
+    final TupleBatchBuffer packed = new TupleBatchBuffer(PACKED_SCHEMA);
+    packed.putInt(0, filter.numBits());
+    packed.putInt(1, filter.numHashes());
+    packed.putString(2, filter.pack());
+    return packed.popAny();
+  }
+
+  @Override
+  protected void checkEOSAndEOI() {
+    if (emitted) {
+      setEOS();
+    }
+  }
+
+  @Override
+  protected void init(final ImmutableMap<String, Object> execEnvVars) throws DbException {
+    filters = SharedBloomFilters.of(execEnvVars);
+    final LocalFragmentResourceManager resourceManager =
+        (LocalFragmentResourceManager)
+            execEnvVars.get(MyriaConstants.EXEC_ENV_VAR_FRAGMENT_RESOURCE_MANAGER);
+    fragment = resourceManager == null ? null : resourceManager.getFragment();
+    emitted = false;
+  }
+
+  @Override
+  protected void cleanup() throws DbException {
+    filters = null;
+    fragment = null;
+  }
+
+  @Override
+  protected Schema generateSchema() {
+    return PACKED_SCHEMA;
+  }
+}
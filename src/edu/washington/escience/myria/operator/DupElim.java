@@ -7,15 +7,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
-import com.gs.collections.api.block.procedure.primitive.IntProcedure;
-import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
-import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.storage.GroupIdHashTable;
 import edu.washington.escience.myria.storage.MutableTupleBuffer;
 import edu.washington.escience.myria.storage.TupleBatch;
-import edu.washington.escience.myria.storage.TupleUtils;
 import edu.washington.escience.myria.util.HashUtils;
 
 /**
@@ -35,17 +32,29 @@ public final class DupElim extends StreamingState {
   /**
    * Indices to unique tuples.
    * */
-  private transient IntObjectHashMap<IntArrayList> uniqueTupleIndices;
+  private transient GroupIdHashTable uniqueTupleIndices;
+
+  /**
+   * All column indices, [0, 1, .., numColumns-1], used for comparing tuples.
+   * */
+  private transient int[] allColumns;
 
   /**
    * The buffer for storing unique tuples.
    * */
   private transient MutableTupleBuffer uniqueTuples = null;
 
+  /**
+   * Reused buffer holding the hash codes of the TupleBatch being processed.
+   * */
+  private transient int[] batchHashCodes;
+
   @Override
   public void cleanup() {
     uniqueTuples = null;
     uniqueTupleIndices = null;
+    batchHashCodes = null;
+    allColumns = null;
   }
 
   /**
@@ -60,30 +69,20 @@ public final class DupElim extends StreamingState {
     if (numTuples <= 0) {
       return tb;
     }
-    checkUniqueness.inputTB = tb;
     List<? extends Column<?>> columns = tb.getDataColumns();
     final BitSet toRemove = new BitSet(numTuples);
+    batchHashCodes = HashUtils.hashRows(tb, batchHashCodes);
     for (int i = 0; i < numTuples; ++i) {
-      final int nextIndex = uniqueTuples.numTuples();
-      final int cntHashCode = HashUtils.hashRow(tb, i);
-      IntArrayList tupleIndexList = uniqueTupleIndices.get(cntHashCode);
-      checkUniqueness.row = i;
-      checkUniqueness.unique = true;
-      if (tupleIndexList == null) {
-        tupleIndexList = new IntArrayList(1);
-        tupleIndexList.add(nextIndex);
-        uniqueTupleIndices.put(cntHashCode, tupleIndexList);
-      } else {
-        tupleIndexList.forEach(checkUniqueness);
-      }
-      if (checkUniqueness.unique) {
-        for (int j = 0; j < tb.numColumns(); ++j) {
-          uniqueTuples.put(j, columns.get(j), i);
-        }
-        tupleIndexList.add(nextIndex);
-      } else {
+      final int cntHashCode = batchHashCodes[i];
+      if (uniqueTupleIndices.find(cntHashCode, tb, allColumns, i) != -1) {
         toRemove.set(i);
+        continue;
+      }
+      final int nextIndex = uniqueTuples.numTuples();
+      for (int j = 0; j < tb.numColumns(); ++j) {
+        uniqueTuples.put(j, columns.get(j), i);
       }
+      uniqueTupleIndices.insert(cntHashCode, nextIndex, tb, allColumns, i);
     }
     return tb.filterOut(toRemove);
   }
@@ -95,9 +94,12 @@ public final class DupElim extends StreamingState {
 
   @Override
   public void init(final ImmutableMap<String, Object> execEnvVars) {
-    uniqueTupleIndices = new IntObjectHashMap<>();
     uniqueTuples = new MutableTupleBuffer(getSchema());
-    checkUniqueness = new CheckUniquenessProcedure();
+    allColumns = new int[getSchema().numColumns()];
+    for (int i = 0; i < allColumns.length; ++i) {
+      allColumns[i] = i;
+    }
+    uniqueTupleIndices = new GroupIdHashTable(uniqueTuples, allColumns);
   }
 
   @Override
@@ -122,36 +124,6 @@ public final class DupElim extends StreamingState {
     return uniqueTuples.numTuples();
   }
 
-  /**
-   * Traverse through the list of tuples.
-   * */
-  private transient CheckUniquenessProcedure checkUniqueness;
-
-  /**
-   * Traverse through the list of tuples with the same hash code.
-   * */
-  private final class CheckUniquenessProcedure implements IntProcedure {
-
-    /** serialization id. */
-    private static final long serialVersionUID = 1L;
-
-    /** row index of the tuple. */
-    private int row;
-
-    /** input TupleBatch. */
-    private TupleBatch inputTB;
-
-    /** if found a replacement. */
-    private boolean unique;
-
-    @Override
-    public void value(final int index) {
-      if (TupleUtils.tupleEquals(inputTB, row, uniqueTuples, index)) {
-        unique = false;
-      }
-    }
-  };
-
   @Override
   public StreamingState duplicate() {
     return new DupElim();
@@ -1,14 +1,50 @@
 package edu.washington.escience.myria.operator;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.expression.AbsExpression;
+import edu.washington.escience.myria.expression.AndExpression;
+import edu.washington.escience.myria.expression.CeilExpression;
+import edu.washington.escience.myria.expression.ConditionalExpression;
+import edu.washington.escience.myria.expression.ConstantExpression;
+import edu.washington.escience.myria.expression.CosExpression;
+import edu.washington.escience.myria.expression.DivideExpression;
+import edu.washington.escience.myria.expression.EqualsExpression;
 import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.ExpressionOperator;
+import edu.washington.escience.myria.expression.FloorExpression;
+import edu.washington.escience.myria.expression.GreaterExpression;
+import edu.washington.escience.myria.expression.GreaterThanExpression;
+import edu.washington.escience.myria.expression.GreaterThanOrEqualsExpression;
+import edu.washington.escience.myria.expression.LenExpression;
+import edu.washington.escience.myria.expression.LessThanExpression;
+import edu.washington.escience.myria.expression.LessThanOrEqualsExpression;
+import edu.washington.escience.myria.expression.LesserExpression;
+import edu.washington.escience.myria.expression.LogExpression;
+import edu.washington.escience.myria.expression.MinusExpression;
+import edu.washington.escience.myria.expression.NegateExpression;
+import edu.washington.escience.myria.expression.NotEqualsExpression;
+import edu.washington.escience.myria.expression.NotExpression;
+import edu.washington.escience.myria.expression.OrExpression;
+import edu.washington.escience.myria.expression.PlusExpression;
+import edu.washington.escience.myria.expression.PowExpression;
+import edu.washington.escience.myria.expression.SinExpression;
+import edu.washington.escience.myria.expression.SqrtExpression;
+import edu.washington.escience.myria.expression.TanExpression;
+import edu.washington.escience.myria.expression.TimesExpression;
+import edu.washington.escience.myria.expression.ToUpperCaseExpression;
+import edu.washington.escience.myria.expression.VariableExpression;
+import edu.washington.escience.myria.expression.WorkerIdExpression;
 import edu.washington.escience.myria.expression.evaluate.BooleanEvaluator;
 import edu.washington.escience.myria.expression.evaluate.ExpressionOperatorParameter;
 import edu.washington.escience.myria.storage.TupleBatch;
@@ -26,9 +62,72 @@ public final class Filter extends UnaryOperator {
   private final Expression predicate;
 
   /**
-   * Evaluator that evaluates {@link #predicate}.
+   * The expressions that cannot throw, whatever their inputs. A conjunct made only of these may be evaluated before the
+   * conjuncts that precede it in the predicate; any other conjunct may be guarded by them, e.g. {@code b != 0} guarding
+   * {@code a % b = 0}, so it must not.
    */
-  private BooleanEvaluator evaluator;
+  private static final ImmutableSet<Class<? extends ExpressionOperator>> CANNOT_THROW =
+      ImmutableSet.<Class<? extends ExpressionOperator>>builder()
+          .add(AbsExpression.class)
+          .add(AndExpression.class)
+          .add(CeilExpression.class)
+          .add(ConditionalExpression.class)
+          .add(ConstantExpression.class)
+          .add(CosExpression.class)
+          .add(DivideExpression.class)
+          .add(EqualsExpression.class)
+          .add(FloorExpression.class)
+          .add(GreaterExpression.class)
+          .add(GreaterThanExpression.class)
+          .add(GreaterThanOrEqualsExpression.class)
+          .add(LenExpression.class)
+          .add(LessThanExpression.class)
+          .add(LessThanOrEqualsExpression.class)
+          .add(LesserExpression.class)
+          .add(LogExpression.class)
+          .add(NegateExpression.class)
+          .add(NotEqualsExpression.class)
+          .add(NotExpression.class)
+          .add(OrExpression.class)
+          .add(PowExpression.class)
+          .add(SinExpression.class)
+          .add(SqrtExpression.class)
+          .add(TanExpression.class)
+          .add(ToUpperCaseExpression.class)
+          .add(VariableExpression.class)
+          .add(WorkerIdExpression.class)
+          .build();
+
+  /**
+   * The arithmetic expressions that cannot throw when they compute on floating-point numbers, but throw on integer
+   * overflow, e.g. {@code x < 46341} guarding {@code x * x > 5}.
+   */
+  private static final ImmutableSet<Class<? extends ExpressionOperator>> CHECKED_ARITHMETIC =
+      ImmutableSet.<Class<? extends ExpressionOperator>>builder()
+          .add(MinusExpression.class)
+          .add(PlusExpression.class)
+          .add(TimesExpression.class)
+          .build();
+
+  /**
+   * Evaluators of the conjuncts of {@link #predicate}, in the order of the predicate.
+   */
+  private transient List<Conjunct> conjuncts;
+
+  /**
+   * The conjuncts, in the order they are evaluated.
+   */
+  private transient List<Conjunct> order;
+
+  /**
+   * Reused by {@link #reorder()}: the conjuncts not ordered yet, in the order of the predicate.
+   */
+  private transient List<Conjunct> unordered;
+
+  /**
+   * Reused selection vector holding the rows of the current batch that passed the conjuncts evaluated so far.
+   */
+  private transient int[] selection;
 
   /**
    * Constructor accepts a predicate to apply and a child operator to read tuples to filter from.
@@ -45,24 +144,32 @@ public final class Filter extends UnaryOperator {
   protected TupleBatch fetchNextReady() throws DbException {
     Operator child = getChild();
     for (TupleBatch tb = child.nextReady(); tb != null; tb = child.nextReady()) {
-      BitSet bits = new BitSet(tb.numTuples());
-      for (int rowIdx = 0; rowIdx < tb.numTuples(); rowIdx++) {
-        Boolean valid;
-        try {
-          valid = evaluator.eval(tb, rowIdx);
-        } catch (InvocationTargetException e) {
-          throw new DbException(e);
-        }
-        if (valid) {
-          bits.set(rowIdx);
+      final int numTuples = tb.numTuples();
+      if (selection.length < numTuples) {
+        selection = new int[numTuples];
+      }
+      for (int rowIdx = 0; rowIdx < numTuples; rowIdx++) {
+        selection[rowIdx] = rowIdx;
+      }
+
+      int numSelected = numTuples;
+      for (final Conjunct conjunct : order) {
+        numSelected = conjunct.select(tb, selection, numSelected);
+        if (numSelected == 0) {
+          break;
         }
       }
+      if (conjuncts.size() > 1) {
+        reorder();
+      }
 
-      if (bits.cardinality() == 0) {
+      if (numSelected == 0) {
         continue;
       }
-
-      return tb.filter(bits);
+      if (numSelected == numTuples) {
+        return tb;
+      }
+      return tb.filter(Arrays.copyOf(selection, numSelected));
     }
     return null;
   }
@@ -76,9 +183,147 @@ public final class Filter extends UnaryOperator {
     final ExpressionOperatorParameter parameters =
         new ExpressionOperatorParameter(inputSchema, getNodeID());
 
-    evaluator = new BooleanEvaluator(predicate, parameters);
-    if (evaluator.needsCompiling()) {
+    conjuncts = new ArrayList<>();
+    for (final ExpressionOperator op : getConjuncts(predicate.getRootExpressionOperator())) {
+      final BooleanEvaluator evaluator =
+          new BooleanEvaluator(new Expression(predicate.getOutputName(), op), parameters);
       evaluator.compile();
+      conjuncts.add(new Conjunct(evaluator, cannotThrow(op, parameters)));
+    }
+    order = new ArrayList<>(conjuncts);
+    unordered = new ArrayList<>(conjuncts.size());
+    selection = new int[TupleBatch.BATCH_SIZE];
+  }
+
+  @Override
+  protected void cleanup() throws DbException {
+    conjuncts = null;
+    order = null;
+    unordered = null;
+    selection = null;
+  }
+
+  /**
+   * Order the conjuncts by increasing rank, except that a conjunct which may throw stays behind all the conjuncts that
+   * precede it in the predicate, since these may guard it. Picks the conjunct of least rank among those that may go
+   * next: the conjuncts which cannot throw, and the first conjunct of the predicate not ordered yet.
+   */
+  private void reorder() {
+    unordered.clear();
+    unordered.addAll(conjuncts);
+    order.clear();
+    while (!unordered.isEmpty()) {
+      int best = 0;
+      for (int i = 1; i < unordered.size(); ++i) {
+        final Conjunct conjunct = unordered.get(i);
+        if (conjunct.cannotThrow && conjunct.rank() < unordered.get(best).rank()) {
+          best = i;
+        }
+      }
+      order.add(unordered.remove(best));
+    }
+  }
+
+  /**
+   * @param op an expression.
+   * @param parameters the parameters the expression is compiled with.
+   * @return true if the expression cannot throw, whatever its inputs.
+   */
+  private static boolean cannotThrow(
+      final ExpressionOperator op, final ExpressionOperatorParameter parameters) {
+    if (CHECKED_ARITHMETIC.contains(op.getClass())) {
+      final Type type = op.getOutputType(parameters);
+      if (type != Type.FLOAT_TYPE && type != Type.DOUBLE_TYPE) {
+        return false;
+      }
+    } else if (!CANNOT_THROW.contains(op.getClass())) {
+      return false;
+    }
+    for (final ExpressionOperator child : op.getChildren()) {
+      if (!cannotThrow(child, parameters)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param op a boolean expression.
+   * @return the operands of the conjunction formed by the {@link AndExpression}s at the root of {@code op}.
+   */
+  private static List<ExpressionOperator> getConjuncts(final ExpressionOperator op) {
+    if (!(op instanceof AndExpression)) {
+      return ImmutableList.of(op);
+    }
+    final AndExpression and = (AndExpression) op;
+    return ImmutableList.<ExpressionOperator>builder()
+        .addAll(getConjuncts(and.getLeft()))
+        .addAll(getConjuncts(and.getRight()))
+        .build();
+  }
+
+  /**
+   * A conjunct of the predicate, with the statistics used to order the conjuncts. A conjunct that drops many rows for
+   * little time should go first: conjuncts are sorted by increasing time per row over the fraction of rows dropped,
+   * which minimizes the expected time per row when conjuncts are independent.
+   */
+  private static final class Conjunct {
+    /** The statistics are halved once this many rows were evaluated, so that the order follows changes in the data. */
+    private static final long DECAY_ROWS = 1L << 20;
+
+    /** The evaluator of this conjunct. */
+    private final BooleanEvaluator evaluator;
+    /** True if this conjunct cannot throw, whatever the row. */
+    private final boolean cannotThrow;
+    /** The number of rows evaluated. */
+    private long rowsIn;
+    /** The number of rows kept. */
+    private long rowsOut;
+    /** The time spent evaluating, in nanoseconds. */
+    private long nanos;
+
+    /**
+     * @param evaluator the evaluator of this conjunct.
+     * @param cannotThrow true if this conjunct cannot throw, whatever the row.
+     */
+    Conjunct(final BooleanEvaluator evaluator, final boolean cannotThrow) {
+      this.evaluator = evaluator;
+      this.cannotThrow = cannotThrow;
+    }
+
+    /**
+     * @param tb a tuple batch.
+     * @param selection the rows of the tb to evaluate, compacted in place.
+     * @param numRows the number of rows in the selection vector.
+     * @return the number of rows kept at the front of the selection vector.
+     */
+    int select(final TupleBatch tb, final int[] selection, final int numRows) {
+      final long start = System.nanoTime();
+      final int numSelected = evaluator.select(tb, selection, numRows);
+      nanos += System.nanoTime() - start;
+      rowsIn += numRows;
+      rowsOut += numSelected;
+      if (rowsIn >= DECAY_ROWS) {
+        rowsIn /= 2;
+        rowsOut /= 2;
+        nanos /= 2;
+      }
+      return numSelected;
+    }
+
+    /**
+     * @return the expected time spent per row dropped. Conjuncts that were never evaluated rank first, so that they are
+     *         tried.
+     */
+    private double rank() {
+      if (rowsIn == 0) {
+        return 0;
+      }
+      final long rowsDropped = rowsIn - rowsOut;
+      if (rowsDropped == 0) {
+        return Double.POSITIVE_INFINITY;
+      }
+      return (double) nanos / rowsDropped;
     }
   }
 
@@ -0,0 +1,77 @@
+package edu.washington.escience.myria.operator;
+
+import java.io.Serializable;
+
+import com.google.common.collect.ImmutableMap;
+
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.util.BloomFilter;
+
+/**
+ * The Bloom filter a hash join fills with the join keys of its build side while it builds its hash table. Once the
+ * build side is at EOS, the filter is published in the {@link SharedBloomFilters} of the subquery, for a
+ * {@link BloomFilterSource} to ship to the probe side.
+ */
+final class JoinBloomFilter implements Serializable {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** The name the filter is published under. */
+  private final String name;
+  /** The number of bits of the filter. */
+  private final int numBits;
+  /** The number of hash functions of the filter. */
+  private final int numHashes;
+  /** The filter, or {@code null} once it is published. */
+  private transient BloomFilter filter;
+  /** The filters of the subquery. */
+  private transient SharedBloomFilters published;
+
+  /**
+   * @param name the name the filter is published under.
+   * @param numBits the number of bits of the filter, a power of two.
+   * @param numHashes the number of hash functions of the filter.
+   */
+  JoinBloomFilter(final String name, final int numBits, final int numHashes) {
+    this.name = name;
+    this.numBits = numBits;
+    this.numHashes = numHashes;
+  }
+
+  /**
+   * @param execEnvVars the execution environment variables of the join.
+   */
+  void init(final ImmutableMap<String, Object> execEnvVars) {
+    filter = new BloomFilter(numBits, numHashes);
+    published = SharedBloomFilters.of(execEnvVars);
+  }
+
+  /**
+   * Add the join keys of a batch of the build side.
+   *
+   * @param tb the batch.
+   * @param keyColumns the join key columns of the build side.
+   */
+  void addRows(final TupleBatch tb, final int[] keyColumns) {
+    filter.addRows(tb, keyColumns);
+  }
+
+  /**
+   * Publish the filter if the build side is at EOS and it is not published yet.
+   *
+   * @param buildSide the build side of the join.
+   */
+  void publishAtEOS(final Operator buildSide) {
+    if (filter != null && buildSide.eos()) {
+      published.publish(name, filter);
+      filter = null;
+    }
+  }
+
+  /** Release the filter. */
+  void cleanup() {
+    filter = null;
+    published = null;
+  }
+}
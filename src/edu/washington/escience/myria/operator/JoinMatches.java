@@ -0,0 +1,104 @@
+package edu.washington.escience.myria.operator;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
+import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
+
+import edu.washington.escience.myria.storage.MutableTupleBuffer;
+import edu.washington.escience.myria.storage.StringKeyCodes;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleUtils;
+
+/**
+ * The matches found by probing a hash join's hash table with a whole {@link TupleBatch}, as two parallel vectors: match
+ * {@code i} joins row {@code probeRows()[i]} of the batch with row {@code buildRows()[i]} of the hash table. Matches are
+ * in the order a row-at-a-time probe would find them, so the joined tuples can then be gathered column by column with
+ * {@link edu.washington.escience.myria.storage.TupleBatchBuffer#appendJoined}.
+ */
+final class JoinMatches {
+  /** The row of the probing batch of each match. */
+  private int[] probeRows;
+  /** The row of the hash table of each match. */
+  private int[] buildRows;
+  /** The number of matches. */
+  private int size;
+
+  /** Constructs an empty set of matches. */
+  JoinMatches() {
+    probeRows = new int[TupleBatch.BATCH_SIZE];
+    buildRows = new int[TupleBatch.BATCH_SIZE];
+  }
+
+  /**
+   * Replace the matches with those of all rows of a batch against a hash table.
+   *
+   * @param tb the probing batch.
+   * @param hashCodes the hash code of the join key of each row of {@code tb}.
+   * @param probeColumns the join key columns of {@code tb}.
+   * @param indices the hash table: {Hashcode -> List of tuple indices with the same hash code}.
+   * @param hashTable the buffer holding the tuples of the hash table.
+   * @param buildColumns the join key columns of {@code hashTable}.
+   * @param buildCodes the codes of the string keys of {@code hashTable}, or {@code null} to compare strings.
+   */
+  void probe(
+      final TupleBatch tb,
+      final int[] hashCodes,
+      final int[] probeColumns,
+      final IntObjectHashMap<IntArrayList> indices,
+      final MutableTupleBuffer hashTable,
+      final int[] buildColumns,
+      @Nullable final StringKeyCodes buildCodes) {
+    size = 0;
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      final IntArrayList tuplesWithHashCode = indices.get(hashCodes[row]);
+      if (tuplesWithHashCode == null) {
+        continue;
+      }
+      for (int i = 0; i < tuplesWithHashCode.size(); ++i) {
+        final int index = tuplesWithHashCode.get(i);
+        if (TupleUtils.tupleEquals(
+            tb, probeColumns, row, hashTable, buildColumns, index, buildCodes)) {
+          add(row, index);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param probeRow the row of the probing batch.
+   * @param buildRow the row of the hash table.
+   */
+  private void add(final int probeRow, final int buildRow) {
+    if (size == probeRows.length) {
+      probeRows = Arrays.copyOf(probeRows, size * 2);
+      buildRows = Arrays.copyOf(buildRows, size * 2);
+    }
+    probeRows[size] = probeRow;
+    buildRows[size] = buildRow;
+    ++size;
+  }
+
+  /**
+   * @return the number of matches.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the row of the probing batch of each match, valid up to {@link #size()}.
+   */
+  int[] probeRows() {
+    return probeRows;
+  }
+
+  /**
+   * @return the row of the hash table of each match, valid up to {@link #size()}.
+   */
+  int[] buildRows() {
+    return buildRows;
+  }
+}
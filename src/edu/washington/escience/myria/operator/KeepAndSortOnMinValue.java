@@ -11,16 +11,13 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
-import com.gs.collections.api.block.procedure.primitive.IntProcedure;
-import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
-import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.storage.GroupIdHashTable;
 import edu.washington.escience.myria.storage.MutableTupleBuffer;
 import edu.washington.escience.myria.storage.TupleBatch;
-import edu.washington.escience.myria.storage.TupleUtils;
 import edu.washington.escience.myria.util.HashUtils;
 
 /**
@@ -40,7 +37,12 @@ public final class KeepAndSortOnMinValue extends StreamingState {
   /**
    * Indices to unique tuples.
    * */
-  private transient IntObjectHashMap<IntArrayList> uniqueTupleIndices;
+  private transient GroupIdHashTable uniqueTupleIndices;
+
+  /**
+   * Reused buffer holding the hash codes of the keys of the TupleBatch being processed.
+   * */
+  private transient int[] batchHashCodes;
 
   /**
    * The buffer for storing unique tuples.
@@ -69,6 +71,7 @@ public final class KeepAndSortOnMinValue extends StreamingState {
   public void cleanup() {
     uniqueTuples = null;
     uniqueTupleIndices = null;
+    batchHashCodes = null;
   }
 
   /**
@@ -151,31 +154,27 @@ public final class KeepAndSortOnMinValue extends StreamingState {
     if (numTuples <= 0) {
       return tb;
     }
-    doReplace.inputTB = tb;
     final List<? extends Column<?>> columns = tb.getDataColumns();
     final BitSet toRemove = new BitSet(numTuples);
+    batchHashCodes = HashUtils.hashSubRows(tb, keyColIndices, batchHashCodes);
     for (int i = 0; i < numTuples; ++i) {
-      final int nextIndex = uniqueTuples.numTuples();
-      final int cntHashCode = HashUtils.hashSubRow(tb, keyColIndices, i);
-      IntArrayList tupleIndexList = uniqueTupleIndices.get(cntHashCode);
-      doReplace.unique = true;
-      if (tupleIndexList == null) {
-        tupleIndexList = new IntArrayList();
-        tupleIndexList.add(nextIndex);
-        uniqueTupleIndices.put(cntHashCode, tupleIndexList);
-      } else {
-        doReplace.replaced = false;
-        doReplace.sourceRow = i;
-        tupleIndexList.forEach(doReplace);
-        if (!doReplace.unique && !doReplace.replaced) {
-          toRemove.set(i);
-        }
-      }
-      if (doReplace.unique) {
+      final int cntHashCode = batchHashCodes[i];
+      final int index = uniqueTupleIndices.find(cntHashCode, tb, keyColIndices, i);
+      if (index == -1) {
+        final int nextIndex = uniqueTuples.numTuples();
         for (int j = 0; j < tb.numColumns(); ++j) {
           uniqueTuples.put(j, columns.get(j), i);
         }
-        tupleIndexList.add(nextIndex);
+        uniqueTupleIndices.insert(cntHashCode, nextIndex, tb, keyColIndices, i);
+      } else if (shouldReplace(index, columns, i)) {
+        for (int j = 0; j < uniqueTuples.numColumns(); ++j) {
+          if (!keyColIndicesSet.contains(j)) {
+            // replace the whole tuple except key columns.
+            uniqueTuples.replace(j, index, columns.get(j), i);
+          }
+        }
+      } else {
+        toRemove.set(i);
       }
     }
     return tb.filterOut(toRemove);
@@ -188,9 +187,8 @@ public final class KeepAndSortOnMinValue extends StreamingState {
 
   @Override
   public void init(final ImmutableMap<String, Object> execEnvVars) {
-    uniqueTupleIndices = new IntObjectHashMap<IntArrayList>();
     uniqueTuples = new MutableTupleBuffer(getSchema());
-    doReplace = new ReplaceProcedure();
+    uniqueTupleIndices = new GroupIdHashTable(uniqueTuples, keyColIndices);
   }
 
   @Override
@@ -209,49 +207,6 @@ public final class KeepAndSortOnMinValue extends StreamingState {
     return tmp.getAll();
   }
 
-  /**
-   * Traverse through the list of tuples and replace old values.
-   * */
-  private transient ReplaceProcedure doReplace;
-
-  /**
-   * Traverse through the list of tuples with the same hash code.
-   * */
-  private final class ReplaceProcedure implements IntProcedure {
-
-    /** serial version id. */
-    private static final long serialVersionUID = 1L;
-
-    /** row index of the tuple. */
-    private int sourceRow;
-
-    /** input TupleBatch. */
-    private TupleBatch inputTB;
-
-    /** if found a replacement. */
-    private boolean replaced;
-
-    /** if the given tuple doesn't exist. */
-    private boolean unique;
-
-    @Override
-    public void value(final int destRow) {
-      if (TupleUtils.tupleEquals(
-          inputTB, keyColIndices, sourceRow, uniqueTuples, keyColIndices, destRow)) {
-        unique = false;
-        if (shouldReplace(destRow, inputTB.getDataColumns(), sourceRow)) {
-          for (int i = 0; i < uniqueTuples.numColumns(); ++i) {
-            if (!keyColIndicesSet.contains(i)) {
-              // replace the whole tuple except key columns.
-              uniqueTuples.replace(i, destRow, inputTB.getDataColumns().get(i), sourceRow);
-            }
-          }
-          replaced = true;
-        }
-      }
-    }
-  };
-
   /**
    * sort the given TukpleBuffer on a column.
    *
@@ -0,0 +1,422 @@
+package edu.washington.escience.myria.operator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.SerializationUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.parallel.LocalFragment;
+import edu.washington.escience.myria.parallel.LocalFragmentResourceManager;
+import edu.washington.escience.myria.storage.TupleBatch;
+
+/**
+ * Runs a pipeline of operators over the batches of its child on several cores, one batch (morsel) at a time.
+ *
+ * The pipeline is given as a template: a chain of unary operators whose bottom-most operator has no child. Each of the
+ * {@code parallelism} copies of the template is handed batches of the child in turn and runs on a thread of a pool
+ * shared by the whole process, while this operator stays on the thread of its fragment, pulling batches from the child
+ * and returning the batches produced by the copies. Output batches come in no particular order.
+ *
+ * Stateless operators such as {@link Apply} and {@link Filter} thus use every core of a worker. A blocking operator in
+ * the pipeline, e.g. an aggregate, keeps its state in its copy and emits it once the child reaches EOS, i.e., it
+ * computes a partial result over the batches that copy saw. The partial results are then combined by an operator above
+ * this one, the same way the partial aggregates of several workers are. An EOI of the child is forwarded to every copy
+ * once the batches before it are processed, and this operator reports it once every copy has.
+ *
+ * At most {@code parallelism} batches are in flight: batches are only pulled from the child while the batches being
+ * processed and the output batches not yet returned are fewer than that, so a slow consumer stops the pipeline instead
+ * of letting the output pile up.
+ */
+public final class ParallelPipeline extends UnaryOperator {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** The threads running the copies of the pipelines of every fragment of this process. */
+  private static final ForkJoinPool MORSEL_EXECUTOR =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  /** The pipeline run on each batch of the child. Never opened: each copy is a clone of it. */
+  private final UnaryOperator pipeline;
+  /** The number of copies of the pipeline, i.e., of batches processed at the same time. */
+  private final int parallelism;
+
+  /** The copies which are not processing a batch. Only polled by the thread of the fragment. */
+  private transient ConcurrentLinkedQueue<PipelineCopy> idleCopies;
+  /** The number of copies which are processing a batch. Notified when it drops to 0. */
+  private transient AtomicInteger numBusyCopies;
+  /** Whether the operator is being closed, in which case the copies skip the batches they have not started. */
+  private transient volatile boolean closing;
+  /** The batches produced by the copies and not yet returned. */
+  private transient ConcurrentLinkedQueue<TupleBatch> results;
+  /** Whether the copies were told that the child reached EOS. */
+  private transient boolean endOfInput;
+  /** Whether the copies were told that the child reached EOI, which this operator has not reported yet. */
+  private transient boolean endOfIteration;
+  /** The first failure of a copy, if any. */
+  private transient volatile Throwable failure;
+  /** The fragment to wake up when a copy is done, or {@code null} outside of a query. */
+  private transient LocalFragment fragment;
+
+  /**
+   * @param child the operator producing the batches to be processed.
+   * @param pipeline the chain of unary operators to run on each batch. The bottom-most one must not have a child.
+   * @param parallelism the number of batches to process at the same time.
+   */
+  public ParallelPipeline(
+      @Nullable final Operator child, final UnaryOperator pipeline, final int parallelism) {
+    super(child);
+    Preconditions.checkArgument(
+        parallelism > 0, "parallelism must be positive, got %s", parallelism);
+    Operator op = pipeline;
+    while (op != null) {
+      Preconditions.checkArgument(
+          op instanceof UnaryOperator,
+          "the pipeline must be a chain of unary operators, got %s",
+          op.getClass().getSimpleName());
+      op = ((UnaryOperator) op).getChild();
+    }
+    this.pipeline = pipeline;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Run the pipeline on as many batches at the same time as there are cores.
+   *
+   * @param child the operator producing the batches to be processed.
+   * @param pipeline the chain of unary operators to run on each batch. The bottom-most one must not have a child.
+   */
+  public ParallelPipeline(@Nullable final Operator child, final UnaryOperator pipeline) {
+    this(child, pipeline, MORSEL_EXECUTOR.getParallelism());
+  }
+
+  @Override
+  protected TupleBatch fetchNextReady() throws DbException {
+    if (failure != null) {
+      throw new DbException("a copy of the pipeline failed", failure);
+    }
+
+    /* The batches after an EOI wait until this operator has reported it. */
+    if (!endOfIteration) {
+      feedCopies();
+    }
+    return results.poll();
+  }
+
+  /**
+   * Hand the batches of the child to the idle copies, then the EOS or EOI of the child once every copy is idle.
+   *
+   * @throws DbException if the child fails.
+   */
+  private void feedCopies() throws DbException {
+    final Operator child = getChild();
+    /* Only this thread polls idle copies, so a copy is still there once it was seen. */
+    while (!idleCopies.isEmpty() && results.size() + numBusyCopies.get() < parallelism) {
+      final TupleBatch tb = child.nextReady();
+      if (tb == null) {
+        break;
+      }
+      final PipelineCopy copy = idleCopies.poll();
+      submit(copy, () -> copy.process(tb, results));
+    }
+
+    /*
+     * Once no copy is busy, they are all idle and have processed every batch before the EOS or EOI. Exactly
+     * parallelism copies are polled, since a copy that is done may be idle again before the others are polled.
+     */
+    if (numBusyCopies.get() > 0) {
+      return;
+    }
+    if (child.eos() && !endOfInput) {
+      endOfInput = true;
+      for (int i = 0; i < parallelism; ++i) {
+        final PipelineCopy copy = idleCopies.poll();
+        submit(copy, () -> copy.finish(results));
+      }
+    } else if (child.eoi()) {
+      child.setEOI(false);
+      endOfIteration = true;
+      for (int i = 0; i < parallelism; ++i) {
+        final PipelineCopy copy = idleCopies.poll();
+        submit(copy, () -> copy.endIteration(results));
+      }
+    }
+  }
+
+  /**
+   * Some work of a copy of the pipeline.
+   */
+  @FunctionalInterface
+  private interface CopyWork {
+    /**
+     * @throws DbException if the copy fails.
+     */
+    void run() throws DbException;
+  }
+
+  /**
+   * Run some work on a copy of the pipeline.
+   *
+   * @param copy the copy, which must be idle.
+   * @param work the work.
+   */
+  private void submit(final PipelineCopy copy, final CopyWork work) {
+    numBusyCopies.incrementAndGet();
+    MORSEL_EXECUTOR.execute(
+        () -> {
+          try {
+            if (!closing) {
+              work.run();
+            }
+          } catch (Throwable e) {
+            failure = e;
+          }
+          idleCopies.add(copy);
+          final LocalFragment toNotify = fragment;
+          if (numBusyCopies.decrementAndGet() == 0) {
+            synchronized (numBusyCopies) {
+              numBusyCopies.notifyAll();
+            }
+          }
+          if (toNotify != null) {
+            toNotify.notifyNewInput();
+          }
+        });
+  }
+
+  @Override
+  protected void checkEOSAndEOI() {
+    /* The child may be done while the copies are not, and a failure must be reported first. */
+    if (numBusyCopies.get() > 0
+        || !results.isEmpty()
+        || failure != null
+        || (getChild().eos() && !endOfInput)
+        || getChild().eoi()) {
+      return;
+    }
+    if (endOfIteration) {
+      endOfIteration = false;
+      setEOI(true);
+      return;
+    }
+    super.checkEOSAndEOI();
+  }
+
+  @Override
+  protected void init(final ImmutableMap<String, Object> execEnvVars) throws DbException {
+    fragment = null;
+    Map<String, Object> copyEnvVars = null;
+    if (execEnvVars != null) {
+      final LocalFragmentResourceManager resourceManager =
+          (LocalFragmentResourceManager)
+              execEnvVars.get(MyriaConstants.EXEC_ENV_VAR_FRAGMENT_RESOURCE_MANAGER);
+      if (resourceManager != null) {
+        fragment = resourceManager.getFragment();
+      }
+      /* The copies do not belong to the fragment: keep them away from its resources and profiling. */
+      copyEnvVars = new HashMap<>(execEnvVars);
+      copyEnvVars.remove(MyriaConstants.EXEC_ENV_VAR_FRAGMENT_RESOURCE_MANAGER);
+    }
+
+    idleCopies = new ConcurrentLinkedQueue<>();
+    numBusyCopies = new AtomicInteger();
+    results = new ConcurrentLinkedQueue<>();
+    endOfInput = false;
+    endOfIteration = false;
+    closing = false;
+    failure = null;
+    final Schema inputSchema = getChild().getSchema();
+    for (int i = 0; i < parallelism; ++i) {
+      final PipelineCopy copy = new PipelineCopy(pipeline, inputSchema);
+      copy.root.open(copyEnvVars);
+      idleCopies.add(copy);
+    }
+  }
+
+  @Override
+  protected void cleanup() throws DbException {
+    /* A copy must not be closed while it runs: wait for the busy ones to finish their batch, or to skip it. */
+    closing = true;
+    boolean interrupted = false;
+    synchronized (numBusyCopies) {
+      while (numBusyCopies.get() > 0) {
+        try {
+          numBusyCopies.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    for (PipelineCopy copy = idleCopies.poll(); copy != null; copy = idleCopies.poll()) {
+      copy.root.close();
+    }
+    results.clear();
+    fragment = null;
+  }
+
+  @Override
+  protected Schema generateSchema() {
+    final Operator child = getChild();
+    if (child == null || child.getSchema() == null) {
+      return null;
+    }
+    return new PipelineCopy(pipeline, child.getSchema()).root.getSchema();
+  }
+
+  /**
+   * A copy of the pipeline, fed by a {@link MorselSource}.
+   */
+  private static final class PipelineCopy {
+    /** The top-most operator of the copy. */
+    private final UnaryOperator root;
+    /** The leaf of the copy. */
+    private final MorselSource source;
+
+    /**
+     * @param pipeline the pipeline to copy.
+     * @param inputSchema the schema of the batches to be processed.
+     */
+    PipelineCopy(final UnaryOperator pipeline, final Schema inputSchema) {
+      root = SerializationUtils.clone(pipeline);
+      source = new MorselSource(inputSchema);
+      UnaryOperator bottom = root;
+      while (bottom.getChild() != null) {
+        bottom = (UnaryOperator) bottom.getChild();
+      }
+      bottom.setChild(source);
+    }
+
+    /**
+     * Run the copy on a batch.
+     *
+     * @param tb the batch.
+     * @param results where to put the output batches.
+     * @throws DbException if the copy fails.
+     */
+    void process(final TupleBatch tb, final ConcurrentLinkedQueue<TupleBatch> results)
+        throws DbException {
+      source.offer(tb);
+      for (TupleBatch out = root.nextReady(); out != null; out = root.nextReady()) {
+        results.add(out);
+      }
+    }
+
+    /**
+     * Run the copy to the end of the current iteration, and get it ready for the next one.
+     *
+     * @param results where to put the output batches.
+     * @throws DbException if the copy fails.
+     */
+    void endIteration(final ConcurrentLinkedQueue<TupleBatch> results) throws DbException {
+      source.endIteration();
+      while (!root.eoi()) {
+        final TupleBatch out = root.nextReady();
+        if (out != null) {
+          results.add(out);
+        }
+      }
+      root.setEOI(false);
+    }
+
+    /**
+     * Run the copy to completion.
+     *
+     * @param results where to put the output batches.
+     * @throws DbException if the copy fails.
+     */
+    void finish(final ConcurrentLinkedQueue<TupleBatch> results) throws DbException {
+      source.finish();
+      while (!root.eos()) {
+        final TupleBatch out = root.nextReady();
+        if (out != null) {
+          results.add(out);
+        }
+      }
+    }
+  }
+
+  /**
+   * The leaf of a copy of the pipeline, serving the batch the copy is processing.
+   */
+  private static final class MorselSource extends LeafOperator {
+    /** Required for Java serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** The schema of the batches. */
+    private final Schema schema;
+    /** The batch to be served, if any. */
+    private transient TupleBatch next;
+    /** Whether there are no more batches. */
+    private transient boolean finished;
+    /** Whether the current iteration ends once the batch to be served, if any, is served. */
+    private transient boolean iterationEnded;
+
+    /**
+     * @param schema the schema of the batches.
+     */
+    MorselSource(final Schema schema) {
+      this.schema = schema;
+    }
+
+    /**
+     * @param tb the batch to be served next.
+     */
+    void offer(final TupleBatch tb) {
+      Preconditions.checkState(next == null && !finished);
+      next = tb;
+    }
+
+    /**
+     * Signal that there are no more batches in the current iteration.
+     */
+    void endIteration() {
+      Preconditions.checkState(!finished);
+      iterationEnded = true;
+    }
+
+    /**
+     * Signal that there are no more batches.
+     */
+    void finish() {
+      finished = true;
+    }
+
+    @Override
+    protected TupleBatch fetchNextReady() {
+      final TupleBatch ret = next;
+      next = null;
+      if (ret == null && finished) {
+        setEOS();
+      }
+      return ret;
+    }
+
+    @Override
+    protected void checkEOSAndEOI() {
+      // Having nothing to serve does not mean EOS until finish() is called, nor EOI until endIteration() is.
+      if (iterationEnded) {
+        iterationEnded = false;
+        setEOI(true);
+      }
+    }
+
+    @Override
+    protected Schema generateSchema() {
+      return schema;
+    }
+  }
+}
@@ -7,7 +7,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.gs.collections.api.block.procedure.primitive.IntProcedure;
 import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
 import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
@@ -16,9 +15,9 @@ import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.storage.MutableTupleBuffer;
+import edu.washington.escience.myria.storage.StringKeyCodes;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
-import edu.washington.escience.myria.storage.TupleUtils;
 import edu.washington.escience.myria.util.HashUtils;
 import edu.washington.escience.myria.util.MyriaArrayUtils;
 
@@ -54,60 +53,30 @@ public final class RightHashJoin extends BinaryOperator {
    * The buffer holding the valid tuples from right.
    */
   private transient MutableTupleBuffer rightHashTable;
+  /**
+   * The dictionary codes of the string join keys of the right hash table, or null if no join key is a string.
+   */
+  private transient StringKeyCodes rightKeyCodes;
   /**
    * The buffer holding the results.
    */
   private transient TupleBatchBuffer ans;
+  /**
+   * Reused buffer holding the hash codes of the join keys of the TupleBatch being processed.
+   */
+  private transient int[] batchHashCodes;
   /** Which columns in the left child are to be output. */
   private final int[] leftAnswerColumns;
   /** Which columns in the right child are to be output. */
   private final int[] rightAnswerColumns;
 
   /**
-   * Traverse through the list of tuples with the same hash code.
+   * Reused buffer holding the matches of the TupleBatch being processed.
    */
-  private final class JoinProcedure implements IntProcedure {
-
-    /** serial version id. */
-    private static final long serialVersionUID = 1L;
+  private transient JoinMatches matches;
 
-    /**
-     * Hash table.
-     */
-    private MutableTupleBuffer joinAgainstHashTable;
-
-    /**
-     *
-     * */
-    private int[] inputCmpColumns;
-
-    /**
-     * the columns to compare against.
-     */
-    private int[] joinAgainstCmpColumns;
-    /**
-     * row index of the tuple.
-     */
-    private int row;
-
-    /**
-     * input TupleBatch.
-     */
-    private TupleBatch inputTB;
-
-    @Override
-    public void value(final int index) {
-      if (TupleUtils.tupleEquals(
-          inputTB, inputCmpColumns, row, joinAgainstHashTable, joinAgainstCmpColumns, index)) {
-        addToAns(inputTB, row, joinAgainstHashTable, index);
-      }
-    }
-  };
-
-  /**
-   * Traverse through the list of tuples.
-   */
-  private transient JoinProcedure doJoin;
+  /** The Bloom filter on the join keys of the right child, or null if none is built. */
+  private JoinBloomFilter bloomFilter;
 
   /**
    * Construct an EquiJoin operator. It returns all columns from both children when the corresponding columns in
@@ -275,27 +244,17 @@ public final class RightHashJoin extends BinaryOperator {
     }
   }
 
-  /**
-   * @param cntTB current TB
-   * @param row current row
-   * @param hashTable the buffer holding the tuples to join against
-   * @param index the index of hashTable, which the cntTuple is to join with
-   */
-  protected void addToAns(
-      final TupleBatch cntTB, final int row, final MutableTupleBuffer hashTable, final int index) {
-    for (int leftAnswerColumn : leftAnswerColumns) {
-      ans.append(cntTB, leftAnswerColumn, row);
-    }
-    for (int rightAnswerColumn : rightAnswerColumns) {
-      ans.append(hashTable, rightAnswerColumn, index);
-    }
-  }
-
   @Override
   protected void cleanup() throws DbException {
     rightHashTable = null;
+    rightKeyCodes = null;
     rightHashTableIndices = null;
     ans = null;
+    batchHashCodes = null;
+    matches = null;
+    if (bloomFilter != null) {
+      bloomFilter.cleanup();
+    }
   }
 
   @Override
@@ -358,6 +317,9 @@ public final class RightHashJoin extends BinaryOperator {
       }
       processRightChildTB(rightTB);
     }
+    if (bloomFilter != null) {
+      bloomFilter.publishAtEOS(right);
+    }
 
     /* The right child is done, let's drain the left child. */
     final Operator left = getLeft();
@@ -397,30 +359,39 @@ public final class RightHashJoin extends BinaryOperator {
 
     rightHashTableIndices = new IntObjectHashMap<>();
     rightHashTable = new MutableTupleBuffer(right.getSchema());
+    rightKeyCodes = StringKeyCodes.forKeys(right.getSchema(), rightCompareIndx);
 
     ans = new TupleBatchBuffer(getSchema());
-    doJoin = new JoinProcedure();
+    matches = new JoinMatches();
+    if (bloomFilter != null) {
+      bloomFilter.init(execEnvVars);
+    }
   }
 
   /**
-   * Process the tuples from left child.
+   * Process the tuples from left child: probe the hash table with the whole batch, then gather the joined tuples column
+   * by column.
    *
    * @param tb TupleBatch to be processed.
    */
   protected void processLeftChildTB(final TupleBatch tb) {
-    doJoin.joinAgainstHashTable = rightHashTable;
-    doJoin.inputCmpColumns = leftCompareIndx;
-    doJoin.joinAgainstCmpColumns = rightCompareIndx;
-    doJoin.inputTB = tb;
-
-    for (int row = 0; row < tb.numTuples(); ++row) {
-      final int cntHashCode = HashUtils.hashSubRow(tb, doJoin.inputCmpColumns, row);
-      IntArrayList tuplesWithHashCode = rightHashTableIndices.get(cntHashCode);
-      if (tuplesWithHashCode != null) {
-        doJoin.row = row;
-        tuplesWithHashCode.forEach(doJoin);
-      }
-    }
+    batchHashCodes = HashUtils.hashSubRows(tb, leftCompareIndx, batchHashCodes);
+    matches.probe(
+        tb,
+        batchHashCodes,
+        leftCompareIndx,
+        rightHashTableIndices,
+        rightHashTable,
+        rightCompareIndx,
+        rightKeyCodes);
+    ans.appendJoined(
+        tb,
+        matches.probeRows(),
+        leftAnswerColumns,
+        rightHashTable,
+        matches.buildRows(),
+        rightAnswerColumns,
+        matches.size());
   }
 
   /**
@@ -430,8 +401,12 @@ public final class RightHashJoin extends BinaryOperator {
    */
   protected void processRightChildTB(final TupleBatch tb) {
 
+    batchHashCodes = HashUtils.hashSubRows(tb, rightCompareIndx, batchHashCodes);
+    if (bloomFilter != null) {
+      bloomFilter.addRows(tb, rightCompareIndx);
+    }
     for (int row = 0; row < tb.numTuples(); ++row) {
-      final int cntHashCode = HashUtils.hashSubRow(tb, rightCompareIndx, row);
+      final int cntHashCode = batchHashCodes[row];
       // only build hash table on two sides if none of the children is EOS
       addToHashTable(tb, row, rightHashTable, rightHashTableIndices, cntHashCode);
     }
@@ -457,9 +432,24 @@ public final class RightHashJoin extends BinaryOperator {
       hashTable1IndicesLocal.put(hashCode, tupleIndicesList);
     }
     tupleIndicesList.add(nextIndex);
+    if (rightKeyCodes != null) {
+      rightKeyCodes.add(tb, rightCompareIndx, row);
+    }
     List<? extends Column<?>> inputColumns = tb.getDataColumns();
     for (int column = 0; column < tb.numColumns(); column++) {
       hashTable.put(column, inputColumns.get(column), row);
     }
   }
+
+  /**
+   * Fill a Bloom filter with the join keys of the right child while building the hash table, and publish it once the
+   * right child is at EOS for a {@link BloomFilterSource} of the same subquery to ship to the probe side.
+   *
+   * @param name the name the filter is published under.
+   * @param numBits the number of bits of the filter, a power of two.
+   * @param numHashes the number of hash functions of the filter.
+   */
+  public void setBloomFilter(final String name, final int numBits, final int numHashes) {
+    bloomFilter = new JoinBloomFilter(name, numBits, numHashes);
+  }
 }
@@ -0,0 +1,81 @@
+package edu.washington.escience.myria.operator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.parallel.LocalFragment;
+import edu.washington.escience.myria.util.BloomFilter;
+
+/**
+ * The Bloom filters built by the hash joins of a subquery on a worker, by name, so that the {@link BloomFilterSource}s
+ * of the same subquery can ship them to the probe side.
+ *
+ * A join publishes its filter once it has seen its whole build side. A source asking for a filter that is not published
+ * yet registers its fragment, which is woken up when the filter is published. One instance is shared by all the
+ * fragments of a subquery through {@link MyriaConstants#EXEC_ENV_VAR_BLOOM_FILTERS}.
+ */
+public final class SharedBloomFilters {
+  /** The published filters. */
+  private final Map<String, BloomFilter> filters = new HashMap<>();
+  /** The fragments waiting for a filter to be published. */
+  private final Map<String, List<LocalFragment>> waiting = new HashMap<>();
+
+  /**
+   * @param execEnvVars the execution environment variables of an operator.
+   * @return the filters of the subquery of the operator.
+   */
+  static SharedBloomFilters of(final ImmutableMap<String, Object> execEnvVars) {
+    return (SharedBloomFilters)
+        Preconditions.checkNotNull(
+            execEnvVars.get(MyriaConstants.EXEC_ENV_VAR_BLOOM_FILTERS),
+            "no Bloom filters in the execution environment");
+  }
+
+  /**
+   * Publish a filter and wake up the fragments waiting for it.
+   *
+   * @param name the name of the filter.
+   * @param filter the filter, which must not be modified afterwards.
+   */
+  public void publish(final String name, final BloomFilter filter) {
+    final List<LocalFragment> waiters;
+    synchronized (this) {
+      Preconditions.checkState(
+          !filters.containsKey(name), "Bloom filter %s is already published", name);
+      filters.put(name, filter);
+      waiters = waiting.remove(name);
+    }
+    if (waiters != null) {
+      for (LocalFragment fragment : waiters) {
+        fragment.notifyNewInput();
+      }
+    }
+  }
+
+  /**
+   * @param name the name of a filter.
+   * @param waiter the fragment to wake up when the filter is published, or {@code null}.
+   * @return the filter, or {@code null} if it is not published yet.
+   */
+  @Nullable
+  public synchronized BloomFilter get(final String name, @Nullable final LocalFragment waiter) {
+    final BloomFilter filter = filters.get(name);
+    if (filter == null && waiter != null) {
+      List<LocalFragment> waiters = waiting.get(name);
+      if (waiters == null) {
+        waiters = new ArrayList<>(1);
+        waiting.put(name, waiters);
+      }
+      waiters.add(waiter);
+    }
+    return filter;
+  }
+}
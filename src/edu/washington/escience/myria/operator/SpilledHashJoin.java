@@ -0,0 +1,686 @@
+package edu.washington.escience.myria.operator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
+import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.proto.TransportProto.TransportMessage;
+import edu.washington.escience.myria.storage.MutableTupleBuffer;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.HashUtils;
+import edu.washington.escience.myria.util.IPCUtils;
+
+/**
+ * The state of a {@link SymmetricHashJoin} which ran out of its memory budget and spilled to disk: a Grace hash join
+ * over run files in a local temporary directory, holding TupleBatches in their transport serialization.
+ *
+ * When the join spills, the tuples of its hash tables are written to {@link #NUM_PARTITIONS} partitions per child, by
+ * hash code of the join key. These "old" tuples have already been joined with each other, so only the tuples arriving
+ * afterwards, the "new" ones, are written to new runs of their partition without being joined. When the join is ready
+ * for EOI or EOS, it drains: each partition joins its new left tuples with all its right tuples, and its old left
+ * tuples with its new right tuples. The new tuples then become old. A partition whose smaller side does not fit in the
+ * memory budget is partitioned again using the next bits of the hash codes, up to {@link #MAX_LEVELS} levels deep.
+ */
+final class SpilledHashJoin {
+  /** The number of hash code bits used to pick a partition at each level. */
+  private static final int PARTITION_BITS = 4;
+  /** The number of partitions at each level. */
+  static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+  /** The most levels of partitioning. Beyond, e.g. for a single heavy key, a partition is joined in memory anyway. */
+  static final int MAX_LEVELS = 4;
+  /** Multiplier spreading hash codes before picking partitions (Fibonacci hashing). */
+  private static final int SPREAD = 0x9E3779B9;
+  /** Estimated bytes of a hash table entry, in addition to the tuple. */
+  private static final int ENTRY_BYTES = 16;
+  /** Estimated bytes of a string, in addition to its characters. */
+  private static final int STRING_BYTES = 40;
+  /** Estimated bytes of a date time. */
+  private static final int DATETIME_BYTES = 32;
+
+  /** The schema of the left child. */
+  private final Schema leftSchema;
+  /** The schema of the right child. */
+  private final Schema rightSchema;
+  /** The join key columns of the left child. */
+  private final int[] leftCompareIndx;
+  /** The join key columns of the right child. */
+  private final int[] rightCompareIndx;
+  /** Which columns in the left child are to be output. */
+  private final int[] leftAnswerColumns;
+  /** Which columns in the right child are to be output. */
+  private final int[] rightAnswerColumns;
+  /** The memory budget of an in-memory partition join, in bytes. */
+  private final long memoryBudget;
+  /** The buffer holding the results. */
+  private final TupleBatchBuffer ans;
+  /** The directory holding the run files. */
+  private final File directory;
+  /** The number of run files created so far, used to name them. */
+  private int numFiles;
+  /** For each partition, the runs of old tuples of the left child. */
+  private final List<List<RunFile>> oldLeft;
+  /** For each partition, the runs of old tuples of the right child. */
+  private final List<List<RunFile>> oldRight;
+  /** For each partition, the run of new tuples of the left child, or {@code null} if there are none. */
+  private final RunFile[] newLeft;
+  /** For each partition, the run of new tuples of the right child, or {@code null} if there are none. */
+  private final RunFile[] newRight;
+  /** The partition joins left to do while draining, the current one first. */
+  private final Deque<PartitionJoin> jobs;
+  /** Reused buffer holding the matches of the TupleBatch being probed. */
+  private final JoinMatches matches;
+  /** Reused buffer holding the hash codes of the join keys of the TupleBatch being processed. */
+  private int[] batchHashCodes;
+
+  /**
+   * @param leftSchema the schema of the left child.
+   * @param rightSchema the schema of the right child.
+   * @param leftCompareIndx the join key columns of the left child.
+   * @param rightCompareIndx the join key columns of the right child.
+   * @param leftAnswerColumns which columns in the left child are to be output.
+   * @param rightAnswerColumns which columns in the right child are to be output.
+   * @param memoryBudget the memory budget of an in-memory partition join, in bytes.
+   * @param ans the buffer holding the results.
+   * @throws DbException if the temporary directory cannot be created.
+   */
+  SpilledHashJoin(
+      final Schema leftSchema,
+      final Schema rightSchema,
+      final int[] leftCompareIndx,
+      final int[] rightCompareIndx,
+      final int[] leftAnswerColumns,
+      final int[] rightAnswerColumns,
+      final long memoryBudget,
+      final TupleBatchBuffer ans)
+      throws DbException {
+    this.leftSchema = leftSchema;
+    this.rightSchema = rightSchema;
+    this.leftCompareIndx = leftCompareIndx;
+    this.rightCompareIndx = rightCompareIndx;
+    this.leftAnswerColumns = leftAnswerColumns;
+    this.rightAnswerColumns = rightAnswerColumns;
+    this.memoryBudget = memoryBudget;
+    this.ans = ans;
+    try {
+      directory = Files.createTempDirectory("myria-join-spill").toFile();
+    } catch (IOException e) {
+      throw new DbException(e);
+    }
+    oldLeft = new ArrayList<>(NUM_PARTITIONS);
+    oldRight = new ArrayList<>(NUM_PARTITIONS);
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      oldLeft.add(new ArrayList<RunFile>());
+      oldRight.add(new ArrayList<RunFile>());
+    }
+    newLeft = new RunFile[NUM_PARTITIONS];
+    newRight = new RunFile[NUM_PARTITIONS];
+    jobs = new ArrayDeque<>();
+    matches = new JoinMatches();
+  }
+
+  /**
+   * @param tb a TupleBatch.
+   * @return the estimated bytes taken by the tuples of the TupleBatch in a hash table.
+   */
+  static long estimateBytes(final TupleBatch tb) {
+    final int numTuples = tb.numTuples();
+    long bytes = (long) numTuples * ENTRY_BYTES;
+    for (Column<?> column : tb.getDataColumns()) {
+      switch (column.getType()) {
+        case BOOLEAN_TYPE:
+          bytes += numTuples;
+          break;
+        case INT_TYPE:
+        case FLOAT_TYPE:
+          bytes += 4L * numTuples;
+          break;
+        case LONG_TYPE:
+        case DOUBLE_TYPE:
+          bytes += 8L * numTuples;
+          break;
+        case DATETIME_TYPE:
+          bytes += (long) DATETIME_BYTES * numTuples;
+          break;
+        case STRING_TYPE:
+          for (int row = 0; row < numTuples; ++row) {
+            bytes += STRING_BYTES + 2L * column.getString(row).length();
+          }
+          break;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Write the tuples of the hash tables of the join as old tuples.
+   *
+   * @param leftTuples the tuples of the left child, or {@code null} if not kept.
+   * @param rightTuples the tuples of the right child, or {@code null} if not kept.
+   * @throws DbException if there is an error writing the runs.
+   */
+  void spill(final MutableTupleBuffer leftTuples, final MutableTupleBuffer rightTuples)
+      throws DbException {
+    final RunFile[] leftRuns = new RunFile[NUM_PARTITIONS];
+    final RunFile[] rightRuns = new RunFile[NUM_PARTITIONS];
+    if (leftTuples != null) {
+      for (TupleBatch tb : leftTuples.getAll()) {
+        partition(tb, leftCompareIndx, 0, leftRuns);
+      }
+    }
+    if (rightTuples != null) {
+      for (TupleBatch tb : rightTuples.getAll()) {
+        partition(tb, rightCompareIndx, 0, rightRuns);
+      }
+    }
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      addIfNotEmpty(finish(leftRuns[p]), oldLeft.get(p));
+      addIfNotEmpty(finish(rightRuns[p]), oldRight.get(p));
+    }
+  }
+
+  /**
+   * Write a TupleBatch arriving after the join spilled as new tuples.
+   *
+   * @param tb the TupleBatch.
+   * @param fromLeft if the TupleBatch is from the left child.
+   * @throws DbException if there is an error writing the runs.
+   */
+  void add(final TupleBatch tb, final boolean fromLeft) throws DbException {
+    if (fromLeft) {
+      partition(tb, leftCompareIndx, 0, newLeft);
+    } else {
+      partition(tb, rightCompareIndx, 0, newRight);
+    }
+  }
+
+  /**
+   * @return if there are new tuples or partition joins left to do.
+   */
+  boolean hasPendingWork() {
+    if (!jobs.isEmpty()) {
+      return true;
+    }
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      if (newLeft[p] != null || newRight[p] != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Join the new tuples, until the answer buffer holds a filled TupleBatch or all new tuples are joined.
+   *
+   * @throws DbException if there is an error reading or writing the runs.
+   */
+  void drain() throws DbException {
+    if (jobs.isEmpty()) {
+      startDrain();
+    }
+    while (!jobs.isEmpty() && !ans.hasFilledTB()) {
+      step();
+    }
+  }
+
+  /**
+   * Schedule the partition joins of the new tuples, and make the new tuples old.
+   *
+   * @throws DbException if there is an error writing the runs.
+   */
+  private void startDrain() throws DbException {
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      final RunFile left = finish(newLeft[p]);
+      final RunFile right = finish(newRight[p]);
+      newLeft[p] = null;
+      newRight[p] = null;
+      final List<RunFile> allRight = new ArrayList<>(oldRight.get(p));
+      addIfNotEmpty(right, allRight);
+      if (left != null && !allRight.isEmpty()) {
+        jobs.addLast(new PartitionJoin(singleton(left), allRight, 0, false));
+      }
+      if (right != null && !oldLeft.get(p).isEmpty()) {
+        jobs.addLast(
+            new PartitionJoin(new ArrayList<>(oldLeft.get(p)), singleton(right), 0, false));
+      }
+      addIfNotEmpty(left, oldLeft.get(p));
+      addIfNotEmpty(right, oldRight.get(p));
+    }
+  }
+
+  /**
+   * Do one unit of work of the current partition join: partition it further, build its hash table, or probe the hash
+   * table with one TupleBatch.
+   *
+   * @throws DbException if there is an error reading or writing the runs.
+   */
+  private void step() throws DbException {
+    final PartitionJoin job = jobs.peekFirst();
+    if (job.hashTable == null) {
+      final long leftBytes = numBytes(job.leftRuns);
+      final long rightBytes = numBytes(job.rightRuns);
+      if (Math.min(leftBytes, rightBytes) > memoryBudget && job.level + 1 < MAX_LEVELS) {
+        jobs.pollFirst();
+        repartition(job);
+      } else {
+        job.build(leftBytes <= rightBytes);
+      }
+      return;
+    }
+
+    final TupleBatch tb = job.nextProbeBatch();
+    if (tb == null) {
+      jobs.pollFirst();
+      job.finish();
+      return;
+    }
+    final int[] probeCmpColumns = job.buildLeft ? rightCompareIndx : leftCompareIndx;
+    final int[] buildCmpColumns = job.buildLeft ? leftCompareIndx : rightCompareIndx;
+    batchHashCodes = HashUtils.hashSubRows(tb, probeCmpColumns, batchHashCodes);
+    matches.probe(
+        tb, batchHashCodes, probeCmpColumns, job.indices, job.hashTable, buildCmpColumns, null);
+    if (job.buildLeft) {
+      ans.appendJoined(
+          job.hashTable,
+          matches.buildRows(),
+          leftAnswerColumns,
+          tb,
+          matches.probeRows(),
+          rightAnswerColumns,
+          matches.size());
+    } else {
+      ans.appendJoined(
+          tb,
+          matches.probeRows(),
+          leftAnswerColumns,
+          job.hashTable,
+          matches.buildRows(),
+          rightAnswerColumns,
+          matches.size());
+    }
+  }
+
+  /**
+   * Replace a partition join by the joins of its sub-partitions at the next level, to be done next.
+   *
+   * @param job the partition join.
+   * @throws DbException if there is an error reading or writing the runs.
+   */
+  private void repartition(final PartitionJoin job) throws DbException {
+    final int level = job.level + 1;
+    final RunFile[] leftRuns = new RunFile[NUM_PARTITIONS];
+    final RunFile[] rightRuns = new RunFile[NUM_PARTITIONS];
+    for (RunFile run : job.leftRuns) {
+      final RunReader reader = new RunReader(singleton(run).iterator(), leftSchema);
+      for (TupleBatch tb = reader.next(); tb != null; tb = reader.next()) {
+        partition(tb, leftCompareIndx, level, leftRuns);
+      }
+    }
+    for (RunFile run : job.rightRuns) {
+      final RunReader reader = new RunReader(singleton(run).iterator(), rightSchema);
+      for (TupleBatch tb = reader.next(); tb != null; tb = reader.next()) {
+        partition(tb, rightCompareIndx, level, rightRuns);
+      }
+    }
+    job.finish();
+    for (int p = NUM_PARTITIONS - 1; p >= 0; --p) {
+      final RunFile left = finish(leftRuns[p]);
+      final RunFile right = finish(rightRuns[p]);
+      if (left != null && right != null) {
+        jobs.addFirst(new PartitionJoin(singleton(left), singleton(right), level, true));
+      } else {
+        delete(left);
+        delete(right);
+      }
+    }
+  }
+
+  /**
+   * Append the rows of a TupleBatch to the runs of their partitions.
+   *
+   * @param tb the TupleBatch.
+   * @param cmpColumns the join key columns of the TupleBatch.
+   * @param level the level of partitioning, which picks the hash code bits.
+   * @param runs the run of each partition, created as needed.
+   * @throws DbException if there is an error writing the runs.
+   */
+  private void partition(
+      final TupleBatch tb, final int[] cmpColumns, final int level, final RunFile[] runs)
+      throws DbException {
+    batchHashCodes = HashUtils.hashSubRows(tb, cmpColumns, batchHashCodes);
+    final BitSet[] rows = new BitSet[NUM_PARTITIONS];
+    final int shift = Integer.SIZE - PARTITION_BITS * (level + 1);
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      final int p = ((batchHashCodes[row] * SPREAD) >>> shift) & (NUM_PARTITIONS - 1);
+      if (rows[p] == null) {
+        rows[p] = new BitSet(tb.numTuples());
+      }
+      rows[p].set(row);
+    }
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      if (rows[p] != null) {
+        if (runs[p] == null) {
+          runs[p] = new RunFile(new File(directory, "run" + numFiles++));
+        }
+        runs[p].append(tb.filter(rows[p]));
+      }
+    }
+  }
+
+  /**
+   * Close the runs still open, e.g. when the query is killed while the join is spilling, then delete all run files and
+   * the temporary directory.
+   */
+  void close() {
+    for (PartitionJoin job : jobs) {
+      job.finish();
+    }
+    jobs.clear();
+    for (int p = 0; p < NUM_PARTITIONS; ++p) {
+      discard(newLeft[p]);
+      discard(newRight[p]);
+      newLeft[p] = null;
+      newRight[p] = null;
+    }
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /**
+   * @param run a run, or {@code null}.
+   * @return the run, finished, or {@code null}.
+   * @throws DbException if there is an error writing the run.
+   */
+  private static RunFile finish(final RunFile run) throws DbException {
+    if (run != null) {
+      run.finish();
+    }
+    return run;
+  }
+
+  /**
+   * @param run a run, or {@code null}, whose tuples are no longer needed.
+   */
+  private static void discard(final RunFile run) {
+    if (run != null) {
+      run.discard();
+    }
+  }
+
+  /**
+   * @param run a run, or {@code null}.
+   */
+  private static void delete(final RunFile run) {
+    if (run != null) {
+      run.file.delete();
+    }
+  }
+
+  /**
+   * @param run a run, or {@code null}.
+   * @param runs where to add the run if it is not {@code null}.
+   */
+  private static void addIfNotEmpty(final RunFile run, final List<RunFile> runs) {
+    if (run != null) {
+      runs.add(run);
+    }
+  }
+
+  /**
+   * @param run a run.
+   * @return a mutable list holding only the run.
+   */
+  private static List<RunFile> singleton(final RunFile run) {
+    final List<RunFile> ret = new ArrayList<>(1);
+    ret.add(run);
+    return ret;
+  }
+
+  /**
+   * @param runs finished runs.
+   * @return the total size of the runs in bytes.
+   */
+  private static long numBytes(final List<RunFile> runs) {
+    long bytes = 0;
+    for (RunFile run : runs) {
+      bytes += run.file.length();
+    }
+    return bytes;
+  }
+
+  /**
+   * The in-memory join of the runs of one partition of each child: the runs of the smaller side are loaded into a hash
+   * table, then probed with the runs of the other side a TupleBatch at a time.
+   */
+  private final class PartitionJoin {
+    /** The runs of the left child. */
+    private final List<RunFile> leftRuns;
+    /** The runs of the right child. */
+    private final List<RunFile> rightRuns;
+    /** The level of partitioning the runs come from. */
+    private final int level;
+    /** If the runs are deleted once joined, i.e., they are sub-partitions. */
+    private final boolean ownsRuns;
+    /** If the hash table holds the left runs. */
+    private boolean buildLeft;
+    /** The tuples of the hash table, or {@code null} if not built yet. */
+    private MutableTupleBuffer hashTable;
+    /** The hash table. {Hashcode -> List of tuple indices with the same hash code} */
+    private IntObjectHashMap<IntArrayList> indices;
+    /** Reads the probing runs. */
+    private RunReader probeReader;
+
+    /**
+     * @param leftRuns the runs of the left child.
+     * @param rightRuns the runs of the right child.
+     * @param level the level of partitioning the runs come from.
+     * @param ownsRuns if the runs are deleted once joined.
+     */
+    PartitionJoin(
+        final List<RunFile> leftRuns,
+        final List<RunFile> rightRuns,
+        final int level,
+        final boolean ownsRuns) {
+      this.leftRuns = leftRuns;
+      this.rightRuns = rightRuns;
+      this.level = level;
+      this.ownsRuns = ownsRuns;
+    }
+
+    /**
+     * Load the runs of one side into the hash table.
+     *
+     * @param fromLeft if the hash table holds the left runs.
+     * @throws DbException if there is an error reading the runs.
+     */
+    void build(final boolean fromLeft) throws DbException {
+      buildLeft = fromLeft;
+      final Schema schema = fromLeft ? leftSchema : rightSchema;
+      final int[] cmpColumns = fromLeft ? leftCompareIndx : rightCompareIndx;
+      hashTable = new MutableTupleBuffer(schema);
+      indices = new IntObjectHashMap<>();
+      final RunReader reader = new RunReader((fromLeft ? leftRuns : rightRuns).iterator(), schema);
+      for (TupleBatch tb = reader.next(); tb != null; tb = reader.next()) {
+        batchHashCodes = HashUtils.hashSubRows(tb, cmpColumns, batchHashCodes);
+        final List<? extends Column<?>> inputColumns = tb.getDataColumns();
+        for (int row = 0; row < tb.numTuples(); ++row) {
+          final int nextIndex = hashTable.numTuples();
+          IntArrayList tupleIndicesList = indices.get(batchHashCodes[row]);
+          if (tupleIndicesList == null) {
+            tupleIndicesList = new IntArrayList(1);
+            indices.put(batchHashCodes[row], tupleIndicesList);
+          }
+          tupleIndicesList.add(nextIndex);
+          for (int column = 0; column < tb.numColumns(); column++) {
+            hashTable.put(column, inputColumns.get(column), row);
+          }
+        }
+      }
+      probeReader =
+          new RunReader(
+              (fromLeft ? rightRuns : leftRuns).iterator(), fromLeft ? rightSchema : leftSchema);
+    }
+
+    /**
+     * @return the next TupleBatch of the probing runs, or {@code null} if there are no more.
+     * @throws DbException if there is an error reading the runs.
+     */
+    TupleBatch nextProbeBatch() throws DbException {
+      return probeReader.next();
+    }
+
+    /** Release the hash table, and delete the runs if owned. */
+    void finish() {
+      hashTable = null;
+      indices = null;
+      if (probeReader != null) {
+        probeReader.close();
+        probeReader = null;
+      }
+      if (ownsRuns) {
+        for (RunFile run : leftRuns) {
+          delete(run);
+        }
+        for (RunFile run : rightRuns) {
+          delete(run);
+        }
+      }
+    }
+  }
+
+  /** A file of TupleBatches, each written as a length-delimited transport message. */
+  private static final class RunFile {
+    /** The file. */
+    private final File file;
+    /** The stream writing the file, or {@code null} if finished. */
+    private OutputStream out;
+
+    /**
+     * @param file the file.
+     */
+    RunFile(final File file) {
+      this.file = file;
+    }
+
+    /**
+     * @param tb the TupleBatch to append.
+     * @throws DbException if there is an error writing the file.
+     */
+    void append(final TupleBatch tb) throws DbException {
+      try {
+        if (out == null) {
+          out = new BufferedOutputStream(new FileOutputStream(file, true));
+        }
+        tb.toTransportMessage().writeDelimitedTo(out);
+      } catch (IOException e) {
+        throw new DbException(e);
+      }
+    }
+
+    /**
+     * Close the file, so that it can be read.
+     *
+     * @throws DbException if there is an error writing the file.
+     */
+    void finish() throws DbException {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          throw new DbException(e);
+        }
+        out = null;
+      }
+    }
+
+    /** Close the file without reporting errors, since its tuples are no longer needed. */
+    void discard() {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          /* The file is deleted anyway. */
+        }
+        out = null;
+      }
+    }
+  }
+
+  /** Reads the TupleBatches of a sequence of runs. */
+  private static final class RunReader {
+    /** The runs left to read. */
+    private final Iterator<RunFile> runs;
+    /** The schema of the TupleBatches. */
+    private final Schema schema;
+    /** The stream reading the current run, or {@code null}. */
+    private InputStream in;
+
+    /**
+     * @param runs the runs to read.
+     * @param schema the schema of the TupleBatches.
+     */
+    RunReader(final Iterator<RunFile> runs, final Schema schema) {
+      this.runs = runs;
+      this.schema = schema;
+    }
+
+    /**
+     * @return the next TupleBatch, or {@code null} if there are no more.
+     * @throws DbException if there is an error reading the runs.
+     */
+    TupleBatch next() throws DbException {
+      try {
+        while (true) {
+          if (in == null) {
+            if (!runs.hasNext()) {
+              return null;
+            }
+            in = new BufferedInputStream(new FileInputStream(runs.next().file));
+          }
+          final TransportMessage tm = TransportMessage.parseDelimitedFrom(in);
+          if (tm != null) {
+            return IPCUtils.tmToTupleBatch(tm.getDataMessage(), schema);
+          }
+          close();
+        }
+      } catch (IOException e) {
+        throw new DbException(e);
+      }
+    }
+
+    /** Close the current run. */
+    void close() {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          /* Only read from, nothing is lost. */
+        }
+        in = null;
+      }
+    }
+  }
+}
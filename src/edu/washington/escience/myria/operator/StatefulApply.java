@@ -16,6 +16,7 @@ import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.evaluate.CommonSubexpressions;
 import edu.washington.escience.myria.expression.evaluate.ConstantEvaluator;
 import edu.washington.escience.myria.expression.evaluate.ExpressionOperatorParameter;
 import edu.washington.escience.myria.expression.evaluate.GenericEvaluator;
@@ -105,6 +106,7 @@ public class StatefulApply extends Apply {
     if (tb == null) {
       return null;
     }
+    tb = getCommonSubexpressions().evaluate(tb);
 
     final int numColumns = getSchema().numColumns();
 
@@ -163,18 +165,21 @@ public class StatefulApply extends Apply {
 
     final Schema inputSchema = getChild().getSchema();
 
+    final CommonSubexpressions shared =
+        new CommonSubexpressions(
+            getEmitExpressions(),
+            new ExpressionOperatorParameter(inputSchema, getStateSchema(), getNodeID()));
     ArrayList<GenericEvaluator> evaluators = new ArrayList<>();
     evaluators.ensureCapacity(getEmitExpressions().size());
-    for (Expression expr : getEmitExpressions()) {
-      GenericEvaluator evaluator =
-          new GenericEvaluator(
-              expr, new ExpressionOperatorParameter(inputSchema, getStateSchema(), getNodeID()));
+    for (Expression expr : shared.getExpressions()) {
+      GenericEvaluator evaluator = new GenericEvaluator(expr, shared.getParameters());
       if (evaluator.needsCompiling()) {
         evaluator.compile();
       }
       evaluators.add(evaluator);
     }
     setEmitEvaluators(evaluators);
+    setCommonSubexpressions(shared);
 
     updateEvaluators = new ArrayList<>();
     updateEvaluators.ensureCapacity(updateExpressions.size());
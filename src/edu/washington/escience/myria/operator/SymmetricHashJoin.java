@@ -18,6 +18,7 @@ import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.parallel.QueryExecutionMode;
 import edu.washington.escience.myria.storage.MutableTupleBuffer;
+import edu.washington.escience.myria.storage.StringKeyCodes;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
 import edu.washington.escience.myria.storage.TupleUtils;
@@ -62,10 +63,22 @@ public final class SymmetricHashJoin extends BinaryOperator {
    * The buffer holding the valid tuples from right.
    */
   private transient MutableTupleBuffer hashTable2;
+  /**
+   * The dictionary codes of the string join keys of the left hash table, or null if no join key is a string.
+   */
+  private transient StringKeyCodes keyCodes1;
+  /**
+   * The dictionary codes of the string join keys of the right hash table, or null if no join key is a string.
+   */
+  private transient StringKeyCodes keyCodes2;
   /**
    * The buffer holding the results.
    */
   private transient TupleBatchBuffer ans;
+  /**
+   * Reused buffer holding the hash codes of the join keys of the TupleBatch being processed.
+   */
+  private transient int[] batchHashCodes;
   /** Which columns in the left child are to be output. */
   private final int[] leftAnswerColumns;
   /** Which columns in the right child are to be output. */
@@ -74,7 +87,7 @@ public final class SymmetricHashJoin extends BinaryOperator {
   /**
    * Traverse through the list of tuples with the same hash code.
    */
-  private final class JoinProcedure implements IntProcedure {
+  private final class ReplaceProcedure implements IntProcedure {
 
     /** serialization id. */
     private static final long serialVersionUID = 1L;
@@ -82,52 +95,12 @@ public final class SymmetricHashJoin extends BinaryOperator {
     /**
      * Hash table.
      */
-    private MutableTupleBuffer joinAgainstHashTable;
-
-    /**
-     *
-     * */
-    private int[] inputCmpColumns;
-
-    /**
-     * the columns to compare against.
-     */
-    private int[] joinAgainstCmpColumns;
-    /**
-     * row index of the tuple.
-     */
-    private int row;
-
-    /**
-     * input TupleBatch.
-     */
-    private TupleBatch inputTB;
-    /**
-     * if the tuple which is comparing against the list of tuples with the same hash code is from left child.
-     */
-    private boolean fromLeft;
-
-    @Override
-    public void value(final int index) {
-      if (TupleUtils.tupleEquals(
-          inputTB, inputCmpColumns, row, joinAgainstHashTable, joinAgainstCmpColumns, index)) {
-        addToAns(inputTB, row, joinAgainstHashTable, index, fromLeft);
-      }
-    }
-  };
-
-  /**
-   * Traverse through the list of tuples with the same hash code.
-   */
-  private final class ReplaceProcedure implements IntProcedure {
-
-    /** serialization id. */
-    private static final long serialVersionUID = 1L;
+    private MutableTupleBuffer hashTable;
 
     /**
-     * Hash table.
+     * The codes of the string keys of the hash table.
      */
-    private MutableTupleBuffer hashTable;
+    private StringKeyCodes keyCodes;
 
     /**
      * the columns to compare against.
@@ -148,7 +121,8 @@ public final class SymmetricHashJoin extends BinaryOperator {
 
     @Override
     public void value(final int index) {
-      if (TupleUtils.tupleEquals(inputTB, keyColumns, row, hashTable, keyColumns, index)) {
+      if (TupleUtils.tupleEquals(
+          inputTB, keyColumns, row, hashTable, keyColumns, index, keyCodes)) {
         replaced = true;
         List<? extends Column<?>> columns = inputTB.getDataColumns();
         for (int j = 0; j < inputTB.numColumns(); ++j) {
@@ -159,9 +133,9 @@ public final class SymmetricHashJoin extends BinaryOperator {
   };
 
   /**
-   * Traverse through the list of tuples.
+   * Reused buffer holding the matches of the TupleBatch being processed.
    */
-  private transient JoinProcedure doJoin;
+  private transient JoinMatches matches;
 
   /**
    * Traverse through the list of tuples and replace old values.
@@ -179,6 +153,15 @@ public final class SymmetricHashJoin extends BinaryOperator {
   /** if the hash table of the right child should use set semantics. */
   private boolean setSemanticsRight = false;
 
+  /** The memory budget of the hash tables in bytes, or 0 if unbounded. */
+  private long memoryBudget = 0;
+  /** The estimated bytes taken by the hash tables. */
+  private transient long hashTableBytes;
+  /** The state of the join once it has exceeded its memory budget and spilled to disk, or {@code null}. */
+  private transient SpilledHashJoin spilled;
+  /** The Bloom filter on the join keys of the right child, or null if none is built. */
+  private JoinBloomFilter bloomFilter;
+
   /**
    * Construct an EquiJoin operator. It returns all columns from both children when the corresponding columns in
    * compareIndx1 and compareIndx2 match.
@@ -414,32 +397,32 @@ public final class SymmetricHashJoin extends BinaryOperator {
   }
 
   /**
+   * Add the joined tuples of the current matches to the answer.
+   *
    * @param cntTB current TB
-   * @param row current row
-   * @param hashTable the buffer holding the tuples to join against
-   * @param index the index of hashTable, which the cntTuple is to join with
-   * @param fromLeft if the tuple is from child 1
+   * @param hashTable the buffer holding the tuples joined against
+   * @param fromLeft if the current TB is from child 1
    */
-  protected void addToAns(
-      final TupleBatch cntTB,
-      final int row,
-      final MutableTupleBuffer hashTable,
-      final int index,
-      final boolean fromLeft) {
+  private void addMatchesToAns(
+      final TupleBatch cntTB, final MutableTupleBuffer hashTable, final boolean fromLeft) {
     if (fromLeft) {
-      for (int leftAnswerColumn : leftAnswerColumns) {
-        ans.append(cntTB, leftAnswerColumn, row);
-      }
-      for (int rightAnswerColumn : rightAnswerColumns) {
-        ans.append(hashTable, rightAnswerColumn, index);
-      }
+      ans.appendJoined(
+          cntTB,
+          matches.probeRows(),
+          leftAnswerColumns,
+          hashTable,
+          matches.buildRows(),
+          rightAnswerColumns,
+          matches.size());
     } else {
-      for (int leftAnswerColumn : leftAnswerColumns) {
-        ans.append(hashTable, leftAnswerColumn, index);
-      }
-      for (int rightAnswerColumn : rightAnswerColumns) {
-        ans.append(cntTB, rightAnswerColumn, row);
-      }
+      ans.appendJoined(
+          hashTable,
+          matches.buildRows(),
+          leftAnswerColumns,
+          cntTB,
+          matches.probeRows(),
+          rightAnswerColumns,
+          matches.size());
     }
   }
 
@@ -447,7 +430,18 @@ public final class SymmetricHashJoin extends BinaryOperator {
   protected void cleanup() throws DbException {
     hashTable1 = null;
     hashTable2 = null;
+    keyCodes1 = null;
+    keyCodes2 = null;
     ans = null;
+    batchHashCodes = null;
+    matches = null;
+    if (spilled != null) {
+      spilled.close();
+      spilled = null;
+    }
+    if (bloomFilter != null) {
+      bloomFilter.cleanup();
+    }
   }
 
   /**
@@ -491,23 +485,47 @@ public final class SymmetricHashJoin extends BinaryOperator {
       }
     }
     if (nexttb == null) {
-      nexttb = ans.popAny();
+      nexttb = isEOIReady() ? popAnyAtEOI() : ans.popAny();
     }
     return nexttb;
   }
 
+  /**
+   * Pop any results once this operator is ready for EOI. If the join has spilled, the tuples which arrived since are
+   * joined first, a filled TupleBatch of results at a time.
+   *
+   * @return result TB, or {@code null} if all results have been returned.
+   * @throws DbException if any error occurs.
+   */
+  private TupleBatch popAnyAtEOI() throws DbException {
+    if (spilled != null) {
+      spilled.drain();
+    }
+    return ans.popAny();
+  }
+
+  /**
+   * @return if the join has spilled and has tuples left to join.
+   */
+  private boolean hasSpilledWork() {
+    return spilled != null && spilled.hasPendingWork();
+  }
+
   @Override
   public void checkEOSAndEOI() {
     final Operator left = getLeft();
     final Operator right = getRight();
 
-    if (left.eos() && right.eos() && ans.numTuples() == 0) {
+    if (left.eos() && right.eos() && ans.numTuples() == 0 && !hasSpilledWork()) {
       setEOS();
       return;
     }
 
     // EOS could be used as an EOI
-    if ((childrenEOI[0] || left.eos()) && (childrenEOI[1] || right.eos()) && ans.numTuples() == 0) {
+    if ((childrenEOI[0] || left.eos())
+        && (childrenEOI[1] || right.eos())
+        && ans.numTuples() == 0
+        && !hasSpilledWork()) {
       setEOI(true);
       Arrays.fill(childrenEOI, false);
     }
@@ -551,9 +569,21 @@ public final class SymmetricHashJoin extends BinaryOperator {
 
   @Override
   protected TupleBatch fetchNextReady() throws DbException {
-    if (!nonBlocking) {
-      return fetchNextReadySynchronousEOI();
+    final TupleBatch nexttb =
+        nonBlocking ? fetchNextReadyAsynchronousEOI() : fetchNextReadySynchronousEOI();
+    if (bloomFilter != null) {
+      bloomFilter.publishAtEOS(getRight());
     }
+    return nexttb;
+  }
+
+  /**
+   * Pull from the children in the configured order, reporting EOI as soon as both children have reached EOI.
+   *
+   * @return result TB.
+   * @throws DbException if any error occurs.
+   */
+  private TupleBatch fetchNextReadyAsynchronousEOI() throws DbException {
 
     if (order.equals(JoinPullOrder.LEFT) || order.equals(JoinPullOrder.LEFT_EOS)) {
       pollLeft = true;
@@ -572,7 +602,7 @@ public final class SymmetricHashJoin extends BinaryOperator {
      * set EOS or EOI.
      */
     if (isEOIReady()) {
-      nexttb = ans.popAny();
+      nexttb = popAnyAtEOI();
       if (nexttb == null) {
         checkEOSAndEOI();
       }
@@ -633,7 +663,7 @@ public final class SymmetricHashJoin extends BinaryOperator {
      * and/or EOS
      */
     if (isEOIReady()) {
-      nexttb = ans.popAny();
+      nexttb = popAnyAtEOI();
       if (nexttb == null) {
         checkEOSAndEOI();
       }
@@ -650,14 +680,21 @@ public final class SymmetricHashJoin extends BinaryOperator {
 
     hashTable1 = new MutableTupleBuffer(left.getSchema());
     hashTable2 = new MutableTupleBuffer(right.getSchema());
+    keyCodes1 = StringKeyCodes.forKeys(left.getSchema(), leftCompareIndx);
+    keyCodes2 = StringKeyCodes.forKeys(right.getSchema(), rightCompareIndx);
 
     ans = new TupleBatchBuffer(getSchema());
+    hashTableBytes = 0;
+    spilled = null;
 
     nonBlocking =
         (QueryExecutionMode) execEnvVars.get(MyriaConstants.EXEC_ENV_VAR_EXECUTION_MODE)
             == QueryExecutionMode.NON_BLOCKING;
-    doJoin = new JoinProcedure();
+    matches = new JoinMatches();
     doReplace = new ReplaceProcedure();
+    if (bloomFilter != null) {
+      bloomFilter.init(execEnvVars);
+    }
   }
 
   /**
@@ -668,11 +705,21 @@ public final class SymmetricHashJoin extends BinaryOperator {
   /**
    * @param tb the incoming TupleBatch for processing join.
    * @param fromLeft if the tb is from left.
+   * @throws DbException if there is an error spilling to disk.
    */
-  protected void processChildTB(final TupleBatch tb, final boolean fromLeft) {
+  protected void processChildTB(final TupleBatch tb, final boolean fromLeft) throws DbException {
     final Operator left = getLeft();
     final Operator right = getRight();
 
+    if (!fromLeft && bloomFilter != null) {
+      bloomFilter.addRows(tb, rightCompareIndx);
+    }
+    if (spilled != null) {
+      /* The tuples are joined when the join is ready for EOI or EOS. */
+      spilled.add(tb, fromLeft);
+      return;
+    }
+
     if (left.eos() && rightHashTableIndices != null) {
       /*
        * delete right child's hash table if the left child is EOS, since there will be no incoming tuples from right as
@@ -680,6 +727,7 @@ public final class SymmetricHashJoin extends BinaryOperator {
        */
       rightHashTableIndices = null;
       hashTable2 = null;
+      keyCodes2 = null;
     }
     if (right.eos() && leftHashTableIndices != null) {
       /*
@@ -688,62 +736,123 @@ public final class SymmetricHashJoin extends BinaryOperator {
        */
       leftHashTableIndices = null;
       hashTable1 = null;
+      keyCodes1 = null;
     }
 
     final boolean useSetSemantics = fromLeft && setSemanticsLeft || !fromLeft && setSemanticsRight;
     MutableTupleBuffer hashTable1Local = null;
+    MutableTupleBuffer hashTable2Local = null;
     IntObjectHashMap<IntArrayList> hashTable1IndicesLocal = null;
     IntObjectHashMap<IntArrayList> hashTable2IndicesLocal = null;
+    StringKeyCodes keyCodes1Local = null;
+    StringKeyCodes keyCodes2Local = null;
+    int[] inputCmpColumns = null;
+    int[] joinAgainstCmpColumns = null;
     if (fromLeft) {
       hashTable1Local = hashTable1;
-      doJoin.joinAgainstHashTable = hashTable2;
+      hashTable2Local = hashTable2;
       hashTable1IndicesLocal = leftHashTableIndices;
       hashTable2IndicesLocal = rightHashTableIndices;
-      doJoin.inputCmpColumns = leftCompareIndx;
-      doJoin.joinAgainstCmpColumns = rightCompareIndx;
-      if (useSetSemantics) {
-        doReplace.hashTable = hashTable1;
-        doReplace.keyColumns = leftCompareIndx;
-      }
+      keyCodes1Local = keyCodes1;
+      keyCodes2Local = keyCodes2;
+      inputCmpColumns = leftCompareIndx;
+      joinAgainstCmpColumns = rightCompareIndx;
     } else {
       hashTable1Local = hashTable2;
-      doJoin.joinAgainstHashTable = hashTable1;
+      hashTable2Local = hashTable1;
       hashTable1IndicesLocal = rightHashTableIndices;
       hashTable2IndicesLocal = leftHashTableIndices;
-      doJoin.inputCmpColumns = rightCompareIndx;
-      doJoin.joinAgainstCmpColumns = leftCompareIndx;
-      if (useSetSemantics) {
-        doReplace.hashTable = hashTable2;
-        doReplace.keyColumns = rightCompareIndx;
-      }
+      keyCodes1Local = keyCodes2;
+      keyCodes2Local = keyCodes1;
+      inputCmpColumns = rightCompareIndx;
+      joinAgainstCmpColumns = leftCompareIndx;
     }
-    doJoin.fromLeft = fromLeft;
-    doJoin.inputTB = tb;
     if (useSetSemantics) {
+      doReplace.hashTable = hashTable1Local;
+      doReplace.keyCodes = keyCodes1Local;
+      doReplace.keyColumns = inputCmpColumns;
       doReplace.inputTB = tb;
     }
 
-    for (int row = 0; row < tb.numTuples(); ++row) {
-      final int cntHashCode = HashUtils.hashSubRow(tb, doJoin.inputCmpColumns, row);
-      IntArrayList tuplesWithHashCode = hashTable2IndicesLocal.get(cntHashCode);
-      if (tuplesWithHashCode != null) {
-        doJoin.row = row;
-        tuplesWithHashCode.forEach(doJoin);
-      }
+    batchHashCodes = HashUtils.hashSubRows(tb, inputCmpColumns, batchHashCodes);
 
-      if (hashTable1Local != null) {
-        // only build hash table on two sides if none of the children is EOS
+    /*
+     * Probe the other child's hash table with the whole batch, then gather the joined tuples column by column. This
+     * child's hash table is not probed, so it is safe to build it afterwards.
+     */
+    matches.probe(
+        tb,
+        batchHashCodes,
+        inputCmpColumns,
+        hashTable2IndicesLocal,
+        hashTable2Local,
+        joinAgainstCmpColumns,
+        keyCodes2Local);
+    addMatchesToAns(tb, hashTable2Local, fromLeft);
+
+    if (hashTable1Local != null) {
+      // only build hash table on two sides if none of the children is EOS
+      for (int row = 0; row < tb.numTuples(); ++row) {
         addToHashTable(
-            tb, row, hashTable1Local, hashTable1IndicesLocal, cntHashCode, useSetSemantics);
+            tb,
+            row,
+            hashTable1Local,
+            hashTable1IndicesLocal,
+            keyCodes1Local,
+            inputCmpColumns,
+            batchHashCodes[row],
+            useSetSemantics);
+      }
+      if (canSpill()) {
+        hashTableBytes += SpilledHashJoin.estimateBytes(tb);
+        if (hashTableBytes > memoryBudget) {
+          spill();
+        }
       }
     }
   }
 
+  /**
+   * @return if the join spills to disk when its hash tables exceed the memory budget. Replacing tuples under set
+   *         semantics only works in memory, so a join using set semantics on either child never spills.
+   */
+  private boolean canSpill() {
+    return memoryBudget > 0 && !setSemanticsLeft && !setSemanticsRight;
+  }
+
+  /**
+   * Move the hash tables to disk. From now on, incoming tuples are only joined when the join is ready for EOI or EOS.
+   *
+   * @throws DbException if there is an error writing to disk.
+   */
+  private void spill() throws DbException {
+    spilled =
+        new SpilledHashJoin(
+            getLeft().getSchema(),
+            getRight().getSchema(),
+            leftCompareIndx,
+            rightCompareIndx,
+            leftAnswerColumns,
+            rightAnswerColumns,
+            memoryBudget,
+            ans);
+    spilled.spill(hashTable1, hashTable2);
+    leftHashTableIndices = null;
+    rightHashTableIndices = null;
+    hashTable1 = null;
+    hashTable2 = null;
+    keyCodes1 = null;
+    keyCodes2 = null;
+    hashTableBytes = 0;
+  }
+
   /**
    * @param tb the source TupleBatch
    * @param row the row number to get added to hash table
    * @param hashTable the target hash table
    * @param hashTable1IndicesLocal hash table 1 indices local
+   * @param keyCodes the codes of the string keys of the hash table, or null.
+   * @param keyColumns the join key columns of the tb.
    * @param hashCode the hashCode of the tb.
    * @param useSetSemantics if need to update the hash table using set semantics.
    */
@@ -752,6 +861,8 @@ public final class SymmetricHashJoin extends BinaryOperator {
       final int row,
       final MutableTupleBuffer hashTable,
       final IntObjectHashMap<IntArrayList> hashTable1IndicesLocal,
+      final StringKeyCodes keyCodes,
+      final int[] keyColumns,
       final int hashCode,
       final boolean useSetSemantics) {
 
@@ -770,6 +881,9 @@ public final class SymmetricHashJoin extends BinaryOperator {
     if (!doReplace.replaced) {
       /* not using set semantics || using set semantics but found nothing to replace (i.e. new) */
       tupleIndicesList.add(nextIndex);
+      if (keyCodes != null) {
+        keyCodes.add(tb, keyColumns, row);
+      }
       List<? extends Column<?>> inputColumns = tb.getDataColumns();
       for (int column = 0; column < tb.numColumns(); column++) {
         hashTable.put(column, inputColumns.get(column), row);
@@ -813,4 +927,27 @@ public final class SymmetricHashJoin extends BinaryOperator {
   public void setPullOrder(final JoinPullOrder order) {
     this.order = order;
   }
+
+  /**
+   * Set the memory budget of the hash tables. When the hash tables exceed it, the join spills them to disk and becomes
+   * a Grace hash join, see {@link SpilledHashJoin}. Joins using set semantics never spill.
+   *
+   * @param memoryBudget the memory budget in bytes, or 0 if unbounded.
+   */
+  public void setMemoryBudget(final long memoryBudget) {
+    Preconditions.checkArgument(memoryBudget >= 0, "memory budget must be non-negative");
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Fill a Bloom filter with the join keys of the right child as its tuples arrive, and publish it once the right child
+   * is at EOS for a {@link BloomFilterSource} of the same subquery to ship to the left child's side.
+   *
+   * @param name the name the filter is published under.
+   * @param numBits the number of bits of the filter, a power of two.
+   * @param numHashes the number of hash functions of the filter.
+   */
+  public void setBloomFilter(final String name, final int numBits, final int numHashes) {
+    bloomFilter = new JoinBloomFilter(name, numBits, numHashes);
+  }
 }
@@ -8,6 +8,7 @@ import com.google.common.math.LongMath;
 
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableColumn;
 import edu.washington.escience.myria.storage.ReadableTable;
 
 /**
@@ -129,6 +130,89 @@ public final class FloatAggregator extends PrimitiveAggregator {
     }
   }
 
+  @Override
+  public PrimitiveGroupStates newGroupStates() {
+    return PrimitiveGroupStates.floating(this, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY);
+  }
+
+  @Override
+  public void addColumn(
+      final int[] groupIds, final ReadableTable from, final PrimitiveGroupStates states) {
+    Objects.requireNonNull(from, "from");
+    final int numTuples = from.numTuples();
+    if (needsCount) {
+      final long[] counts = states.counts;
+      for (int i = 0; i < numTuples; i++) {
+        counts[groupIds[i]]++;
+      }
+    }
+    if (!needsStats) {
+      return;
+    }
+    final ReadableColumn column = from.asColumn(fromColumn);
+    if (needsSum) {
+      final double[] sums = states.doubleSums;
+      for (int i = 0; i < numTuples; i++) {
+        sums[groupIds[i]] += column.getFloat(i);
+      }
+    }
+    if (needsSumSq) {
+      final double[] sumSquares = states.doubleSumSquares;
+      for (int i = 0; i < numTuples; i++) {
+        final float value = column.getFloat(i);
+        sumSquares[groupIds[i]] += value * value;
+      }
+    }
+    if (needsMin) {
+      final double[] mins = states.doubleMins;
+      for (int i = 0; i < numTuples; i++) {
+        mins[groupIds[i]] = Math.min(mins[groupIds[i]], column.getFloat(i));
+      }
+    }
+    if (needsMax) {
+      final double[] maxs = states.doubleMaxs;
+      for (int i = 0; i < numTuples; i++) {
+        maxs[groupIds[i]] = Math.max(maxs[groupIds[i]], column.getFloat(i));
+      }
+    }
+  }
+
+  @Override
+  public void getResult(
+      final AppendableTable dest,
+      final int destColumn,
+      final PrimitiveGroupStates states,
+      final int group) {
+    Objects.requireNonNull(dest, "dest");
+    int idx = destColumn;
+    for (AggregationOp op : aggOps) {
+      switch (op) {
+        case AVG:
+          dest.putDouble(idx, states.doubleSums[group] * 1.0 / states.counts[group]);
+          break;
+        case COUNT:
+          dest.putLong(idx, states.counts[group]);
+          break;
+        case MAX:
+          dest.putFloat(idx, (float) states.doubleMaxs[group]);
+          break;
+        case MIN:
+          dest.putFloat(idx, (float) states.doubleMins[group]);
+          break;
+        case STDEV:
+          double first = states.doubleSumSquares[group] / states.counts[group];
+          double second = states.doubleSums[group] / states.counts[group];
+          double stdev = Math.sqrt(first - second * second);
+          dest.putDouble(idx, stdev);
+          break;
+        case SUM:
+          dest.putDouble(idx, states.doubleSums[group]);
+          break;
+      }
+      idx++;
+    }
+  }
+
   @Override
   public Type getType() {
     return Type.FLOAT_TYPE;
@@ -154,9 +238,9 @@ public final class FloatAggregator extends PrimitiveAggregator {
     /** The number of tuples seen so far. */
     private long count = 0;
     /** The minimum value in the aggregated column. */
-    private float min = Float.MAX_VALUE;
+    private float min = Float.POSITIVE_INFINITY;
     /** The maximum value in the aggregated column. */
-    private float max = Float.MIN_VALUE;
+    private float max = Float.NEGATIVE_INFINITY;
     /** The sum of values in the aggregated column. */
     private double sum = 0;
     /** private temp variables for computing stdev. */
@@ -0,0 +1,107 @@
+package edu.washington.escience.myria.operator.agg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableTable;
+
+/**
+ * The aggregation states of a set of {@link Aggregator}s for many groups, identified by dense group ids 0, 1, 2, ...
+ *
+ * {@link PrimitiveAggregator}s keep their states in {@link PrimitiveGroupStates}. The numeric ones keep them
+ * column-wise, so a group costs a few array slots instead of an object, and a batch is aggregated with one tight loop
+ * per statistic. All other aggregators keep one state object per group, as returned by
+ * {@link Aggregator#getInitialState()}.
+ */
+final class GroupAggStates {
+  /** The aggregators. */
+  private final Aggregator[] aggregators;
+  /** For each {@link PrimitiveAggregator}, its states, or {@code null} for other aggregators. */
+  private final PrimitiveGroupStates[] columnStates;
+  /** For each other aggregator, its state objects indexed by group id, or {@code null}. */
+  private final List<List<Object>> objectStates;
+  /** The number of groups. */
+  private int numGroups;
+
+  /**
+   * @param aggregators the aggregators.
+   */
+  GroupAggStates(final Aggregator[] aggregators) {
+    this.aggregators = aggregators;
+    columnStates = new PrimitiveGroupStates[aggregators.length];
+    objectStates = new ArrayList<>(aggregators.length);
+    for (int agg = 0; agg < aggregators.length; ++agg) {
+      if (aggregators[agg] instanceof PrimitiveAggregator) {
+        columnStates[agg] = ((PrimitiveAggregator) aggregators[agg]).newGroupStates();
+      }
+      objectStates.add(columnStates[agg] == null ? new ArrayList<>() : null);
+    }
+  }
+
+  /**
+   * @return the number of groups.
+   */
+  int numGroups() {
+    return numGroups;
+  }
+
+  /**
+   * Add a group with the initial states.
+   *
+   * @return the id of the new group.
+   */
+  int newGroup() {
+    for (int agg = 0; agg < aggregators.length; ++agg) {
+      if (columnStates[agg] != null) {
+        columnStates[agg].ensureCapacity(numGroups + 1);
+      } else {
+        objectStates.get(agg).add(aggregators[agg].getInitialState());
+      }
+    }
+    return numGroups++;
+  }
+
+  /**
+   * Update the states of the groups with all rows of a batch.
+   *
+   * @param from the batch.
+   * @param groupIds the group of each row of {@code from}.
+   * @throws DbException if there is an error.
+   */
+  void addBatch(final ReadableTable from, final int[] groupIds) throws DbException {
+    final int numTuples = from.numTuples();
+    for (int agg = 0; agg < aggregators.length; ++agg) {
+      if (columnStates[agg] != null) {
+        ((PrimitiveAggregator) aggregators[agg]).addColumn(groupIds, from, columnStates[agg]);
+      } else {
+        final List<Object> states = objectStates.get(agg);
+        for (int row = 0; row < numTuples; ++row) {
+          aggregators[agg].addRow(from, row, states.get(groupIds[row]));
+        }
+      }
+    }
+  }
+
+  /**
+   * Append the results of all aggregators for one group.
+   *
+   * @param dest where to store the results.
+   * @param destColumn the column of {@code dest} the result of the first aggregator goes in.
+   * @param group the group.
+   * @throws DbException if there is an error.
+   */
+  void getResult(final AppendableTable dest, final int destColumn, final int group)
+      throws DbException {
+    int curCol = destColumn;
+    for (int agg = 0; agg < aggregators.length; ++agg) {
+      if (columnStates[agg] != null) {
+        ((PrimitiveAggregator) aggregators[agg]).getResult(dest, curCol, columnStates[agg], group);
+      } else {
+        aggregators[agg].getResult(dest, curCol, objectStates.get(agg).get(group));
+      }
+      curCol += aggregators[agg].getResultSchema().numColumns();
+    }
+  }
+}
@@ -8,13 +8,11 @@ import java.util.Set;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.math.LongMath;
 
-import edu.washington.escience.myria.StreamExtensions;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableColumn;
 import edu.washington.escience.myria.storage.ReadableTable;
 
-import static edu.washington.escience.myria.StreamExtensions.*;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
  */
@@ -41,8 +39,13 @@ public class IntegerAggregator extends PrimitiveAggregator {
             throw new IllegalStateException("sketchOption = " + sketchOpt);
         }*/
         this.sketchOption = sketchOpt;
-        if (Arrays.stream(aggOps).anyMatch(o -> o != AggregationOp.COUNT && sketchOpt != AggregationSketchOption.DoNotSketch)) {
-            throw new IllegalArgumentException("Do not know how to sketch on non count aggregation: ");
+        if (sketchOpt == AggregationSketchOption.UseSketch
+                && Arrays.stream(aggOps).anyMatch(o -> o != AggregationOp.COUNT)) {
+            throw new IllegalArgumentException("Do not know how to count-sketch on non count aggregation: ");
+        }
+        if (sketchOpt != AggregationSketchOption.DoNotSketch
+                && Arrays.stream(aggOps).anyMatch(o -> o == AggregationOp.STDEV)) {
+            throw new IllegalArgumentException("Do not know how to sketch on " + AggregationOp.STDEV.name());
         }
     }
 
@@ -51,6 +54,13 @@ public class IntegerAggregator extends PrimitiveAggregator {
         return sketchOption;
     }
 
+    /**
+     * @return the column being aggregated over.
+     */
+    int getColumn() {
+        return fromColumn;
+    }
+
     /**
      * Aggregate operations applicable for int columns.
      */
@@ -132,76 +142,120 @@ public class IntegerAggregator extends PrimitiveAggregator {
     @Override
     public void getResult(final AppendableTable dest, final int destColumn, final Object state) {
         Objects.requireNonNull(dest, "dest");
-        //if sketch is enabled, the state can be Object[] boxed.
-        if (sketchOption != AggregationSketchOption.DoNotSketch && state instanceof Object[]) {
-            Object[] states = (Object[]) state;
-            int idx = destColumn;
-            for (AggregationOp op : aggOps) {
-                switch (op) {
-                    case AVG:
-                        throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
-                        //dest.putDouble(idx, istate.sum * 1.0 / istate.count);
-                        // break;
-                    case COUNT: {
-                        if (sketchOption == AggregationSketchOption.UseSketchMin)
-                            dest.putLong(idx, Arrays.stream(states).mapToLong(o -> ((IntAggState) o).count).min().getAsLong());
-                        else if (sketchOption == AggregationSketchOption.UseSketch) {
-                            //a count sketch uses medium of the difference of its neighbour columns.
-                            //OBject[0] is an array of the exact aggregate slots,
-                            //Object[1] is its neighbours, as defined by the paper.
-                            long[] partial = StreamExtensions.zip(Arrays.stream((Object[]) states[0]), Arrays.stream((Object[]) states[1]), (a, b) -> ((IntAggState) a).fieldWiseSubtract((IntAggState) b)).mapToLong(o -> o.count).sorted().toArray();
-                            dest.putLong(idx, partial[partial.length/2]);
-                        }
+        IntAggState istate = (IntAggState) state;
+        int idx = destColumn;
+        for (AggregationOp op : aggOps) {
+            switch (op) {
+                case AVG:
+                    dest.putDouble(idx, istate.sum * 1.0 / istate.count);
+                    break;
+                case COUNT:
+                    dest.putLong(idx, istate.count);
+                    break;
+                case MAX:
+                    dest.putInt(idx, istate.max);
+                    break;
+                case MIN:
+                    dest.putInt(idx, istate.min);
+                    break;
+                case STDEV:
+                    double first = ((double) istate.sumSquared) / istate.count;
+                    double second = ((double) istate.sum) / istate.count;
+                    double stdev = Math.sqrt(first - second * second);
+                    dest.putDouble(idx, stdev);
+                    break;
+                case SUM:
+                    dest.putLong(idx, istate.sum);
+                    break;
+            }
+            idx++;
+        }
+    }
+
+    @Override
+    public PrimitiveGroupStates newGroupStates() {
+        return PrimitiveGroupStates.integral(this, Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
 
-                        break;
-                    }
-                    case MAX:
-                        throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
-                        //break;
-                    case MIN:
-                        throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
-                        //break;
-                    case STDEV:
-                        throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
-                        //break;
-                    case SUM:
-                        throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
-                        //break;
-                }
-                idx++;
+    @Override
+    public void addColumn(
+            final int[] groupIds, final ReadableTable from, final PrimitiveGroupStates states) {
+        Objects.requireNonNull(from, "from");
+        final int numTuples = from.numTuples();
+        if (needsCount) {
+            final long[] counts = states.counts;
+            for (int i = 0; i < numTuples; i++) {
+                counts[groupIds[i]]++;
             }
-        } else {
-            IntAggState istate = (IntAggState) state;
-            int idx = destColumn;
-            for (AggregationOp op : aggOps) {
-                switch (op) {
-                    case AVG:
-                        dest.putDouble(idx, istate.sum * 1.0 / istate.count);
-                        break;
-                    case COUNT:
-                        dest.putLong(idx, istate.count);
-                        break;
-                    case MAX:
-                        dest.putInt(idx, istate.max);
-                        break;
-                    case MIN:
-                        dest.putInt(idx, istate.min);
-                        break;
-                    case STDEV:
-                        double first = ((double) istate.sumSquared) / istate.count;
-                        double second = ((double) istate.sum) / istate.count;
-                        double stdev = Math.sqrt(first - second * second);
-                        dest.putDouble(idx, stdev);
-                        break;
-                    case SUM:
-                        dest.putLong(idx, istate.sum);
-                        break;
-                }
-                idx++;
+        }
+        if (!needsStats) {
+            return;
+        }
+        final ReadableColumn column = from.asColumn(fromColumn);
+        if (needsSum) {
+            final long[] sums = states.longSums;
+            for (int i = 0; i < numTuples; i++) {
+                sums[groupIds[i]] = LongMath.checkedAdd(sums[groupIds[i]], column.getInt(i));
+            }
+        }
+        if (needsSumSq) {
+            final long[] sumSquares = states.longSumSquares;
+            for (int i = 0; i < numTuples; i++) {
+                final long value = column.getInt(i);
+                // don't need to check value*value since value is an int
+                sumSquares[groupIds[i]] = LongMath.checkedAdd(sumSquares[groupIds[i]], value * value);
+            }
+        }
+        if (needsMin) {
+            final long[] mins = states.longMins;
+            for (int i = 0; i < numTuples; i++) {
+                mins[groupIds[i]] = Math.min(mins[groupIds[i]], column.getInt(i));
+            }
+        }
+        if (needsMax) {
+            final long[] maxs = states.longMaxs;
+            for (int i = 0; i < numTuples; i++) {
+                maxs[groupIds[i]] = Math.max(maxs[groupIds[i]], column.getInt(i));
             }
         }
     }
 
+    @Override
+    public void getResult(
+            final AppendableTable dest,
+            final int destColumn,
+            final PrimitiveGroupStates states,
+            final int group) {
+        Objects.requireNonNull(dest, "dest");
+        int idx = destColumn;
+        for (AggregationOp op : aggOps) {
+            switch (op) {
+                case AVG:
+                    dest.putDouble(idx, states.longSums[group] * 1.0 / states.counts[group]);
+                    break;
+                case COUNT:
+                    dest.putLong(idx, states.counts[group]);
+                    break;
+                case MAX:
+                    dest.putInt(idx, (int) states.longMaxs[group]);
+                    break;
+                case MIN:
+                    dest.putInt(idx, (int) states.longMins[group]);
+                    break;
+                case STDEV:
+                    double first = ((double) states.longSumSquares[group]) / states.counts[group];
+                    double second = ((double) states.longSums[group]) / states.counts[group];
+                    double stdev = Math.sqrt(first - second * second);
+                    dest.putDouble(idx, stdev);
+                    break;
+                case SUM:
+                    dest.putLong(idx, states.longSums[group]);
+                    break;
+            }
+            idx++;
+        }
+    }
+
     @Override
     public Type getType() {
         return Type.INT_TYPE;
@@ -246,23 +300,5 @@ public class IntegerAggregator extends PrimitiveAggregator {
          * private temp variables for computing stdev.
          */
         private long sumSquared = 0;
-
-        /*
-          May only make sense for Count, but do for every field anyway.
-         */
-        protected IntAggState fieldWiseSubtract(IntAggState other) {
-            IntAggState result = new IntAggState();
-            result.count = this.count - other.count;
-            result.min = this.min - other.min;
-            result.max = this.max = other.max;
-            result.sum = this.sum - other.sum;
-            result.sumSquared = this.sumSquared = other.sumSquared;
-            return result;
-        }
-
-        public long DebugGetCount()
-        {
-            return count;
-        }
     }
 }
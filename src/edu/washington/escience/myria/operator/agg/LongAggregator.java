@@ -8,6 +8,7 @@ import com.google.common.math.LongMath;
 
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableColumn;
 import edu.washington.escience.myria.storage.ReadableTable;
 
 /**
@@ -130,6 +131,90 @@ public final class LongAggregator extends PrimitiveAggregator {
     }
   }
 
+  @Override
+  public PrimitiveGroupStates newGroupStates() {
+    return PrimitiveGroupStates.integral(this, Long.MAX_VALUE, Long.MIN_VALUE);
+  }
+
+  @Override
+  public void addColumn(
+      final int[] groupIds, final ReadableTable from, final PrimitiveGroupStates states) {
+    Objects.requireNonNull(from, "from");
+    final int numTuples = from.numTuples();
+    if (needsCount) {
+      final long[] counts = states.counts;
+      for (int i = 0; i < numTuples; i++) {
+        counts[groupIds[i]]++;
+      }
+    }
+    if (!needsStats) {
+      return;
+    }
+    final ReadableColumn column = from.asColumn(fromColumn);
+    if (needsSum) {
+      final long[] sums = states.longSums;
+      for (int i = 0; i < numTuples; i++) {
+        sums[groupIds[i]] = LongMath.checkedAdd(sums[groupIds[i]], column.getLong(i));
+      }
+    }
+    if (needsSumSq) {
+      final long[] sumSquares = states.longSumSquares;
+      for (int i = 0; i < numTuples; i++) {
+        final long value = column.getLong(i);
+        sumSquares[groupIds[i]] =
+            LongMath.checkedAdd(sumSquares[groupIds[i]], LongMath.checkedMultiply(value, value));
+      }
+    }
+    if (needsMin) {
+      final long[] mins = states.longMins;
+      for (int i = 0; i < numTuples; i++) {
+        mins[groupIds[i]] = Math.min(mins[groupIds[i]], column.getLong(i));
+      }
+    }
+    if (needsMax) {
+      final long[] maxs = states.longMaxs;
+      for (int i = 0; i < numTuples; i++) {
+        maxs[groupIds[i]] = Math.max(maxs[groupIds[i]], column.getLong(i));
+      }
+    }
+  }
+
+  @Override
+  public void getResult(
+      final AppendableTable dest,
+      final int destColumn,
+      final PrimitiveGroupStates states,
+      final int group) {
+    Objects.requireNonNull(dest, "dest");
+    int idx = destColumn;
+    for (AggregationOp op : aggOps) {
+      switch (op) {
+        case AVG:
+          dest.putDouble(idx, states.longSums[group] * 1.0 / states.counts[group]);
+          break;
+        case COUNT:
+          dest.putLong(idx, states.counts[group]);
+          break;
+        case MAX:
+          dest.putLong(idx, states.longMaxs[group]);
+          break;
+        case MIN:
+          dest.putLong(idx, states.longMins[group]);
+          break;
+        case STDEV:
+          double first = ((double) states.longSumSquares[group]) / states.counts[group];
+          double second = ((double) states.longSums[group]) / states.counts[group];
+          double stdev = Math.sqrt(first - second * second);
+          dest.putDouble(idx, stdev);
+          break;
+        case SUM:
+          dest.putLong(idx, states.longSums[group]);
+          break;
+      }
+      idx++;
+    }
+  }
+
   @Override
   public Type getType() {
     return Type.LONG_TYPE;
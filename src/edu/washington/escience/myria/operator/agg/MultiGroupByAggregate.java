@@ -8,8 +8,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.gs.collections.impl.list.mutable.primitive.IntArrayList;
-import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
 
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
@@ -17,6 +15,7 @@ import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
 import edu.washington.escience.myria.operator.Operator;
 import edu.washington.escience.myria.operator.UnaryOperator;
+import edu.washington.escience.myria.storage.GroupIdHashTable;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
 import edu.washington.escience.myria.storage.TupleBuffer;
@@ -39,10 +38,16 @@ public final class MultiGroupByAggregate extends UnaryOperator {
   private transient TupleBuffer groupKeys;
   /** Final group keys. */
   private List<TupleBatch> groupKeyList;
-  /** Holds the corresponding aggregation state for each group key in {@link #groupKeys}. */
-  private transient List<Object[]> aggStates;
-  /** Maps the hash of a grouping key to a list of indices in {@link #groupKeys}. */
-  private transient IntObjectHashMap<IntArrayList> groupKeyMap;
+  /** Holds the aggregation states of the groups in {@link #groupKeys}, by index; null when sketching. */
+  private transient GroupAggStates aggStates;
+  /** Reused buffer holding the group index of each row of the input TupleBatch being processed. */
+  private transient int[] batchGroupIds;
+  /** The index of the first group whose results have not been returned yet. */
+  private transient int nextResultGroup;
+  /** Maps a grouping key to its index in {@link #groupKeys}. */
+  private transient GroupIdHashTable groupKeyMap;
+  /** Reused buffer holding the hash codes of the grouping keys of the input TupleBatch being processed. */
+  private transient int[] batchHashCodes;
   /** The schema of the columns indicated by the group keys. */
   private Schema groupSchema;
   /** The schema of the aggregation result. */
@@ -61,8 +66,12 @@ public final class MultiGroupByAggregate extends UnaryOperator {
   * If Sketch is enabled, SketchBuffer will be used.
   */
   private transient SketchBuffer[] sketchBuffers;
+  /** If Sketch is enabled, reused buffer for the hash matrix of the grouping keys. */
+  private transient int[] familyHashes;
   //private transient HashSet<Object> sketchGroupKeys;
   private boolean sketchEnabled = false;
+  /** While deciding whether to sketch, the adviser holding the input seen so far; null once decided. */
+  private transient SketchAdviser adviser;
 
 
   /**
@@ -93,7 +102,12 @@ public final class MultiGroupByAggregate extends UnaryOperator {
     groupKeys = null;
     aggStates = null;
     groupKeyMap = null;
+    batchHashCodes = null;
+    batchGroupIds = null;
     groupKeyList = null;
+    sketchBuffers = null;
+    familyHashes = null;
+    adviser = null;
   }
 
   /**
@@ -109,33 +123,16 @@ public final class MultiGroupByAggregate extends UnaryOperator {
     final Operator child = getChild();
 
     if (child.eos()) {
+      finishAdvice();
       return getResultBatch();
     }
 
     TupleBatch tb = child.nextReady();
     while (tb != null) {
-      for (int row = 0; row < tb.numTuples(); ++row) {
-        int rowHash = HashUtils.hashSubRow(tb, gfields, row);
-        IntArrayList hashMatches = groupKeyMap.get(rowHash);
-        if (hashMatches == null) {
-          hashMatches = newKey(rowHash);
-          newGroup(tb, row, hashMatches);
-          continue;
-        }
-        boolean found = false;
-        for (int i = 0; i < hashMatches.size(); i++) {
-          int value = hashMatches.get(i);
-          if (TupleUtils.tupleEquals(tb, gfields, row, groupKeys, grpRange, value)) {
-            updateGroup(tb, row, aggStates.get(value));
-            found = true;
-            break;
-          }
-        }
-
-        if (!found) {
-          newGroup(tb, row, hashMatches);
-        }
-        Preconditions.checkState(groupKeys.numTuples() == aggStates.size());
+      if (adviser == null) {
+        processTupleBatch(tb);
+      } else if (adviser.offer(tb)) {
+        applyAdvice();
       }
       tb = child.nextReady();
     }
@@ -145,6 +142,7 @@ public final class MultiGroupByAggregate extends UnaryOperator {
      * either EOS or we have to wait for more data.
      */
     if (child.eos()) {
+      finishAdvice();
       return getResultBatch();
     }
 
@@ -152,79 +150,94 @@ public final class MultiGroupByAggregate extends UnaryOperator {
   }
 
   /**
-   * Since row <code>row</code> in {@link TupleBatch} <code>tb</code> does not appear in {@link #groupKeys}, create a
-   * new group for it.
+   * Make the adviser decide at the end of the input, if it has not decided yet.
    *
-   * @param tb the source {@link TupleBatch}
-   * @param row the row in <code>tb</code> that contains the new group
-   * @param hashMatches the list of all rows in the output {@link TupleBuffer}s that match this hash.
    * @throws DbException if there is an error.
    */
-  private void newGroup(final TupleBatch tb, final int row, final IntArrayList hashMatches)
-      throws DbException {
-    int newIndex = groupKeys.numTuples();
-    for (int column = 0; column < gfields.length; ++column) {
-      TupleUtils.copyValue(tb, gfields[column], row, groupKeys, column);
+  private void finishAdvice() throws DbException {
+    if (adviser != null) {
+      adviser.finish();
+      applyAdvice();
     }
-    hashMatches.add(newIndex);
-    Object[] curAggStates;
-    if(sketchEnabled){
-      curAggStates = new Object[aggregators.length];
-      for(int i = 0; i < aggregators.length; i++){
-        curAggStates[i] = sketchBuffers[i].getCountMinStatesByRow(tb, row, gfields);
-      }
+  }
+
+  /**
+   * Switch to the path chosen by the adviser and replay the input it held on to.
+   *
+   * @throws DbException if there is an error.
+   */
+  private void applyAdvice() throws DbException {
+    sketchEnabled = adviser.shouldSketch();
+    if (sketchEnabled) {
+      allocateSketches();
     }
-    else{
-      curAggStates = AggUtils.allocateAggStates(aggregators);
+    List<TupleBatch> pending = adviser.takePending();
+    adviser = null;
+    for (TupleBatch tb : pending) {
+      processTupleBatch(tb);
     }
+  }
 
-    aggStates.add(curAggStates);
-    updateGroup(tb, row, curAggStates);
-    Preconditions.checkState(
-        groupKeys.numTuples() == aggStates.size(),
-        "groupKeys %s != groupAggs %s",
-        groupKeys.numTuples(),
-        aggStates.size());
+  /**
+   * Replace the per-group states by one sketch per aggregator.
+   */
+  private void allocateSketches() {
+    /* Sketched groups have no per-group state. */
+    aggStates = null;
+    sketchBuffers = SketchBuffer.forAggregators(aggregators);
   }
 
   /**
-   * Called when there is no list yet of which output aggregators match the specified hash. Creates a new int list to
-   * store these matches, and insert it into the {@link #groupKeyMap}.
-   *
-   * @param groupHash the hash of the grouping columns in a tuple
-   * @return the new (empty still) int list storing which output aggregators match the specified hash
+   * @param tb the TupleBatch to be processed.
+   * @throws DbException if there is an error.
    */
-  private IntArrayList newKey(final int groupHash) {
-    IntArrayList matches = new IntArrayList(1);
-    groupKeyMap.put(groupHash, matches);
-    return matches;
+  private void processTupleBatch(final TupleBatch tb) throws DbException {
+    batchHashCodes = HashUtils.hashSubRows(tb, gfields, batchHashCodes);
+    if (batchGroupIds == null || batchGroupIds.length < tb.numTuples()) {
+      batchGroupIds = new int[tb.numTuples()];
+    }
+    if (sketchEnabled) {
+      familyHashes =
+          HashUtils.hashSubRowsFamily(
+              tb, gfields, sketchBuffers[0].getHashFunctionsCount(), familyHashes);
+      for (int agg = 0; agg < aggregators.length; ++agg) {
+        sketchBuffers[agg].addBatch(tb, familyHashes);
+      }
+    }
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      int rowHash = batchHashCodes[row];
+      int group = groupKeyMap.find(rowHash, tb, gfields, row);
+      if (group == -1) {
+        group = newGroup(tb, row, rowHash);
+      }
+      batchGroupIds[row] = group;
+    }
+    if (aggStates != null) {
+      aggStates.addBatch(tb, batchGroupIds);
+    }
   }
 
   /**
-   * Update the aggregation states with the tuples in the specified row.
+   * Since row <code>row</code> in {@link TupleBatch} <code>tb</code> does not appear in {@link #groupKeys}, create a
+   * new group for it.
    *
    * @param tb the source {@link TupleBatch}
-   * @param row the row in <code>tb</code> that contains the new values
-   * @param curAggStates the aggregation states to be updated.
-   * @throws DbException if there is an error.
+   * @param row the row in <code>tb</code> that contains the new group
+   * @param groupHash the hash of the grouping columns of the row.
+   * @return the index of the new group.
    */
-
-  //****process tuple in single update here
-  private void updateGroup(final TupleBatch tb, final int row, final Object[] curAggStates)
-      throws DbException {
-        if(sketchEnabled){
-          for(int agg = 0; agg < aggregators.length; ++agg){
-            for(int i = 0; i < ((Object[]) curAggStates[agg]).length; i++){
-              aggregators[agg].addRow(tb, row, ((Object[]) curAggStates[agg])[i]);
-            }
-          }
-
-        }
-        else{
-          for (int agg = 0; agg < aggregators.length; ++agg) {
-            aggregators[agg].addRow(tb, row, curAggStates[agg]);
-          }
-        }
+  private int newGroup(final TupleBatch tb, final int row, final int groupHash) {
+    int newIndex = groupKeys.numTuples();
+    for (int column = 0; column < gfields.length; ++column) {
+      TupleUtils.copyValue(tb, gfields[column], row, groupKeys, column);
+    }
+    groupKeyMap.insert(groupHash, newIndex, tb, gfields, row);
+    if (aggStates != null) {
+      int newGroup = aggStates.newGroup();
+      Preconditions.checkState(
+          newIndex == newGroup, "groupKeys %s != groupAggs %s", newIndex, newGroup);
+    }
+    return newIndex;
   }
 
   /**
@@ -237,6 +250,7 @@ public final class MultiGroupByAggregate extends UnaryOperator {
     if (groupKeyList == null) {
       groupKeyList = Lists.newLinkedList(groupKeys.finalResult());
       groupKeys = null;
+      groupKeyMap = null;
     }
 
     if (groupKeyList.isEmpty()) {
@@ -246,22 +260,13 @@ public final class MultiGroupByAggregate extends UnaryOperator {
     if(sketchEnabled){
       TupleBatch curGroupKeys = groupKeyList.remove(0);
       TupleBatchBuffer curGroupAggs = new TupleBatchBuffer(aggSchema);
-      int[] numCols = new int[gfields.length];
-      for(int i = 0; i < gfields.length; i++){
-        numCols[i] = i;
-      }
+      /* The group key columns hash exactly like the grouping columns of the input. */
+      final int k = sketchBuffers[0].getHashFunctionsCount();
+      familyHashes = HashUtils.hashSubRowsFamily(curGroupKeys, grpRange, k, familyHashes);
       for (int row = 0; row < curGroupKeys.numTuples(); ++row) {
-        Object[] rowAggs = aggStates.get(row);
         int curCol = 0;
         for (int agg = 0; agg < aggregators.length; ++agg) {
-          if(aggregators[agg].getSketchOption() == AggregationSketchOption.UseSketchMin){
-            //TODO what do we need to pass into getCountMinStates
-            aggregators[agg].getResult(curGroupAggs, curCol, sketchBuffers[agg].getCountMinStatesByRow(curGroupKeys, row, numCols));
-          }
-          else if(aggregators[agg].getSketchOption() == AggregationSketchOption.UseSketch){
-            //TODO same here, what to pass in as args
-            aggregators[agg].getResult(curGroupAggs, curCol, sketchBuffers[agg].getCountStatesByRow(curGroupKeys, row, numCols));
-          }
+          sketchBuffers[agg].getResult(curGroupAggs, curCol, familyHashes, row * k);
           curCol += aggregators[agg].getResultSchema().numColumns();
         }
       }
@@ -272,8 +277,6 @@ public final class MultiGroupByAggregate extends UnaryOperator {
           curGroupKeys.numTuples(),
           aggResults.numTuples());
 
-      /* Note: as of Java7 sublists of sublists do what we want -- the sublists are at most one deep. */
-      aggStates = aggStates.subList(curGroupKeys.numTuples(), aggStates.size());
       return new TupleBatch(
           getSchema(),
           ImmutableList.<Column<?>>builder()
@@ -286,13 +289,7 @@ public final class MultiGroupByAggregate extends UnaryOperator {
       TupleBatch curGroupKeys = groupKeyList.remove(0);
       TupleBatchBuffer curGroupAggs = new TupleBatchBuffer(aggSchema);
       for (int row = 0; row < curGroupKeys.numTuples(); ++row) {
-        Object[] rowAggs = aggStates.get(row);
-        int curCol = 0;
-        for (int agg = 0; agg < aggregators.length; ++agg) {
-          //this updates curGroupAggs with rowAggs[agg]
-          aggregators[agg].getResult(curGroupAggs, curCol, rowAggs[agg]);
-          curCol += aggregators[agg].getResultSchema().numColumns();
-        }
+        aggStates.getResult(curGroupAggs, 0, nextResultGroup + row);
       }
       TupleBatch aggResults = curGroupAggs.popAny();
       Preconditions.checkState(
@@ -301,8 +298,7 @@ public final class MultiGroupByAggregate extends UnaryOperator {
           curGroupKeys.numTuples(),
           aggResults.numTuples());
 
-      /* Note: as of Java7 sublists of sublists do what we want -- the sublists are at most one deep. */
-      aggStates = aggStates.subList(curGroupKeys.numTuples(), aggStates.size());
+      nextResultGroup += curGroupKeys.numTuples();
       return new TupleBatch(
           getSchema(),
           ImmutableList.<Column<?>>builder()
@@ -352,25 +348,24 @@ public final class MultiGroupByAggregate extends UnaryOperator {
     Preconditions.checkState(getSchema() != null, "unable to determine schema in init");
     aggregators = AggUtils.allocateAggs(factories, getChild().getSchema());
     groupKeys = new TupleBuffer(groupSchema);
-    aggStates = new ArrayList<>();
-    groupKeyMap = new IntObjectHashMap<>();
+    aggStates = new GroupAggStates(aggregators);
+    nextResultGroup = 0;
+    groupKeyMap = new GroupIdHashTable(groupKeys, grpRange);
     boolean anyPreciseAggregates =
             Arrays.stream(aggregators)
                     .anyMatch(o -> o.getSketchOption() == AggregationSketchOption.DoNotSketch);
     boolean anySketchAggregates =
             Arrays.stream(aggregators)
                     .anyMatch(o -> o.getSketchOption() != AggregationSketchOption.DoNotSketch);
-    if (anyPreciseAggregates && anySketchAggregates) sketchEnabled = false;
-    if (sketchEnabled && anySketchAggregates) {
-      SketchAdviser adviser = new SketchAdviser(getChild());
-      sketchEnabled = adviser.shouldSketch(SketchBuffer.DEFAULT_COLUMN * SketchBuffer.DEFAULT_ROWS, gfields, execEnvVars);
-    }
-    if (sketchEnabled) {
-      sketchBuffers = new SketchBuffer[aggregators.length];
-      for (int i = 0; i < aggregators.length; i++) {
-        sketchBuffers[i] =
-                new SketchBuffer(
-                        SketchBuffer.DEFAULT_ROWS, SketchBuffer.DEFAULT_COLUMN, aggregators[i]);
+    sketchEnabled = false;
+    if (anySketchAggregates && !anyPreciseAggregates) {
+      if (execEnvVars != null && execEnvVars.get("Debug_Sketch") == Boolean.TRUE) {
+        sketchEnabled = true;
+        allocateSketches();
+      } else {
+        /* Decided on the fly from a prefix of the input, see applyAdvice. */
+        adviser =
+            new SketchAdviser(gfields, SketchBuffer.DEFAULT_COLUMN * SketchBuffer.DEFAULT_ROWS);
       }
     }
   }
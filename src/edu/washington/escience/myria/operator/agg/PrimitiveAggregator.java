@@ -3,14 +3,18 @@ package edu.washington.escience.myria.operator.agg;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 
+import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableTable;
 import org.fusesource.leveldbjni.internal.NativeDB;
 
 /**
@@ -177,6 +181,54 @@ public abstract class PrimitiveAggregator implements Aggregator, Serializable {
     return resultSchema;
   }
 
+  /**
+   * Allocate column-wise aggregation states for many groups, to be updated by
+   * {@link #addColumn(int[], ReadableTable, PrimitiveGroupStates)}. By default, the states hold one state object per
+   * group, as returned by {@link #getInitialState()}.
+   *
+   * @return the empty states.
+   */
+  public PrimitiveGroupStates newGroupStates() {
+    return PrimitiveGroupStates.objects(this);
+  }
+
+  /**
+   * Update the states of many groups using all rows of the specified table. By default, each row is added to the state
+   * object of its group with {@link #addRow(ReadableTable, int, Object)}.
+   *
+   * @param groupIds the group of each row of {@code from}.
+   * @param from the source {@link ReadableTable}.
+   * @param states the states allocated by {@link #newGroupStates()}, with room for every group in {@code groupIds}.
+   * @throws DbException if there is an error.
+   */
+  public void addColumn(
+      final int[] groupIds, final ReadableTable from, final PrimitiveGroupStates states)
+      throws DbException {
+    final List<Object> objects = states.objects;
+    for (int row = 0; row < from.numTuples(); ++row) {
+      addRow(from, row, objects.get(groupIds[row]));
+    }
+  }
+
+  /**
+   * Append the aggregate result(s) of one group to the given table starting from the given column. By default, the
+   * result is read from the state object of the group with {@link #getResult(AppendableTable, int, Object)}.
+   *
+   * @param dest where to store the aggregate result.
+   * @param destColumn the starting index into which aggregates will be output.
+   * @param states the states allocated by {@link #newGroupStates()}.
+   * @param group the group.
+   * @throws DbException if there is an error.
+   */
+  public void getResult(
+      final AppendableTable dest,
+      final int destColumn,
+      final PrimitiveGroupStates states,
+      final int group)
+      throws DbException {
+    getResult(dest, destColumn, states.objects.get(group));
+  }
+
   @Override
   public AggregationSketchOption getSketchOption()
   {
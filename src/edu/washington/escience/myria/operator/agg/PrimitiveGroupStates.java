@@ -0,0 +1,207 @@
+package edu.washington.escience.myria.operator.agg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The aggregation states of one numeric {@link PrimitiveAggregator} for many groups, stored column-wise: one flat array
+ * per statistic, indexed by group id. Only the statistics the aggregator needs are allocated.
+ *
+ * Integral aggregators keep their statistics in the {@code long} arrays, floating point aggregators keep sum, sum of
+ * squares, min and max in the {@code double} arrays. The count is always a {@code long}. Aggregators without
+ * column-wise statistics keep one state object per group in {@link #objects} instead.
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public final class PrimitiveGroupStates {
+  /** The initial number of groups to allocate room for. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** Per-group count, or {@code null} if not needed. */
+  long[] counts;
+  /** Per-group integral sum, or {@code null} if not needed. */
+  long[] longSums;
+  /** Per-group integral sum of squares, or {@code null} if not needed. */
+  long[] longSumSquares;
+  /** Per-group integral min, or {@code null} if not needed. */
+  long[] longMins;
+  /** Per-group integral max, or {@code null} if not needed. */
+  long[] longMaxs;
+  /** Per-group floating point sum, or {@code null} if not needed. */
+  double[] doubleSums;
+  /** Per-group floating point sum of squares, or {@code null} if not needed. */
+  double[] doubleSumSquares;
+  /** Per-group floating point min, or {@code null} if not needed. */
+  double[] doubleMins;
+  /** Per-group floating point max, or {@code null} if not needed. */
+  double[] doubleMaxs;
+  /** Per-group state objects of an aggregator without column-wise statistics, or {@code null}. */
+  List<Object> objects;
+
+  /** The initial value of an integral min. */
+  private final long longMinInit;
+  /** The initial value of an integral max. */
+  private final long longMaxInit;
+  /** The initial value of a floating point min. */
+  private final double doubleMinInit;
+  /** The initial value of a floating point max. */
+  private final double doubleMaxInit;
+  /** The number of groups there is room for. */
+  private int capacity;
+  /** The aggregator whose state objects are kept in {@link #objects}, or {@code null}. */
+  private final PrimitiveAggregator objectsOf;
+
+  /**
+   * @param agg the aggregator whose states are kept.
+   * @param floating whether the aggregator keeps floating point statistics.
+   * @param longMinInit the initial value of an integral min.
+   * @param longMaxInit the initial value of an integral max.
+   * @param doubleMinInit the initial value of a floating point min.
+   * @param doubleMaxInit the initial value of a floating point max.
+   */
+  private PrimitiveGroupStates(
+      final PrimitiveAggregator agg,
+      final boolean floating,
+      final long longMinInit,
+      final long longMaxInit,
+      final double doubleMinInit,
+      final double doubleMaxInit) {
+    this.longMinInit = longMinInit;
+    this.longMaxInit = longMaxInit;
+    this.doubleMinInit = doubleMinInit;
+    this.doubleMaxInit = doubleMaxInit;
+    capacity = INITIAL_CAPACITY;
+    objectsOf = null;
+    if (agg.needsCount) {
+      counts = new long[capacity];
+    }
+    if (floating) {
+      doubleSums = agg.needsSum ? new double[capacity] : null;
+      doubleSumSquares = agg.needsSumSq ? new double[capacity] : null;
+      doubleMins = agg.needsMin ? filled(new double[capacity], 0, doubleMinInit) : null;
+      doubleMaxs = agg.needsMax ? filled(new double[capacity], 0, doubleMaxInit) : null;
+    } else {
+      longSums = agg.needsSum ? new long[capacity] : null;
+      longSumSquares = agg.needsSumSq ? new long[capacity] : null;
+      longMins = agg.needsMin ? filled(new long[capacity], 0, longMinInit) : null;
+      longMaxs = agg.needsMax ? filled(new long[capacity], 0, longMaxInit) : null;
+    }
+  }
+
+  /**
+   * @param agg an aggregator without column-wise statistics.
+   */
+  private PrimitiveGroupStates(final PrimitiveAggregator agg) {
+    longMinInit = 0;
+    longMaxInit = 0;
+    doubleMinInit = 0;
+    doubleMaxInit = 0;
+    capacity = 0;
+    objectsOf = agg;
+    objects = new ArrayList<>();
+  }
+
+  /**
+   * @param agg an integral aggregator.
+   * @param minInit the initial value of a min.
+   * @param maxInit the initial value of a max.
+   * @return states for the aggregator.
+   */
+  static PrimitiveGroupStates integral(
+      final PrimitiveAggregator agg, final long minInit, final long maxInit) {
+    return new PrimitiveGroupStates(agg, false, minInit, maxInit, 0, 0);
+  }
+
+  /**
+   * @param agg a floating point aggregator.
+   * @param minInit the initial value of a min.
+   * @param maxInit the initial value of a max.
+   * @return states for the aggregator.
+   */
+  static PrimitiveGroupStates floating(
+      final PrimitiveAggregator agg, final double minInit, final double maxInit) {
+    return new PrimitiveGroupStates(agg, true, 0, 0, minInit, maxInit);
+  }
+
+  /**
+   * @param agg an aggregator without column-wise statistics.
+   * @return states holding one state object of the aggregator per group.
+   */
+  static PrimitiveGroupStates objects(final PrimitiveAggregator agg) {
+    return new PrimitiveGroupStates(agg);
+  }
+
+  /**
+   * Make room for at least the given number of groups. New groups start with the initial states.
+   *
+   * @param numGroups the number of groups.
+   */
+  void ensureCapacity(final int numGroups) {
+    if (objects != null) {
+      while (objects.size() < numGroups) {
+        objects.add(objectsOf.getInitialState());
+      }
+      return;
+    }
+    if (numGroups <= capacity) {
+      return;
+    }
+    final int oldCapacity = capacity;
+    capacity = Math.max(numGroups, oldCapacity * 2);
+    counts = grow(counts);
+    longSums = grow(longSums);
+    longSumSquares = grow(longSumSquares);
+    if (longMins != null) {
+      longMins = filled(Arrays.copyOf(longMins, capacity), oldCapacity, longMinInit);
+    }
+    if (longMaxs != null) {
+      longMaxs = filled(Arrays.copyOf(longMaxs, capacity), oldCapacity, longMaxInit);
+    }
+    doubleSums = grow(doubleSums);
+    doubleSumSquares = grow(doubleSumSquares);
+    if (doubleMins != null) {
+      doubleMins = filled(Arrays.copyOf(doubleMins, capacity), oldCapacity, doubleMinInit);
+    }
+    if (doubleMaxs != null) {
+      doubleMaxs = filled(Arrays.copyOf(doubleMaxs, capacity), oldCapacity, doubleMaxInit);
+    }
+  }
+
+  /**
+   * @param array an array, or {@code null}.
+   * @return the array grown to {@link #capacity}, or {@code null}.
+   */
+  private long[] grow(final long[] array) {
+    return array == null ? null : Arrays.copyOf(array, capacity);
+  }
+
+  /**
+   * @param array an array, or {@code null}.
+   * @return the array grown to {@link #capacity}, or {@code null}.
+   */
+  private double[] grow(final double[] array) {
+    return array == null ? null : Arrays.copyOf(array, capacity);
+  }
+
+  /**
+   * @param array an array.
+   * @param from the first index to fill.
+   * @param value the value to fill with.
+   * @return the array.
+   */
+  private static long[] filled(final long[] array, final int from, final long value) {
+    Arrays.fill(array, from, array.length, value);
+    return array;
+  }
+
+  /**
+   * @param array an array.
+   * @param from the first index to fill.
+   * @param value the value to fill with.
+   * @return the array.
+   */
+  private static double[] filled(final double[] array, final int from, final double value) {
+    Arrays.fill(array, from, array.length, value);
+    return array;
+  }
+}
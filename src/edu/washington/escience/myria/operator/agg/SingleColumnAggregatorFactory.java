@@ -70,6 +70,9 @@ public class SingleColumnAggregatorFactory implements AggregatorFactory {
     Objects.requireNonNull(aggOps, "aggOps");
     String inputName = inputSchema.getColumnName(column);
     Type type = inputSchema.getColumnType(column);
+    if (option != AggregationSketchOption.DoNotSketch) {
+      checkSketchable(type);
+    }
     switch (type) {
       case BOOLEAN_TYPE:
         return new BooleanAggregator(inputName, aggOps, column);
@@ -91,12 +94,31 @@ public class SingleColumnAggregatorFactory implements AggregatorFactory {
           return new LongAggregator(inputName, aggOps, column);
         }
         else {
+          /* Only COUNT is sketched on LONG columns, see checkSketchable, so the values are never read as ints. */
           return new IntegerAggregator(inputName, aggOps, column, option);
-          //TODO: currently, even if type is long, downgraee it to int if sketch is enabled.
         }
       case STRING_TYPE:
         return new StringAggregator(inputName, aggOps, column);
     }
     throw new IllegalArgumentException("Unknown column type: " + type);
   }
+
+  /**
+   * A sketch only reads the values of INT columns. It can count the rows of a LONG column, but nothing else.
+   *
+   * @param type the type of the aggregated column.
+   */
+  private void checkSketchable(final Type type) {
+    if (type == Type.INT_TYPE) {
+      return;
+    }
+    if (type == Type.LONG_TYPE) {
+      for (AggregationOp op : aggOps) {
+        Preconditions.checkArgument(
+            op == AggregationOp.COUNT, "cannot sketch %s of a %s column", op, type);
+      }
+      return;
+    }
+    throw new IllegalArgumentException("cannot sketch a " + type + " column");
+  }
 }
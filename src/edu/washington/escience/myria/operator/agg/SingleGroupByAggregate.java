@@ -8,19 +8,26 @@ import org.joda.time.DateTime;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
-import com.gs.collections.impl.map.mutable.primitive.DoubleObjectHashMap;
-import com.gs.collections.impl.map.mutable.primitive.FloatObjectHashMap;
-import com.gs.collections.impl.map.mutable.primitive.IntObjectHashMap;
-import com.gs.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import com.gs.collections.impl.map.mutable.primitive.DoubleIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.FloatIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.IntIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.LongIntHashMap;
+import com.gs.collections.impl.map.mutable.primitive.ObjectIntHashMap;
 
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.operator.Operator;
 import edu.washington.escience.myria.operator.UnaryOperator;
+import edu.washington.escience.myria.storage.ReadableColumn;
 import edu.washington.escience.myria.storage.ReadableTable;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.storage.TupleBuffer;
+import edu.washington.escience.myria.storage.TupleUtils;
+import edu.washington.escience.myria.util.HashUtils;
 import org.joda.time.IllegalFieldValueException;
 import scala.tools.nsc.backend.icode.Primitives;
 
@@ -56,37 +63,61 @@ public class SingleGroupByAggregate extends UnaryOperator {
     private Type gColumnType;
 
     /**
-     * The buffer storing in-progress group by results. {groupby-column-value -> Aggregator Array} when the group key is
-     * String
+     * The group id of each group key, when the group key is String.
      */
-    private transient HashMap<String, Object[]> stringAggState;
+    private transient ObjectIntHashMap<String> stringGroups;
 
     /**
-     * The buffer storing in-progress group by results. {groupby-column-value -> Aggregator Array} when the group key is
-     * DateTime.
+     * The group id of each code of {@link #codeGroupsDictionary}, -1 if not looked up yet, when the group key is a
+     * dictionary encoded String.
      */
-    private transient HashMap<DateTime, Object[]> datetimeAggState;
+    private transient int[] codeGroups;
 
     /**
-     * The buffer storing in-progress group by results when the group key is int.
+     * The dictionary of the codes in {@link #codeGroups}.
      */
-    private transient IntObjectHashMap<Object[]> intAggState;
+    private transient StringDictionary codeGroupsDictionary;
+
+    /**
+     * The group id of each group key, when the group key is DateTime.
+     */
+    private transient ObjectIntHashMap<DateTime> datetimeGroups;
+
+    /**
+     * The group id of each group key, when the group key is int.
+     */
+    private transient IntIntHashMap intGroups;
+    /**
+     * The group id of each group key, when the group key is boolean. True is index 0, False is index 1, -1 if absent.
+     */
+    private transient int[] booleanGroups;
+    /**
+     * The group id of each group key, when the group key is long.
+     */
+    private transient LongIntHashMap longGroups;
+    /**
+     * The group id of each group key, when the group key is float.
+     */
+    private transient FloatIntHashMap floatGroups;
     /**
-     * The buffer storing in-progress group by results when the group key is boolean.
+     * The group id of each group key, when the group key is double.
      */
-    private transient Object[][] booleanAggState;
+    private transient DoubleIntHashMap doubleGroups;
+
     /**
-     * The buffer storing in-progress group by results when the group key is long.
+     * The group keys, by group id.
      */
-    private transient LongObjectHashMap<Object[]> longAggState;
+    private transient TupleBuffer groupKeys;
+
     /**
-     * The buffer storing in-progress group by results when the group key is float.
+     * The in-progress group by results, by group id.
      */
-    private transient FloatObjectHashMap<Object[]> floatAggState;
+    private transient GroupAggStates aggStates;
+
     /**
-     * The buffer storing in-progress group by results when the group key is double.
+     * Reused buffer holding the group id of each row of the TupleBatch being processed.
      */
-    private transient DoubleObjectHashMap<Object[]> doubleAggState;
+    private transient int[] batchGroupIds;
 
     /**
      * If Sketch is enabled, SketchBuffer will be used.
@@ -98,6 +129,16 @@ public class SingleGroupByAggregate extends UnaryOperator {
      */
     private transient HashSet<Object> sketchGroupKeys;
 
+    /**
+     * If Sketch is enabled, reused buffer for the hash matrix of the group keys.
+     */
+    private transient int[] familyHashes;
+
+    /**
+     * While deciding whether to sketch, the adviser holding the input seen so far; null once decided.
+     */
+    private transient SketchAdviser adviser;
+
     /**
      * The aggregators that will initialize and update the state.
      */
@@ -125,97 +166,165 @@ public class SingleGroupByAggregate extends UnaryOperator {
 
     @Override
     protected final void cleanup() throws DbException {
-        stringAggState = null;
-        datetimeAggState = null;
-        doubleAggState = null;
-        booleanAggState = null;
-        floatAggState = null;
-        intAggState = null;
-        longAggState = null;
+        stringGroups = null;
+        codeGroups = null;
+        codeGroupsDictionary = null;
+        datetimeGroups = null;
+        doubleGroups = null;
+        booleanGroups = null;
+        floatGroups = null;
+        intGroups = null;
+        longGroups = null;
+        groupKeys = null;
+        aggStates = null;
+        batchGroupIds = null;
         resultBuffer = null;
+        sketchBuffers = null;
+        sketchGroupKeys = null;
+        familyHashes = null;
+        adviser = null;
     }
 
     /**
-     * Utility function to fetch or create/initialize the aggregation state for the group corresponding to the data in the
-     * specified table and row.
+     * Find the group id of the group key of every row of the specified table, creating new groups as needed.
      *
      * @param table the data to be aggregated.
-     * @param row   which row of the table is to be aggregated.
-     * @return the aggregation state for that row.
      * @throws DbException if there is an error.
      */
-    private Object[] getAggState(final ReadableTable table, final int row) throws DbException {
-        Object[] aggState = null;
+    private void computeGroupIds(final ReadableTable table) throws DbException {
+        final int numTuples = table.numTuples();
+        if (batchGroupIds == null || batchGroupIds.length < numTuples) {
+            batchGroupIds = new int[numTuples];
+        }
+        final ReadableColumn keys = table.asColumn(gColumn);
         switch (gColumnType) {
             case BOOLEAN_TYPE:
-                boolean groupByBool = table.getBoolean(gColumn, row);
-                if (groupByBool) {
-                    aggState = booleanAggState[0];
-                } else {
-                    aggState = booleanAggState[1];
-                }
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    if (groupByBool) {
-                        booleanAggState[0] = aggState;
-                    } else {
-                        booleanAggState[1] = aggState;
+                for (int row = 0; row < numTuples; ++row) {
+                    /* True is index 0 in booleanGroups, False is index 1. */
+                    int bucket = keys.getBoolean(row) ? 0 : 1;
+                    if (booleanGroups[bucket] == -1) {
+                        booleanGroups[bucket] = newGroup(keys, row);
                     }
+                    batchGroupIds[row] = booleanGroups[bucket];
                 }
-                break;
+                return;
             case STRING_TYPE:
-                String groupByString = table.getString(gColumn, row);
-                aggState = stringAggState.get(groupByString);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    stringAggState.put(groupByString, aggState);
+                if (keys instanceof DictionaryStringColumn) {
+                    computeGroupIdsByCode((DictionaryStringColumn) keys, numTuples);
+                    return;
                 }
-                break;
+                for (int row = 0; row < numTuples; ++row) {
+                    String key = keys.getString(row);
+                    int group = stringGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        stringGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
+                }
+                return;
             case DATETIME_TYPE:
-                DateTime groupByDateTime = table.getDateTime(gColumn, row);
-                aggState = datetimeAggState.get(groupByDateTime);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    datetimeAggState.put(groupByDateTime, aggState);
+                for (int row = 0; row < numTuples; ++row) {
+                    DateTime key = keys.getDateTime(row);
+                    int group = datetimeGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        datetimeGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
                 }
-                break;
+                return;
             case INT_TYPE:
-                int groupByInt = table.getInt(gColumn, row);
-                aggState = intAggState.get(groupByInt);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    intAggState.put(groupByInt, aggState);
+                for (int row = 0; row < numTuples; ++row) {
+                    int key = keys.getInt(row);
+                    int group = intGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        intGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
                 }
-                break;
+                return;
             case LONG_TYPE:
-                long groupByLong = table.getLong(gColumn, row);
-                aggState = longAggState.get(groupByLong);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    longAggState.put(groupByLong, aggState);
+                for (int row = 0; row < numTuples; ++row) {
+                    long key = keys.getLong(row);
+                    int group = longGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        longGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
                 }
-                break;
+                return;
             case FLOAT_TYPE:
-                float groupByFloat = table.getFloat(gColumn, row);
-                aggState = floatAggState.get(groupByFloat);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    floatAggState.put(groupByFloat, aggState);
+                for (int row = 0; row < numTuples; ++row) {
+                    float key = keys.getFloat(row);
+                    int group = floatGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        floatGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
                 }
-                break;
+                return;
             case DOUBLE_TYPE:
-                double groupByDouble = table.getDouble(gColumn, row);
-                aggState = doubleAggState.get(groupByDouble);
-                if (aggState == null) {
-                    aggState = AggUtils.allocateAggStates(aggregators);
-                    doubleAggState.put(groupByDouble, aggState);
+                for (int row = 0; row < numTuples; ++row) {
+                    double key = keys.getDouble(row);
+                    int group = doubleGroups.getIfAbsent(key, -1);
+                    if (group == -1) {
+                        group = newGroup(keys, row);
+                        doubleGroups.put(key, group);
+                    }
+                    batchGroupIds[row] = group;
                 }
-                break;
+                return;
+        }
+        throw new IllegalStateException("Aggregating values of unknown type.");
+    }
+
+    /**
+     * Find the group id of the group key of every row of a dictionary encoded group column, looking up the groups of
+     * each code only once.
+     *
+     * @param keys the group by column.
+     * @param numTuples the number of rows.
+     */
+    private void computeGroupIdsByCode(final DictionaryStringColumn keys, final int numTuples) {
+        if (codeGroupsDictionary != keys.getDictionary()) {
+            codeGroupsDictionary = keys.getDictionary();
+            codeGroups = new int[0];
         }
-        if (aggState == null) {
-            throw new IllegalStateException("Aggregating values of unknown type.");
+        if (codeGroups.length < keys.getDictionarySize()) {
+            final int looked = codeGroups.length;
+            codeGroups = Arrays.copyOf(codeGroups, keys.getDictionarySize());
+            Arrays.fill(codeGroups, looked, codeGroups.length, -1);
+        }
+        for (int row = 0; row < numTuples; ++row) {
+            final int code = keys.getCode(row);
+            int group = codeGroups[code];
+            if (group == -1) {
+                String key = keys.getString(row);
+                group = stringGroups.getIfAbsent(key, -1);
+                if (group == -1) {
+                    group = newGroup(keys, row);
+                    stringGroups.put(key, group);
+                }
+                codeGroups[code] = group;
+            }
+            batchGroupIds[row] = group;
         }
-        return aggState;
+    }
+
+    /**
+     * Create a new group with the initial aggregation states.
+     *
+     * @param keys the group by column.
+     * @param row the row of the new group key.
+     * @return the group id of the new group.
+     */
+    private int newGroup(final ReadableColumn keys, final int row) {
+        TupleUtils.copyValue(keys, row, groupKeys, 0);
+        return aggStates.newGroup();
     }
 
     /**
@@ -225,24 +334,18 @@ public class SingleGroupByAggregate extends UnaryOperator {
     private void processTupleBatch(final TupleBatch tb) throws DbException {
         if (sketchEnabled) {
             for (int i = 0; i < tb.numTuples(); ++i) {
-                Object key = tb.asColumn(gColumn).getObject(i);
-                sketchGroupKeys.add(key);
-                for (int agg = 0; agg < aggregators.length; agg++) {
-                    //regardless of sketch min or sketch, the creation is the same.
-                    Object[] groupAggs = sketchBuffers[agg].getCountMinStates(key, gColumnType);
-                    //foreach groupAgg, increment.
-                    for (Object state : groupAggs) {
-                        aggregators[agg].addRow(tb, i, state);
-                    }
-                }
+                sketchGroupKeys.add(tb.asColumn(gColumn).getObject(i));
             }
-        } else {
-            for (int i = 0; i < tb.numTuples(); ++i) {
-                Object[] groupAgg = getAggState(tb, i);
-                for (int agg = 0; agg < aggregators.length; ++agg) {
-                    aggregators[agg].addRow(tb, i, groupAgg[agg]);
-                }
+            //regardless of sketch min or sketch, the update is the same.
+            familyHashes =
+                    HashUtils.hashSubRowsFamily(
+                            tb, new int[] {gColumn}, sketchBuffers[0].getHashFunctionsCount(), familyHashes);
+            for (int agg = 0; agg < aggregators.length; agg++) {
+                sketchBuffers[agg].addBatch(tb, familyHashes);
             }
+        } else {
+            computeGroupIds(tb);
+            aggStates.addBatch(tb, batchGroupIds);
         }
     }
 
@@ -251,21 +354,13 @@ public class SingleGroupByAggregate extends UnaryOperator {
      * goes in column 0, and the aggregates are appended starting at column 1.
      *
      * @param resultBuffer where the tuples will be appended.
-     * @param aggState     the states corresponding to all aggregators.
+     * @param group        the group id.
      * @throws DbException if there is an error.
      */
-    private void concatResults(final TupleBatchBuffer resultBuffer, final Object[] aggState)
+    private void concatResults(final TupleBatchBuffer resultBuffer, final int group)
             throws DbException {
-        //semantics has changed. If resultBuffer is null, do nothing.
-        if (resultBuffer == null) {
-            if (sketchEnabled) return;
-            else throw new IllegalArgumentException("resultBuffer cannot be null if not in sketch");
-        }
-        int index = 1;
-        for (int agg = 0; agg < aggregators.length; ++agg) {
-            aggregators[agg].getResult(resultBuffer, index, aggState[agg]);
-            index += aggregators[agg].getResultSchema().numColumns();
-        }
+        TupleUtils.copyValue(groupKeys, 0, group, resultBuffer, 0);
+        aggStates.getResult(resultBuffer, 1, group);
     }
 
     /**
@@ -302,66 +397,17 @@ public class SingleGroupByAggregate extends UnaryOperator {
                         resultBuffer.putDouble(0, (double) key);
                         break;
                 }
-                //we need to stuff things into that array. Create an array with elements pointing to arrays.
-                Object[] pointersToPointers = new Object[aggregators.length];
-                for (int i = 0; i < pointersToPointers.length; i++) {
-                    //sketchBuffers[i].DebugCheckConsistency(2715);
-                    if (aggregators[i].getSketchOption() == AggregationSketchOption.UseSketchMin)
-                        pointersToPointers[i] = sketchBuffers[i].getCountMinStates(key, gColumnType);
-                    else if (aggregators[i].getSketchOption() == AggregationSketchOption.UseSketch)
-                        pointersToPointers[i] = sketchBuffers[i].getCountStates(key, gColumnType);
+                HashUtils.hashValueFamily(
+                        key, gColumnType, familyHashes, sketchBuffers[0].getHashFunctionsCount());
+                int index = 1;
+                for (int agg = 0; agg < aggregators.length; ++agg) {
+                    sketchBuffers[agg].getResult(resultBuffer, index, familyHashes, 0);
+                    index += aggregators[agg].getResultSchema().numColumns();
                 }
-                concatResults(resultBuffer, pointersToPointers);
             }
         } else {
-            switch (gColumnType) {
-                case BOOLEAN_TYPE:
-                    for (int boolBucket = 0; boolBucket < 2; ++boolBucket) {
-                        Object[] aggState = booleanAggState[boolBucket];
-                        if (aggState != null) {
-              /* True is index 0 in booleanAggState, False is index 1. */
-                            resultBuffer.putBoolean(0, boolBucket == 0);
-                            concatResults(resultBuffer, aggState);
-                        }
-                    }
-                    break;
-                case STRING_TYPE: {
-                    for (final Map.Entry<String, Object[]> e : stringAggState.entrySet()) {
-                        resultBuffer.putString(0, e.getKey());
-                        concatResults(resultBuffer, e.getValue());
-                    }
-                }
-                break;
-                case DATETIME_TYPE:
-                    for (final Map.Entry<DateTime, Object[]> e : datetimeAggState.entrySet()) {
-                        resultBuffer.putDateTime(0, e.getKey());
-                        concatResults(resultBuffer, e.getValue());
-                    }
-                    break;
-                case INT_TYPE:
-                    for (int key : intAggState.keySet().toArray()) {
-                        resultBuffer.putInt(0, key);
-                        concatResults(resultBuffer, intAggState.get(key));
-                    }
-                    break;
-                case LONG_TYPE:
-                    for (long key : longAggState.keySet().toArray()) {
-                        resultBuffer.putLong(0, key);
-                        concatResults(resultBuffer, longAggState.get(key));
-                    }
-                    break;
-                case FLOAT_TYPE:
-                    for (float key : floatAggState.keySet().toArray()) {
-                        resultBuffer.putFloat(0, key);
-                        concatResults(resultBuffer, floatAggState.get(key));
-                    }
-                    break;
-                case DOUBLE_TYPE:
-                    for (double key : doubleAggState.keySet().toArray()) {
-                        resultBuffer.putDouble(0, key);
-                        concatResults(resultBuffer, doubleAggState.get(key));
-                    }
-                    break;
+            for (int group = 0; group < aggStates.numGroups(); ++group) {
+                concatResults(resultBuffer, group);
             }
         }
     }
@@ -384,10 +430,18 @@ public class SingleGroupByAggregate extends UnaryOperator {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("get a TB from child");
             }
-            processTupleBatch(tb);
+            if (adviser == null) {
+                processTupleBatch(tb);
+            } else if (adviser.offer(tb)) {
+                applyAdvice();
+            }
         }
 
         if (child.eos()) {
+            if (adviser != null) {
+                adviser.finish();
+                applyAdvice();
+            }
             generateResult(resultBuffer);
         }
         return resultBuffer.popAny();
@@ -420,43 +474,68 @@ public class SingleGroupByAggregate extends UnaryOperator {
        //        throw new IllegalStateException("sketchEnabled = " + sketchEnabled + " " + ((SingleColumnAggregatorFactory)factories[0]).getSketchOption() + " " + ((IntegerAggregator)agg).getSketchOption());
        //    }
        //}
-        if(anySketchAggregates && !anyPreciseAggregates) sketchEnabled = true;
-        if (gColumnType == Type.BOOLEAN_TYPE) sketchEnabled = false;
-        if (sketchEnabled) {
-            //TODO: can only enumerate it once for TupleBatchSource.
-            //SketchAdviser adviser = new SketchAdviser(getChild());
-            //sketchEnabled = adviser.shouldSketch(SketchBuffer.DEFAULT_COLUMN * SketchBuffer.DEFAULT_ROWS, new int[]{gColumn}, execEnvVars);
-        }
-        if (sketchEnabled || (execEnvVars!= null && execEnvVars.get("Debug_Sketch") == Boolean.TRUE)) {
-            sketchBuffers = new SketchBuffer[aggregators.length];
-            for (int i = 0; i < aggregators.length; i++) {
-                sketchBuffers[i] =
-                        new SketchBuffer(
-                                SketchBuffer.DEFAULT_ROWS, SketchBuffer.DEFAULT_COLUMN, aggregators[i]);
+        sketchEnabled = false;
+        if (anySketchAggregates && !anyPreciseAggregates && gColumnType != Type.BOOLEAN_TYPE) {
+            if (execEnvVars != null && execEnvVars.get("Debug_Sketch") == Boolean.TRUE) {
+                sketchEnabled = true;
+            } else {
+                /* Decided on the fly from a prefix of the input, see applyAdvice. */
+                adviser =
+                        new SketchAdviser(
+                                new int[] {gColumn}, SketchBuffer.DEFAULT_COLUMN * SketchBuffer.DEFAULT_ROWS);
+                return;
             }
+        }
+        allocateState();
+    }
+
+    /**
+     * Switch to the path chosen by the adviser and replay the input it held on to.
+     *
+     * @throws DbException if there is an error.
+     */
+    private void applyAdvice() throws DbException {
+        sketchEnabled = adviser.shouldSketch();
+        allocateState();
+        List<TupleBatch> pending = adviser.takePending();
+        adviser = null;
+        for (TupleBatch tb : pending) {
+            processTupleBatch(tb);
+        }
+    }
+
+    /**
+     * Allocate the sketches or the exact per-group states, depending on {@link #sketchEnabled}.
+     */
+    private void allocateState() {
+        if (sketchEnabled) {
+            sketchBuffers = SketchBuffer.forAggregators(aggregators);
             sketchGroupKeys = new HashSet<>();
+            familyHashes = new int[SketchBuffer.DEFAULT_ROWS];
         } else {
+            groupKeys = new TupleBuffer(getSchema().getSubSchema(new int[] {0}));
+            aggStates = new GroupAggStates(aggregators);
             switch (gColumnType) {
                 case BOOLEAN_TYPE:
-                    booleanAggState = new Object[2][];
+                    booleanGroups = new int[] {-1, -1};
                     break;
                 case INT_TYPE:
-                    intAggState = new IntObjectHashMap<Object[]>();
+                    intGroups = new IntIntHashMap();
                     break;
                 case LONG_TYPE:
-                    longAggState = new LongObjectHashMap<Object[]>();
+                    longGroups = new LongIntHashMap();
                     break;
                 case FLOAT_TYPE:
-                    floatAggState = new FloatObjectHashMap<Object[]>();
+                    floatGroups = new FloatIntHashMap();
                     break;
                 case DOUBLE_TYPE:
-                    doubleAggState = new DoubleObjectHashMap<Object[]>();
+                    doubleGroups = new DoubleIntHashMap();
                     break;
                 case STRING_TYPE:
-                    stringAggState = new HashMap<String, Object[]>();
+                    stringGroups = new ObjectIntHashMap<String>();
                     break;
                 case DATETIME_TYPE:
-                    datetimeAggState = new HashMap<DateTime, Object[]>();
+                    datetimeGroups = new ObjectIntHashMap<DateTime>();
                     break;
             }
         }
@@ -1,105 +1,126 @@
 package edu.washington.escience.myria.operator.agg;
 
-import com.google.common.collect.ImmutableMap;
-import edu.washington.escience.myria.DbException;
-import edu.washington.escience.myria.Schema;
-import edu.washington.escience.myria.Type;
-import edu.washington.escience.myria.operator.BatchTupleSource;
-import edu.washington.escience.myria.operator.Operator;
-import edu.washington.escience.myria.operator.Sample;
+import com.google.common.base.Preconditions;
 import edu.washington.escience.myria.storage.TupleBatch;
-import edu.washington.escience.myria.storage.TupleBatchBuffer;
-import edu.washington.escience.myria.tools.MyriaWorkerConfigurationModule;
+import edu.washington.escience.myria.util.HyperLogLog;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Created by liangluo on 11/3/2016.
+ * Decides whether an aggregate should sketch or aggregate exactly, from a HyperLogLog estimate of the number of groups.
+ *
+ * The adviser looks at a prefix of the aggregate's input, a batch at a time, as the input streams in. It holds on to the
+ * batches it has seen until it has decided, so that the aggregate can then replay them into whichever path was chosen
+ * and the input is read only once. It advises to sketch as soon as the estimated number of groups exceeds the number of
+ * sketch cells, and to aggregate exactly if that has not happened within the prefix or by the end of the input.
  */
 public class SketchAdviser {
-    private static final org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(Operator.class);
-    private static final Schema LEFT_SCHEMA =
-            Schema.ofFields(
-                    "WorkerID",
-                    Type.INT_TYPE,
-                    "PartitionSize",
-                    Type.INT_TYPE,
-                    "SampleSize",
-                    Type.INT_TYPE,
-                    "SampleType",
-                    Type.STRING_TYPE);
-    Operator underlyingRelation;
-    private static final long RANDOM_SEED = 42;
-    private static final int SAMPLE_SIZE = SketchBuffer.DEFAULT_COLUMN * SketchBuffer.DEFAULT_ROWS;
+    /** By default, the advice prefix holds this many tuples per sketch cell. */
+    public static final int DEFAULT_PREFIX_PER_CELL = 16;
+    /** The group columns. */
+    private final int[] gfields;
+    /** The number of cells of the sketch. */
+    private final int cellCount;
+    /** The most tuples to look at before deciding. */
+    private final int maxPrefixTuples;
+    /** The estimated number of distinct groups seen so far. */
+    private final HyperLogLog groups;
+    /** The batches seen before deciding. */
+    private final List<TupleBatch> pending;
+    /** The number of tuples in {@link #pending}. */
+    private int pendingTuples;
+    /** Whether the adviser has decided. */
+    private boolean decided;
+    /** Whether to sketch, once decided. */
+    private boolean sketch;
 
-    public SketchAdviser(final Operator underlyingRelation) {
-        this.underlyingRelation = underlyingRelation;
+    /**
+     * @param gfields the group columns.
+     * @param cellCount the number of cells of the sketch.
+     */
+    public SketchAdviser(final int[] gfields, final int cellCount) {
+        this(gfields, cellCount, DEFAULT_PREFIX_PER_CELL * cellCount);
     }
 
-    //assuming independence of values for each group fields.
-    public boolean shouldSketch(int cellCount, int[] gfields, Map<String, Object> environment) {
-        int relationLength = 0;
-        double multiplicationRatio = 1;
-        try {
-            //underlyingRelation.close();
-            //underlyingRelation.open(environment);
-            while (!underlyingRelation.eos()) {
-                TupleBatch batch = underlyingRelation.nextReady();
-                if(batch!=null)
-                relationLength += batch.numTuples();
-            }
-            underlyingRelation.close();
-            if (relationLength < cellCount) {
-                return false;
-            }
-            if (relationLength > SAMPLE_SIZE) {
-                multiplicationRatio = relationLength / SAMPLE_SIZE;
-            }
-        } catch (Exception e) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Problem resetting iterator for underlyingRelation for advice. {}", e);
-            }
-            return true;
+    /**
+     * @param gfields the group columns.
+     * @param cellCount the number of cells of the sketch.
+     * @param maxPrefixTuples the most tuples to look at before deciding.
+     */
+    public SketchAdviser(final int[] gfields, final int cellCount, final int maxPrefixTuples) {
+        this.gfields = gfields;
+        this.cellCount = cellCount;
+        this.maxPrefixTuples = maxPrefixTuples;
+        groups = new HyperLogLog();
+        pending = new ArrayList<>();
+    }
+
+    /**
+     * Look at the next input batch, unless already decided.
+     *
+     * @param tb the batch.
+     * @return whether the adviser has decided.
+     */
+    public boolean offer(final TupleBatch tb) {
+        Preconditions.checkState(!decided, "the adviser has already decided");
+        groups.offerRows(tb, gfields);
+        pending.add(tb);
+        pendingTuples += tb.numTuples();
+        if (groups.cardinality() > cellCount) {
+            decide(true);
+        } else if (pendingTuples >= maxPrefixTuples) {
+            decide(false);
         }
-        TupleBatchBuffer leftInput = new TupleBatchBuffer(LEFT_SCHEMA);
-        //TODO: put a real worker id here instead of 0.
-        leftInput.putInt(1, relationLength);
-        leftInput.putInt(2, SAMPLE_SIZE);
-        leftInput.putString(3, "WithoutReplacement");
-        Sample sampOp = new Sample(new BatchTupleSource(leftInput), underlyingRelation, RANDOM_SEED);
-        HashSet[] counters = new HashSet[gfields.length];
-        try {
-            sampOp.open(environment);
-            while (!sampOp.eos()) {
-                TupleBatch tb = sampOp.nextReady();
-                //how many distinct items are there?
-                for (int i = 0; i < tb.numTuples(); ++i) {
-                    for (int col = 0; col < gfields.length; col++) {
-                        int column = gfields[col];
-                        counters[col].add(tb.getObject(column, i));
-                    }
-                }
-            }
-            //now multiply them as they are independent.
-            double estimatedSampleLength = multiplicationRatio;
-            for (int i = 0; i < counters.length; i++) {
-                estimatedSampleLength *= counters[i].size();
-            }
-            if (estimatedSampleLength > cellCount) {
-                return true;
-            } else {
-                return false;
-            }
-        } catch (DbException e) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Problem opening iterator for sample of sampOp {}.", e);
-            }
-            return true;
+        return decided;
+    }
+
+    /**
+     * Decide at the end of the input, if not decided yet.
+     */
+    public void finish() {
+        if (!decided) {
+            decide(groups.cardinality() > cellCount);
         }
+    }
+
+    /**
+     * @param shouldSketch whether to sketch.
+     */
+    private void decide(final boolean shouldSketch) {
+        decided = true;
+        sketch = shouldSketch;
+    }
+
+    /**
+     * @return whether the adviser has decided.
+     */
+    public boolean isDecided() {
+        return decided;
+    }
 
+    /**
+     * @return whether the aggregate should sketch.
+     */
+    public boolean shouldSketch() {
+        Preconditions.checkState(decided, "the adviser has not decided yet");
+        return sketch;
     }
 
+    /**
+     * @return the estimated number of distinct groups seen so far.
+     */
+    public long estimatedGroups() {
+        return groups.cardinality();
+    }
+
+    /**
+     * @return the batches seen before deciding, in input order. The adviser no longer holds on to them afterwards.
+     */
+    public List<TupleBatch> takePending() {
+        List<TupleBatch> ret = new ArrayList<>(pending);
+        pending.clear();
+        pendingTuples = 0;
+        return ret;
+    }
 }
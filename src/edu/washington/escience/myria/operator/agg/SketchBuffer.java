@@ -1,105 +1,276 @@
 package edu.washington.escience.myria.operator.agg;
 
-import edu.washington.escience.myria.Type;
-import edu.washington.escience.myria.storage.ReadableTable;
-import edu.washington.escience.myria.storage.Tuple;
-import edu.washington.escience.myria.util.HashUtils;
-import org.apache.hadoop.yarn.webapp.hamlet.HamletSpec;
-
 import java.util.Arrays;
 
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.operator.agg.PrimitiveAggregator.AggregationOp;
+import edu.washington.escience.myria.storage.AppendableTable;
+import edu.washington.escience.myria.storage.ReadableColumn;
+import edu.washington.escience.myria.storage.ReadableTable;
+
 /**
- * Created by Liang Luo Local on 10/23/2016.
+ * A count-min (or count) sketch holding the approximate aggregation states of all groups of one
+ * {@link IntegerAggregator}.
+ *
+ * The sketch has {@code hashRows} rows of {@code rowSize} cells. Each statistic the aggregator needs (count, sum, min,
+ * max) lives in its own flat {@code long[]}, laid out row-major, so cell {@code c} of row {@code r} is at index
+ * {@code r * rowSize + c}. Statistics the aggregator does not need are not allocated.
+ *
+ * The buffer is updated a batch at a time from a precomputed hash matrix, as produced by
+ * {@link edu.washington.escience.myria.util.HashUtils#hashSubRowsFamily}: row {@code i} of the batch falls into cell
+ * {@code familyHashes[i * hashRows + r] mod rowSize} of sketch row {@code r}.
+ *
+ * Counts, mins and maxs are estimated from all rows of the sketch: every cell over-counts, under-estimates the min and
+ * over-estimates the max of each group it holds. A sum may have either sign, so the SUM and AVG of a group are read
+ * from a single cell, its least collided one, i.e., the one with the smallest count.
  */
 public class SketchBuffer {
     public static int DEFAULT_ROWS = 10;
     public static int DEFAULT_COLUMN = 100;
-    private Object[][] sketchArrays;
-    private int hashFunctionsCount;
-    private int rowSize;
-    private Aggregator aggregator;
+    /** The number of hash functions, i.e., sketch rows. */
+    private final int hashFunctionsCount;
+    /** The number of cells per sketch row. */
+    private final int rowSize;
+    /** The aggregator whose states this sketch approximates. */
+    private final IntegerAggregator aggregator;
+    /** The per-cell count, or {@code null} if not needed. */
+    private final long[] counts;
+    /** The per-cell sum, or {@code null} if not needed. */
+    private final long[] sums;
+    /** The per-cell min, or {@code null} if not needed. */
+    private final long[] mins;
+    /** The per-cell max, or {@code null} if not needed. */
+    private final long[] maxs;
+    /** Scratch space for estimates, one entry per sketch row. */
+    private final long[] scratch;
 
-    public SketchBuffer(int hashRows, int rowSize, Aggregator agg) {
-        if (hashRows > HashUtils.NUM_OF_HASHFUNCTIONS)
-            throw new IllegalArgumentException(
-                    "Has only " + HashUtils.NUM_OF_HASHFUNCTIONS + " hash functions defined.");
-        sketchArrays = new IntegerAggregator.IntAggState[hashRows][rowSize];
+    public SketchBuffer(int hashRows, int rowSize, IntegerAggregator agg) {
+        if (hashRows <= 0)
+            throw new IllegalArgumentException("A sketch needs at least one hash function.");
+        if (agg.needsSumSq)
+            throw new IllegalArgumentException("Don't know how to sketch on " + AggregationOp.STDEV.name());
         hashFunctionsCount = hashRows;
         this.rowSize = rowSize;
         aggregator = agg;
+        final int cells = hashRows * rowSize;
+        /* The counts locate the least collided cell of a sum. */
+        counts = agg.needsCount || agg.needsSum ? new long[cells] : null;
+        sums = agg.needsSum ? new long[cells] : null;
+        if (agg.needsMin) {
+            mins = new long[cells];
+            Arrays.fill(mins, Long.MAX_VALUE);
+        } else {
+            mins = null;
+        }
+        if (agg.needsMax) {
+            maxs = new long[cells];
+            Arrays.fill(maxs, Long.MIN_VALUE);
+        } else {
+            maxs = null;
+        }
+        scratch = new long[hashRows];
     }
 
-    private Object[] retrieve(int[] columnIndices, boolean countSketch)
-    {
-      Object[] results = new Object[hashFunctionsCount];
-      for (int r = 0; r < hashFunctionsCount; r++) {
-        int column = columnIndices[r] % rowSize;
-        if (countSketch) {
-          if ((column & 1) == 0) column--;
-          else column++;
+    /**
+     * Allocate one sketch per aggregator.
+     *
+     * @param aggregators the aggregators, which must all have been made to sketch by their factory.
+     * @return the sketches.
+     */
+    static SketchBuffer[] forAggregators(final Aggregator[] aggregators) {
+        final SketchBuffer[] ret = new SketchBuffer[aggregators.length];
+        for (int i = 0; i < aggregators.length; i++) {
+            final Aggregator agg = aggregators[i];
+            Preconditions.checkArgument(agg instanceof IntegerAggregator, "cannot sketch %s", agg);
+            ret[i] = new SketchBuffer(DEFAULT_ROWS, DEFAULT_COLUMN, (IntegerAggregator) agg);
         }
+        return ret;
+    }
+
+    /**
+     * @return the number of hash functions, i.e., the width of a row of the hash matrix.
+     */
+    public int getHashFunctionsCount() {
+        return hashFunctionsCount;
+    }
+
+    /**
+     * @param sketchRow the sketch row.
+     * @param hash the hash value of the group in that row.
+     * @return the index of the cell the group falls into.
+     */
+    private int cell(final int sketchRow, final int hash) {
+        int column = hash % rowSize;
         if (column < 0) {
-          column += rowSize;
-        }
-        if (sketchArrays[r][column] == null) {
-          sketchArrays[r][column] = aggregator.getInitialState();
+            column += rowSize;
         }
-        results[r] = sketchArrays[r][column];
-      }
-      return results;
+        return sketchRow * rowSize + column;
     }
 
-    private Object[] getStatesByKey(final Object key, final Type type, boolean countSketch) {
-        int[] familyHashValues = HashUtils.hashValueFamily(key, type, hashFunctionsCount);
-        return retrieve(familyHashValues,countSketch);
+    /**
+     * The neighbour cell that a count sketch subtracts to cancel out collisions: the next cell for odd columns and the
+     * previous cell for even columns, wrapping around the row.
+     *
+     * @param cell a cell index.
+     * @return the index of its neighbour cell.
+     */
+    private int neighbour(final int cell) {
+        final int rowStart = cell - cell % rowSize;
+        int column = cell - rowStart;
+        column = (column & 1) == 0 ? column - 1 : column + 1;
+        if (column < 0) {
+            column += rowSize;
+        } else if (column >= rowSize) {
+            column -= rowSize;
+        }
+        return rowStart + column;
     }
 
-    private Object[] getStatesByKeys(final ReadableTable table,int row, final int[] columns, boolean countSketch)
-    {
-        int[] familyHashValues = HashUtils.hashSubRowFamily(table,columns,row,hashFunctionsCount);
-        return retrieve(familyHashValues,countSketch);
+    /**
+     * Add every row of a batch to the sketch.
+     *
+     * @param table the batch.
+     * @param familyHashes the hash matrix of the group keys of the batch, {@link #getHashFunctionsCount()} hash codes per
+     *          row, row-major.
+     */
+    public void addBatch(final ReadableTable table, final int[] familyHashes) {
+        final int numTuples = table.numTuples();
+        final int k = hashFunctionsCount;
+        if (counts != null) {
+            int offset = 0;
+            for (int row = 0; row < numTuples; ++row) {
+                for (int r = 0; r < k; ++r) {
+                    counts[cell(r, familyHashes[offset++])]++;
+                }
+            }
+        }
+        if (sums == null && mins == null && maxs == null) {
+            return;
+        }
+        /* The factory only sketches sums, mins and maxs of INT columns. */
+        final ReadableColumn values = table.asColumn(aggregator.getColumn());
+        int offset = 0;
+        for (int row = 0; row < numTuples; ++row) {
+            final long value = values.getInt(row);
+            for (int r = 0; r < k; ++r) {
+                final int c = cell(r, familyHashes[offset++]);
+                if (sums != null) {
+                    sums[c] += value;
+                }
+                if (mins != null && value < mins[c]) {
+                    mins[c] = value;
+                }
+                if (maxs != null && value > maxs[c]) {
+                    maxs[c] = value;
+                }
+            }
+        }
     }
 
-    public Object[] getCountMinStatesByRow(final ReadableTable table,int row, final int[] columns)
-    {
-        return getStatesByKeys(table,row,columns,false);
+    /**
+     * Count-min estimate: every cell over-counts the group, so the smallest cell is the tightest upper bound.
+     *
+     * @param counters the per-cell statistic.
+     * @param familyHashes the hash matrix.
+     * @param offset the offset of the group's hash codes in the matrix.
+     * @return the smallest of the group's cells.
+     */
+    private long minOfCells(final long[] counters, final int[] familyHashes, final int offset) {
+        long result = Long.MAX_VALUE;
+        for (int r = 0; r < hashFunctionsCount; ++r) {
+            result = Math.min(result, counters[cell(r, familyHashes[offset + r])]);
+        }
+        return result;
     }
 
-    public Object[] getCountMinStates(final Object key, final Type type) {
-        return getStatesByKey(key, type, false);
+    /**
+     * @param familyHashes the hash matrix.
+     * @param offset the offset of the group's hash codes in the matrix.
+     * @return the index of the group's cell with the smallest count, i.e., with the fewest other groups.
+     */
+    private int leastCollidedCell(final int[] familyHashes, final int offset) {
+        int result = cell(0, familyHashes[offset]);
+        for (int r = 1; r < hashFunctionsCount; ++r) {
+            final int c = cell(r, familyHashes[offset + r]);
+            if (counts[c] < counts[result]) {
+                result = c;
+            }
+        }
+        return result;
     }
 
-    public Object[] getCountStates(final Object key, final Type type) {
-        Object[] operands1 = getStatesByKey(key, type, false);
-        Object[] operands2 = getStatesByKey(key, type, true);
-        //now get another set of estimates and perform a diff.
-        Object[] results = new Object[2];
-        results[0] = operands1;
-        results[1] = operands2;
-        return results;
+    /**
+     * @param counters the per-cell statistic.
+     * @param familyHashes the hash matrix.
+     * @param offset the offset of the group's hash codes in the matrix.
+     * @return the largest of the group's cells.
+     */
+    private long maxOfCells(final long[] counters, final int[] familyHashes, final int offset) {
+        long result = Long.MIN_VALUE;
+        for (int r = 0; r < hashFunctionsCount; ++r) {
+            result = Math.max(result, counters[cell(r, familyHashes[offset + r])]);
+        }
+        return result;
     }
 
-    public Object[] getCountStatesByRow(final ReadableTable table,int row, final int[] columns) {
-        Object[] operands1 = getStatesByKeys(table, row, columns, false);
-        Object[] operands2 = getStatesByKeys(table, row, columns, true);
-        //now get another set of estimates and perform a diff.
-        Object[] results = new Object[2];
-        results[0] = operands1;
-        results[1] = operands2;
-        return results;
+    /**
+     * Count sketch estimate: the median, over the sketch rows, of the difference between the group's cell and its
+     * neighbour cell.
+     *
+     * @param familyHashes the hash matrix.
+     * @param offset the offset of the group's hash codes in the matrix.
+     * @return the estimated count.
+     */
+    private long countSketchEstimate(final int[] familyHashes, final int offset) {
+        for (int r = 0; r < hashFunctionsCount; ++r) {
+            final int c = cell(r, familyHashes[offset + r]);
+            scratch[r] = counts[c] - counts[neighbour(c)];
+        }
+        Arrays.sort(scratch);
+        return scratch[hashFunctionsCount / 2];
     }
 
-    public void DebugCheckConsistency(int allEquals)
-    {
-        for(int i = 0; i < hashFunctionsCount; i ++)
-        {
-            for(int j = 0; j < rowSize; j++)
-            {
-                if(((IntegerAggregator.IntAggState)sketchArrays[i][j]).DebugGetCount() != allEquals)
-                {
-                    throw new IllegalStateException("ExpectedVal in ("+i+","+j+") = " + ((IntegerAggregator.IntAggState)sketchArrays[i][j]).DebugGetCount()+" vs " + allEquals);
-                }
+    /**
+     * Append the estimated aggregates of one group.
+     *
+     * @param dest where the results are appended.
+     * @param destColumn the first column of {@code dest} to write to.
+     * @param familyHashes the hash matrix containing the hash codes of the group key.
+     * @param offset the offset of the group's hash codes in the matrix.
+     */
+    public void getResult(
+            final AppendableTable dest, final int destColumn, final int[] familyHashes, final int offset) {
+        final boolean countSketch = aggregator.getSketchOption() == AggregationSketchOption.UseSketch;
+        final int sumCell = sums == null ? -1 : leastCollidedCell(familyHashes, offset);
+        int idx = destColumn;
+        for (AggregationOp op : aggregator.aggOps) {
+            switch (op) {
+                case COUNT:
+                    dest.putLong(
+                            idx,
+                            countSketch
+                                    ? countSketchEstimate(familyHashes, offset)
+                                    : minOfCells(counts, familyHashes, offset));
+                    break;
+                case SUM:
+                    dest.putLong(idx, sums[sumCell]);
+                    break;
+                case AVG:
+                    dest.putDouble(idx, sums[sumCell] * 1.0 / counts[sumCell]);
+                    break;
+                case MIN:
+                    /* Every cell's min is at most the group's min; the largest is the tightest. */
+                    dest.putInt(idx, (int) maxOfCells(mins, familyHashes, offset));
+                    break;
+                case MAX:
+                    /* Every cell's max is at least the group's max; the smallest is the tightest. */
+                    dest.putInt(idx, (int) minOfCells(maxs, familyHashes, offset));
+                    break;
+                case STDEV:
+                    throw new IllegalArgumentException("Don't know how to sketch on " + op.name());
             }
+            idx++;
         }
     }
 }
@@ -0,0 +1,145 @@
+package edu.washington.escience.myria.operator.agg;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.Operator;
+import edu.washington.escience.myria.operator.UnaryOperator;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+/**
+ * Merges the packed partial sketches produced by {@link SketchOperator}s on different workers into one sketch by adding
+ * them cell-wise.
+ *
+ * Each input tuple is one whole partial sketch in {@link SketchOperator#PACKED_SCHEMA}, so a worker ships a single
+ * tuple no matter how many counters its sketch has. All partial sketches must have the same dimensions. At EOS the
+ * merged sketch is emitted either packed, to be merged again further up, or in the same one tuple per counter schema as
+ * an unpacked {@link SketchOperator}.
+ */
+public final class SketchMerge extends UnaryOperator {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** If true, emit the merged sketch as a single packed tuple. */
+  private final boolean emitPacked;
+  /** The number of hash functions of the sketches being merged. */
+  private transient int hashRows;
+  /** The number of buckets per hash function of the sketches being merged. */
+  private transient int rowSize;
+  /** The merged counters, row-major. */
+  private transient long[] merged;
+  /** The buffer holding the results. */
+  private transient TupleBatchBuffer resultBuffer;
+
+  /**
+   * @param child the operator producing packed partial sketches.
+   * @param emitPacked if true, emit the merged sketch packed; otherwise emit one tuple per counter.
+   */
+  public SketchMerge(@Nullable final Operator child, final boolean emitPacked) {
+    super(child);
+    this.emitPacked = emitPacked;
+  }
+
+  @Override
+  protected TupleBatch fetchNextReady() throws DbException {
+    final Operator child = getChild();
+    if (resultBuffer.numTuples() > 0) {
+      return resultBuffer.popAny();
+    }
+    if (child.eos()) {
+      return null;
+    }
+
+    TupleBatch tb;
+    while ((tb = child.nextReady()) != null) {
+      for (int i = 0; i < tb.numTuples(); ++i) {
+        mergeSketch(tb.getInt(0, i), tb.getInt(1, i), tb.getString(2, i));
+      }
+    }
+
+    if (child.eos() && merged != null) {
+      generateResult();
+    }
+    return resultBuffer.popAny();
+  }
+
+  /**
+   * Add one packed partial sketch into the merged sketch.
+   *
+   * @param rows the number of hash functions of the partial sketch.
+   * @param columns the number of buckets per hash function of the partial sketch.
+   * @param packedCounters the packed counters of the partial sketch.
+   */
+  private void mergeSketch(final int rows, final int columns, final String packedCounters) {
+    if (merged == null) {
+      hashRows = rows;
+      rowSize = columns;
+      merged = new long[rows * columns];
+    }
+    Preconditions.checkState(
+        rows == hashRows && columns == rowSize,
+        "cannot merge a %sx%s sketch into a %sx%s sketch",
+        rows,
+        columns,
+        hashRows,
+        rowSize);
+    SketchOperator.addPackedCounters(packedCounters, merged);
+  }
+
+  /**
+   * Write the merged sketch to {@link #resultBuffer}.
+   */
+  private void generateResult() {
+    if (emitPacked) {
+      resultBuffer.putInt(0, hashRows);
+      resultBuffer.putInt(1, rowSize);
+      resultBuffer.putString(2, SketchOperator.packCounters(merged));
+      return;
+    }
+    for (int row = 0; row < hashRows; ++row) {
+      for (int col = 0; col < rowSize; ++col) {
+        resultBuffer.putInt(0, row);
+        resultBuffer.putInt(1, col);
+        resultBuffer.putInt(2, Ints.checkedCast(merged[row * rowSize + col]));
+      }
+    }
+  }
+
+  @Override
+  protected void init(final ImmutableMap<String, Object> execEnvVars) throws DbException {
+    Preconditions.checkState(
+        SketchOperator.PACKED_SCHEMA.getColumnTypes().equals(getChild().getSchema().getColumnTypes()),
+        "SketchMerge expects packed sketches as input, got %s",
+        getChild().getSchema());
+    resultBuffer = new TupleBatchBuffer(getSchema());
+    merged = null;
+  }
+
+  @Override
+  protected void cleanup() throws DbException {
+    resultBuffer = null;
+    merged = null;
+  }
+
+  @Override
+  protected Schema generateSchema() {
+    if (emitPacked) {
+      return SketchOperator.PACKED_SCHEMA;
+    }
+    return Schema.ofFields(
+        SketchOperator.HashFunction,
+        Type.INT_TYPE,
+        SketchOperator.Bucket,
+        Type.INT_TYPE,
+        SketchOperator.Count,
+        Type.INT_TYPE);
+  }
+}
@@ -1,6 +1,7 @@
 package edu.washington.escience.myria.operator.agg;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import edu.washington.escience.myria.DbException;
@@ -16,6 +17,8 @@ import edu.washington.escience.myria.util.HashUtils;
 import javax.annotation.Nullable;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.IntStream;
 
@@ -37,19 +40,39 @@ public class SketchOperator extends UnaryOperator
     public static final String HashFunction = "HASH_FUN_IDX";
     public static final String Bucket = "HASH_VAL";
     public static final String Count = "COUNT";
+    public static final String HashFunctionCount = "HASH_FUN_COUNT";
+    public static final String BucketCount = "HASH_VAL_COUNT";
+    public static final String Counters = "COUNTERS";
+    /** The schema of a packed sketch, one tuple per sketch. */
+    public static final Schema PACKED_SCHEMA =
+            Schema.ofFields(
+                    HashFunctionCount, Type.INT_TYPE, BucketCount, Type.INT_TYPE, Counters, Type.STRING_TYPE);
     int[] groupColumns;
     private transient TupleBatchBuffer resultBuffer;
     private transient RawSketchBuffer sketchBuffer;
+    /** Reused buffer for the hash families of the rows of the batch being processed, row-major. */
+    private transient int[] familyHashes;
     private int chosenColumns;
     private int chosenRows;
+    /**
+     * If true, emit the whole sketch as a single {@link #PACKED_SCHEMA} tuple to be merged by {@link SketchMerge},
+     * instead of one tuple per counter.
+     */
+    private final boolean packed;
     @JsonCreator
     public SketchOperator(@Nullable final Operator child, int[] groupIndexes, int cc, int cr)
+    {
+        this(child, groupIndexes, cc, cr, false);
+    }
+
+    public SketchOperator(@Nullable final Operator child, int[] groupIndexes, int cc, int cr, boolean packed)
     {
         super(child);
         groupColumns = groupIndexes;
         //System.out.println("BUILDING SKETCH OPERATOR");
         chosenColumns = cc;
         chosenRows = cr;
+        this.packed = packed;
     }
     @Override
     protected TupleBatch fetchNextReady() throws Exception
@@ -76,6 +99,18 @@ public class SketchOperator extends UnaryOperator
     }
 
     private void generateResult(TupleBatchBuffer resultBuffer) {
+        if (packed) {
+            long[] flat = new long[chosenRows * chosenColumns];
+            for (int row = 0; row < chosenRows; row++) {
+                for (int col = 0; col < chosenColumns; col++) {
+                    flat[row * chosenColumns + col] = sketchBuffer.Counters[row][col];
+                }
+            }
+            resultBuffer.putInt(0, chosenRows);
+            resultBuffer.putInt(1, chosenColumns);
+            resultBuffer.putString(2, packCounters(flat));
+            return;
+        }
         for(int row = 0; row < sketchBuffer.Counters.length; row++)
         {
             for(int col =0; col < sketchBuffer.Counters[row].length; col++)
@@ -90,11 +125,12 @@ public class SketchOperator extends UnaryOperator
     }
 
     private void processTupleBatch(TupleBatch tb) {
+        familyHashes = HashUtils.hashSubRowsFamily(tb, groupColumns, chosenRows, familyHashes);
+        int offset = 0;
         for (int i = 0; i < tb.numTuples(); ++i) {
-            int[] rowHashes = HashUtils.hashSubRowFamily(tb, groupColumns, i,chosenRows);
             for(int hid = 0; hid < chosenRows; hid++)
             {
-                int column =  ((rowHashes[hid] % chosenColumns) + chosenColumns) % chosenColumns;
+                int column =  ((familyHashes[offset++] % chosenColumns) + chosenColumns) % chosenColumns;
                 sketchBuffer.Counters[hid][column]++;
             }
         }
@@ -107,9 +143,57 @@ public class SketchOperator extends UnaryOperator
         //regardless of request, do a sketch
     }
 
+    /**
+     * Encode sketch counters compactly: each counter as an unsigned LEB128 varint, so that the mostly small counts take
+     * one or two bytes, then Base64 so the result can travel in a string column.
+     *
+     * @param counters the counters, row-major.
+     * @return the packed counters.
+     */
+    public static String packCounters(final long[] counters) {
+        byte[] bytes = new byte[counters.length * 10];
+        int length = 0;
+        for (long counter : counters) {
+            long v = counter;
+            while ((v & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, length));
+    }
+
+    /**
+     * Decode counters packed by {@link #packCounters(long[])} and add them cell-wise into {@code dest}.
+     *
+     * @param packedCounters the packed counters.
+     * @param dest the counters to add to, row-major.
+     */
+    public static void addPackedCounters(final String packedCounters, final long[] dest) {
+        byte[] bytes = Base64.getDecoder().decode(packedCounters);
+        int pos = 0;
+        for (int cell = 0; cell < dest.length; cell++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                Preconditions.checkArgument(pos < bytes.length, "packed sketch has fewer than %s counters", dest.length);
+                b = bytes[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            dest[cell] += v;
+        }
+        Preconditions.checkArgument(pos == bytes.length, "packed sketch has more than %s counters", dest.length);
+    }
+
     @Override
     protected Schema generateSchema()
     {
+        if (packed) {
+            return PACKED_SCHEMA;
+        }
         //first column is hashid, 2nd is column, 3rd is cnt.
         //int, int, int
         List<Type> columnTypes = new ArrayList<>();
@@ -7,8 +7,6 @@ import java.util.Objects;
 import javax.annotation.Nonnull;
 
 import org.codehaus.commons.compiler.CompileException;
-import org.codehaus.commons.compiler.CompilerFactoryFactory;
-import org.codehaus.commons.compiler.IScriptEvaluator;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -16,10 +14,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
 import edu.washington.escience.myria.DbException;
-import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.evaluate.ExpressionCompiler;
 import edu.washington.escience.myria.expression.evaluate.ExpressionOperatorParameter;
 import edu.washington.escience.myria.expression.evaluate.GenericEvaluator;
 import edu.washington.escience.myria.expression.evaluate.ScriptEvalInterface;
@@ -180,18 +178,9 @@ public class UserDefinedAggregatorFactory implements AggregatorFactory {
     String script = compute.append(output).toString();
     LOGGER.debug("Compiling UDA {}", script);
 
-    IScriptEvaluator se;
-    try {
-      se = CompilerFactoryFactory.getDefaultCompilerFactory().newScriptEvaluator();
-    } catch (Exception e) {
-      LOGGER.error("Could not create scriptevaluator", e);
-      throw new DbException("Could not create scriptevaluator", e);
-    }
-    se.setDefaultImports(MyriaConstants.DEFAULT_JANINO_IMPORTS);
-
     try {
       return (ScriptEvalInterface)
-          se.createFastEvaluator(
+          ExpressionCompiler.createFastScriptEvaluator(
               script,
               ScriptEvalInterface.class,
               new String[] {Expression.TB, Expression.ROW, Expression.RESULT, Expression.STATE});
@@ -1,5 +1,6 @@
 package edu.washington.escience.myria.operator.network;
 
+import java.util.ArrayDeque;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
@@ -41,11 +42,19 @@ public class Consumer extends LeafOperator {
   /** Required for Java serialization. */
   private static final long serialVersionUID = 1L;
 
+  /** The most messages moved from the input buffer to {@link #drained} at once. */
+  private static final int DRAIN_BATCH_SIZE = 16;
+
   /**
    * The buffer for receiving input data.
    */
   private transient volatile StreamInputBuffer<TupleBatch> inputBuffer;
 
+  /**
+   * Messages taken from the input buffer in one batch and not processed yet.
+   */
+  private transient ArrayDeque<IPCMessage.StreamData<TupleBatch>> drained;
+
   /**
    * The operatorID of this Consumer.
    * */
@@ -136,6 +145,7 @@ public class Consumer extends LeafOperator {
   public final void cleanup() {
     taskResourceManager.releaseInputBuffer(this);
     inputBuffer = null;
+    drained = null;
     workerEOS.clear();
     workerEOI.clear();
   }
@@ -159,6 +169,7 @@ public class Consumer extends LeafOperator {
             == QueryExecutionMode.NON_BLOCKING;
 
     inputBuffer = taskResourceManager.getInputBuffer(this);
+    drained = new ArrayDeque<IPCMessage.StreamData<TupleBatch>>(DRAIN_BATCH_SIZE);
   }
 
   /**
@@ -269,7 +280,8 @@ public class Consumer extends LeafOperator {
   }
 
   /**
-   * Read a single ExchangeMessage from the queue that buffers incoming ExchangeMessages.
+   * Read a single ExchangeMessage from the queue that buffers incoming ExchangeMessages. Messages that are already in
+   * the queue are moved out of it in batches, so that the queue is touched once per batch rather than per message.
    *
    * @param timeout Wait for at most timeout milliseconds. If the timeout is negative, wait until an element arrives.
    * @return received data.
@@ -278,6 +290,12 @@ public class Consumer extends LeafOperator {
   private IPCMessage.StreamData<TupleBatch> take(final int timeout) throws InterruptedException {
     IPCMessage.StreamData<TupleBatch> result = null;
     Verify.verifyNotNull(inputBuffer, "inputBuffer should not be null");
+    if (drained.isEmpty()) {
+      inputBuffer.drainTo(drained, DRAIN_BATCH_SIZE);
+    }
+    if (!drained.isEmpty()) {
+      return drained.poll();
+    }
     if (timeout == 0) {
       result = inputBuffer.poll();
     } else if (timeout > 0) {
@@ -293,7 +311,7 @@ public class Consumer extends LeafOperator {
    * @return if there's any message buffered.
    * */
   public final boolean hasNext() {
-    return !inputBuffer.isEmpty();
+    return !drained.isEmpty() || !inputBuffer.isEmpty();
   }
 
   @Override
@@ -87,6 +87,10 @@ public class EOSController extends Producer {
       // after eos, do nothing.
       return;
     }
+    if (isEOSReached) {
+      endChannels();
+      return;
+    }
 
     int numExpecting = eosZeroColValue;
     if (getTaskResourceManager()
@@ -141,13 +145,8 @@ public class EOSController extends Producer {
         tmp++;
         zeroCol.set(numEOI[idbIdx][workerIdx], tmp);
         if (tmp == numExpecting) {
-          for (int j = 0; j < super.numChannels(); j++) {
-            super.channelEnds(j); // directly emit an EOS makes more sense.
-          }
-          if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("EOSC has sent EOS!");
-          }
-          isEOSSent = true;
+          isEOSReached = true;
+          endChannels(); // directly emit an EOS makes more sense.
           return;
         }
       }
@@ -155,6 +154,34 @@ public class EOSController extends Producer {
     }
   }
 
+  /**
+   * End the channels which are not ended yet. A channel whose end is deferred until its pending batches are written is
+   * ended by a later call.
+   * */
+  private void endChannels() {
+    if (channelEnded == null) {
+      channelEnded = new boolean[super.numChannels()];
+    }
+    boolean allEnded = true;
+    for (int j = 0; j < channelEnded.length; j++) {
+      if (channelEnded[j]) {
+        continue;
+      }
+      if (isChannelEndDeferred(j)) {
+        allEnded = false;
+        continue;
+      }
+      super.channelEnds(j);
+      channelEnded[j] = true;
+    }
+    if (allEnded) {
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("EOSC has sent EOS!");
+      }
+      isEOSSent = true;
+    }
+  }
+
   /**
    * EOS report schema.
    * */
@@ -166,9 +193,27 @@ public class EOSController extends Producer {
    * */
   private volatile boolean isEOSSent = false;
 
+  /**
+   * If the iteration is done, i.e. the EOS messages are to be sent.
+   * */
+  private transient boolean isEOSReached = false;
+
+  /**
+   * Which channels the EOS message is sent to, once the iteration is done.
+   * */
+  private transient boolean[] channelEnded;
+
   @Override
-  protected void childEOS() throws DbException {}
+  protected void childEOS() throws DbException {
+    if (isEOSReached && !isEOSSent) {
+      endChannels();
+    }
+  }
 
   @Override
-  protected void childEOI() throws DbException {}
+  protected void childEOI() throws DbException {
+    if (isEOSReached && !isEOSSent) {
+      endChannels();
+    }
+  }
 }
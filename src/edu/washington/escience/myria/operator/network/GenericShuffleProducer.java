@@ -1,5 +1,7 @@
 package edu.washington.escience.myria.operator.network;
 
+import java.util.BitSet;
+
 import com.google.common.base.Preconditions;
 
 import edu.washington.escience.myria.DbException;
@@ -29,6 +31,11 @@ public class GenericShuffleProducer extends Producer {
    */
   private final int[][] partitionToChannel;
 
+  /**
+   * Partial aggregation of the input before it is partitioned, or null.
+   */
+  private ShuffleCombiner combiner;
+
   /**
    * Shuffle to the same operator ID on multiple workers. (The old "ShuffleProducer")
    *
@@ -94,8 +101,31 @@ public class GenericShuffleProducer extends Producer {
     super(child, operatorIDs, workerIDs, isOneToOneMapping);
     Preconditions.checkArgument(partitionToChannel.length == pf.numPartition());
     partitionFunction = pf;
-    setNumOfPartition(pf.numPartition());
-    this.partitionToChannel = partitionToChannel;
+    setNumOfPartition(pf.numOutputs());
+    this.partitionToChannel = outputToChannel(pf, partitionToChannel);
+  }
+
+  /**
+   * @param pf the partition function
+   * @param partitionToChannel partitionToChannel[i] indicates ioChannels that partition i should be written into.
+   * @return for each output of the partition function, the ioChannels of all its partitions.
+   */
+  static int[][] outputToChannel(
+      final PartitionFunction pf, final int[][] partitionToChannel) {
+    if (pf.numOutputs() == pf.numPartition()) {
+      return partitionToChannel;
+    }
+    final int[][] ret = new int[pf.numOutputs()][];
+    for (int output = 0; output < ret.length; ++output) {
+      final BitSet channels = new BitSet();
+      for (final int partition : pf.destinations(output)) {
+        for (final int channel : partitionToChannel[partition]) {
+          channels.set(channel);
+        }
+      }
+      ret[output] = channels.stream().toArray();
+    }
+    return ret;
   }
 
   /**
@@ -105,8 +135,51 @@ public class GenericShuffleProducer extends Producer {
     return partitionFunction;
   }
 
+  /**
+   * @param combiner partial aggregation of the input before it is partitioned, or null for none.
+   */
+  public final void setCombiner(final ShuffleCombiner combiner) {
+    this.combiner = combiner;
+  }
+
+  /**
+   * @return partial aggregation of the input before it is partitioned, or null.
+   */
+  public final ShuffleCombiner getCombiner() {
+    return combiner;
+  }
+
   @Override
   protected final void consumeTuples(final TupleBatch tup) throws DbException {
+    if (combiner == null) {
+      shuffle(tup);
+      return;
+    }
+    for (final TupleBatch tb : combiner.combine(tup)) {
+      shuffle(tb);
+    }
+  }
+
+  /**
+   * Send the groups still held by the combiner, if any.
+   *
+   * @throws DbException if any error occurs.
+   */
+  private void flushCombiner() throws DbException {
+    if (combiner != null) {
+      for (final TupleBatch tb : combiner.flush()) {
+        shuffle(tb);
+      }
+    }
+  }
+
+  /**
+   * Partition a batch and write the partitions into their channels.
+   *
+   * @param tup the batch.
+   * @throws DbException if any error occurs.
+   */
+  private void shuffle(final TupleBatch tup) throws DbException {
     final TupleBatch[] partitions = getTupleBatchPartitions(tup);
 
     if (getProfilingMode().contains(ProfilingMode.QUERY)) {
@@ -136,6 +209,7 @@ public class GenericShuffleProducer extends Producer {
 
   @Override
   protected void childEOS() throws DbException {
+    flushCombiner();
     writePartitionsIntoChannels(false, partitionToChannel, null);
     for (int p = 0; p < numChannels(); p++) {
       super.channelEnds(p);
@@ -144,8 +218,13 @@ public class GenericShuffleProducer extends Producer {
 
   @Override
   protected final void childEOI() throws DbException {
+    flushCombiner();
     TupleBatch[] partitions = new TupleBatch[getNumOfPartition()];
-    for (int i = 0; i < getNumOfPartition(); i++) {
+    /*
+     * Once to every partition, not again to the sets of partitions. The buffers of the sets of partitions are drained
+     * ahead of the EOIs, see Producer#bufferPartitions.
+     */
+    for (int i = 0; i < partitionFunction.numPartition(); i++) {
       partitions[i] = TupleBatch.eoiTupleBatch(getSchema());
     }
     writePartitionsIntoChannels(false, partitionToChannel, partitions);
@@ -3,6 +3,10 @@ package edu.washington.escience.myria.operator.network;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.function.IntPredicate;
+
+import javax.annotation.Nullable;
 
 import org.jboss.netty.channel.ChannelFuture;
 
@@ -20,6 +24,7 @@ import edu.washington.escience.myria.operator.RootOperator;
 import edu.washington.escience.myria.operator.StreamingState;
 import edu.washington.escience.myria.operator.StreamingStateful;
 import edu.washington.escience.myria.parallel.ExchangePairID;
+import edu.washington.escience.myria.parallel.LocalFragment;
 import edu.washington.escience.myria.parallel.LocalFragmentResourceManager;
 import edu.washington.escience.myria.parallel.QueryExecutionMode;
 import edu.washington.escience.myria.parallel.ipc.IPCConnectionPool;
@@ -314,29 +319,125 @@ public abstract class Producer extends RootOperator implements StreamingStateful
    * @return write future
    */
   protected final ChannelFuture writeMessage(final int chIdx, final TupleBatch msg) {
-    StreamOutputChannel<TupleBatch> ch = ioChannels[chIdx];
-    if (nonBlockingExecution) {
-      numTuplesWrittenToChannels += msg.numTuples();
-      return ch.write(msg);
-    } else {
-      int sleepTime = 1;
-      int maxSleepTime = MyriaConstants.SHORT_WAITING_INTERVAL_MS;
+    numTuplesWrittenToChannels += msg.numTuples();
+    return ioChannels[chIdx].write(msg);
+  }
+
+  /**
+   * In blocking mode, batches are only written to writable channels. If a channel is not writable, its batches stay
+   * pending and the fragment is told that its output is disabled, so it stops executing and frees its thread. Netty's
+   * writability event enables the output again, and the fragment resumes writing the pending batches.
+   *
+   * @param chIdx the channel to write
+   * @return true if a batch can be written to the channel now.
+   */
+  private boolean checkWritable(final int chIdx) {
+    final StreamOutputChannel<TupleBatch> ch = ioChannels[chIdx];
+    if (nonBlockingExecution || ch.isWritable()) {
+      return true;
+    }
+    final LocalFragment fragment = taskResourceManager.getFragment();
+    fragment.notifyOutputDisabled(localizedOutputIDs[chIdx]);
+    if (ch.waitForWritable()) {
+      return false;
+    }
+    /* The channel drained before the fragment stopped: no event is coming, keep going. */
+    fragment.notifyOutputEnabled(localizedOutputIDs[chIdx]);
+    return true;
+  }
+
+  /**
+   * @return true if some channel has batches that could not be written yet.
+   */
+  private boolean hasPendingTuples() {
+    for (LinkedList<TupleBatch> tbs : pendingTuplesToSend) {
+      if (tbs.size() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if, in blocking mode, some batches wait for their channel to become writable.
+   */
+  protected final boolean isBlockedOnOutput() {
+    return !nonBlockingExecution && hasPendingTuples();
+  }
+
+  /**
+   * Absorb the partitions into their buffers, then pop tuple batches from each of the buffers into the pending queues of
+   * their channels.
+   *
+   * If any partition is an EOI, every buffer is drained first, partial batches included. A channel may be fed by
+   * several buffers, e.g. by a partition and by the set of partitions of hot keys, and is only given the EOI by one of
+   * them, so the tuples of every buffer must be ahead of the EOI.
+   *
+   * @param partitionBuffers the buffer of each partition.
+   * @param channelIndices channelIndices[i] indicates the channels that partition i should be written into.
+   * @param partitions the partitions to absorb, or null.
+   * @param usingTimeout use {@link TupleBatchBuffer#popAnyUsingTimeout()} instead of {@link TupleBatchBuffer#popAny()}
+   * @param skipChannel the channels not to write into.
+   * @param pendingTuplesToSend the pending queue of each channel.
+   */
+  static void bufferPartitions(
+      final TupleBatchBuffer[] partitionBuffers,
+      final int[][] channelIndices,
+      @Nullable final TupleBatch[] partitions,
+      final boolean usingTimeout,
+      final IntPredicate skipChannel,
+      final List<? extends Queue<TupleBatch>> pendingTuplesToSend) {
+    boolean hasEOI = false;
+    if (partitions != null) {
+      for (final TupleBatch tb : partitions) {
+        hasEOI |= tb != null && tb.isEOI();
+      }
+    }
+    if (hasEOI) {
+      drainBuffers(partitionBuffers, channelIndices, false, skipChannel, pendingTuplesToSend);
+    }
+    if (partitions != null) {
+      for (int i = 0; i < partitionBuffers.length; ++i) {
+        if (partitions[i] != null) {
+          partitionBuffers[i].absorb(partitions[i]);
+        }
+      }
+    }
+    drainBuffers(
+        partitionBuffers, channelIndices, usingTimeout, skipChannel, pendingTuplesToSend);
+  }
+
+  /**
+   * Pop tuple batches from each of the buffers into the pending queues of their channels.
+   *
+   * @param partitionBuffers the buffer of each partition.
+   * @param channelIndices channelIndices[i] indicates the channels that partition i should be written into.
+   * @param usingTimeout use {@link TupleBatchBuffer#popAnyUsingTimeout()} instead of {@link TupleBatchBuffer#popAny()}
+   * @param skipChannel the channels not to write into.
+   * @param pendingTuplesToSend the pending queue of each channel.
+   */
+  private static void drainBuffers(
+      final TupleBatchBuffer[] partitionBuffers,
+      final int[][] channelIndices,
+      final boolean usingTimeout,
+      final IntPredicate skipChannel,
+      final List<? extends Queue<TupleBatch>> pendingTuplesToSend) {
+    for (int i = 0; i < partitionBuffers.length; ++i) {
       while (true) {
-        if (ch.isWritable()) {
-          numTuplesWrittenToChannels += msg.numTuples();
-          return ch.write(msg);
+        TupleBatch tb = null;
+        if (usingTimeout) {
+          tb = partitionBuffers[i].popAnyUsingTimeout();
         } else {
-          int toSleep = sleepTime - 1;
-          if (maxSleepTime < sleepTime) {
-            toSleep = maxSleepTime;
-          }
-          try {
-            Thread.sleep(toSleep);
-          } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return null;
+          tb = partitionBuffers[i].popAny();
+        }
+        if (tb == null) {
+          break;
+        }
+        for (int j : channelIndices[i]) {
+          if (skipChannel.test(j)) {
+            continue;
           }
-          sleepTime *= 2;
+          pendingTuplesToSend.get(j).add(tb);
         }
       }
     }
@@ -380,32 +481,13 @@ public abstract class Producer extends RootOperator implements StreamingStateful
         }
       }
     } else {
-      if (partitions != null) {
-        for (int i = 0; i < numOfPartition; ++i) {
-          if (partitions[i] != null) {
-            partitionBuffers[i].absorb(partitions[i]);
-          }
-        }
-      }
-      for (int i = 0; i < numOfPartition; ++i) {
-        while (true) {
-          TupleBatch tb = null;
-          if (usingTimeout) {
-            tb = partitionBuffers[i].popAnyUsingTimeout();
-          } else {
-            tb = partitionBuffers[i].popAny();
-          }
-          if (tb == null) {
-            break;
-          }
-          for (int j : channelIndices[i]) {
-            if (!ioChannelsAvail[j] && mode.equals(FTMode.ABANDON)) {
-              continue;
-            }
-            pendingTuplesToSend.get(j).add(tb);
-          }
-        }
-      }
+      bufferPartitions(
+          partitionBuffers,
+          channelIndices,
+          partitions,
+          usingTimeout,
+          j -> !ioChannelsAvail[j] && mode.equals(FTMode.ABANDON),
+          pendingTuplesToSend);
     }
 
     for (int i = 0; i < numChannels(); ++i) {
@@ -413,10 +495,10 @@ public abstract class Producer extends RootOperator implements StreamingStateful
         continue;
       }
       while (true) {
-        TupleBatch tb = pendingTuplesToSend.get(i).poll();
-        if (tb == null) {
+        if (pendingTuplesToSend.get(i).isEmpty() || !checkWritable(i)) {
           break;
         }
+        TupleBatch tb = pendingTuplesToSend.get(i).poll();
         if (mode.equals(FTMode.REJOIN) && !(this instanceof LocalMultiwayProducer)) {
           // rejoin, append the TB into the backup buffer in case of recovering
           tb = triedToSendTuples.get(i).update(tb);
@@ -451,11 +533,24 @@ public abstract class Producer extends RootOperator implements StreamingStateful
     return sum;
   }
 
+  /**
+   * @param chIdx the channel.
+   * @return true if, in blocking mode, ending the channel waits for its pending batches to be written.
+   */
+  protected final boolean isChannelEndDeferred(final int chIdx) {
+    return !nonBlockingExecution && pendingTuplesToSend.get(chIdx).size() > 0;
+  }
+
   /**
    * @param chIdx the channel to write
-   * @return channel release future.
+   * @return channel release future, or null if the channel is not available or its end is deferred, see
+   *         {@link #isChannelEndDeferred(int)}.
    */
   protected final ChannelFuture channelEnds(final int chIdx) {
+    if (isChannelEndDeferred(chIdx)) {
+      /* Ended once the pending batches are written, when the child's EOS is processed again. */
+      return null;
+    }
     if (ioChannelsAvail[chIdx]) {
       return ioChannels[chIdx].release();
     }
@@ -570,13 +665,12 @@ public abstract class Producer extends RootOperator implements StreamingStateful
       setEOI(true);
       child.setEOI(false);
     } else if (child.eos()) {
-      if (taskResourceManager.getFragment().getLocalSubQuery().getFTMode().equals(FTMode.REJOIN)) {
-        for (LinkedList<TupleBatch> tbs : pendingTuplesToSend) {
-          if (tbs.size() > 0) {
-            // due to failure, buffers are not empty, this task needs to be executed again to push these TBs out when
-            // channels are available
-            return;
-          }
+      FTMode mode = taskResourceManager.getFragment().getLocalSubQuery().getFTMode();
+      if (!nonBlockingExecution || mode.equals(FTMode.REJOIN)) {
+        if (hasPendingTuples()) {
+          // due to failure or to full channels, buffers are not empty, this task needs to be executed again to push
+          // these TBs out when channels are available
+          return;
         }
       }
       // all buffers are empty, ready to end this task
@@ -50,6 +50,10 @@ public final class RecoverProducer extends CollectProducer {
   @Override
   protected void childEOS() throws DbException {
     writePartitionsIntoChannels(false, null);
+    if (isBlockedOnOutput()) {
+      /* Called again once the channel drains; keep it until the pending batches are written. */
+      return;
+    }
     Preconditions.checkArgument(getChild() instanceof BatchTupleSource);
     if (!oriProducer.eos()) {
       StreamOutputChannel<TupleBatch> tmp = getChannels()[0];
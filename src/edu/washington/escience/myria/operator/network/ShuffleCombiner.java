@@ -0,0 +1,329 @@
+package edu.washington.escience.myria.operator.network;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.operator.agg.PrimitiveAggregator.AggregationOp;
+import edu.washington.escience.myria.storage.GroupIdHashTable;
+import edu.washington.escience.myria.storage.MutableTupleBuffer;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.storage.TupleUtils;
+import edu.washington.escience.myria.util.HashUtils;
+
+/**
+ * Partial aggregation of the tuples of a {@link GenericShuffleProducer} before they are partitioned, so that a group-by
+ * downstream of the shuffle receives one partial row per group and flush of the combiner instead of every input tuple.
+ *
+ * The combiner is transparent: its output has the schema of its input. The tuples are grouped on
+ * {@link #groupFields}, and every other column is combined with {@link AggregationOp#SUM}, {@link AggregationOp#MIN}
+ * or {@link AggregationOp#MAX}, which the aggregate after the shuffle computes again over the partial rows. A COUNT
+ * downstream must be written as the SUM of a column of ones.
+ *
+ * The groups are kept in a hash table of at most {@link #maxGroups} groups. The table is flushed when it is full and
+ * when the input ends. If the table fills up while the partial rows flushed so far make up more than
+ * {@link #maxOutputRatio} of the input, the groups are too many for combining to pay off: the combiner flushes the
+ * table and passes all later batches through unchanged.
+ *
+ * Instances are not thread-safe; each producer needs its own.
+ */
+public final class ShuffleCombiner implements Serializable {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The logger for this class. */
+  private static final Logger LOGGER = LoggerFactory.getLogger(ShuffleCombiner.class);
+  /** The default of {@link #maxGroups}. */
+  private static final int DEFAULT_MAX_GROUPS = 1 << 14;
+  /** The default of {@link #maxOutputRatio}. */
+  private static final double DEFAULT_MAX_OUTPUT_RATIO = 0.5;
+
+  /** The columns to group on. */
+  @JsonProperty private final int[] groupFields;
+  /** The operation combining each column that is not a group field, in column order. */
+  @JsonProperty private final AggregationOp[] aggOps;
+  /** The most groups the table holds, or null for the default. */
+  @JsonProperty private final Integer maxGroups;
+  /** The fraction of the input above which the partial rows stop combining, or null for the default. */
+  @JsonProperty private final Double maxOutputRatio;
+
+  /** The operation combining each column, null for the group fields. */
+  private transient AggregationOp[] columnOps;
+  /** The partial row of each group, by group id. */
+  private transient MutableTupleBuffer groups;
+  /** The partial rows of the groups whose sums overflowed, to send with the next output. */
+  private transient TupleBatchBuffer overflowed;
+  /** Maps the group fields of a row to its group id. */
+  private transient GroupIdHashTable groupIds;
+  /** Reused buffer for the hash codes of the group fields of a batch. */
+  private transient int[] hashes;
+  /** The number of tuples combined. */
+  private transient long numInput;
+  /** The number of partial rows flushed before the end of the input. */
+  private transient long numOutput;
+  /** If true, batches are passed through unchanged. */
+  private transient boolean disabled;
+
+  /**
+   * @param groupFields the columns to group on.
+   * @param aggOps the operation combining each column that is not a group field, in column order.
+   * @param maxGroups the most groups the table holds, or null for the default.
+   * @param maxOutputRatio the fraction of the input above which the partial rows stop combining, or null for the
+   *          default.
+   */
+  @JsonCreator
+  public ShuffleCombiner(
+      @JsonProperty(value = "groupFields", required = true) final int[] groupFields,
+      @JsonProperty(value = "aggOps", required = true) final AggregationOp[] aggOps,
+      @Nullable @JsonProperty("maxGroups") final Integer maxGroups,
+      @Nullable @JsonProperty("maxOutputRatio") final Double maxOutputRatio) {
+    this.groupFields = Objects.requireNonNull(groupFields, "groupFields");
+    this.aggOps = Objects.requireNonNull(aggOps, "aggOps");
+    Preconditions.checkArgument(groupFields.length > 0, "combiner requires at least 1 group field");
+    for (final AggregationOp op : aggOps) {
+      Preconditions.checkArgument(
+          op == AggregationOp.SUM || op == AggregationOp.MIN || op == AggregationOp.MAX,
+          "combiner supports SUM, MIN and MAX, not %s",
+          op);
+    }
+    Preconditions.checkArgument(
+        maxGroups == null || maxGroups > 0, "maxGroups must be null or > 0");
+    Preconditions.checkArgument(
+        maxOutputRatio == null || (maxOutputRatio > 0 && maxOutputRatio <= 1),
+        "maxOutputRatio must be null or in (0, 1]");
+    this.maxGroups = maxGroups;
+    this.maxOutputRatio = maxOutputRatio;
+  }
+
+  /**
+   * @return the columns to group on.
+   */
+  public int[] getGroupFields() {
+    return groupFields;
+  }
+
+  /**
+   * @return the operation combining each column that is not a group field, in column order.
+   */
+  public AggregationOp[] getAggOps() {
+    return aggOps;
+  }
+
+  /**
+   * @return true if the combiner has given up and passes batches through unchanged.
+   */
+  public boolean isDisabled() {
+    return disabled;
+  }
+
+  /**
+   * @param schema the schema of the input.
+   */
+  private void setup(final Schema schema) {
+    columnOps = new AggregationOp[schema.numColumns()];
+    final boolean[] isGroupField = new boolean[schema.numColumns()];
+    for (final int column : groupFields) {
+      Preconditions.checkElementIndex(column, schema.numColumns(), "group field");
+      isGroupField[column] = true;
+    }
+    int next = 0;
+    for (int column = 0; column < columnOps.length; ++column) {
+      if (isGroupField[column]) {
+        continue;
+      }
+      Preconditions.checkArgument(
+          next < aggOps.length, "no operation for column %s", schema.getColumnName(column));
+      columnOps[column] = aggOps[next++];
+      final Type type = schema.getColumnType(column);
+      Preconditions.checkArgument(
+          columnOps[column] != AggregationOp.SUM
+              || type == Type.INT_TYPE
+              || type == Type.LONG_TYPE
+              || type == Type.DOUBLE_TYPE,
+          "combiner cannot SUM column %s of type %s",
+          schema.getColumnName(column),
+          type);
+    }
+    Preconditions.checkArgument(
+        next == aggOps.length, "%s operations for %s columns", aggOps.length, next);
+    overflowed = new TupleBatchBuffer(schema);
+    reset(schema);
+  }
+
+  /**
+   * Start an empty table.
+   *
+   * @param schema the schema of the input.
+   */
+  private void reset(final Schema schema) {
+    groups = new MutableTupleBuffer(schema);
+    groupIds = new GroupIdHashTable(groups, groupFields);
+  }
+
+  /**
+   * @param tb a batch of the input.
+   * @return the batches to partition and send now, possibly none.
+   */
+  public List<TupleBatch> combine(final TupleBatch tb) {
+    if (disabled) {
+      return ImmutableList.of(tb);
+    }
+    if (groups == null) {
+      setup(tb.getSchema());
+    }
+    final List<TupleBatch> ret = new ArrayList<>();
+    final int limit = MoreObjects.firstNonNull(maxGroups, DEFAULT_MAX_GROUPS);
+    hashes = HashUtils.hashSubRows(tb, groupFields, hashes);
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      final int id = groupIds.find(hashes[row], tb, groupFields, row);
+      if (id != -1) {
+        accumulate(tb, row, id);
+        continue;
+      }
+      if (groups.numTuples() == limit) {
+        ret.addAll(flushGroups());
+      }
+      final int newId = groups.numTuples();
+      for (int column = 0; column < columnOps.length; ++column) {
+        TupleUtils.copyValue(tb, column, row, groups, column);
+      }
+      groupIds.insert(hashes[row], newId, tb, groupFields, row);
+    }
+    for (TupleBatch overflow = overflowed.popAny();
+        overflow != null;
+        overflow = overflowed.popAny()) {
+      ret.add(overflow);
+    }
+    numInput += tb.numTuples();
+    if (!ret.isEmpty()) {
+      numOutput += countTuples(ret);
+      final double ratio = MoreObjects.firstNonNull(maxOutputRatio, DEFAULT_MAX_OUTPUT_RATIO);
+      if (numOutput > ratio * numInput) {
+        LOGGER.info(
+            "Disabling the combiner on {}: {} partial rows out of {} tuples",
+            Arrays.toString(groupFields),
+            numOutput,
+            numInput);
+        disabled = true;
+        ret.addAll(flushGroups());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return the batches holding the groups in the table, which is then emptied.
+   */
+  public List<TupleBatch> flush() {
+    if (groups == null) {
+      return ImmutableList.of();
+    }
+    return flushGroups();
+  }
+
+  /**
+   * @return the batches holding the groups in the table, which is then emptied.
+   */
+  private List<TupleBatch> flushGroups() {
+    final List<TupleBatch> ret = groups.getAll();
+    reset(groups.getSchema());
+    return ret;
+  }
+
+  /**
+   * @param batches some batches.
+   * @return the number of tuples in them.
+   */
+  private static long countTuples(final List<TupleBatch> batches) {
+    long ret = 0;
+    for (final TupleBatch tb : batches) {
+      ret += tb.numTuples();
+    }
+    return ret;
+  }
+
+  /**
+   * Combine a row into the partial row of its group. If a sum would overflow, the partial row is set aside to be sent
+   * as is, and the group starts again from the row.
+   *
+   * @param tb the batch holding the row.
+   * @param row the row.
+   * @param id the id of the group of the row.
+   */
+  private void accumulate(final TupleBatch tb, final int row, final int id) {
+    for (int column = 0; column < columnOps.length; ++column) {
+      if (columnOps[column] == AggregationOp.SUM
+          && tb.getSchema().getColumnType(column) != Type.DOUBLE_TYPE
+          && overflows(tb, column, row, id)) {
+        for (int c = 0; c < columnOps.length; ++c) {
+          TupleUtils.copyValue(groups, c, id, overflowed, c);
+          if (columnOps[c] != null) {
+            groups.replace(c, id, tb.getDataColumns().get(c), row);
+          }
+        }
+        return;
+      }
+    }
+    for (int column = 0; column < columnOps.length; ++column) {
+      final AggregationOp op = columnOps[column];
+      if (op == null) {
+        continue;
+      }
+      if (op == AggregationOp.SUM) {
+        switch (tb.getSchema().getColumnType(column)) {
+          case INT_TYPE:
+            groups.replaceInt(column, id, groups.getInt(column, id) + tb.getInt(column, row));
+            break;
+          case LONG_TYPE:
+            groups.replaceLong(column, id, groups.getLong(column, id) + tb.getLong(column, row));
+            break;
+          default:
+            groups.replaceDouble(
+                column, id, groups.getDouble(column, id) + tb.getDouble(column, row));
+            break;
+        }
+        continue;
+      }
+      final int cmp = TupleUtils.cellCompare(tb, column, row, groups, column, id);
+      if (op == AggregationOp.MIN ? cmp < 0 : cmp > 0) {
+        final Column<?> source = tb.getDataColumns().get(column);
+        groups.replace(column, id, source, row);
+      }
+    }
+  }
+
+  /**
+   * @param tb the batch holding the row.
+   * @param column an integral column summed by the combiner.
+   * @param row the row.
+   * @param id the id of the group of the row.
+   * @return true if adding the value of the row to the partial sum of the group overflows.
+   */
+  private boolean overflows(final TupleBatch tb, final int column, final int row, final int id) {
+    if (tb.getSchema().getColumnType(column) == Type.INT_TYPE) {
+      final long sum = (long) groups.getInt(column, id) + tb.getInt(column, row);
+      return sum != (int) sum;
+    }
+    final long a = groups.getLong(column, id);
+    final long b = tb.getLong(column, row);
+    final long sum = a + b;
+    return ((a ^ sum) & (b ^ sum)) < 0;
+  }
+}
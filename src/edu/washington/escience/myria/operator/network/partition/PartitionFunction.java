@@ -24,6 +24,7 @@ import edu.washington.escience.myria.storage.TupleBatch;
   @Type(value = SingleFieldHashPartitionFunction.class, name = "SingleFieldHash"),
   @Type(value = IdentityHashPartitionFunction.class, name = "IdentityHash"),
   @Type(value = MultiFieldHashPartitionFunction.class, name = "MultiFieldHash"),
+  @Type(value = SkewedHashPartitionFunction.class, name = "SkewedHash"),
   @Type(value = WholeTupleHashPartitionFunction.class, name = "WholeTupleHash")
 })
 public abstract class PartitionFunction implements Serializable {
@@ -56,6 +57,23 @@ public abstract class PartitionFunction implements Serializable {
     return numPartitions;
   }
 
+  /**
+   * @return the number of distinct values {@link #partition(TupleBatch)} may return. Values from
+   *         {@link #numPartition()} on stand for sets of partitions, see {@link #destinations(int)}.
+   */
+  public int numOutputs() {
+    return numPartition();
+  }
+
+  /**
+   * @param output a value returned by {@link #partition(TupleBatch)}.
+   * @return the partitions a tuple with this output is sent to.
+   */
+  public int[] destinations(final int output) {
+    Preconditions.checkElementIndex(output, numPartition());
+    return new int[] {output};
+  }
+
   /**
    * Given that the TupleBatches expose only the valid tuples, partition functions using TB.get** methods should be of
    * little overhead comparing with direct Column access.
@@ -63,7 +81,7 @@ public abstract class PartitionFunction implements Serializable {
    * @param data the data to be partitioned.
    *
    * @return an int[] of length specified by <code>data.{@link TupleBatch#numTuples}</code>, specifying which partition
-   *         every tuple should be sent to.
+   *         every tuple should be sent to, or which set of partitions for values from {@link #numPartition()} on.
    *
    */
   public abstract int[] partition(@Nonnull final TupleBatch data);
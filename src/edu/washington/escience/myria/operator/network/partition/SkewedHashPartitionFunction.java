@@ -0,0 +1,304 @@
+package edu.washington.escience.myria.operator.network.partition;
+
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.gs.collections.impl.set.mutable.primitive.LongHashSet;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.HashUtils;
+import edu.washington.escience.myria.util.HeavyHitterSketch;
+
+/**
+ * Hash partitioning for one side of a join whose keys are skewed.
+ *
+ * Tuples are hash partitioned on the key fields exactly like {@link MultiFieldHashPartitionFunction} and
+ * {@link SingleFieldHashPartitionFunction} with the default seed do, except for the tuples with a hot key. Each hot key
+ * is assigned the {@code splitFactor} partitions that start at its hash partition. On the {@link Side#SPLIT} side,
+ * usually the large side, the tuples of a hot key are spread over these partitions in turn. On the
+ * {@link Side#REPLICATE} side, they are sent to all of them, so that every pair of matching tuples still meets in one
+ * partition.
+ *
+ * Both sides must be given the same hot keys. A heavy hitter sketch over the keys runs during the shuffle: the split
+ * side only starts spreading a hot key once the sketch confirms that the key is heavy in its input, and keys that turn
+ * out heavy but were not given as hot are logged, so that the plan can list them.
+ */
+public final class SkewedHashPartitionFunction extends PartitionFunction {
+
+  /** Required for Java serialization. */
+  private static final long serialVersionUID = 1L;
+  /** The logger for this class. */
+  private static final Logger LOGGER = LoggerFactory.getLogger(SkewedHashPartitionFunction.class);
+  /** The minimum number of counters of the heavy hitter sketch. */
+  private static final int MIN_SKETCH_CAPACITY = 256;
+
+  /** The side of the join the partitioned tuples belong to. */
+  public enum Side {
+    /** The tuples of a hot key are spread over its partitions. */
+    SPLIT,
+    /** The tuples of a hot key are sent to all its partitions. */
+    REPLICATE
+  }
+
+  /** The indices used for partitioning. */
+  @JsonProperty private final int[] indexes;
+  /** The side of the join. */
+  @JsonProperty private final Side side;
+  /** The values of the key fields of each hot key. */
+  @JsonProperty private final List<List<Object>> hotKeys;
+  /** The number of partitions of each hot key, or null for all of them. */
+  @JsonProperty private final Integer splitFactor;
+  /** The fraction of the input above which a key is heavy, or null for half the share of one partition. */
+  @JsonProperty private final Double hotFraction;
+
+  /** The hash codes of the hot keys, computed from the first batch. */
+  private transient LongHashSet hotKeyHashes;
+  /** The heavy hitter sketch over the hash codes of the keys. */
+  private transient HeavyHitterSketch sketch;
+  /** The hash codes of the heavy keys that are not hot keys and have been logged. */
+  private transient LongHashSet reported;
+  /** Reused buffer for the hash codes of the keys of a batch. */
+  private transient long[] hashes;
+  /** The next of its partitions a hot key is spread to, as an offset from its hash partition. */
+  private transient int nextSplit;
+
+  /**
+   * @param numPartitions number of partitions
+   * @param indexes the indices used for partitioning.
+   * @param side the side of the join the partitioned tuples belong to.
+   * @param hotKeys the values of the key fields of each hot key.
+   * @param splitFactor the number of partitions of each hot key, or null for all of them.
+   * @param hotFraction the fraction of the input above which a key is heavy, or null for half the share of one
+   *          partition.
+   */
+  @JsonCreator
+  public SkewedHashPartitionFunction(
+      @Nullable @JsonProperty("numPartitions") final Integer numPartitions,
+      @JsonProperty(value = "indexes", required = true) final int[] indexes,
+      @JsonProperty(value = "side", required = true) final Side side,
+      @JsonProperty(value = "hotKeys", required = true) final List<List<Object>> hotKeys,
+      @Nullable @JsonProperty("splitFactor") final Integer splitFactor,
+      @Nullable @JsonProperty("hotFraction") final Double hotFraction) {
+    super(numPartitions);
+    this.indexes = Objects.requireNonNull(indexes, "indexes");
+    this.side = Objects.requireNonNull(side, "side");
+    this.hotKeys = Objects.requireNonNull(hotKeys, "hotKeys");
+    Preconditions.checkArgument(indexes.length > 0, "SkewedHash requires at least 1 field to hash");
+    for (int i = 0; i < indexes.length; ++i) {
+      Preconditions.checkArgument(
+          indexes[i] >= 0,
+          "SkewedHash field index %s cannot take negative value %s",
+          i,
+          indexes[i]);
+    }
+    for (List<Object> key : hotKeys) {
+      Preconditions.checkArgument(
+          key.size() == indexes.length, "hot key %s does not have %s fields", key, indexes.length);
+    }
+    Preconditions.checkArgument(
+        splitFactor == null || splitFactor > 0, "splitFactor must be null or > 0");
+    Preconditions.checkArgument(
+        hotFraction == null || (hotFraction > 0 && hotFraction <= 1),
+        "hotFraction must be null or in (0, 1]");
+    this.splitFactor = splitFactor;
+    this.hotFraction = hotFraction;
+  }
+
+  /**
+   * @return the field indexes on which tuples will be hash partitioned.
+   */
+  public int[] getIndexes() {
+    return indexes;
+  }
+
+  /**
+   * @return the number of partitions of each hot key.
+   */
+  private int getSplitFactor() {
+    return Math.min(MoreObjects.firstNonNull(splitFactor, numPartition()), numPartition());
+  }
+
+  /**
+   * @return the fraction of the input above which a key is heavy.
+   */
+  private double getHotFraction() {
+    return MoreObjects.firstNonNull(hotFraction, 0.5 / numPartition());
+  }
+
+  @Override
+  public int numOutputs() {
+    if (side == Side.REPLICATE) {
+      /* Output numPartition() + p stands for the partitions of the hot keys whose hash partition is p. */
+      return 2 * numPartition();
+    }
+    return numPartition();
+  }
+
+  @Override
+  public int[] destinations(final int output) {
+    Preconditions.checkElementIndex(output, numOutputs());
+    if (output < numPartition()) {
+      return new int[] {output};
+    }
+    final int[] ret = new int[getSplitFactor()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = (output - numPartition() + i) % numPartition();
+    }
+    return ret;
+  }
+
+  @Override
+  public int[] partition(@Nonnull final TupleBatch tb) {
+    if (hotKeyHashes == null) {
+      hotKeyHashes = hashHotKeys(tb.getSchema().getSubSchema(indexes));
+      sketch = new HeavyHitterSketch(Math.max(MIN_SKETCH_CAPACITY, (int) (2 / getHotFraction())));
+      reported = new LongHashSet();
+    }
+    hashes = HashUtils.hashSubRowsLong(tb, indexes, hashes);
+    final int numPartitions = numPartition();
+    final double fraction = getHotFraction();
+    final int[] result = new int[tb.numTuples()];
+    for (int i = 0; i < result.length; i++) {
+      final long hash = hashes[i];
+      int p = (int) hash % numPartitions;
+      if (p < 0) {
+        p = p + numPartitions;
+      }
+      sketch.add(hash);
+      final boolean heavy =
+          sketch.total() >= TupleBatch.BATCH_SIZE && sketch.isHeavy(hash, fraction);
+      if (hotKeyHashes.contains(hash)) {
+        if (side == Side.REPLICATE) {
+          p = numPartitions + p;
+        } else if (heavy) {
+          p = (p + nextSplit) % numPartitions;
+          nextSplit = (nextSplit + 1) % getSplitFactor();
+        }
+      } else if (heavy && reported.add(hash)) {
+        LOGGER.warn(
+            "Key {} makes up more than {} of the input of a shuffle but is not a hot key",
+            tb.getSchema().getSubSchema(indexes).getColumnNames() + "=" + keyToString(tb, i),
+            fraction);
+      }
+      result[i] = p;
+    }
+    return result;
+  }
+
+  /**
+   * @param tb a batch.
+   * @param row a row of the batch.
+   * @return the values of the key fields of the row.
+   */
+  private String keyToString(final TupleBatch tb, final int row) {
+    final StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < indexes.length; ++i) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      final int column = indexes[i];
+      switch (tb.getSchema().getColumnType(column)) {
+        case BOOLEAN_TYPE:
+          sb.append(tb.getBoolean(column, row));
+          break;
+        case INT_TYPE:
+          sb.append(tb.getInt(column, row));
+          break;
+        case LONG_TYPE:
+          sb.append(tb.getLong(column, row));
+          break;
+        case FLOAT_TYPE:
+          sb.append(tb.getFloat(column, row));
+          break;
+        case DOUBLE_TYPE:
+          sb.append(tb.getDouble(column, row));
+          break;
+        case STRING_TYPE:
+          sb.append(tb.getString(column, row));
+          break;
+        case DATETIME_TYPE:
+          sb.append(tb.getDateTime(column, row));
+          break;
+      }
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * @param keySchema the schema of the key fields.
+   * @return the hash codes of the hot keys, as hashed by {@link #partition(TupleBatch)}.
+   */
+  private LongHashSet hashHotKeys(final Schema keySchema) {
+    final TupleBatchBuffer keys = new TupleBatchBuffer(keySchema);
+    for (List<Object> key : hotKeys) {
+      for (int column = 0; column < key.size(); ++column) {
+        putValue(keys, column, key.get(column));
+      }
+    }
+    final int[] allColumns = new int[keySchema.numColumns()];
+    for (int i = 0; i < allColumns.length; ++i) {
+      allColumns[i] = i;
+    }
+    final LongHashSet ret = new LongHashSet();
+    for (TupleBatch tb : keys.getAll()) {
+      final long[] keyHashes = HashUtils.hashSubRowsLong(tb, allColumns, null);
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        ret.add(keyHashes[row]);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Append a value parsed from JSON to a column, converted to the type of the column.
+   *
+   * @param keys the hot keys.
+   * @param column the column.
+   * @param value the value.
+   */
+  private static void putValue(final TupleBatchBuffer keys, final int column, final Object value) {
+    Objects.requireNonNull(value, "hot key value");
+    switch (keys.getSchema().getColumnType(column)) {
+      case BOOLEAN_TYPE:
+        keys.putBoolean(column, (Boolean) value);
+        return;
+      case INT_TYPE:
+        keys.putInt(column, ((Number) value).intValue());
+        return;
+      case LONG_TYPE:
+        keys.putLong(column, ((Number) value).longValue());
+        return;
+      case FLOAT_TYPE:
+        keys.putFloat(column, ((Number) value).floatValue());
+        return;
+      case DOUBLE_TYPE:
+        keys.putDouble(column, ((Number) value).doubleValue());
+        return;
+      case STRING_TYPE:
+        keys.putString(column, (String) value);
+        return;
+      case DATETIME_TYPE:
+        if (value instanceof DateTime) {
+          keys.putDateTime(column, (DateTime) value);
+        } else {
+          keys.putDateTime(column, DateTime.parse(value.toString()));
+        }
+        return;
+    }
+    throw new IllegalArgumentException(
+        "Unknown type " + keys.getSchema().getColumnType(column) + " of hot key value " + value);
+  }
+}
@@ -28,9 +28,9 @@ public final class WholeTupleHashPartitionFunction extends PartitionFunction {
 
   @Override
   public int[] partition(@Nonnull final TupleBatch tb) {
-    final int[] result = new int[tb.numTuples()];
+    final int[] result = HashUtils.hashRows(tb, null);
     for (int i = 0; i < result.length; i++) {
-      int p = HashUtils.hashRow(tb, i) % numPartition();
+      int p = result[i] % numPartition();
       if (p < 0) {
         p = p + numPartition();
       }
@@ -21,10 +21,13 @@ import com.google.common.collect.ImmutableMap;
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.MyriaConstants.ProfilingMode;
+import edu.washington.escience.myria.operator.DbReader;
+import edu.washington.escience.myria.operator.DbWriter;
 import edu.washington.escience.myria.operator.IDBController;
 import edu.washington.escience.myria.operator.LeapFrogJoin;
 import edu.washington.escience.myria.operator.Operator;
 import edu.washington.escience.myria.operator.RootOperator;
+import edu.washington.escience.myria.operator.SQLiteSetFilter;
 import edu.washington.escience.myria.operator.SymmetricHashJoin;
 import edu.washington.escience.myria.operator.network.Consumer;
 import edu.washington.escience.myria.operator.network.Producer;
@@ -34,6 +37,7 @@ import edu.washington.escience.myria.profiling.ProfilingLogger;
 import edu.washington.escience.myria.util.AtomicUtils;
 import edu.washington.escience.myria.util.IPCUtils;
 import edu.washington.escience.myria.util.JVMUtils;
+import edu.washington.escience.myria.util.concurrent.FairShareExecutionPool;
 import edu.washington.escience.myria.util.concurrent.ReentrantSpinLock;
 
 /**
@@ -144,8 +148,21 @@ public final class LocalFragment {
   private volatile long cpuTotal = 0;
   /** total used CPU time of this task before starting the current execution. */
   private volatile long cpuBefore = 0;
-  /** the thread id of this task. */
+  /** the thread id of the current or last execution of this task. */
   private volatile long threadId = -1;
+  /** When the current execution was requested, in nanoseconds. */
+  private volatile long executionRequestedNanoseconds = 0;
+  /** total time this task waited for a thread so far, in nanoseconds. */
+  private volatile long queueingNanoseconds = 0;
+  /** Whether the last execution stopped because its time slice was over, though it could have continued. */
+  private volatile boolean yielded = false;
+
+  /**
+   * @return the total time this fragment waited for a thread of the executor so far, in nanoseconds.
+   */
+  public long getQueueingNanoseconds() {
+    return queueingNanoseconds;
+  }
 
   /**
    * @param connectionPool the IPC connection pool.
@@ -183,23 +200,24 @@ public final class LocalFragment {
     }
 
     executionPlan =
-        new Callable<Void>() {
+        new FragmentTask() {
           @Override
           public Void call() throws Exception {
             // synchronized to keep memory consistency
             if (LOGGER.isTraceEnabled()) {
               LOGGER.trace("Start fragment execution: " + LocalFragment.this);
             }
-            if (threadId == -1) {
-              threadId = Thread.currentThread().getId();
-            }
-            // otherwise threadId should always equal to Thread.currentThread().getId() based on the current design
+            queueingNanoseconds += System.nanoTime() - executionRequestedNanoseconds;
 
+            // the fragment may run on a different thread each time, unless it needs thread affinity
             Set<ProfilingMode> mode = localSubQuery.getProfilingMode();
             if (mode.contains(ProfilingMode.RESOURCE)) {
               synchronized (LocalFragment.this) {
+                threadId = Thread.currentThread().getId();
                 cpuBefore = ManagementFactory.getThreadMXBean().getThreadCpuTime(threadId);
               }
+            } else {
+              threadId = Thread.currentThread().getId();
             }
             try {
               synchronized (executionLock) {
@@ -222,12 +240,17 @@ public final class LocalFragment {
                 cpuBefore = 0;
               }
             }
+            if (yielded) {
+              /* Go back to the queue of the executor, behind the fragments that were waiting. */
+              yielded = false;
+              execute();
+            }
             return null;
           }
         };
 
     initTask =
-        new Callable<Void>() {
+        new FragmentTask() {
           @Override
           public Void call() throws Exception {
             // synchronized to keep memory consistency
@@ -451,6 +474,7 @@ public final class LocalFragment {
     beginMilliseconds = System.currentTimeMillis();
 
     Throwable failureCause = null;
+    final long sliceEndNanoseconds = beginNanoseconds + MyriaConstants.FRAGMENT_TIME_SLICE_NANOS;
     if (executionCondition.compareAndSet(
         EXECUTION_READY | STATE_EXECUTION_REQUESTED,
         EXECUTION_READY | STATE_EXECUTION_REQUESTED | STATE_IN_EXECUTION)) {
@@ -495,6 +519,11 @@ public final class LocalFragment {
                 Thread.currentThread().interrupt();
                 break;
               }
+              if (hasData && System.nanoTime() > sliceEndNanoseconds) {
+                // Let the fragments waiting for a thread run; this one is resubmitted once this execution ends.
+                yielded = true;
+                break;
+              }
             }
           } catch (final Throwable e) {
             if (LOGGER.isErrorEnabled()) {
@@ -507,15 +536,16 @@ public final class LocalFragment {
             }
           }
 
-          if (breakByOutputUnavailable) {
-            // we do not know whether all the inputs have been consumed, recover the input available bit
+          if (breakByOutputUnavailable || yielded || !isOutputAvailable()) {
+            // we do not know whether all the inputs have been consumed, recover the input available bit. The output
+            // may also be disabled without a batch returned, e.g. by a producer deferring its EOS to a full channel.
             AtomicUtils.setBitByValue(executionCondition, STATE_INPUT_AVAILABLE);
           }
         }
 
         // Check if another round of execution is needed.
         int oldV = executionCondition.get();
-        while (oldV != EXECUTION_CONTINUE) {
+        while (oldV != EXECUTION_CONTINUE || yielded) {
           // try clear the STATE_EXECUTION_REQUESTED and STATE_IN_EXECUTION bit
           if (executionCondition.compareAndSet(
               oldV, oldV & ~(STATE_EXECUTION_REQUESTED | STATE_IN_EXECUTION))) {
@@ -684,6 +714,7 @@ public final class LocalFragment {
       executionHandleLocal.cancel(true);
     }
 
+    executionRequestedNanoseconds = System.nanoTime();
     myExecutor.submit(executionPlan);
   }
 
@@ -703,6 +734,7 @@ public final class LocalFragment {
     if (executionCondition.compareAndSet(
         EXECUTION_READY, EXECUTION_READY | STATE_EXECUTION_REQUESTED)) {
       // set in execution.
+      executionRequestedNanoseconds = System.nanoTime();
       executionHandle = myExecutor.submit(executionPlan);
     }
   }
@@ -712,6 +744,55 @@ public final class LocalFragment {
    */
   private volatile ImmutableMap<String, Object> execEnvVars;
 
+  /** The key of the thread this fragment must run on, or {@code null} if it may run on any thread. */
+  private volatile Object threadAffinity = null;
+
+  /**
+   * A task of this fragment. The fragments of a subquery share the query execution threads with other subqueries, by
+   * priority.
+   */
+  private abstract class FragmentTask implements Callable<Void>, FairShareExecutionPool.Shared {
+    @Override
+    public Object getShareGroup() {
+      return localSubQuery;
+    }
+
+    @Override
+    public int getShareWeight() {
+      return localSubQuery.getPriority();
+    }
+
+    @Override
+    public Object getAffinity() {
+      return threadAffinity;
+    }
+  }
+
+  /**
+   * SQLite connections must stay on the thread which opened them, so a fragment reading or writing a SQLite database
+   * always runs on the same thread.
+   *
+   * @param op the root of a tree of operators.
+   * @param databaseSystem the database system of the worker.
+   * @return true if the tree reads or writes a SQLite database.
+   */
+  private static boolean needsThreadAffinity(final Operator op, final String databaseSystem) {
+    if (op instanceof SQLiteSetFilter
+        || ((op instanceof DbReader || op instanceof DbWriter)
+            && MyriaConstants.STORAGE_SYSTEM_SQLITE.equals(databaseSystem))) {
+      return true;
+    }
+    final Operator[] children = op.getChildren();
+    if (children != null) {
+      for (final Operator child : children) {
+        if (child != null && needsThreadAffinity(child, databaseSystem)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * Initialize the {@link LocalFragment}.
    *
@@ -719,6 +800,10 @@ public final class LocalFragment {
    */
   public void init(final ImmutableMap<String, Object> execEnvVars) {
     this.execEnvVars = execEnvVars;
+    if (needsThreadAffinity(
+        root, (String) execEnvVars.get(MyriaConstants.EXEC_ENV_VAR_DATABASE_SYSTEM))) {
+      threadAffinity = this;
+    }
     try {
       myExecutor.submit(initTask).get();
     } catch (InterruptedException e) {
@@ -905,6 +990,8 @@ public final class LocalFragment {
     long timestamp = System.currentTimeMillis();
     SubQueryId subQueryId = subQuery.getSubQueryId();
     addResourceReport(resourceUsage, timestamp, root, "cpuTotal", cntCpu, subQueryId);
+    addResourceReport(
+        resourceUsage, timestamp, root, "queueingDelay", queueingNanoseconds, subQueryId);
 
     collectOperatorResourceMeasurements(resourceUsage, timestamp, root, subQueryId);
 
@@ -124,7 +124,9 @@ public final class LocalFragmentResourceManager {
             ipcPool,
             consumer.getInputChannelIDs(ipcPool.getMyIPCID()),
             ipcPool.getInputBufferCapacity(),
-            ipcPool.getInputBufferRecoverTrigger());
+            ipcPool.getInputBufferRecoverTrigger(),
+            TupleBatch::getEstimatedBytes,
+            ipcPool.getInputBufferBudget());
     inputBuffer.addListener(
         FlowControlBagInputBuffer.NEW_INPUT_DATA,
         new IPCEventListener() {
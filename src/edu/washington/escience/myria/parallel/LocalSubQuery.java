@@ -25,9 +25,9 @@ public abstract class LocalSubQuery implements Comparable<LocalSubQuery> {
   private final FTMode ftMode;
 
   /**
-   * Priority, currently not used.
+   * The priority, i.e., the weight of the fragments of this subquery when sharing the query execution threads.
    */
-  private static final int PRIORITY = 0;
+  private final int priority;
 
   /**
    * get the ftMode.
@@ -49,14 +49,17 @@ public abstract class LocalSubQuery implements Comparable<LocalSubQuery> {
    * @param subQueryId the id of this subquery.
    * @param ftMode the fault-tolerance mode of this subquery.
    * @param profilingMode the profiling mode of this subquery.
+   * @param priority the priority of this subquery.
    */
   public LocalSubQuery(
       final SubQueryId subQueryId,
       final FTMode ftMode,
-      @Nonnull final Set<ProfilingMode> profilingMode) {
+      @Nonnull final Set<ProfilingMode> profilingMode,
+      final int priority) {
     this.subQueryId = subQueryId;
     this.ftMode = ftMode;
     this.profilingMode = profilingMode;
+    this.priority = priority;
   }
 
   /**
@@ -78,11 +81,7 @@ public abstract class LocalSubQuery implements Comparable<LocalSubQuery> {
    * @return the priority of this subquery.
    */
   final int getPriority() {
-    /*
-     * TODO from @dhalperi, why is any of this here? It seems to never be used anywhere, and the comments in
-     * WorkerSubQuery.java make me think this is an accurate assessment.
-     */
-    return PRIORITY;
+    return priority;
   }
 
   /**
@@ -26,6 +26,7 @@ import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.MyriaConstants.FTMode;
 import edu.washington.escience.myria.operator.RootOperator;
+import edu.washington.escience.myria.operator.SharedBloomFilters;
 import edu.washington.escience.myria.util.DateTimeUtils;
 import edu.washington.escience.myria.util.IPCUtils;
 
@@ -358,7 +359,8 @@ public class MasterSubQuery extends LocalSubQuery {
         Preconditions.checkNotNull(
             Preconditions.checkNotNull(subQuery, "subQuery").getSubQueryId(), "subQueryId"),
         subQuery.getMasterPlan().getFTMode(),
-        subQuery.getMasterPlan().getProfilingMode());
+        subQuery.getMasterPlan().getProfilingMode(),
+        subQuery.getMasterPlan().getPriority());
     Preconditions.checkNotNull(subQuery, "subQuery");
     SubQueryPlan masterPlan = subQuery.getMasterPlan();
     Map<Integer, SubQueryPlan> workerPlans = subQuery.getWorkerPlans();
@@ -422,6 +424,7 @@ public class MasterSubQuery extends LocalSubQuery {
   public final void init() {
     ImmutableMap.Builder<String, Object> queryExecEnvVars = ImmutableMap.builder();
     queryExecEnvVars.put(MyriaConstants.EXEC_ENV_VAR_QUERY_ID, getSubQueryId().getQueryId());
+    queryExecEnvVars.put(MyriaConstants.EXEC_ENV_VAR_BLOOM_FILTERS, new SharedBloomFilters());
     fragment.init(queryExecEnvVars.putAll(master.getExecEnvVars()).build());
   }
 
@@ -71,6 +71,8 @@ public final class Query {
   private final Set<ProfilingMode> profiling;
   /** Indicates whether the query should be run with a particular fault tolerance mode. */
   private final FTMode ftMode;
+  /** The priority of this query when sharing the threads of the workers. */
+  private final int priority;
   /** Global variables that are part of this query. */
   private final ConcurrentHashMap<String, Object> globals;
   /** Temporary relations created during the execution of this query. */
@@ -92,6 +94,7 @@ public final class Query {
     this.server = Preconditions.checkNotNull(server, "server");
     profiling = ImmutableSet.copyOf(query.profilingMode);
     ftMode = query.ftMode;
+    priority = query.priority;
     this.queryId = queryId;
     subqueryId = 0;
     synchronized (this) {
@@ -193,8 +196,9 @@ public final class Query {
       }
 
       QueryConstruct.setQueryExecutionOptions(
-          currentSubQuery.getWorkerPlans(), ftMode, profilingMode);
+          currentSubQuery.getWorkerPlans(), ftMode, profilingMode, priority);
       currentSubQuery.getMasterPlan().setFTMode(ftMode);
+      currentSubQuery.getMasterPlan().setPriority(priority);
       currentSubQuery.getMasterPlan().setProfilingMode(ImmutableSet.<ProfilingMode>of());
       ++subqueryId;
       if (subqueryId >= MyriaConstants.MAXIMUM_NUM_SUBQUERIES) {
@@ -131,6 +131,7 @@ import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.FlowCo
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.FlowControlWriteBufferLowMarkBytes;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.MasterHost;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.MasterRpcPort;
+import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferBudgetBytes;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferCapacity;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferRecoverTrigger;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.PersistUri;
@@ -457,6 +458,7 @@ public final class Server implements TaskMessageSource, EventHandler<DriverMessa
   private final int writeBufferHighWaterMark;
   private final int inputBufferCapacity;
   private final int inputBufferRecoverTrigger;
+  private final long inputBufferBudgetBytes;
   private final Injector injector;
 
   /**
@@ -473,6 +475,7 @@ public final class Server implements TaskMessageSource, EventHandler<DriverMessa
    * @param writeBufferHighWaterMark high watermark for write buffer overflow recovery
    * @param inputBufferCapacity size of the input buffer in bytes
    * @param inputBufferRecoverTrigger number of bytes in the input buffer to trigger recovery after overflow
+   * @param inputBufferBudgetBytes the bytes all the input buffers may hold together, 0 for a quarter of the heap
    * @param persistURI the storage endpoint URI for persisting partitioned relations
    * @param injector a Tang injector for instantiating objects from configuration
    */
@@ -489,6 +492,7 @@ public final class Server implements TaskMessageSource, EventHandler<DriverMessa
       @Parameter(FlowControlWriteBufferHighMarkBytes.class) final int writeBufferHighWaterMark,
       @Parameter(OperatorInputBufferCapacity.class) final int inputBufferCapacity,
       @Parameter(OperatorInputBufferRecoverTrigger.class) final int inputBufferRecoverTrigger,
+      @Parameter(OperatorInputBufferBudgetBytes.class) final long inputBufferBudgetBytes,
       @Parameter(PersistUri.class) final String persistURI,
       final Injector injector) {
 
@@ -499,6 +503,7 @@ public final class Server implements TaskMessageSource, EventHandler<DriverMessa
     this.writeBufferHighWaterMark = writeBufferHighWaterMark;
     this.inputBufferCapacity = inputBufferCapacity;
     this.inputBufferRecoverTrigger = inputBufferRecoverTrigger;
+    this.inputBufferBudgetBytes = inputBufferBudgetBytes;
     this.persistURI = persistURI;
     this.injector = injector;
 
@@ -656,7 +661,8 @@ public final class Server implements TaskMessageSource, EventHandler<DriverMessa
             new TransportMessageSerializer(),
             new QueueBasedShortMessageProcessor<TransportMessage>(messageQueue),
             inputBufferCapacity,
-            inputBufferRecoverTrigger);
+            inputBufferRecoverTrigger,
+            inputBufferBudgetBytes);
 
     scheduledTaskExecutor =
         Executors.newSingleThreadScheduledExecutor(
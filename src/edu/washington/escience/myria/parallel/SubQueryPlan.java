@@ -13,6 +13,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.MyriaConstants.FTMode;
 import edu.washington.escience.myria.MyriaConstants.ProfilingMode;
 import edu.washington.escience.myria.RelationKey;
@@ -46,6 +47,9 @@ public class SubQueryPlan implements Serializable, DbReader, DbWriter {
   /** profilingMode. */
   private Set<ProfilingMode> profilingMode;
 
+  /** The priority of the query, see {@link MyriaConstants#DEFAULT_QUERY_PRIORITY}. */
+  private int priority = MyriaConstants.DEFAULT_QUERY_PRIORITY;
+
   /** Constructor. */
   public SubQueryPlan() {
     rootOps = new ArrayList<RootOperator>();
@@ -160,6 +164,22 @@ public class SubQueryPlan implements Serializable, DbReader, DbWriter {
     this.profilingMode = profilingMode;
   }
 
+  /**
+   * @return the priority of the query.
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Set the priority of the query.
+   *
+   * @param priority the priority, see {@link MyriaConstants#DEFAULT_QUERY_PRIORITY}.
+   */
+  public void setPriority(final int priority) {
+    this.priority = priority;
+  }
+
   @Override
   public Map<RelationKey, RelationWriteMetadata> writeSet() {
     return ImmutableMap.copyOf(writeSet);
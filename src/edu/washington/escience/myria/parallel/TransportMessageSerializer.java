@@ -12,10 +12,12 @@ import com.google.common.base.Preconditions;
 import com.google.protobuf.CodedInputStream;
 
 import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.parallel.ipc.PayloadSerializer;
 import edu.washington.escience.myria.proto.TransportProto.TransportMessage;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.util.IPCUtils;
+import edu.washington.escience.myria.util.TupleBatchWireFormat;
 
 /**
  * This class monitors all the input/output IPC data. It makes sure that all input data are of {@link TransportMessage}
@@ -40,7 +42,7 @@ public class TransportMessageSerializer implements PayloadSerializer {
       // case 3: TupleBatch
       TupleBatch tb = (TupleBatch) m;
       if (!tb.isEOI()) {
-        return ChannelBuffers.wrappedBuffer(((TupleBatch) m).toTransportMessage().toByteArray());
+        return TupleBatchWireFormat.encode(tb);
       } else {
         return ChannelBuffers.wrappedBuffer(IPCUtils.EOI.toByteArray());
       }
@@ -82,6 +84,13 @@ public class TransportMessageSerializer implements PayloadSerializer {
   @Override
   public final Object deSerialize(
       final ChannelBuffer buffer, final Object processor, final Object att) throws IOException {
+    if (TupleBatchWireFormat.isEncodedTupleBatch(buffer)) {
+      // the schema is the attachment of the input buffer, unknown if the channel is not bound to one
+      if (!(att instanceof Schema)) {
+        return null;
+      }
+      return TupleBatchWireFormat.decode(buffer, (Schema) att);
+    }
     TransportMessage tm = deSerializeTransportMessage(buffer);
     return tm;
   }
@@ -65,6 +65,7 @@ import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.FlowCo
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.FlowControlWriteBufferLowMarkBytes;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.MasterHost;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.MasterRpcPort;
+import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferBudgetBytes;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferCapacity;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.OperatorInputBufferRecoverTrigger;
 import edu.washington.escience.myria.tools.MyriaGlobalConfigurationModule.StorageDbms;
@@ -79,8 +80,8 @@ import edu.washington.escience.myria.tools.MyriaWorkerConfigurationModule.Worker
 import edu.washington.escience.myria.tools.MyriaWorkerConfigurationModule.WorkerPort;
 import edu.washington.escience.myria.tools.MyriaWorkerConfigurationModule.WorkerStorageDbName;
 import edu.washington.escience.myria.util.IPCUtils;
+import edu.washington.escience.myria.util.concurrent.FairShareExecutionPool;
 import edu.washington.escience.myria.util.concurrent.RenamingThreadFactory;
-import edu.washington.escience.myria.util.concurrent.ThreadAffinityFixedRoundRobinExecutionPool;
 
 /**
  * Workers do the real query execution. A query received by the server will be pre-processed and then dispatched to the
@@ -538,6 +539,7 @@ public final class Worker implements Task, TaskMessageSource {
       @Parameter(FlowControlWriteBufferHighMarkBytes.class) final int writeBufferHighWaterMark,
       @Parameter(OperatorInputBufferCapacity.class) final int inputBufferCapacity,
       @Parameter(OperatorInputBufferRecoverTrigger.class) final int inputBufferRecoverTrigger,
+      @Parameter(OperatorInputBufferBudgetBytes.class) final long inputBufferBudgetBytes,
       @Parameter(WorkerConf.class) final Set<String> workerConfs)
       throws Exception {
 
@@ -574,7 +576,8 @@ public final class Worker implements Task, TaskMessageSource {
             new TransportMessageSerializer(),
             new WorkerShortMessageProcessor(this),
             inputBufferCapacity,
-            inputBufferRecoverTrigger);
+            inputBufferRecoverTrigger,
+            inputBufferBudgetBytes);
 
     execEnvVars.put(MyriaConstants.EXEC_ENV_VAR_DATABASE_SYSTEM, databaseSystem);
     execEnvVars.put(MyriaConstants.EXEC_ENV_VAR_NODE_ID, getID());
@@ -780,10 +783,7 @@ public final class Worker implements Task, TaskMessageSource {
     if (getQueryExecutionMode() == QueryExecutionMode.NON_BLOCKING) {
       int numCPU = Runtime.getRuntime().availableProcessors();
       queryExecutor =
-          // new ThreadPoolExecutor(numCPU, numCPU, 0L, TimeUnit.MILLISECONDS, new
-          // LinkedBlockingQueue<Runnable>(),
-          // new RenamingThreadFactory("Nonblocking query executor"));
-          new ThreadAffinityFixedRoundRobinExecutionPool(
+          new FairShareExecutionPool(
               numCPU, new RenamingThreadFactory("Nonblocking query executor"));
     } else {
       // blocking query execution
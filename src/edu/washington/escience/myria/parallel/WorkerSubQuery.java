@@ -19,6 +19,7 @@ import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.MyriaConstants.ProfilingMode;
 import edu.washington.escience.myria.operator.RootOperator;
+import edu.washington.escience.myria.operator.SharedBloomFilters;
 import edu.washington.escience.myria.operator.StreamingState;
 import edu.washington.escience.myria.operator.BatchTupleSource;
 import edu.washington.escience.myria.operator.network.Producer;
@@ -59,6 +60,11 @@ public class WorkerSubQuery extends LocalSubQuery {
    */
   private final LocalSubQueryFuture executionFuture = new LocalSubQueryFuture(this, true);
 
+  /**
+   * The Bloom filters built by the hash joins of this {@link WorkerSubQuery}, shared by all its {@link LocalFragment}s.
+   */
+  private final SharedBloomFilters bloomFilters = new SharedBloomFilters();
+
   /**
    * record all failed {@link LocalFragment}s.
    */
@@ -156,7 +162,7 @@ public class WorkerSubQuery extends LocalSubQuery {
    */
   public WorkerSubQuery(
       final SubQueryPlan plan, final SubQueryId subQueryId, final Worker ownerWorker) {
-    super(subQueryId, plan.getFTMode(), plan.getProfilingMode());
+    super(subQueryId, plan.getFTMode(), plan.getProfilingMode(), plan.getPriority());
     List<RootOperator> operators = plan.getRootOps();
     fragments = new HashSet<LocalFragment>(operators.size());
     numFinishedFragments = new AtomicInteger(0);
@@ -204,6 +210,7 @@ public class WorkerSubQuery extends LocalSubQuery {
   public final void init(final LocalFragment f) {
     ImmutableMap.Builder<String, Object> queryExecEnvVars = ImmutableMap.builder();
     queryExecEnvVars.put(MyriaConstants.EXEC_ENV_VAR_QUERY_ID, getSubQueryId().getQueryId());
+    queryExecEnvVars.put(MyriaConstants.EXEC_ENV_VAR_BLOOM_FILTERS, bloomFilters);
     f.init(queryExecEnvVars.putAll(worker.getExecEnvVars()).build());
   }
 
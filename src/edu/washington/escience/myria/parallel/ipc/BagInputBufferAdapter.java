@@ -1,8 +1,11 @@
 package edu.washington.escience.myria.parallel.ipc;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -18,11 +21,19 @@ import com.google.common.collect.ImmutableSet;
 import edu.washington.escience.myria.parallel.ipc.IPCMessage.StreamData;
 import edu.washington.escience.myria.util.AttachmentableAdapter;
 import edu.washington.escience.myria.util.concurrent.ClosableReentrantLock;
+import edu.washington.escience.myria.util.concurrent.MpscArrayQueue;
 
 /**
- * A simple InputBuffer implementation. The number of messages held in this InputBuffer can be as large as
- * {@link Integer.MAX_VALUE}. All the input data from different input channels are treated by bag semantic. No order is
- * is guaranteed.
+ * A simple InputBuffer implementation. All the input data from different input channels are treated by bag semantic.
+ * No order is is guaranteed.
+ *
+ * Messages are stored in a bounded {@link MpscArrayQueue}: the IO threads of all the input channels offer messages
+ * without taking a lock, and a single thread, the one executing the owner operator, polls them. An offer to a full
+ * buffer fails. The lock of the buffer is only taken to wake up a thread waiting in {@link #take()} or
+ * {@link #poll(long, TimeUnit)}, and when an EOS arrives.
+ *
+ * The buffer also keeps the bytes held by its messages, as estimated by {@link #messageBytes(StreamData)}, so that
+ * subclasses can bound memory and not only the number of messages.
  *
  * @param <PAYLOAD> the type of application defined data the input buffer is going to hold.
  * */
@@ -59,20 +70,50 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     }
   }
 
+  /**
+   * A stored message, with the bytes accounted for it when it was offered.
+   *
+   * @param <PAYLOAD> the type of the payload of the message.
+   * */
+  private static final class Stored<PAYLOAD> {
+    /**
+     * the message.
+     * */
+    private final IPCMessage.StreamData<PAYLOAD> msg;
+    /**
+     * The bytes added to the buffer for the message, to be subtracted when it is removed.
+     * */
+    private final long bytes;
+
+    /**
+     * @param msg the message.
+     * @param bytes the bytes added to the buffer for the message.
+     * */
+    Stored(final IPCMessage.StreamData<PAYLOAD> msg, final long bytes) {
+      this.msg = msg;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * The default capacity of the storage, for buffers whose size is not otherwise bounded.
+   * */
+  public static final int DEFAULT_CAPACITY = 1 << 14;
+
   /**
    * the storage place of messages.
    * */
-  private final LinkedBlockingQueue<IPCMessage.StreamData<PAYLOAD>> storage;
+  private final MpscArrayQueue<Stored<PAYLOAD>> storage;
 
   /**
-   * Num of EOS.
+   * Num of EOS. Only modified under the buffer size lock.
    * */
-  private int numInputEOS;
+  private volatile int numInputEOS;
 
   /**
-   * Num threads waiting data by poll(timeout) or take.
+   * Num threads waiting data by poll(timeout) or take. Only modified under the buffer size lock.
    * */
-  private int numWaiting;
+  private volatile int numWaiting;
 
   /**
    * Set of input channels.
@@ -90,12 +131,25 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
   private final IPCConnectionPool ownerConnectionPool;
 
   /**
-   * Input buffer size.
+   * Input buffer size. Incremented after a message is stored and decremented after it is removed, so it may briefly
+   * lag behind the storage.
+   * */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * The bytes held by the messages in the buffer. Added before a message is stored and subtracted after it is removed,
+   * so it never falls below the bytes actually held.
    * */
-  private int size = 0;
+  private final AtomicLong numBytes = new AtomicLong();
 
   /**
-   * Serialize buffer size access.
+   * Reused by {@link #drainTo(Collection, int)} to sum the bytes of the drained messages. Only used by the thread
+   * executing the owner operator.
+   * */
+  private final ArrayList<Stored<PAYLOAD>> drained = new ArrayList<>();
+
+  /**
+   * Serialize waiting for data and the events subclasses fire on buffer size changes.
    * */
   private final ClosableReentrantLock bufferSizeLock = new ClosableReentrantLock();
 
@@ -117,7 +171,19 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
    * */
   public BagInputBufferAdapter(
       final IPCConnectionPool owner, final ImmutableSet<StreamIOChannelID> remoteChannelIDs) {
-    storage = new LinkedBlockingQueue<IPCMessage.StreamData<PAYLOAD>>();
+    this(owner, remoteChannelIDs, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param owner the owner IPC pool, or null for a buffer which only receives messages offered to it directly.
+   * @param remoteChannelIDs from which channels, the data will input.
+   * @param capacity the most messages the buffer holds, rounded up to a power of two.
+   * */
+  public BagInputBufferAdapter(
+      final IPCConnectionPool owner,
+      final ImmutableSet<StreamIOChannelID> remoteChannelIDs,
+      final int capacity) {
+    storage = new MpscArrayQueue<Stored<PAYLOAD>>(capacity);
     ImmutableMap.Builder<StreamIOChannelID, InputChannelState> b = ImmutableMap.builder();
     for (StreamIOChannelID ecID : remoteChannelIDs) {
       InputChannelState ics = new InputChannelState(ecID);
@@ -152,7 +218,9 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     if (!this.processor.compareAndSet(null, processor)) {
       throw new IllegalStateException("Already attached to a processor: " + processor);
     }
-    this.getOwnerConnectionPool().registerStreamInput(this);
+    if (ownerConnectionPool != null) {
+      ownerConnectionPool.registerStreamInput(this);
+    }
     postStart(processor);
   }
 
@@ -179,16 +247,63 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
 
   @Override
   public final int size() {
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      return this.size;
-    }
+    return Math.max(size.get(), 0);
   }
 
   @Override
   public final boolean isEmpty() {
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      return this.size == 0;
+    return size.get() <= 0;
+  }
+
+  /**
+   * @return the bytes held by the messages in the buffer, as estimated by {@link #messageBytes(StreamData)}.
+   * */
+  public final long numBytes() {
+    return numBytes.get();
+  }
+
+  /**
+   * The bytes a message holds while it is in the buffer. Called once, when the message is offered: the same bytes are
+   * subtracted when it is removed, even if an estimate of the message would have changed meanwhile. The default counts
+   * nothing.
+   *
+   * @param msg a message.
+   * @return the estimated bytes of the message.
+   * */
+  protected long messageBytes(final IPCMessage.StreamData<PAYLOAD> msg) {
+    return 0;
+  }
+
+  /**
+   * Called after the bytes held by the buffer change.
+   *
+   * @param delta the bytes added, or minus the bytes removed.
+   * */
+  protected void bytesChanged(final long delta) {}
+
+  /**
+   * @param delta the bytes added, or minus the bytes removed.
+   * */
+  private void addBytes(final long delta) {
+    if (delta != 0) {
+      numBytes.addAndGet(delta);
+      bytesChanged(delta);
+    }
+  }
+
+  /**
+   * Account a message removed from the storage.
+   *
+   * @param m the message removed, or null if there was none.
+   * @return the message, or null.
+   * */
+  private IPCMessage.StreamData<PAYLOAD> removed(final Stored<PAYLOAD> m) {
+    if (m == null) {
+      return null;
     }
+    size.decrementAndGet();
+    addBytes(-m.bytes);
+    return m.msg;
   }
 
   /**
@@ -206,11 +321,11 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
   @Override
   public final void clear() {
     preClear();
-    storage.clear();
-    postClear();
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      this.size = 0;
+    Stored<PAYLOAD> m;
+    while ((m = storage.poll()) != null) {
+      removed(m);
     }
+    postClear();
   }
 
   /**
@@ -289,29 +404,36 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     if (msg.getPayload() == null) { // EOS msg
       ics.eosLock.writeLock().lock();
       checkNotEOS(ics, msg);
-      ics.eos.set(true);
     } else {
       ics.eosLock.readLock().lock();
       checkNotEOS(ics, msg);
     }
 
     boolean inserted = false;
+    final long bytes = messageBytes(msg);
     try {
 
-      inserted = storage.offer(msg);
-      if (inserted) {
-        try (ClosableReentrantLock l = bufferSizeLock.open()) {
-          if (msg.getPayload() == null) {
+      /* Account the bytes first, so that a consumer removing the message at once never makes the count negative. */
+      addBytes(bytes);
+      inserted = storage.offer(new Stored<PAYLOAD>(msg, bytes));
+      if (!inserted) {
+        addBytes(-bytes);
+      } else {
+        size.incrementAndGet();
+        if (msg.getPayload() == null) {
+          /* Only once the EOS is stored, so that an offer retried after a full buffer is not dropped. */
+          ics.eos.set(true);
+          try (ClosableReentrantLock l = bufferSizeLock.open()) {
             this.numInputEOS += 1;
-          }
-          this.size += 1;
-          if (numWaiting > 0) {
-            if (isEOS()) {
+            if (numWaiting > 0) {
               emptySize.signalAll();
-            } else if (!isEmpty()) {
-              emptySize.signal();
             }
           }
+        } else if (numWaiting > 0) {
+          /* The waiter registers itself before checking the storage, so it cannot miss this message. */
+          try (ClosableReentrantLock l = bufferSizeLock.open()) {
+            emptySize.signal();
+          }
         }
       }
     } finally {
@@ -349,22 +471,20 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     }
     preTake();
 
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      if (isEmpty() && !isEOS()) {
+    Stored<PAYLOAD> stored = storage.poll();
+    if (stored == null) {
+      try (ClosableReentrantLock l = bufferSizeLock.open()) {
         numWaiting++;
         try {
-          emptySize.await();
+          while ((stored = storage.poll()) == null && !isEOS()) {
+            emptySize.await();
+          }
         } finally {
           numWaiting--;
         }
       }
-      if (!isEmpty()) {
-        size -= 1;
-      } else {
-        return null;
-      }
     }
-    IPCMessage.StreamData<PAYLOAD> m = storage.poll();
+    final IPCMessage.StreamData<PAYLOAD> m = removed(stored);
     postTake(m);
 
     return m;
@@ -400,21 +520,21 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     }
     preTimeoutPoll(time, unit);
 
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      if (isEmpty() && !isEOS()) {
+    Stored<PAYLOAD> stored = storage.poll();
+    if (stored == null) {
+      try (ClosableReentrantLock l = bufferSizeLock.open()) {
         numWaiting++;
         try {
-          emptySize.await(time, unit);
+          long nanos = unit.toNanos(time);
+          while ((stored = storage.poll()) == null && !isEOS() && nanos > 0) {
+            nanos = emptySize.awaitNanos(nanos);
+          }
         } finally {
           numWaiting--;
         }
-        if (isEmpty()) {
-          return null;
-        }
       }
-      this.size -= 1;
     }
-    IPCMessage.StreamData<PAYLOAD> m = this.storage.poll();
+    final IPCMessage.StreamData<PAYLOAD> m = removed(stored);
 
     postTimeoutPoll(time, unit, m);
 
@@ -440,23 +560,40 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
     checkAttached();
 
     prePoll();
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      if (isEmpty()) {
-        return null;
-      }
-      size -= 1;
-    }
-    IPCMessage.StreamData<PAYLOAD> m = storage.poll();
+    final IPCMessage.StreamData<PAYLOAD> m = removed(storage.poll());
     postPoll(m);
 
     return m;
   }
 
+  /**
+   * Called after {@link #drainTo(Collection, int)} operations are conducted.
+   *
+   * @param numDrained the number of messages drained.
+   * */
+  protected void postDrain(final int numDrained) {}
+
+  @Override
+  public final int drainTo(
+      final Collection<? super IPCMessage.StreamData<PAYLOAD>> c, final int maxElements) {
+    checkAttached();
+
+    final int numDrained = storage.drainTo(drained, maxElements);
+    for (final Stored<PAYLOAD> m : drained) {
+      c.add(removed(m));
+    }
+    drained.clear();
+    postDrain(numDrained);
+
+    return numDrained;
+  }
+
   @Override
   public final IPCMessage.StreamData<PAYLOAD> peek() {
     checkAttached();
 
-    return storage.peek();
+    final Stored<PAYLOAD> m = storage.peek();
+    return m == null ? null : m.msg;
   }
 
   @Override
@@ -466,9 +603,7 @@ public abstract class BagInputBufferAdapter<PAYLOAD> extends AttachmentableAdapt
 
   @Override
   public final boolean isEOS() {
-    try (ClosableReentrantLock l = bufferSizeLock.open()) {
-      return numInputEOS >= inputChannels.size();
-    }
+    return numInputEOS >= inputChannels.size();
   }
 
   @Override
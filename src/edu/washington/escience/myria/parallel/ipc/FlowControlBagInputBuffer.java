@@ -1,8 +1,12 @@
 package edu.washington.escience.myria.parallel.ipc;
 
 import java.util.LinkedList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nullable;
 
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -16,14 +20,18 @@ import com.google.common.collect.ImmutableSet;
 
 import edu.washington.escience.myria.parallel.ipc.IPCEvent.EventType;
 import edu.washington.escience.myria.util.concurrent.ClosableReentrantLock;
-import edu.washington.escience.myria.util.concurrent.ReentrantSpinLock;
 import edu.washington.escience.myria.util.concurrent.ThreadStackDump;
 
 /**
  * An flow control aware InputBuffer implementation. This type of InputBuffer has a soft capacity. The number of
- * messages held in this InputBuffer can be as large as {@link Integer.MAX_VALUE}. But the soft capacity is a trigger.<br>
+ * messages held in this InputBuffer can be several times as large, up to its hard capacity. But the soft capacity is a
+ * trigger.<br>
  * If the soft capacity is meet, an IOEvent representing the buffer full event is triggered. <br>
- * If the
+ * If the buffer is given a payload sizer and an {@link InputBufferMemoryBudget}, the bytes of its messages are also
+ * accounted against the budget, which is shared by the input buffers of all the running queries. The buffer full event
+ * is then also triggered when a message arrives while the budget is exhausted, and the recover event waits until the
+ * budget has recovered too. The buffer empty event always resumes the reads, so a query whose buffers are empty is
+ * never stalled by the buffers of other queries.
  *
  * @param <PAYLOAD> the type of application defined data the input buffer is going to hold.
  * */
@@ -47,9 +55,20 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
   private final int softCapacity;
 
   /**
-   * serialize the events.
+   * Estimates the bytes of a payload, or null to count no bytes.
+   * */
+  @Nullable private final ToLongFunction<? super PAYLOAD> payloadBytes;
+
+  /**
+   * The budget the bytes of the messages are accounted against, or null.
+   * */
+  @Nullable private final InputBufferMemoryBudget budget;
+
+  /**
+   * The least number of messages the buffer can hold. Messages keep arriving for a while after the soft capacity is
+   * met and the reads of the input channels are paused.
    * */
-  private final ReentrantSpinLock newInputSerializeLock = new ReentrantSpinLock();
+  private static final int MIN_HARD_CAPACITY = 1024;
 
   /**
    * Buffer state event. Input buffer full.
@@ -80,14 +99,34 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
       final ImmutableSet<StreamIOChannelID> remoteChannelIDs,
       final int softCapacity,
       final int recoverEventTrigger) {
-    super(owner, remoteChannelIDs);
-    bufferEmptyListeners = new ConcurrentLinkedQueue<IPCEventListener>();
-    bufferFullListeners = new ConcurrentLinkedQueue<IPCEventListener>();
-    bufferRecoverListeners = new ConcurrentLinkedQueue<IPCEventListener>();
-    newArrivalListeners = new ConcurrentLinkedQueue<IPCEventListener>();
+    this(owner, remoteChannelIDs, softCapacity, recoverEventTrigger, null, null);
+  }
+
+  /**
+   * {@inheritDoc}.
+   *
+   * @param softCapacity soft upper bound of the buffer size.
+   * @param payloadBytes estimates the bytes of a payload, or null to count no bytes.
+   * @param budget the budget the bytes of the messages are accounted against, or null.
+   *
+   * */
+  public FlowControlBagInputBuffer(
+      final IPCConnectionPool owner,
+      final ImmutableSet<StreamIOChannelID> remoteChannelIDs,
+      final int softCapacity,
+      final int recoverEventTrigger,
+      @Nullable final ToLongFunction<? super PAYLOAD> payloadBytes,
+      @Nullable final InputBufferMemoryBudget budget) {
+    super(owner, remoteChannelIDs, Math.max(MIN_HARD_CAPACITY, 8 * softCapacity));
+    bufferEmptyListeners = new CopyOnWriteArrayList<IPCEventListener>();
+    bufferFullListeners = new CopyOnWriteArrayList<IPCEventListener>();
+    bufferRecoverListeners = new CopyOnWriteArrayList<IPCEventListener>();
+    newArrivalListeners = new CopyOnWriteArrayList<IPCEventListener>();
 
     this.softCapacity = softCapacity;
     this.recoverEventTrigger = recoverEventTrigger;
+    this.payloadBytes = payloadBytes;
+    this.budget = budget;
   }
 
   @Override
@@ -205,6 +244,43 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
     return softCapacity - size();
   }
 
+  /**
+   * @return the budget the bytes of the messages are accounted against, or null.
+   * */
+  @Nullable
+  public InputBufferMemoryBudget getBudget() {
+    return budget;
+  }
+
+  @Override
+  protected long messageBytes(final IPCMessage.StreamData<PAYLOAD> msg) {
+    if (payloadBytes == null || msg.getPayload() == null) {
+      return 0;
+    }
+    return payloadBytes.applyAsLong(msg.getPayload());
+  }
+
+  @Override
+  protected void bytesChanged(final long delta) {
+    if (budget != null) {
+      budget.add(delta);
+    }
+  }
+
+  /**
+   * @return true if the buffer should pause the reads of its input channels.
+   * */
+  private boolean isFull() {
+    return remainingCapacity() <= 0 || (budget != null && budget.isExhausted());
+  }
+
+  /**
+   * @return true if the buffer, after it is full, may resume the reads of its input channels.
+   * */
+  private boolean isRecovered() {
+    return size() <= recoverEventTrigger && (budget == null || budget.isRecovered());
+  }
+
   @Override
   public void postClear() {
     checkOutputBufferStateEvents();
@@ -222,8 +298,12 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
    * Check events triggered by data input methods, i.e. offer.
    * */
   private void checkInputBufferStateEvents() {
+    if (previousEvent == INPUT_BUFFER_FULL || !isFull()) {
+      /* The common case, decided without the lock. */
+      return;
+    }
     try (ClosableReentrantLock l = getBufferSizeLock().open()) {
-      if (remainingCapacity() <= 0 && previousEvent != INPUT_BUFFER_FULL) {
+      if (previousEvent != INPUT_BUFFER_FULL && isFull()) {
         fireBufferFull();
       }
     }
@@ -233,10 +313,16 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
    * Check events triggered by data output methods, i.e. poll/take/clear.
    * */
   private void checkOutputBufferStateEvents() {
+    final EventType previous = previousEvent;
+    if (!(isEmpty() && previous != INPUT_BUFFER_EMPTY)
+        && !(previous == INPUT_BUFFER_FULL && isRecovered())) {
+      /* The common case, decided without the lock. */
+      return;
+    }
     try (ClosableReentrantLock l = getBufferSizeLock().open()) {
       if (isEmpty() && previousEvent != INPUT_BUFFER_EMPTY) {
         fireBufferEmpty();
-      } else if (previousEvent == INPUT_BUFFER_FULL && size() <= recoverEventTrigger) {
+      } else if (previousEvent == INPUT_BUFFER_FULL && isRecovered()) {
         fireBufferRecover();
       }
     }
@@ -264,25 +350,32 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
     }
   }
 
+  @Override
+  protected void postDrain(final int numDrained) {
+    if (numDrained > 0) {
+      checkOutputBufferStateEvents();
+    }
+  }
+
   /**
    * Buffer empty event listeners.
    * */
-  private final ConcurrentLinkedQueue<IPCEventListener> bufferEmptyListeners;
+  private final List<IPCEventListener> bufferEmptyListeners;
 
   /**
    * Buffer full event listeners.
    * */
-  private final ConcurrentLinkedQueue<IPCEventListener> bufferFullListeners;
+  private final List<IPCEventListener> bufferFullListeners;
 
   /**
    * Buffer recover event listeners.
    * */
-  private final ConcurrentLinkedQueue<IPCEventListener> bufferRecoverListeners;
+  private final List<IPCEventListener> bufferRecoverListeners;
 
   /**
    * new data event listeners.
    * */
-  private final ConcurrentLinkedQueue<IPCEventListener> newArrivalListeners;
+  private final List<IPCEventListener> newArrivalListeners;
 
   /**
    * the buffer empty event.
@@ -353,25 +446,21 @@ public final class FlowControlBagInputBuffer<PAYLOAD> extends BagInputBufferAdap
       };
 
   /**
-   * Fire a buffer empty event. All the buffer empty event listeners will be notified.
+   * Fire a new input event. All the new input event listeners will be notified.
    *
-   * New input event listeners are executed by trigger threads.
+   * New input event listeners are executed by trigger threads, i.e. the IO threads of all the input channels, possibly
+   * at the same time, so they must be thread-safe.
    * */
   protected void fireNewInput() {
-    this.newInputSerializeLock.lock();
-    try {
-      for (IPCEventListener l : newArrivalListeners) {
-        l.triggered(newInputEvent);
-      }
-    } finally {
-      this.newInputSerializeLock.unlock();
+    for (IPCEventListener l : newArrivalListeners) {
+      l.triggered(newInputEvent);
     }
   }
 
   /**
-   * protected by the event serialize lock.
+   * Written under the buffer size lock. Volatile so that most checks can skip the lock.
    * */
-  private EventType previousEvent = INPUT_BUFFER_EMPTY;
+  private volatile EventType previousEvent = INPUT_BUFFER_EMPTY;
 
   /**
    * Fire a buffer empty event. All the buffer empty event listeners will be notified.
@@ -313,6 +313,11 @@ public final class IPCConnectionPool implements ExternalResourceReleasable {
    */
   private final int inputBufferRecoverTrigger;
 
+  /**
+   * The bytes the input buffers of all {@link Consumer}s may hold together.
+   */
+  private final InputBufferMemoryBudget inputBufferBudget;
+
   /**
    * pool of connections.
    */
@@ -453,6 +458,13 @@ public final class IPCConnectionPool implements ExternalResourceReleasable {
     return inputBufferRecoverTrigger;
   }
 
+  /**
+   * @return the bytes the input buffers of all {@link Consumer}s may hold together.
+   */
+  public InputBufferMemoryBudget getInputBufferBudget() {
+    return inputBufferBudget;
+  }
+
   /**
    * Construct a connection pool.
    *
@@ -464,6 +476,7 @@ public final class IPCConnectionPool implements ExternalResourceReleasable {
    * @param mp short message processor
    * @param inputBufferCapacity input buffer capacity
    * @param inputBufferRecoverTrigger input buffer recover trigger.
+   * @param inputBufferBudgetBytes the bytes all the input buffers may hold together, 0 for a quarter of the heap.
    * */
   public IPCConnectionPool(
       final int myID,
@@ -473,10 +486,12 @@ public final class IPCConnectionPool implements ExternalResourceReleasable {
       final PayloadSerializer payloadSerializer,
       final ShortMessageProcessor<?> mp,
       final int inputBufferCapacity,
-      final int inputBufferRecoverTrigger) {
+      final int inputBufferRecoverTrigger,
+      final long inputBufferBudgetBytes) {
     this.myID = myID;
     this.inputBufferCapacity = inputBufferCapacity;
     this.inputBufferRecoverTrigger = inputBufferRecoverTrigger;
+    inputBufferBudget = new InputBufferMemoryBudget(inputBufferBudgetBytes);
     myIDMsg = new IPCMessage.Meta.CONNECT(myID);
     myIPCServerAddress = remoteAddresses.get(myID).getBindAddress();
     this.clientBootstrap = clientBootstrap;
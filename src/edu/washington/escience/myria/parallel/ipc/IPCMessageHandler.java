@@ -227,12 +227,12 @@ public final class IPCMessageHandler extends SimpleChannelHandler {
       ShortMessageProcessor<Object> smp = ownerConnectionPool.getShortMessageProcessor();
       smp.processMessage(ch, IPCMessage.Data.wrap(remoteID, message));
     } else {
-      while (!processStreamMessage(
-          ch, remoteID, IPCMessage.StreamData.wrap(remoteID, ic.getID().getStreamID(), message))) {
-        if (LOGGER.isErrorEnabled()) {
-          LOGGER.error(
-              "Input buffer out of memory. With the flow control input buffers, it should not happen normally.");
-        }
+      if (!processStreamMessage(
+              ch, remoteID, IPCMessage.StreamData.wrap(remoteID, ic.getID().getStreamID(), message))
+          && LOGGER.isDebugEnabled()) {
+        /* The message is deferred and the read paused until the buffer has room again, no need to wait here. The
+         * input channel warns once when it pauses the read, not for every message still in flight behind it. */
+        LOGGER.debug("Input buffer full. Message deferred. Channel: {}", ChannelContext.channelToString(ch));
       }
     }
   }
@@ -251,33 +251,50 @@ public final class IPCMessageHandler extends SimpleChannelHandler {
         final ChannelContext cc = ChannelContext.getChannelContext(ch);
         final int remoteID = cc.getRegisteredChannelContext().getRemoteID();
 
-        TransportMessage tm =
-            (TransportMessage)
-                ownerConnectionPool.getPayloadSerializer().deSerialize(cb, null, null);
-        switch (tm.getType()) {
-          case DATA:
-            StreamInputChannel<?> ic =
-                cc.getRegisteredChannelContext().getIOPair().getInputChannel();
-            if (ic != null) {
-              StreamInputBuffer<?> sib = ic.getInputBuffer();
-              msg = IPCUtils.tmToTupleBatch(tm.getDataMessage(), (Schema) sib.getAttachment());
-            } else {
-              // got a message from a physical channel which is not bound to a logical input channel, ignore
-              // the binding may have been cleaned up due to failure
-              LOGGER.warn(
-                  "Unknown data message from {} }, through {}, msg: {}",
-                  remoteID,
-                  ChannelContext.channelToString(ctx.getChannel()),
-                  tm.getDataMessage());
-              return;
-            }
-            break;
-          case QUERY:
-          case CONTROL:
-            msg = tm;
-            break;
-          default:
-            throw new IllegalArgumentException("Unknown message type: " + tm.getType().name());
+        StreamInputBuffer<?> sib = null;
+        StreamInputChannel<?> ic = cc.getRegisteredChannelContext().getIOPair().getInputChannel();
+        if (ic != null) {
+          sib = ic.getInputBuffer();
+        }
+        Object payload =
+            ownerConnectionPool
+                .getPayloadSerializer()
+                .deSerialize(cb, sib, sib == null ? null : sib.getAttachment());
+        if (payload == null) {
+          // a batch from a physical channel which is not bound to a logical input channel, ignore
+          LOGGER.warn(
+              "Unknown data message from {} }, through {}",
+              remoteID,
+              ChannelContext.channelToString(ctx.getChannel()));
+          return;
+        }
+        if (payload instanceof TransportMessage) {
+          TransportMessage tm = (TransportMessage) payload;
+          switch (tm.getType()) {
+            case DATA:
+              if (ic != null) {
+                msg = IPCUtils.tmToTupleBatch(tm.getDataMessage(), (Schema) sib.getAttachment());
+              } else {
+                // got a message from a physical channel which is not bound to a logical input channel, ignore
+                // the binding may have been cleaned up due to failure
+                LOGGER.warn(
+                    "Unknown data message from {} }, through {}, msg: {}",
+                    remoteID,
+                    ChannelContext.channelToString(ctx.getChannel()),
+                    tm.getDataMessage());
+                return;
+              }
+              break;
+            case QUERY:
+            case CONTROL:
+              msg = tm;
+              break;
+            default:
+              throw new IllegalArgumentException("Unknown message type: " + tm.getType().name());
+          }
+        } else {
+          // a TupleBatch sent in its own wire format
+          msg = payload;
         }
       }
     }
@@ -330,7 +347,7 @@ public final class IPCMessageHandler extends SimpleChannelHandler {
    * @param ch source channel.
    * @param remoteID source remote.
    * @param message the message.
-   * @return true if successfully processed.
+   * @return true if successfully processed, false if the input buffer was full and the message is deferred.
    * */
   private boolean processStreamMessage(
       final Channel ch, final int remoteID, final IPCMessage.StreamData<Object> message) {
@@ -353,7 +370,7 @@ public final class IPCMessageHandler extends SimpleChannelHandler {
       return true;
     }
 
-    pushToBufferSucceed = msgDestIB.offer(message);
+    pushToBufferSucceed = cc.offerOrDefer(message);
     return pushToBufferSucceed;
   }
 
@@ -432,6 +449,11 @@ public final class IPCMessageHandler extends SimpleChannelHandler {
     if (oc != null) {
       oc.channelInterestChangedCallback();
     }
+    StreamInputChannel<?> ic = p.getInputChannel();
+    if (ic != null && ioChannel.isReadable()) {
+      /* The input buffer resumed the read, so it has room again for the messages it was too full to store. */
+      ic.retryDeferred();
+    }
 
     if (LOGGER.isTraceEnabled()) {
       String v = "readable";
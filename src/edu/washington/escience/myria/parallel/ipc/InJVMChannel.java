@@ -72,21 +72,30 @@ public class InJVMChannel extends AbstractChannel implements LocalChannel {
     cf.setSuccess();
   }
 
-  @Override
-  public final ChannelFuture setInterestOps(final int interestOps) {
-    int newIOPS = interestOps;
+  /**
+   * @param interestOps the requested interest ops.
+   * @return the interest ops with the write interest following the read interest: the receiver stops reading => the
+   *         sender stops writing.
+   * */
+  private static int writeFollowsRead(final int interestOps) {
     if ((interestOps & OP_READ) != OP_READ) {
-      // server side stop read => client side stop write.
-      newIOPS = interestOps | Channel.OP_WRITE;
-    } else {
-      newIOPS = interestOps & ~Channel.OP_WRITE;
+      return interestOps | Channel.OP_WRITE;
     }
-    return super.setInterestOps(newIOPS);
+    return interestOps & ~Channel.OP_WRITE;
+  }
+
+  @Override
+  public final ChannelFuture setInterestOps(final int interestOps) {
+    return super.setInterestOps(writeFollowsRead(interestOps));
   }
 
+  /**
+   * Also applied here, because {@link ChannelContext#pauseRead} and {@link ChannelContext#resumeRead} send the interest
+   * ops down the pipeline without {@link #setInterestOps}.
+   * */
   @Override
   protected final void setInterestOpsNow(final int interestOps) {
-    super.setInterestOpsNow(interestOps);
+    super.setInterestOpsNow(writeFollowsRead(interestOps));
   }
 
   @Override
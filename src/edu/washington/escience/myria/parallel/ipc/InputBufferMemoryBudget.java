@@ -0,0 +1,91 @@
+package edu.washington.escience.myria.parallel.ipc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The bytes that the flow controlled input buffers of a process may hold together, shared by all the
+ * {@link FlowControlBagInputBuffer}s of all the running queries.
+ *
+ * Each buffer adds the estimated size of the messages it stores and subtracts it when they are removed. While the
+ * budget is exhausted, every buffer that receives a message pauses the reads of its input channels. A paused buffer
+ * resumes when it is empty, or when its own size is back to its recover trigger and the bytes held by all buffers are
+ * back to {@link #RECOVER_FRACTION} of the budget.
+ *
+ * This class is thread-safe.
+ * */
+public final class InputBufferMemoryBudget {
+
+  /**
+   * The fraction of the budget that the bytes held must fall to before paused buffers resume.
+   * */
+  public static final double RECOVER_FRACTION = 0.8;
+
+  /**
+   * The fraction of the max heap size used by default.
+   * */
+  private static final int DEFAULT_HEAP_DIVISOR = 4;
+
+  /**
+   * The budget in bytes.
+   * */
+  private final long capacity;
+
+  /**
+   * The bytes held.
+   * */
+  private final AtomicLong used = new AtomicLong();
+
+  /**
+   * @param capacity the budget in bytes, or 0 for a quarter of the max heap size.
+   * */
+  public InputBufferMemoryBudget(final long capacity) {
+    Preconditions.checkArgument(capacity >= 0, "capacity must be >= 0");
+    if (capacity == 0) {
+      this.capacity = Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_DIVISOR;
+    } else {
+      this.capacity = capacity;
+    }
+  }
+
+  /**
+   * @return the budget in bytes.
+   * */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the bytes held.
+   * */
+  public long getUsed() {
+    return used.get();
+  }
+
+  /**
+   * @param bytes the bytes stored, or minus the bytes removed.
+   * */
+  public void add(final long bytes) {
+    used.addAndGet(bytes);
+  }
+
+  /**
+   * @return true if the bytes held reach the budget.
+   * */
+  public boolean isExhausted() {
+    return used.get() >= capacity;
+  }
+
+  /**
+   * @return true if the bytes held are at most {@link #RECOVER_FRACTION} of the budget.
+   * */
+  public boolean isRecovered() {
+    return used.get() <= (long) (capacity * RECOVER_FRACTION);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + used.get() + "/" + capacity + " bytes]";
+  }
+}
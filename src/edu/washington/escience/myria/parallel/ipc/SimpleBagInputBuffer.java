@@ -1,6 +1,7 @@
 package edu.washington.escience.myria.parallel.ipc;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +69,43 @@ public class SimpleBagInputBuffer<PAYLOAD> extends BagInputBufferAdapter<PAYLOAD
     }
   }
 
+  /**
+   * Once the buffer is empty, the input channels that deferred messages while it was full offer them again, see
+   * {@link StreamInputChannel#retryDeferred()}.
+   * */
+  private void resumeDeferred() {
+    if (!isEmpty()) {
+      return;
+    }
+    for (final StreamIOChannelID inputID : getSourceChannels()) {
+      final StreamInputChannel<PAYLOAD> inputChannel = getInputChannel(inputID);
+      if (inputChannel.hasDeferred()) {
+        inputChannel.retryDeferred();
+      }
+    }
+  }
+
+  @Override
+  protected final void postPoll(final IPCMessage.StreamData<PAYLOAD> msg) {
+    resumeDeferred();
+  }
+
+  @Override
+  protected final void postTimeoutPoll(
+      final long time, final TimeUnit unit, final IPCMessage.StreamData<PAYLOAD> msg) {
+    resumeDeferred();
+  }
+
+  @Override
+  protected final void postTake(final IPCMessage.StreamData<PAYLOAD> msg) {
+    resumeDeferred();
+  }
+
+  @Override
+  protected final void postDrain(final int numDrained) {
+    resumeDeferred();
+  }
+
   /**
    * new data event listeners.
    * */
@@ -84,7 +122,19 @@ public class SimpleBagInputBuffer<PAYLOAD> extends BagInputBufferAdapter<PAYLOAD
    * */
   public SimpleBagInputBuffer(
       final IPCConnectionPool owner, final ImmutableSet<StreamIOChannelID> remoteChannelIDs) {
-    super(owner, remoteChannelIDs);
+    this(owner, remoteChannelIDs, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param owner the owner IPC pool.
+   * @param remoteChannelIDs from which channels, the data will input.
+   * @param capacity the most messages the buffer holds, rounded up to a power of two.
+   * */
+  public SimpleBagInputBuffer(
+      final IPCConnectionPool owner,
+      final ImmutableSet<StreamIOChannelID> remoteChannelIDs,
+      final int capacity) {
+    super(owner, remoteChannelIDs, capacity);
     newArrivalListeners = new ConcurrentLinkedQueue<IPCEventListener>();
   }
 
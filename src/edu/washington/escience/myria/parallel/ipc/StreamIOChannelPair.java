@@ -123,14 +123,19 @@ class StreamIOChannelPair {
 
     inputMappingLock.lock();
     try {
-      if (inputStreamChannel != null) {
-        old = inputStreamChannel;
-        old.release();
-        inputStreamChannel = null;
-      }
+      old = inputStreamChannel;
+      inputStreamChannel = null;
     } finally {
       inputMappingLock.unlock();
     }
+    if (old != null) {
+      channel = old.getIOChannel();
+      /*
+       * Not under the mapping lock: resuming the read fires the interest change of the IO channel, synchronously for an
+       * in JVM channel, and its handler looks up the input channel while another thread may hold the readability lock.
+       */
+      old.release();
+    }
     if (LOGGER.isTraceEnabled()) {
       LOGGER.trace(
           "Stream input channel {} disassociated from physical channel {}.",
@@ -1,5 +1,6 @@
 package edu.washington.escience.myria.parallel.ipc;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableSet;
@@ -92,6 +93,16 @@ public interface StreamInputBuffer<PAYLOAD> extends Attachmentable {
    * */
   IPCMessage.StreamData<PAYLOAD> peek();
 
+  /**
+   * Removes the messages at the head of this input buffer that can be retrieved at this moment, at most
+   * <tt>maxElements</tt> of them, and adds them to the given collection in order. Never waits.
+   *
+   * @param c the collection to add the messages to.
+   * @param maxElements the maximum number of messages to remove.
+   * @return the number of messages removed.
+   * */
+  int drainTo(Collection<? super IPCMessage.StreamData<PAYLOAD>> c, int maxElements);
+
   /**
    * Attach the input buffer to a processor, and also register itself in the owner {@link IPCConnectionPool}. An input
    * buffer must be attached before any message can be buffered. Messages put into the input buffer before it is
@@ -1,6 +1,8 @@
 package edu.washington.escience.myria.parallel.ipc;
 
+import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
@@ -31,6 +33,34 @@ public class StreamInputChannel<PAYLOAD> extends StreamIOChannel {
    */
   private final AtomicBoolean paused = new AtomicBoolean(false);
 
+  /**
+   * Messages from this channel that the input buffer was too full to store, in arrival order. Only added to by the
+   * thread receiving the messages of the channel, and guarded by {@link #deferredLock}.
+   */
+  private final ArrayDeque<IPCMessage.StreamData<PAYLOAD>> deferred = new ArrayDeque<>();
+
+  /**
+   * If there are deferred messages. Only written under {@link #deferredLock}.
+   */
+  private volatile boolean hasDeferred = false;
+
+  /**
+   * Guards {@link #deferred}.
+   */
+  private final ReentrantLock deferredLock = new ReentrantLock();
+
+  /**
+   * If the read from this channel is paused because of deferred messages, independently of {@link #paused}, which is
+   * the pause asked by the input buffer. The physical channel reads only when neither is set. Only written under
+   * {@link #deferredLock}.
+   */
+  private volatile boolean pausedForDeferral = false;
+
+  /**
+   * If a retry of the deferred messages is requested while another thread holds {@link #deferredLock}.
+   */
+  private final AtomicBoolean retryRequested = new AtomicBoolean(false);
+
   /**
    * release this logical input channel.
    */
@@ -66,6 +96,112 @@ public class StreamInputChannel<PAYLOAD> extends StreamIOChannel {
     return inputBuffer;
   }
 
+  /**
+   * Offer a message to the input buffer, after the messages of this channel deferred before it. If the buffer is full,
+   * the message is deferred and the read from this channel is paused. The deferred messages are offered again by
+   * {@link #retryDeferred()} once the read is resumed.
+   *
+   * @param msg the message.
+   * @return true if the message is stored, false if the buffer was full.
+   * */
+  final boolean offerOrDefer(final IPCMessage.StreamData<PAYLOAD> msg) {
+    if (!hasDeferred && inputBuffer.offer(msg)) {
+      /* Only this thread defers messages of this channel, so none can have been deferred before this one. */
+      return true;
+    }
+    deferredLock.lock();
+    try {
+      if (deferred.isEmpty() && inputBuffer.offer(msg)) {
+        return true;
+      }
+      deferred.add(msg);
+      hasDeferred = true;
+      pauseForDeferral();
+      /* The buffer may have made room before the read was paused, and then nothing would resume it. */
+      offerDeferred();
+      return false;
+    } finally {
+      deferredLock.unlock();
+      if (retryRequested.get()) {
+        retryDeferred();
+      }
+    }
+  }
+
+  /**
+   * Offer the deferred messages of this channel to the input buffer again, e.g. once the read from this channel is
+   * resumed. Never blocks: if another thread holds the deferred messages, that thread does the retry.
+   * */
+  final void retryDeferred() {
+    if (!hasDeferred) {
+      return;
+    }
+    retryRequested.set(true);
+    while (retryRequested.get() && deferredLock.tryLock()) {
+      try {
+        retryRequested.set(false);
+        offerDeferred();
+      } finally {
+        deferredLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @return if there are messages of this channel that the input buffer was too full to store.
+   * */
+  final boolean hasDeferred() {
+    return hasDeferred;
+  }
+
+  /**
+   * Offer the deferred messages to the input buffer, in order, until it is full again. The read from this channel is
+   * paused while some are left, and resumed once none are left unless the input buffer paused it too. The messages of
+   * a detached input buffer are dropped. Must be called under {@link #deferredLock}.
+   * */
+  private void offerDeferred() {
+    if (!inputBuffer.isAttached()) {
+      deferred.clear();
+    }
+    while (!deferred.isEmpty() && inputBuffer.offer(deferred.peek())) {
+      deferred.poll();
+    }
+    hasDeferred = !deferred.isEmpty();
+    if (hasDeferred) {
+      pauseForDeferral();
+    } else if (pausedForDeferral) {
+      pausedForDeferral = false;
+      final Channel ch = getIOChannel();
+      if (!paused.get() && ch != null) {
+        ChannelContext.resumeRead(ch);
+      }
+    }
+  }
+
+  /**
+   * Pause the read from this channel until the deferred messages are stored. Must be called under
+   * {@link #deferredLock}.
+   * */
+  private void pauseForDeferral() {
+    if (!pausedForDeferral) {
+      pausedForDeferral = true;
+      final Channel ch = getIOChannel();
+      if (LOGGER.isWarnEnabled()) {
+        LOGGER.warn("Input buffer full. Pause channel: {}", ChannelContext.channelToString(ch));
+      }
+      if (ch != null) {
+        ChannelContext.pauseRead(ch);
+      }
+    }
+  }
+
+  /**
+   * @return if the read from this channel is paused until its deferred messages are stored.
+   * */
+  final boolean isPausedForDeferral() {
+    return pausedForDeferral;
+  }
+
   /**
    * pause the read from this logical input channel, no matter the state of the underlying physical input channel.
    *
@@ -84,18 +220,22 @@ public class StreamInputChannel<PAYLOAD> extends StreamIOChannel {
   }
 
   /**
-   * Resume the read of all IO channels that are inputs of this input buffer.
+   * Resume the read of all IO channels that are inputs of this input buffer. If the channel also waits for its deferred
+   * messages to be stored, they are offered again instead, and the read is resumed once they are all stored.
    *
    * @return ChannelGroupFuture denotes the future of the resume read action.
    * */
   public ChannelFuture resumeRead() {
     if (this.paused.compareAndSet(true, false)) {
       Channel ch = getIOChannel();
-      if (ch != null) {
+      if (ch == null) {
+        return new FailedChannelFuture(NullChannel.NULL, new NullPointerException());
+      }
+      if (!pausedForDeferral) {
         return ChannelContext.resumeRead(ch);
       }
-      return new FailedChannelFuture(NullChannel.NULL, new NullPointerException());
     }
+    retryDeferred();
     return new SucceededChannelFuture(NullChannel.NULL);
   }
 }
@@ -249,4 +249,30 @@ public class StreamOutputChannel<PAYLOAD> extends StreamIOChannel {
     Channel ch = getIOChannel();
     return ch != null && ch.isWritable();
   }
+
+  /**
+   * Called by a writer that found this channel not writable and stopped writing. The next time the channel becomes
+   * writable, an {@link #OUTPUT_RECOVERED} event is fired, even if the physical channel filled up and drained without
+   * an {@link #OUTPUT_DISABLED} event having been fired.
+   *
+   * @return true if the writer should wait for the {@link #OUTPUT_RECOVERED} event, false if the channel is writable
+   *         again or has no physical IO channel, in which case no event is coming and the writer should go on.
+   * */
+  public final boolean waitForWritable() {
+    Channel ch = getIOChannel();
+    if (ch == null) {
+      return false;
+    }
+    eventSerializeLock.lock();
+    try {
+      if (ch.isWritable()) {
+        return false;
+      }
+      /* The interest change callback fires the recovered event once it sees the channel writable. */
+      previousEvent = OUTPUT_DISABLED;
+      return true;
+    } finally {
+      eventSerializeLock.unlock();
+    }
+  }
 }
@@ -0,0 +1,164 @@
+package edu.washington.escience.myria.storage;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An open-addressing hash table mapping composite keys to dense int ids 0, 1, 2, ...
+ *
+ * The table does not store the keys themselves: the key of id {@code i} is row {@code i} of the {@code keyColumns} of a
+ * {@link ReadableTable} owned by the caller, e.g., the buffer of group keys of an aggregate or of unique tuples of a
+ * duplicate elimination. Each slot holds an id and the hash code of its key inline, so that probing compares hash codes
+ * before touching the keys. Collisions are resolved by linear probing, and the table doubles when it is half full.
+ *
+ * A typical lookup-or-insert is:
+ *
+ * <pre>
+ * int id = table.find(hash, batch, columns, row);
+ * if (id == -1) {
+ *   id = keys.numTuples();
+ *   // append the key of the row to keys
+ *   table.insert(hash, id, batch, columns, row);
+ * }
+ * </pre>
+ *
+ * The table remembers the dictionary codes of string keys inserted from dictionary encoded batches, so that probes
+ * from batches of the same dictionary compare codes, see {@link StringKeyCodes}.
+ */
+public final class GroupIdHashTable {
+  /** The initial number of slots. */
+  private static final int INITIAL_CAPACITY = 64;
+  /** Marks an empty slot in {@link #slotIds}. */
+  private static final int EMPTY = -1;
+  /** Multiplier spreading hash codes over the slots (Fibonacci hashing). */
+  private static final int SPREAD = 0x9E3779B9;
+
+  /** The table holding the key of each id. */
+  private final ReadableTable keys;
+  /** The columns of {@link #keys} holding the keys. */
+  private final int[] keyColumns;
+  /** The dictionary codes of the string keys, or {@code null} if no key is a string. */
+  private final StringKeyCodes keyCodes;
+  /** The id in each slot, or {@link #EMPTY}. */
+  private int[] slotIds;
+  /** The hash code of the key in each slot. */
+  private int[] slotHashes;
+  /** 32 minus log2 of the number of slots. */
+  private int shift;
+  /** The number of ids in the table. */
+  private int size;
+
+  /**
+   * @param keys the table holding the key of each id.
+   * @param keyColumns the columns of {@code keys} holding the keys.
+   */
+  public GroupIdHashTable(final ReadableTable keys, final int[] keyColumns) {
+    this.keys = keys;
+    this.keyColumns = keyColumns;
+    keyCodes = StringKeyCodes.forKeys(keys.getSchema(), keyColumns);
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param capacity the number of slots, a power of two.
+   */
+  private void allocate(final int capacity) {
+    slotIds = new int[capacity];
+    Arrays.fill(slotIds, EMPTY);
+    slotHashes = new int[capacity];
+    shift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   * @param hash a hash code.
+   * @return the first slot to probe for the hash code.
+   */
+  private int firstSlot(final int hash) {
+    return (hash * SPREAD) >>> shift;
+  }
+
+  /**
+   * @return the number of ids in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Look up the id of a key.
+   *
+   * @param hash the hash code of the key.
+   * @param table the table holding the key.
+   * @param columns the columns of {@code table} holding the key, matching the key columns of this table.
+   * @param row the row of {@code table} holding the key.
+   * @return the id of the key, or -1 if the key is not in the table.
+   */
+  public int find(final int hash, final ReadableTable table, final int[] columns, final int row) {
+    final int mask = slotIds.length - 1;
+    for (int slot = firstSlot(hash); ; slot = (slot + 1) & mask) {
+      final int id = slotIds[slot];
+      if (id == EMPTY) {
+        return -1;
+      }
+      if (slotHashes[slot] == hash
+          && TupleUtils.tupleEquals(table, columns, row, keys, keyColumns, id, keyCodes)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Insert the next id. Its key must already be in the key table and must not be in this table yet.
+   *
+   * @param hash the hash code of the key.
+   * @param id the id, which must equal {@link #size()}.
+   * @param table the table the key was copied from.
+   * @param columns the columns of {@code table} holding the key, matching the key columns of this table.
+   * @param row the row of {@code table} holding the key.
+   */
+  public void insert(
+      final int hash,
+      final int id,
+      final ReadableTable table,
+      final int[] columns,
+      final int row) {
+    Preconditions.checkArgument(id == size, "expected id %s, got %s", size, id);
+    if (keyCodes != null) {
+      keyCodes.add(table, columns, row);
+    }
+    if (2 * (size + 1) > slotIds.length) {
+      grow();
+    }
+    place(hash, id);
+    ++size;
+  }
+
+  /**
+   * Put an id in the first free slot for its hash code.
+   *
+   * @param hash the hash code of the key.
+   * @param id the id.
+   */
+  private void place(final int hash, final int id) {
+    final int mask = slotIds.length - 1;
+    int slot = firstSlot(hash);
+    while (slotIds[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    slotIds[slot] = id;
+    slotHashes[slot] = hash;
+  }
+
+  /** Double the number of slots and re-place every id, using the inline hash codes. */
+  private void grow() {
+    final int[] oldIds = slotIds;
+    final int[] oldHashes = slotHashes;
+    allocate(oldIds.length * 2);
+    for (int slot = 0; slot < oldIds.length; ++slot) {
+      if (oldIds[slot] != EMPTY) {
+        place(oldHashes[slot], oldIds[slot]);
+      }
+    }
+  }
+}
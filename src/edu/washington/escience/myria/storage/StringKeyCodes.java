@@ -0,0 +1,142 @@
+package edu.washington.escience.myria.storage;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
+
+/**
+ * The dictionary codes of the string keys of the rows of a hash table, so that probes from dictionary encoded batches
+ * compare codes instead of strings.
+ *
+ * A hash table copies the key of each row into a buffer, which keeps the strings but not their codes. For each string
+ * key column, this remembers the dictionary of the first dictionary encoded key added, and the code of each row in that
+ * dictionary, or -1 if the row was not encoded with it. A probe from a column of the same dictionary then compares
+ * codes; any other probe compares strings.
+ */
+public final class StringKeyCodes {
+  /** The initial number of rows to allocate room for. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** The positions, among the key columns, of the string keys. */
+  private final int[] stringKeys;
+  /** For each key column, the index of its codes in {@link #codes}, or -1 if it is not a string. */
+  private final int[] slots;
+  /** For each string key, the dictionary its codes refer to, or null until a dictionary encoded key is added. */
+  private final StringDictionary[] dictionaries;
+  /** For each string key, the code of each row, or -1. */
+  private final int[][] codes;
+  /** The number of rows. */
+  private int size;
+
+  /**
+   * @param schema the schema of the table holding the keys.
+   * @param keyColumns the key columns of the table.
+   * @return the codes of the string key columns, or {@code null} if no key column is a string.
+   */
+  @Nullable
+  public static StringKeyCodes forKeys(final Schema schema, final int[] keyColumns) {
+    final int[] slots = new int[keyColumns.length];
+    int numStrings = 0;
+    for (int key = 0; key < keyColumns.length; ++key) {
+      slots[key] = schema.getColumnType(keyColumns[key]) == Type.STRING_TYPE ? numStrings++ : -1;
+    }
+    if (numStrings == 0) {
+      return null;
+    }
+    return new StringKeyCodes(slots, numStrings);
+  }
+
+  /**
+   * @param slots for each key column, the index of its codes, or -1 if it is not a string.
+   * @param numStrings the number of string keys.
+   */
+  private StringKeyCodes(final int[] slots, final int numStrings) {
+    this.slots = slots;
+    stringKeys = new int[numStrings];
+    for (int key = 0; key < slots.length; ++key) {
+      if (slots[key] != -1) {
+        stringKeys[slots[key]] = key;
+      }
+    }
+    dictionaries = new StringDictionary[numStrings];
+    codes = new int[numStrings][INITIAL_CAPACITY];
+  }
+
+  /**
+   * @return the number of rows.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Record the codes of the key of the next row of the hash table.
+   *
+   * @param table the table the key is copied from.
+   * @param columns the key columns of {@code table}.
+   * @param row the row of {@code table} holding the key.
+   */
+  public void add(final ReadableTable table, final int[] columns, final int row) {
+    if (size == codes[0].length) {
+      for (int slot = 0; slot < codes.length; ++slot) {
+        codes[slot] = Arrays.copyOf(codes[slot], size * 2);
+      }
+    }
+    for (int slot = 0; slot < codes.length; ++slot) {
+      codes[slot][size] = -1;
+      /* Only batches expose their columns without allocating a view. */
+      if (!(table instanceof TupleBatch)) {
+        continue;
+      }
+      final ReadableColumn values = table.asColumn(columns[stringKeys[slot]]);
+      if (values instanceof DictionaryStringColumn) {
+        final DictionaryStringColumn encoded = (DictionaryStringColumn) values;
+        if (dictionaries[slot] == null) {
+          dictionaries[slot] = encoded.getDictionary();
+        }
+        if (encoded.getDictionary() == dictionaries[slot]) {
+          codes[slot][size] = encoded.getCode(row);
+        }
+      }
+    }
+    ++size;
+  }
+
+  /**
+   * Compare a string of a probing table with a key of the hash table, by code if both are encoded with the same
+   * dictionary.
+   *
+   * @param key the position of the string among the key columns.
+   * @param table the probing table.
+   * @param column the column of {@code table} holding the string.
+   * @param row the row of {@code table} holding the string.
+   * @param keys the table holding the keys of the hash table.
+   * @param keyColumn the column of {@code keys} holding the key.
+   * @param id the row of the key in {@code keys}, which was recorded by {@link #add}.
+   * @return true if the strings are equal.
+   */
+  boolean stringEquals(
+      final int key,
+      final ReadableTable table,
+      final int column,
+      final int row,
+      final ReadableTable keys,
+      final int keyColumn,
+      final int id) {
+    final int slot = slots[key];
+    final int code = codes[slot][id];
+    if (code != -1 && table instanceof TupleBatch) {
+      final ReadableColumn values = table.asColumn(column);
+      if (values instanceof DictionaryStringColumn
+          && ((DictionaryStringColumn) values).getDictionary() == dictionaries[slot]) {
+        return ((DictionaryStringColumn) values).getCode(row) == code;
+      }
+    }
+    return table.getString(column, row).equals(keys.getString(keyColumn, id));
+  }
+}
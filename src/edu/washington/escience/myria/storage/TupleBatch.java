@@ -14,6 +14,7 @@ import com.google.common.collect.ImmutableList;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
 import edu.washington.escience.myria.column.PrefixColumn;
 import edu.washington.escience.myria.operator.network.partition.PartitionFunction;
 import edu.washington.escience.myria.proto.TransportProto.TransportMessage;
@@ -38,6 +39,10 @@ public class TupleBatch implements ReadableTable, Serializable {
   private final int numTuples;
   /** Whether this TB is an EOI TB. */
   private final boolean isEOI;
+  /** The estimated heap bytes of a String besides its characters: the headers of the String and its array. */
+  private static final int STRING_OVERHEAD_BYTES = 40;
+  /** The estimated heap bytes of a DateTime, its chronology being shared. */
+  private static final int DATETIME_BYTES = 32;
 
   /**
    * EOI TB constructor.
@@ -163,6 +168,32 @@ public class TupleBatch implements ReadableTable, Serializable {
     return new TupleBatch(schema, newColumns.build(), newNumTuples, isEOI);
   }
 
+  /**
+   * Like {@link #filter(BitSet)}, but with the retained rows given as a selection vector, so that a caller which
+   * already has the indices of the rows does not have to go through a BitSet.
+   *
+   * @param rows the rows to be retained, in increasing order. The array is kept by reference and must not be modified.
+   * @return a TupleBatch that contains only the filtered rows of the current dataset.
+   */
+  public final TupleBatch filter(final int[] rows) {
+    Preconditions.checkArgument(
+        rows.length <= numTuples(),
+        "Error: trying to filter a TupleBatch of length %s with %s rows",
+        numTuples(),
+        rows.length);
+
+    /* Shortcut: all current tuples are retained. Just return this. */
+    if (rows.length == numTuples) {
+      return this;
+    }
+
+    ImmutableList.Builder<Column<?>> newColumns = ImmutableList.builder();
+    for (Column<?> column : columns) {
+      newColumns.add(column.filter(rows));
+    }
+    return new TupleBatch(schema, newColumns.build(), rows.length, isEOI);
+  }
+
   /**
    * Return a new TupleBatch that contains only first <code>prefix</code> rows of this batch.
    *
@@ -239,17 +270,79 @@ public class TupleBatch implements ReadableTable, Serializable {
     return numTuples;
   }
 
+  /**
+   * Estimate the heap bytes held by the values of this batch from the types of its columns and the lengths of its
+   * strings. Columns that are views of larger columns are counted by the number of tuples of the batch, not by the
+   * size of the data they keep alive.
+   *
+   * @return the estimated bytes of the values of this batch.
+   */
+  public final long getEstimatedBytes() {
+    long ret = 0;
+    for (int column = 0; column < columns.size(); ++column) {
+      ret += estimatedBytes(columns.get(column), schema.getColumnType(column));
+    }
+    return ret;
+  }
+
+  /**
+   * @param column a column of this batch.
+   * @param type the type of the column.
+   * @return the estimated bytes of the first {@link #numTuples} values of the column.
+   */
+  private long estimatedBytes(final Column<?> column, final Type type) {
+    switch (type) {
+      case BOOLEAN_TYPE:
+        return (numTuples + Byte.SIZE - 1) / Byte.SIZE;
+      case INT_TYPE:
+      case FLOAT_TYPE:
+        return (long) numTuples * Integer.BYTES;
+      case LONG_TYPE:
+      case DOUBLE_TYPE:
+        return (long) numTuples * Long.BYTES;
+      case DATETIME_TYPE:
+        return (long) numTuples * (Long.BYTES + DATETIME_BYTES);
+      case STRING_TYPE:
+        if (column instanceof DictionaryStringColumn) {
+          /*
+           * The codes, plus each string of the dictionary that the values refer to, once. A string shared with other
+           * batches of the same dictionary is counted by each of them.
+           */
+          final DictionaryStringColumn dictionaryColumn = (DictionaryStringColumn) column;
+          long bytes = (long) numTuples * Integer.BYTES;
+          final BitSet counted = new BitSet(dictionaryColumn.getDictionarySize());
+          for (int row = 0; row < numTuples; ++row) {
+            final int code = dictionaryColumn.getCode(row);
+            if (!counted.get(code)) {
+              counted.set(code);
+              bytes +=
+                  STRING_OVERHEAD_BYTES
+                      + Character.BYTES * dictionaryColumn.decode(code).length();
+            }
+          }
+          return bytes;
+        }
+        long ret = (long) numTuples * Long.BYTES;
+        for (int row = 0; row < numTuples; ++row) {
+          ret += STRING_OVERHEAD_BYTES + Character.BYTES * column.getString(row).length();
+        }
+        return ret;
+    }
+    throw new IllegalStateException("Unknown type " + type);
+  }
+
   /**
    * Partition this TB using the partition function. The method is implemented by shallow copy of TupleBatches.
    *
-   * @return an array of TBs. The length of the array is the same as the number of partitions. If no tuple presents in a
-   *         partition, say the i'th partition, the i'th element in the result array is null.
+   * @return an array of TBs. The length of the array is the same as the number of outputs of the partition function. If
+   *         no tuple presents in an output, say the i'th output, the i'th element in the result array is null.
    * @param pf the partition function.
    */
   public final TupleBatch[] partition(final PartitionFunction pf) {
-    TupleBatch[] result = new TupleBatch[pf.numPartition()];
+    TupleBatch[] result = new TupleBatch[pf.numOutputs()];
     if (isEOI) {
-      Arrays.fill(result, this);
+      /* Once to every partition, not again to the sets of partitions. */
+      Arrays.fill(result, 0, pf.numPartition(), this);
       return result;
     }
 
@@ -13,6 +13,7 @@ import com.google.common.base.Preconditions;
 import edu.washington.escience.myria.MyriaConstants;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.StringDictionary;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.column.builder.WritableColumn;
@@ -44,6 +45,8 @@ public class TupleBatchBuffer implements AppendableTable {
   private long lastPoppedTime;
   /** the total number of tuples in readyTuples. */
   private int readyTuplesNum;
+  /** The dictionaries shared by the string columns of all the batches, or null if strings are not encoded. */
+  private final StringDictionary[] dictionaries;
 
   /**
    * Constructs an empty TupleBatchBuffer to hold tuples matching the specified Schema.
@@ -51,9 +54,25 @@ public class TupleBatchBuffer implements AppendableTable {
    * @param schema specified the columns of the emitted TupleBatch objects.
    */
   public TupleBatchBuffer(final Schema schema) {
+    this(schema, false);
+  }
+
+  /**
+   * Constructs an empty TupleBatchBuffer to hold tuples matching the specified Schema.
+   *
+   * @param schema specified the columns of the emitted TupleBatch objects.
+   * @param encodeStrings if true, string columns with few distinct values are emitted as
+   *          {@link edu.washington.escience.myria.column.DictionaryStringColumn}s sharing a dictionary.
+   */
+  public TupleBatchBuffer(final Schema schema, final boolean encodeStrings) {
     this.schema = Objects.requireNonNull(schema);
     readyTuples = new LinkedList<TupleBatch>();
-    currentBuildingColumns = ColumnFactory.allocateColumns(schema);
+    if (encodeStrings) {
+      dictionaries = ColumnFactory.allocateDictionaries(schema);
+    } else {
+      dictionaries = null;
+    }
+    currentBuildingColumns = allocateColumns();
     numColumns = schema.numColumns();
     columnsReady = new BitSet(numColumns);
     numColumnsReady = 0;
@@ -144,11 +163,21 @@ public class TupleBatchBuffer implements AppendableTable {
 
     /* Update the metadata and refresh the building state. */
     readyTuplesNum += buildingColumns.get(0).size();
-    currentBuildingColumns = ColumnFactory.allocateColumns(schema);
+    currentBuildingColumns = allocateColumns();
     currentInProgressTuples = 0;
     return true;
   }
 
+  /**
+   * @return new builders for the columns of a batch.
+   */
+  private List<ColumnBuilder<?>> allocateColumns() {
+    if (dictionaries == null) {
+      return ColumnFactory.allocateColumns(schema);
+    }
+    return ColumnFactory.allocateColumns(schema, dictionaries);
+  }
+
   /**
    * Return all tuples in this buffer. The data do not get removed.
    *
@@ -351,6 +380,59 @@ public class TupleBatchBuffer implements AppendableTable {
     }
   }
 
+  /**
+   * Append the joined tuples given by two vectors of matching rows, one from each side of a join. Tuple {@code i} is
+   * made of the {@code leftAnswerColumns} of row {@code leftRows[i]} of {@code left}, followed by the
+   * {@code rightAnswerColumns} of row {@code rightRows[i]} of {@code right}. The tuples are gathered column by column.
+   *
+   * @param left the left side of the join
+   * @param leftRows the row of the left side of each tuple
+   * @param leftAnswerColumns which columns of the left side to append
+   * @param right the right side of the join
+   * @param rightRows the row of the right side of each tuple
+   * @param rightAnswerColumns which columns of the right side to append
+   * @param numRows the number of tuples to append
+   */
+  public final void appendJoined(
+      final ReadableTable left,
+      final int[] leftRows,
+      final int[] leftAnswerColumns,
+      final ReadableTable right,
+      final int[] rightRows,
+      final int[] rightAnswerColumns,
+      final int numRows) {
+    Preconditions.checkState(
+        numColumnsReady == 0, "need to fill up one row of TupleBatchBuffer before starting new one");
+    final ReadableColumn[] leftColumns = new ReadableColumn[leftAnswerColumns.length];
+    for (int i = 0; i < leftAnswerColumns.length; ++i) {
+      leftColumns[i] = left.asColumn(leftAnswerColumns[i]);
+    }
+    final ReadableColumn[] rightColumns = new ReadableColumn[rightAnswerColumns.length];
+    for (int i = 0; i < rightAnswerColumns.length; ++i) {
+      rightColumns[i] = right.asColumn(rightAnswerColumns[i]);
+    }
+    int start = 0;
+    while (start < numRows) {
+      final int end = Math.min(numRows, start + TupleBatch.BATCH_SIZE - currentInProgressTuples);
+      for (int i = 0; i < leftColumns.length; ++i) {
+        TupleUtils.copyValues(leftColumns[i], leftRows, start, end, currentBuildingColumns.get(i));
+      }
+      for (int i = 0; i < rightColumns.length; ++i) {
+        TupleUtils.copyValues(
+            rightColumns[i],
+            rightRows,
+            start,
+            end,
+            currentBuildingColumns.get(i + leftColumns.length));
+      }
+      currentInProgressTuples += end - start;
+      if (currentInProgressTuples == TupleBatch.BATCH_SIZE) {
+        finishBatch();
+      }
+      start = end;
+    }
+  }
+
   /**
    * Append the specified value to the specified destination column in this TupleBatchBuffer from the source column.
    *
@@ -1,8 +1,11 @@
 package edu.washington.escience.myria.storage;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Preconditions;
 
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
 import edu.washington.escience.myria.column.builder.ColumnBuilder;
 
 /**
@@ -47,6 +50,61 @@ public final class TupleUtils {
     }
   }
 
+  /**
+   * Copy the values of the given rows from a {@link ReadableColumn} to a {@link ColumnBuilder}, in the order given. The
+   * type is dispatched once for all rows, so each copy is a typed get and append.
+   *
+   * @param from the source of the values
+   * @param fromRows the rows of the source values
+   * @param start the first index of {@code fromRows} to copy, inclusive
+   * @param end the last index of {@code fromRows} to copy, exclusive
+   * @param to the destination of the values
+   */
+  public static void copyValues(
+      final ReadableColumn from,
+      final int[] fromRows,
+      final int start,
+      final int end,
+      final ColumnBuilder<?> to) {
+    switch (from.getType()) {
+      case BOOLEAN_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendBoolean(from.getBoolean(fromRows[i]));
+        }
+        break;
+      case DATETIME_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendDateTime(from.getDateTime(fromRows[i]));
+        }
+        break;
+      case DOUBLE_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendDouble(from.getDouble(fromRows[i]));
+        }
+        break;
+      case FLOAT_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendFloat(from.getFloat(fromRows[i]));
+        }
+        break;
+      case INT_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendInt(from.getInt(fromRows[i]));
+        }
+        break;
+      case LONG_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendLong(from.getLong(fromRows[i]));
+        }
+        break;
+      case STRING_TYPE:
+        for (int i = start; i < end; ++i) {
+          to.appendString(from.getString(fromRows[i]));
+        }
+        break;
+    }
+  }
+
   /**
    * Copy the specified from a {@link ReadableColumn} to a {@link AppendableTable}.
    *
@@ -283,6 +341,30 @@ public final class TupleUtils {
       final ReadableTable table2,
       final int[] compareColumns2,
       final int row2) {
+    return tupleEquals(table1, compareColumns1, row1, table2, compareColumns2, row2, null);
+  }
+
+  /**
+   * Check if a tuple is equal to a key of a hash table, comparing strings by dictionary code when possible.
+   *
+   * @param table1 the table holding the probing tuple
+   * @param compareColumns1 the comparing list of columns of the probing tuple
+   * @param row1 row index of the probing tuple
+   * @param table2 the table holding the keys of the hash table
+   * @param compareColumns2 the key columns of {@code table2}
+   * @param row2 row index of the key
+   * @param codes2 the codes of the string keys of {@code table2}, or {@code null} to compare strings
+   *
+   * @return true if equals.
+   */
+  public static boolean tupleEquals(
+      final ReadableTable table1,
+      final int[] compareColumns1,
+      final int row1,
+      final ReadableTable table2,
+      final int[] compareColumns2,
+      final int row2,
+      @Nullable final StringKeyCodes codes2) {
     if (compareColumns1.length != compareColumns2.length) {
       return false;
     }
@@ -318,9 +400,10 @@ public final class TupleUtils {
           }
           break;
         case STRING_TYPE:
-          if (!table1
-              .getString(compareColumns1[i], row1)
-              .equals(table2.getString(compareColumns2[i], row2))) {
+          if (codes2 != null
+              ? !codes2.stringEquals(
+                  i, table1, compareColumns1[i], row1, table2, compareColumns2[i], row2)
+              : !stringEquals(table1, compareColumns1[i], row1, table2, compareColumns2[i], row2)) {
             return false;
           }
           break;
@@ -378,7 +461,7 @@ public final class TupleUtils {
           }
           break;
         case STRING_TYPE:
-          if (!table1.getString(i, row1).equals(table2.getString(i, row2))) {
+          if (!stringEquals(table1, i, row1, table2, i, row2)) {
             return false;
           }
           break;
@@ -440,7 +523,7 @@ public final class TupleUtils {
           }
           break;
         case STRING_TYPE:
-          if (!table1.getString(compareColumns[i], row1).equals(table2.getString(i, index))) {
+          if (!stringEquals(table1, compareColumns[i], row1, table2, i, index)) {
             return false;
           }
           break;
@@ -453,4 +536,37 @@ public final class TupleUtils {
     }
     return true;
   }
+
+  /**
+   * Compare two string values, by dictionary code if both are in batches whose columns share a dictionary.
+   *
+   * @param table1 the table holding the first value
+   * @param column1 the column of the first value
+   * @param row1 the row of the first value
+   * @param table2 the table holding the second value
+   * @param column2 the column of the second value
+   * @param row2 the row of the second value
+   * @return true if the values are equal
+   */
+  private static boolean stringEquals(
+      final ReadableTable table1,
+      final int column1,
+      final int row1,
+      final ReadableTable table2,
+      final int column2,
+      final int row2) {
+    /* Only batches expose their columns without allocating a view. */
+    if (table1 instanceof TupleBatch && table2 instanceof TupleBatch) {
+      final ReadableColumn values1 = table1.asColumn(column1);
+      final ReadableColumn values2 = table2.asColumn(column2);
+      if (values1 instanceof DictionaryStringColumn && values2 instanceof DictionaryStringColumn) {
+        final DictionaryStringColumn codes1 = (DictionaryStringColumn) values1;
+        final DictionaryStringColumn codes2 = (DictionaryStringColumn) values2;
+        if (codes1.sharesDictionary(codes2)) {
+          return codes1.getCode(row1) == codes2.getCode(row2);
+        }
+      }
+    }
+    return table1.getString(column1, row1).equals(table2.getString(column2, row2));
+  }
 }
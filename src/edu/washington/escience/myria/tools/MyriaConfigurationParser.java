@@ -204,6 +204,12 @@ public final class MyriaConfigurationParser {
             MyriaGlobalConfigurationModule.OPERATOR_INPUT_BUFFER_RECOVER_TRIGGER,
             getOptional(
                 parser, "deployment", MyriaSystemConfigKeys.OPERATOR_INPUT_BUFFER_RECOVER_TRIGGER));
+    conf =
+        setOptional(
+            conf,
+            MyriaGlobalConfigurationModule.OPERATOR_INPUT_BUFFER_BUDGET_BYTES,
+            getOptional(
+                parser, "deployment", MyriaSystemConfigKeys.OPERATOR_INPUT_BUFFER_BUDGET_BYTES));
     conf =
         setOptional(
             conf,
@@ -63,6 +63,8 @@ public final class MyriaGlobalConfigurationModule extends ConfigurationModuleBui
       new OptionalParameter<>();
   public static final OptionalParameter<Integer> OPERATOR_INPUT_BUFFER_RECOVER_TRIGGER =
       new OptionalParameter<>();
+  public static final OptionalParameter<Long> OPERATOR_INPUT_BUFFER_BUDGET_BYTES =
+      new OptionalParameter<>();
   public static final OptionalParameter<Integer> TCP_CONNECTION_TIMEOUT_MILLIS =
       new OptionalParameter<>();
   public static final OptionalParameter<Integer> TCP_RECEIVE_BUFFER_SIZE_BYTES =
@@ -108,6 +110,8 @@ public final class MyriaGlobalConfigurationModule extends ConfigurationModuleBui
           .bindNamedParameter(OperatorInputBufferCapacity.class, OPERATOR_INPUT_BUFFER_CAPACITY)
           .bindNamedParameter(
               OperatorInputBufferRecoverTrigger.class, OPERATOR_INPUT_BUFFER_RECOVER_TRIGGER)
+          .bindNamedParameter(
+              OperatorInputBufferBudgetBytes.class, OPERATOR_INPUT_BUFFER_BUDGET_BYTES)
           .bindNamedParameter(TcpConnectionTimeoutMillis.class, TCP_CONNECTION_TIMEOUT_MILLIS)
           .bindNamedParameter(TcpReceiveBufferSizeBytes.class, TCP_RECEIVE_BUFFER_SIZE_BYTES)
           .bindNamedParameter(TcpSendBufferSizeBytes.class, TCP_SEND_BUFFER_SIZE_BYTES)
@@ -201,6 +205,9 @@ public final class MyriaGlobalConfigurationModule extends ConfigurationModuleBui
   @NamedParameter(default_value = "80")
   public class OperatorInputBufferRecoverTrigger implements Name<Integer> {}
 
+  @NamedParameter(default_value = "0")
+  public class OperatorInputBufferBudgetBytes implements Name<Long> {}
+
   @NamedParameter(default_value = "3000")
   public class TcpConnectionTimeoutMillis implements Name<Integer> {}
 
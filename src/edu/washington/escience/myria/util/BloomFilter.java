@@ -0,0 +1,152 @@
+package edu.washington.escience.myria.util;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.storage.ReadableTable;
+
+/**
+ * A Bloom filter over composite keys, i.e., the values of some columns of a row.
+ *
+ * The {@code numHashes} bits of a key are picked by the hash family of {@link HashUtils#hashSubRowsFamily}, so keys of
+ * the same types hash the same wherever the filter is built or probed. Filters of the same dimensions can be merged
+ * and packed into a string, so filters built on different workers can be shipped and combined into a filter over the
+ * union of their keys.
+ */
+public final class BloomFilter {
+  /** The largest supported number of bits. */
+  public static final int MAX_BITS = 1 << 30;
+
+  /** The number of hash functions, i.e., of bits set per key. */
+  private final int numHashes;
+  /** The bits. */
+  private final long[] words;
+  /** The number of bits minus one. */
+  private final int mask;
+  /** Reused buffer holding the hash codes of the batch being added or probed. */
+  private int[] batchHashCodes;
+
+  /**
+   * @param numBits the number of bits, a power of two between 64 and {@link #MAX_BITS}.
+   * @param numHashes the number of hash functions, at least 1.
+   */
+  public BloomFilter(final int numBits, final int numHashes) {
+    Preconditions.checkArgument(
+        numBits >= Long.SIZE && numBits <= MAX_BITS && Integer.bitCount(numBits) == 1,
+        "number of bits must be a power of two between %s and %s, got %s",
+        Long.SIZE,
+        MAX_BITS,
+        numBits);
+    Preconditions.checkArgument(
+        numHashes >= 1, "number of hash functions must be at least 1, got %s", numHashes);
+    this.numHashes = numHashes;
+    words = new long[numBits / Long.SIZE];
+    mask = numBits - 1;
+  }
+
+  /**
+   * @return the number of bits.
+   */
+  public int numBits() {
+    return mask + 1;
+  }
+
+  /**
+   * @return the number of hash functions.
+   */
+  public int numHashes() {
+    return numHashes;
+  }
+
+  /**
+   * Add the keys of every row of the given table.
+   *
+   * @param table the table.
+   * @param columns the columns forming the key of a row.
+   */
+  public void addRows(final ReadableTable table, final int[] columns) {
+    batchHashCodes = HashUtils.hashSubRowsFamily(table, columns, numHashes, batchHashCodes);
+    final int numHashCodes = table.numTuples() * numHashes;
+    for (int i = 0; i < numHashCodes; ++i) {
+      final int bit = batchHashCodes[i] & mask;
+      words[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Test the keys of every row of the given table. A row whose key was added is always flagged; a row whose key was not
+   * added is flagged with a small probability.
+   *
+   * @param table the table.
+   * @param columns the columns forming the key of a row.
+   * @return the rows whose key may have been added.
+   */
+  public BitSet mightContainRows(final ReadableTable table, final int[] columns) {
+    final int numRows = table.numTuples();
+    batchHashCodes = HashUtils.hashSubRowsFamily(table, columns, numHashes, batchHashCodes);
+    final BitSet ret = new BitSet(numRows);
+    int offset = 0;
+    for (int row = 0; row < numRows; ++row) {
+      boolean found = true;
+      for (int i = 0; i < numHashes; ++i) {
+        final int bit = batchHashCodes[offset + i] & mask;
+        if ((words[bit >>> 6] & (1L << bit)) == 0) {
+          found = false;
+          break;
+        }
+      }
+      if (found) {
+        ret.set(row);
+      }
+      offset += numHashes;
+    }
+    return ret;
+  }
+
+  /**
+   * Merge another filter into this one, so that this one holds the keys of both.
+   *
+   * @param other the other filter, of the same dimensions.
+   */
+  public void merge(final BloomFilter other) {
+    Preconditions.checkArgument(
+        other.numBits() == numBits() && other.numHashes == numHashes,
+        "cannot merge a filter of %s bits and %s hash functions into one of %s bits and %s hash functions",
+        other.numBits(),
+        other.numHashes,
+        numBits(),
+        numHashes);
+    for (int i = 0; i < words.length; ++i) {
+      words[i] |= other.words[i];
+    }
+  }
+
+  /**
+   * @return the bits, in Base64 so that they can travel in a string column.
+   */
+  public String pack() {
+    final ByteBuffer bytes = ByteBuffer.allocate(words.length * Long.BYTES);
+    bytes.asLongBuffer().put(words);
+    return Base64.getEncoder().encodeToString(bytes.array());
+  }
+
+  /**
+   * @param numBits the number of bits of the packed filter.
+   * @param numHashes the number of hash functions of the packed filter.
+   * @param packedBits the bits, as returned by {@link #pack()}.
+   * @return the filter.
+   */
+  public static BloomFilter unpack(final int numBits, final int numHashes, final String packedBits) {
+    final BloomFilter ret = new BloomFilter(numBits, numHashes);
+    final ByteBuffer bytes = ByteBuffer.wrap(Base64.getDecoder().decode(packedBits));
+    Preconditions.checkArgument(
+        bytes.remaining() == ret.words.length * Long.BYTES,
+        "packed bits do not match a filter of %s bits",
+        numBits);
+    bytes.asLongBuffer().get(ret.words);
+    return ret;
+  }
+}
@@ -0,0 +1,559 @@
+package edu.washington.escience.myria.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
+
+/**
+ * The lightweight compressions of the columns of a {@link TupleBatchWireFormat} batch. Each column of each batch gets
+ * the encoding that makes it smallest, or none.
+ *
+ * Integer columns, i.e., ints, longs and datetimes, may be run-length encoded, which suits sorted and constant columns,
+ * bit-packed as offsets from their minimum, which suits values from a small range, or bit-packed as differences between
+ * consecutive values, which suits increasing values such as keys and timestamps. String columns may be dictionary
+ * encoded, which suits columns with few distinct values. All numbers are little endian.
+ */
+final class ColumnCompression {
+
+  /** The encodings of a column. */
+  enum Encoding {
+    /** The values one after the other, uncompressed. */
+    PLAIN,
+    /** The number of runs, the value of each run, then the length of each run. */
+    RUN_LENGTH,
+    /** The minimum value as a long, the width in bits, then each value minus the minimum, bit-packed. */
+    FRAME_OF_REFERENCE,
+    /** The first value as a long, the width in bits, then the zigzag-encoded difference with each previous value. */
+    DELTA,
+    /** The number of distinct strings, their offsets and UTF-8 bytes, the width in bits, then the bit-packed codes. */
+    DICTIONARY
+  }
+
+  /** Bit-packing wider values does not pay off, and keeps the packing arithmetic within a long. */
+  private static final int MAX_PACKED_WIDTH = 56;
+
+  /**
+   * A compressed column, ready to be written.
+   */
+  abstract static class Compressed {
+    /** The encoding of the column. */
+    private final Encoding encoding;
+    /** The length of the compressed column, in bytes. */
+    private final int length;
+
+    /**
+     * @param encoding the encoding of the column.
+     * @param length the length of the compressed column, in bytes.
+     */
+    Compressed(final Encoding encoding, final int length) {
+      this.encoding = encoding;
+      this.length = length;
+    }
+
+    /**
+     * @return the encoding of the column.
+     */
+    Encoding getEncoding() {
+      return encoding;
+    }
+
+    /**
+     * @return the length of the compressed column, in bytes.
+     */
+    int getLength() {
+      return length;
+    }
+
+    /**
+     * @param section where to write the compressed column, from position 0. Exactly {@link #getLength()} bytes long.
+     */
+    abstract void write(ByteBuffer section);
+  }
+
+  /**
+   * @param value a value, seen as unsigned.
+   * @return the number of bits needed to represent the value.
+   */
+  private static int width(final long value) {
+    return Long.SIZE - Long.numberOfLeadingZeros(value);
+  }
+
+  /**
+   * @param numValues a number of values.
+   * @param width the width of each value, in bits.
+   * @return the number of bytes the values take once bit-packed.
+   */
+  private static int packedLength(final int numValues, final int width) {
+    return (int) (((long) numValues * width + Byte.SIZE - 1) / Byte.SIZE);
+  }
+
+  /**
+   * @param value a signed value.
+   * @return the value with its sign in the lowest bit, so that values close to 0 have few significant bits.
+   */
+  private static long zigzag(final long value) {
+    return (value << 1) ^ (value >> (Long.SIZE - 1));
+  }
+
+  /**
+   * @param value a value encoded by {@link #zigzag(long)}.
+   * @return the signed value.
+   */
+  private static long unzigzag(final long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Bit-packs unsigned values, least significant bits first, one at a time.
+   */
+  private static final class BitPacker {
+    /** Where to write the packed values. */
+    private final ByteBuffer out;
+    /** The width of each value, at most {@link #MAX_PACKED_WIDTH}. */
+    private final int width;
+    /** The bits not written yet. */
+    private long pending;
+    /** The number of bits not written yet, less than a byte between values. */
+    private int numPending;
+
+    /**
+     * @param width the width of each value, at most {@link #MAX_PACKED_WIDTH}.
+     * @param out where to write the packed values.
+     */
+    BitPacker(final int width, final ByteBuffer out) {
+      this.width = width;
+      this.out = out;
+    }
+
+    /**
+     * @param value the next value, which fits in {@code width} bits.
+     */
+    void put(final long value) {
+      pending |= value << numPending;
+      numPending += width;
+      while (numPending >= Byte.SIZE) {
+        out.put((byte) pending);
+        pending >>>= Byte.SIZE;
+        numPending -= Byte.SIZE;
+      }
+    }
+
+    /**
+     * Write the last, partial byte.
+     */
+    void finish() {
+      if (numPending > 0) {
+        out.put((byte) pending);
+      }
+    }
+  }
+
+  /**
+   * Bit-packs unsigned values, least significant bits first.
+   *
+   * @param values the values, each of which fits in {@code width} bits.
+   * @param width the width of each value, at most {@link #MAX_PACKED_WIDTH}.
+   * @param out where to write the packed values.
+   */
+  private static void pack(final long[] values, final int width, final ByteBuffer out) {
+    if (width == 0) {
+      return;
+    }
+    final BitPacker packer = new BitPacker(width, out);
+    for (final long value : values) {
+      packer.put(value);
+    }
+    packer.finish();
+  }
+
+  /**
+   * @param in where to read the packed values from.
+   * @param width the width of each value, at most {@link #MAX_PACKED_WIDTH}.
+   * @param values where to put the values.
+   */
+  private static void unpack(final ByteBuffer in, final int width, final long[] values) {
+    if (width == 0) {
+      return;
+    }
+    final long mask = (1L << width) - 1;
+    long pending = 0;
+    int numPending = 0;
+    for (int i = 0; i < values.length; ++i) {
+      while (numPending < width) {
+        pending |= (in.get() & 0xFFL) << numPending;
+        numPending += Byte.SIZE;
+      }
+      values[i] = pending & mask;
+      pending >>>= width;
+      numPending -= width;
+    }
+  }
+
+  /**
+   * The values of an integer column, read in place from the int or long array backing the column.
+   */
+  private abstract static class IntegerValues {
+    /** The number of values. */
+    private final int size;
+
+    /**
+     * @param size the number of values.
+     */
+    IntegerValues(final int size) {
+      this.size = size;
+    }
+
+    /**
+     * @return the number of values.
+     */
+    final int size() {
+      return size;
+    }
+
+    /**
+     * @param index the index of a value.
+     * @return the value.
+     */
+    abstract long get(int index);
+  }
+
+  /**
+   * @param values the values of an integer column.
+   * @param valueBytes the size of a plain value, in bytes.
+   * @return the smallest compression of the column, or {@code null} if it is not smaller uncompressed.
+   */
+  static Compressed compressIntegers(final long[] values, final int valueBytes) {
+    return compressIntegers(
+        new IntegerValues(values.length) {
+          @Override
+          long get(final int index) {
+            return values[index];
+          }
+        },
+        valueBytes);
+  }
+
+  /**
+   * @param values the values of an int column, possibly followed by unused slots.
+   * @param numValues the number of values.
+   * @return the smallest compression of the column, or {@code null} if it is not smaller uncompressed.
+   */
+  static Compressed compressInts(final int[] values, final int numValues) {
+    return compressIntegers(
+        new IntegerValues(numValues) {
+          @Override
+          long get(final int index) {
+            return values[index];
+          }
+        },
+        Integer.BYTES);
+  }
+
+  /**
+   * @param values the values of a long column, possibly followed by unused slots.
+   * @param numValues the number of values.
+   * @return the smallest compression of the column, or {@code null} if it is not smaller uncompressed.
+   */
+  static Compressed compressLongs(final long[] values, final int numValues) {
+    return compressIntegers(
+        new IntegerValues(numValues) {
+          @Override
+          long get(final int index) {
+            return values[index];
+          }
+        },
+        Long.BYTES);
+  }
+
+  /**
+   * @param values the values of an integer column.
+   * @param valueBytes the size of a plain value, in bytes.
+   * @return the smallest compression of the column, or {@code null} if it is not smaller uncompressed.
+   */
+  private static Compressed compressIntegers(final IntegerValues values, final int valueBytes) {
+    final int numValues = values.size();
+    if (numValues == 0) {
+      return null;
+    }
+    long previous = values.get(0);
+    long min = previous;
+    long max = previous;
+    long maxDelta = 0;
+    int numRuns = 1;
+    for (int i = 1; i < numValues; ++i) {
+      final long value = values.get(i);
+      if (value != previous) {
+        ++numRuns;
+      }
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      maxDelta |= zigzag(value - previous);
+      previous = value;
+    }
+    /* The range may overflow: it is then wide. */
+    final int rangeWidth = max - min < 0 ? Long.SIZE : width(max - min);
+    final int deltaWidth = width(maxDelta);
+
+    Compressed best = null;
+    int bestLength = numValues * valueBytes;
+    final int runLengthLength = Integer.BYTES + numRuns * (valueBytes + Integer.BYTES);
+    if (runLengthLength < bestLength) {
+      best = runLength(values, valueBytes, numRuns, runLengthLength);
+      bestLength = runLengthLength;
+    }
+    final int forLength = Long.BYTES + Byte.BYTES + packedLength(numValues, rangeWidth);
+    if (rangeWidth <= MAX_PACKED_WIDTH && forLength < bestLength) {
+      best = frameOfReference(values, min, rangeWidth, forLength);
+      bestLength = forLength;
+    }
+    final int deltaLength = Long.BYTES + Byte.BYTES + packedLength(numValues - 1, deltaWidth);
+    if (deltaWidth <= MAX_PACKED_WIDTH && deltaLength < bestLength) {
+      best = delta(values, deltaWidth, deltaLength);
+    }
+    return best;
+  }
+
+  /**
+   * @param values the values of an integer column.
+   * @param valueBytes the size of a value, in bytes.
+   * @param numRuns the number of runs of equal values.
+   * @param length the length of the compressed column, in bytes.
+   * @return the run-length encoded column.
+   */
+  private static Compressed runLength(
+      final IntegerValues values, final int valueBytes, final int numRuns, final int length) {
+    return new Compressed(Encoding.RUN_LENGTH, length) {
+      @Override
+      void write(final ByteBuffer section) {
+        section.putInt(numRuns);
+        final ByteBuffer runLengthBytes = section.duplicate();
+        runLengthBytes.position(length - numRuns * Integer.BYTES);
+        final IntBuffer runLengths = runLengthBytes.slice().order(section.order()).asIntBuffer();
+        final int numValues = values.size();
+        int runStart = 0;
+        long runValue = values.get(0);
+        for (int i = 1; i <= numValues; ++i) {
+          final long value = i == numValues ? 0 : values.get(i);
+          if (i == numValues || value != runValue) {
+            if (valueBytes == Integer.BYTES) {
+              section.putInt((int) runValue);
+            } else {
+              section.putLong(runValue);
+            }
+            runLengths.put(i - runStart);
+            runStart = i;
+            runValue = value;
+          }
+        }
+        section.position(length);
+      }
+    };
+  }
+
+  /**
+   * @param values the values of an integer column.
+   * @param min the minimum value.
+   * @param width the width of the largest value minus the minimum, in bits.
+   * @param length the length of the compressed column, in bytes.
+   * @return the column packed as offsets from its minimum.
+   */
+  private static Compressed frameOfReference(
+      final IntegerValues values, final long min, final int width, final int length) {
+    return new Compressed(Encoding.FRAME_OF_REFERENCE, length) {
+      @Override
+      void write(final ByteBuffer section) {
+        section.putLong(min);
+        section.put((byte) width);
+        if (width == 0) {
+          return;
+        }
+        final BitPacker packer = new BitPacker(width, section);
+        for (int i = 0; i < values.size(); ++i) {
+          packer.put(values.get(i) - min);
+        }
+        packer.finish();
+      }
+    };
+  }
+
+  /**
+   * @param values the values of an integer column.
+   * @param width the width of the largest zigzag-encoded difference between consecutive values, in bits.
+   * @param length the length of the compressed column, in bytes.
+   * @return the column packed as differences between consecutive values.
+   */
+  private static Compressed delta(final IntegerValues values, final int width, final int length) {
+    return new Compressed(Encoding.DELTA, length) {
+      @Override
+      void write(final ByteBuffer section) {
+        long previous = values.get(0);
+        section.putLong(previous);
+        section.put((byte) width);
+        if (width == 0) {
+          return;
+        }
+        final BitPacker packer = new BitPacker(width, section);
+        for (int i = 1; i < values.size(); ++i) {
+          final long value = values.get(i);
+          packer.put(zigzag(value - previous));
+          previous = value;
+        }
+        packer.finish();
+      }
+    };
+  }
+
+  /**
+   * @param encoding the encoding of the column, other than {@link Encoding#PLAIN}.
+   * @param section the compressed column, from position 0.
+   * @param numValues the number of values of the column.
+   * @param valueBytes the size of a plain value, in bytes.
+   * @return the values of the integer column.
+   */
+  static long[] decompressIntegers(
+      final Encoding encoding,
+      final ByteBuffer section,
+      final int numValues,
+      final int valueBytes) {
+    final long[] values = new long[numValues];
+    switch (encoding) {
+      case RUN_LENGTH:
+        {
+          final int numRuns = section.getInt();
+          final int runLengthsStart = section.position() + numRuns * valueBytes;
+          int start = 0;
+          for (int run = 0; run < numRuns; ++run) {
+            final long value = valueBytes == Integer.BYTES ? section.getInt() : section.getLong();
+            final int runLength = section.getInt(runLengthsStart + run * Integer.BYTES);
+            for (int i = start; i < start + runLength; ++i) {
+              values[i] = value;
+            }
+            start += runLength;
+          }
+          return values;
+        }
+      case FRAME_OF_REFERENCE:
+        {
+          final long min = section.getLong();
+          unpack(section, section.get(), values);
+          for (int i = 0; i < numValues; ++i) {
+            values[i] += min;
+          }
+          return values;
+        }
+      case DELTA:
+        {
+          if (numValues == 0) {
+            return values;
+          }
+          final long first = section.getLong();
+          final int width = section.get();
+          final long[] deltas = new long[numValues - 1];
+          unpack(section, width, deltas);
+          values[0] = first;
+          for (int i = 1; i < numValues; ++i) {
+            values[i] = values[i - 1] + unzigzag(deltas[i - 1]);
+          }
+          return values;
+        }
+      default:
+        throw new IllegalArgumentException("Not an encoding of integers: " + encoding);
+    }
+  }
+
+  /**
+   * @param strings the values of a string column.
+   * @param encoded the UTF-8 encoding of each value.
+   * @param plainLength the length of the uncompressed column, in bytes.
+   * @return the dictionary encoded column, or {@code null} if it is not smaller uncompressed.
+   */
+  static Compressed compressStrings(
+      final String[] strings, final byte[][] encoded, final int plainLength) {
+    final Map<String, Integer> codes = new HashMap<>();
+    final long[] rowCodes = new long[strings.length];
+    int dictionaryBytes = 0;
+    for (int row = 0; row < strings.length; ++row) {
+      Integer code = codes.get(strings[row]);
+      if (code == null) {
+        code = codes.size();
+        codes.put(strings[row], code);
+        dictionaryBytes += encoded[row].length;
+        /* Each distinct string costs at least an offset: give up once the dictionary alone is too large. */
+        if (dictionaryBytes + codes.size() * Integer.BYTES >= plainLength) {
+          return null;
+        }
+      }
+      rowCodes[row] = code;
+    }
+    final int numDistinct = codes.size();
+    final int width = width(numDistinct - 1);
+    final int length =
+        Integer.BYTES
+            + (numDistinct + 1) * Integer.BYTES
+            + dictionaryBytes
+            + Byte.BYTES
+            + packedLength(strings.length, width);
+    if (length >= plainLength) {
+      return null;
+    }
+    return new Compressed(Encoding.DICTIONARY, length) {
+      @Override
+      void write(final ByteBuffer section) {
+        section.putInt(numDistinct);
+        final byte[][] dictionary = new byte[numDistinct][];
+        for (int row = 0; row < strings.length; ++row) {
+          dictionary[(int) rowCodes[row]] = encoded[row];
+        }
+        int offset = 0;
+        for (final byte[] string : dictionary) {
+          section.putInt(offset);
+          offset += string.length;
+        }
+        section.putInt(offset);
+        for (final byte[] string : dictionary) {
+          section.put(string);
+        }
+        section.put((byte) width);
+        pack(rowCodes, width, section);
+      }
+    };
+  }
+
+  /**
+   * @param section a dictionary encoded column, from position 0.
+   * @param numValues the number of values of the column.
+   * @return the string column, coded against the decoded dictionary of the batch.
+   */
+  static DictionaryStringColumn decompressStrings(final ByteBuffer section, final int numValues) {
+    final int numDistinct = section.getInt();
+    final int dataStart = section.position() + (numDistinct + 1) * Integer.BYTES;
+    final String[] dictionary = new String[numDistinct];
+    int start = section.getInt();
+    for (int code = 0; code < numDistinct; ++code) {
+      final int end = section.getInt();
+      final byte[] bytes = new byte[end - start];
+      final ByteBuffer data = section.duplicate();
+      data.position(dataStart + start);
+      data.get(bytes);
+      dictionary[code] = new String(bytes, StandardCharsets.UTF_8);
+      start = end;
+    }
+    section.position(dataStart + start);
+    final int width = section.get();
+    final long[] codes = new long[numValues];
+    unpack(section, width, codes);
+    final int[] values = new int[numValues];
+    for (int row = 0; row < numValues; ++row) {
+      values[row] = (int) codes[row];
+    }
+    return new DictionaryStringColumn(new StringDictionary(dictionary), values, numValues);
+  }
+
+  /** Utility class. */
+  private ColumnCompression() {}
+}
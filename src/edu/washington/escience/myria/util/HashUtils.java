@@ -2,6 +2,8 @@ package edu.washington.escience.myria.util;
 
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Preconditions;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
@@ -96,6 +98,131 @@ public final class HashUtils {
    */
   public static final int NUM_OF_HASHFUNCTIONS = 26;
 
+  /**
+   * Per-thread column-at-a-time hasher used by the batch methods, reused across calls so that hashing a batch does not
+   * allocate.
+   */
+  private static final ThreadLocal<Murmur3BatchHasher> BATCH_HASHER =
+      new ThreadLocal<Murmur3BatchHasher>() {
+        @Override
+        protected Murmur3BatchHasher initialValue() {
+          return new Murmur3BatchHasher();
+        }
+      };
+
+  /**
+   * Compute the hash code of every row of the given table, in column order. The result of row {@code i} is the same as
+   * {@link #hashRow(ReadableTable, int)}.
+   *
+   * @param table the table containing the values
+   * @param result the array to store the hash codes in. Reused if it can hold {@code table.numTuples()} values.
+   * @return the array of hash codes, of length at least {@code table.numTuples()}
+   */
+  public static int[] hashRows(final ReadableTable table, @Nullable final int[] result) {
+    Objects.requireNonNull(table, "table");
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(table.numTuples(), SEEDS[0]);
+    for (int i = 0; i < table.numColumns(); ++i) {
+      hasher.addColumn(table.asColumn(i));
+    }
+    return collectInts(hasher, table.numTuples(), result);
+  }
+
+  /**
+   * Compute the hash code of the specified columns in every row of the given table. The result of row {@code i} is the
+   * same as {@link #hashSubRow(ReadableTable, int[], int)}.
+   *
+   * @param table the table containing the values to be hashed
+   * @param hashColumns the columns to be hashed. Order matters
+   * @param result the array to store the hash codes in. Reused if it can hold {@code table.numTuples()} values.
+   * @return the array of hash codes, of length at least {@code table.numTuples()}
+   */
+  public static int[] hashSubRows(
+      final ReadableTable table, final int[] hashColumns, @Nullable final int[] result) {
+    Objects.requireNonNull(table, "table");
+    Objects.requireNonNull(hashColumns, "hashColumns");
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(table.numTuples(), SEEDS[0]);
+    for (int column : hashColumns) {
+      hasher.addColumn(table.asColumn(column));
+    }
+    return collectInts(hasher, table.numTuples(), result);
+  }
+
+  /**
+   * Compute a 64-bit hash code of the specified columns in every row of the given table. The low 32 bits of the result
+   * of row {@code i} are the same as {@link #hashSubRow(ReadableTable, int[], int)}.
+   *
+   * @param table the table containing the values to be hashed
+   * @param hashColumns the columns to be hashed. Order matters
+   * @param result the array to store the hash codes in. Reused if it can hold {@code table.numTuples()} values.
+   * @return the array of hash codes, of length at least {@code table.numTuples()}
+   */
+  public static long[] hashSubRowsLong(
+      final ReadableTable table, final int[] hashColumns, @Nullable final long[] result) {
+    Objects.requireNonNull(table, "table");
+    Objects.requireNonNull(hashColumns, "hashColumns");
+    final int numRows = table.numTuples();
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(numRows, SEEDS[0]);
+    for (int column : hashColumns) {
+      hasher.addColumn(table.asColumn(column));
+    }
+    hasher.finish();
+    long[] ret = result;
+    if (ret == null || ret.length < numRows) {
+      ret = new long[numRows];
+    }
+    for (int row = 0; row < numRows; ++row) {
+      ret[row] = hasher.low(row);
+    }
+    return ret;
+  }
+
+  /**
+   * Compute the hash code of the value in the specified column of every row of the given table with specific hashcode.
+   * The result of row {@code i} is the same as {@link #hashValue(ReadableTable, int, int, int)}.
+   *
+   * @param table the table containing the values to be hashed
+   * @param column the column containing the values to be hashed
+   * @param seedIndex the index of the chosen hashcode
+   * @param result the array to store the hash codes in. Reused if it can hold {@code table.numTuples()} values.
+   * @return the array of hash codes, of length at least {@code table.numTuples()}
+   */
+  public static int[] hashValues(
+      final ReadableTable table,
+      final int column,
+      final int seedIndex,
+      @Nullable final int[] result) {
+    Objects.requireNonNull(table, "table");
+    Preconditions.checkPositionIndex(seedIndex, NUM_OF_HASHFUNCTIONS);
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(table.numTuples(), SEEDS[seedIndex]);
+    hasher.addColumn(table.asColumn(column));
+    return collectInts(hasher, table.numTuples(), result);
+  }
+
+  /**
+   * Finish the given hasher and copy the int hash codes of its rows out.
+   *
+   * @param hasher the hasher, fed with all values
+   * @param numRows the number of rows
+   * @param result the array to store the hash codes in, or {@code null}
+   * @return {@code result} if it can hold {@code numRows} values, otherwise a new array
+   */
+  private static int[] collectInts(
+      final Murmur3BatchHasher hasher, final int numRows, @Nullable final int[] result) {
+    hasher.finish();
+    int[] ret = result;
+    if (ret == null || ret.length < numRows) {
+      ret = new int[numRows];
+    }
+    for (int row = 0; row < numRows; ++row) {
+      ret[row] = hasher.asInt(row);
+    }
+    return ret;
+  }
+
   /**
    * Compute the hash code of all the values in the specified row, in column order.
    *
@@ -111,25 +238,51 @@ public final class HashUtils {
     return hasher.hash().asInt();
   }
 
+  /**
+   * Compute a family of hash codes of the value in the specified column and row of the given table.
+   *
+   * @param table the table containing the values to be hashed
+   * @param column the column containing the value to be hashed
+   * @param row the row containing the value to be hashed
+   * @param requestedHashCount the number of hash codes in the family
+   * @return the family of hash codes, see {@link #hashFamily(Murmur3BatchHasher, int[], int)}
+   */
+  public static int[] hashValueFamily(
+      final ReadableTable table, final int column, final int row, final int requestedHashCount) {
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(1, SEEDS[0]);
+    hasher.addValue(0, table.asColumn(column), row);
+    return hashFamily(hasher, new int[requestedHashCount], requestedHashCount);
+  }
+
+  /**
+   * Compute a family of hash codes of the given value.
+   *
+   * @param key the value to be hashed
+   * @param type the type of the value
+   * @param requestedHashCount the number of hash codes in the family
+   * @return the family of hash codes, see {@link #hashFamily(Murmur3BatchHasher, int[], int)}
+   */
   public static int[] hashValueFamily(
-      final ReadableTable table, final int column, final int row, int requestedHashCount) {
-    int[] result = new int[requestedHashCount];
-    for (int i = 0; i < requestedHashCount; i++) {
-      Hasher hasher = HASH_FUNCTIONS[i].newHasher();
-      addValue(hasher, table, column, row);
-      result[i] = hasher.hash().asInt();
-    }
-    return result;
+      final Object key, final Type type, final int requestedHashCount) {
+    return hashValueFamily(key, type, new int[requestedHashCount], requestedHashCount);
   }
 
-  public static int[] hashValueFamily(final Object key, final Type type, int requestedHashCount) {
-    int[] result = new int[requestedHashCount];
-    for (int i = 0; i < requestedHashCount; i++) {
-      Hasher hasher = HASH_FUNCTIONS[i].newHasher();
-      addValue(hasher, type, key);
-      result[i] = hasher.hash().asInt();
-    }
-    return result;
+  /**
+   * Compute a family of hash codes of the given value into a caller-supplied buffer.
+   *
+   * @param key the value to be hashed
+   * @param type the type of the value
+   * @param result the buffer the hash codes are written to, of length at least {@code requestedHashCount}
+   * @param requestedHashCount the number of hash codes in the family
+   * @return {@code result}
+   */
+  public static int[] hashValueFamily(
+      final Object key, final Type type, final int[] result, final int requestedHashCount) {
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(1, SEEDS[0]);
+    hasher.addValue(0, type, key);
+    return hashFamily(hasher, result, requestedHashCount);
   }
 
   /**
@@ -164,29 +317,124 @@ public final class HashUtils {
   }
 
   /**
-   * Compute the hash code of the specified columns in the specified row of the given table.
+   * Compute a family of hash codes of the specified columns in the specified row of the given table.
    *
    * @param table       the table containing the values to be hashed
    * @param hashColumns the columns to be hashed. Order matters
    * @param row         the row containing the values to be hashed
-   * @return the hash code of the specified columns in the specified row of the given table
+   * @param requestedHashCount the number of hash codes in the family
+   * @return the family of hash codes, see {@link #hashFamily(Murmur3BatchHasher, int[], int)}
    */
-  public static int[] hashSubRowFamily(final ReadableTable table, final int[] hashColumns, final int row, final int requestedHashCount) {
+  public static int[] hashSubRowFamily(
+      final ReadableTable table,
+      final int[] hashColumns,
+      final int row,
+      final int requestedHashCount) {
+    return hashSubRowFamily(
+        table, hashColumns, row, new int[requestedHashCount], requestedHashCount);
+  }
+
+  /**
+   * Compute a family of hash codes of the specified columns in the specified row of the given table into a
+   * caller-supplied buffer.
+   *
+   * @param table       the table containing the values to be hashed
+   * @param hashColumns the columns to be hashed. Order matters
+   * @param row         the row containing the values to be hashed
+   * @param result the buffer the hash codes are written to, of length at least {@code requestedHashCount}
+   * @param requestedHashCount the number of hash codes in the family
+   * @return {@code result}
+   */
+  public static int[] hashSubRowFamily(
+      final ReadableTable table,
+      final int[] hashColumns,
+      final int row,
+      final int[] result,
+      final int requestedHashCount) {
     Objects.requireNonNull(table, "table");
     Objects.requireNonNull(hashColumns, "hashColumns");
-    int[] result = new int[requestedHashCount];
-    for(int i = 0; i < requestedHashCount; i++)
-    {
-      Hasher hasher = HASH_FUNCTIONS[i].newHasher();
-      for (int column : hashColumns)
-      {
-        addValue(hasher, table, column, row);
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(1, SEEDS[0]);
+    for (int column : hashColumns) {
+      hasher.addValue(0, table.asColumn(column), row);
+    }
+    return hashFamily(hasher, result, requestedHashCount);
+  }
+
+  /**
+   * Compute a family of hash codes of the specified columns in every row of the given table. The family of row
+   * {@code i} is the same as {@link #hashSubRowFamily(ReadableTable, int[], int, int)} and is stored, row-major, in
+   * {@code result[i * requestedHashCount]} to {@code result[(i + 1) * requestedHashCount - 1]}.
+   *
+   * @param table the table containing the values to be hashed
+   * @param hashColumns the columns to be hashed. Order matters
+   * @param requestedHashCount the number of hash codes in the family
+   * @param result the array to store the hash codes in. Reused if it can hold
+   *          {@code table.numTuples() * requestedHashCount} values.
+   * @return the array of hash codes
+   */
+  public static int[] hashSubRowsFamily(
+      final ReadableTable table,
+      final int[] hashColumns,
+      final int requestedHashCount,
+      @Nullable final int[] result) {
+    Objects.requireNonNull(table, "table");
+    Objects.requireNonNull(hashColumns, "hashColumns");
+    final int numRows = table.numTuples();
+    Murmur3BatchHasher hasher = BATCH_HASHER.get();
+    hasher.reset(numRows, SEEDS[0]);
+    for (int column : hashColumns) {
+      hasher.addColumn(table.asColumn(column));
+    }
+    hasher.finish();
+    int[] ret = result;
+    if (ret == null || ret.length < numRows * requestedHashCount) {
+      ret = new int[numRows * requestedHashCount];
+    }
+    int offset = 0;
+    for (int row = 0; row < numRows; ++row) {
+      final long low = hasher.low(row);
+      final long high = hasher.high(row);
+      for (int i = 0; i < requestedHashCount; ++i) {
+        ret[offset++] = familyMember(low, high, i);
       }
-      result[i] = hasher.hash().asInt();
+    }
+    return ret;
+  }
+
+  /**
+   * Derive a family of hash codes from a single 128-bit digest using Kirsch-Mitzenmacher double hashing, i.e., the
+   * {@code i}-th hash code is {@code h1 + i * h2} where {@code h1} and {@code h2} are the two halves of the digest. This
+   * costs one murmur3 pass per value no matter how many hash codes are requested, and keeps the pairwise independence
+   * that count-min sketches need.
+   *
+   * @param hasher the hasher holding the digest of a single value in its first row, not yet finished
+   * @param result the buffer the hash codes are written to, of length at least {@code requestedHashCount}
+   * @param requestedHashCount the number of hash codes in the family
+   * @return {@code result}
+   */
+  private static int[] hashFamily(
+      final Murmur3BatchHasher hasher, final int[] result, final int requestedHashCount) {
+    hasher.finish();
+    final long low = hasher.low(0);
+    final long high = hasher.high(0);
+    for (int i = 0; i < requestedHashCount; ++i) {
+      result[i] = familyMember(low, high, i);
     }
     return result;
   }
 
+  /**
+   * @param low the low 64 bits of a 128-bit digest
+   * @param high the high 64 bits of a 128-bit digest
+   * @param index the index of the hash code in the family
+   * @return the {@code index}-th hash code of the family derived from the digest
+   */
+  private static int familyMember(final long low, final long high, final int index) {
+    final long combined = low + index * high;
+    return (int) (combined ^ (combined >>> 32));
+  }
+
   /**
    * Compute the hash code of the specified columns in the specified row of the given table.
    *
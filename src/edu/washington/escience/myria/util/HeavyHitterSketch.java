@@ -0,0 +1,126 @@
+package edu.washington.escience.myria.util;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.gs.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+/**
+ * A Misra-Gries heavy hitter sketch over a stream of 64-bit keys, e.g. the hash codes of the partition keys of a
+ * shuffle.
+ *
+ * The sketch keeps at most {@code capacity} counters. The counter of a key never overestimates its number of
+ * occurrences and underestimates it by at most {@code total / (capacity + 1)}, so every key that makes up more than
+ * {@code 1 / (capacity + 1)} of the stream has a counter. Adding a key costs amortized constant time.
+ *
+ * Instances are not thread-safe.
+ */
+public final class HeavyHitterSketch {
+  /** The maximum number of counters. */
+  private final int capacity;
+  /** The keys with a counter, in {@code [0, size)}. */
+  private final long[] keys;
+  /** The counters, in the same order as {@link #keys}. */
+  private final long[] counts;
+  /** The position of each key in {@link #keys}. */
+  private final LongIntHashMap positions;
+  /** The number of counters. */
+  private int size;
+  /** The number of keys added. */
+  private long total;
+
+  /**
+   * @param capacity the maximum number of counters.
+   */
+  public HeavyHitterSketch(final int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be > 0");
+    this.capacity = capacity;
+    keys = new long[capacity];
+    counts = new long[capacity];
+    positions = new LongIntHashMap(capacity);
+  }
+
+  /**
+   * @param key a key of the stream.
+   */
+  public void add(final long key) {
+    ++total;
+    final int position = positions.getIfAbsent(key, -1);
+    if (position != -1) {
+      ++counts[position];
+    } else if (size < capacity) {
+      keys[size] = key;
+      counts[size] = 1;
+      positions.put(key, size++);
+    } else {
+      decrementAll();
+    }
+  }
+
+  /**
+   * A new key found no free counter: it and every counter are decremented, and counters that drop to 0 are freed.
+   */
+  private void decrementAll() {
+    int kept = 0;
+    for (int i = 0; i < size; ++i) {
+      if (counts[i] > 1) {
+        keys[kept] = keys[i];
+        counts[kept] = counts[i] - 1;
+        ++kept;
+      }
+    }
+    size = kept;
+    positions.clear();
+    for (int i = 0; i < size; ++i) {
+      positions.put(keys[i], i);
+    }
+  }
+
+  /**
+   * @param key a key.
+   * @return a lower bound of the number of times the key was added.
+   */
+  public long count(final long key) {
+    final int position = positions.getIfAbsent(key, -1);
+    if (position == -1) {
+      return 0;
+    }
+    return counts[position];
+  }
+
+  /**
+   * @return the number of keys added.
+   */
+  public long total() {
+    return total;
+  }
+
+  /**
+   * @param key a key.
+   * @param fraction a fraction of the stream, between 0 and 1.
+   * @return true if the key is known to make up at least {@code fraction} of the stream.
+   */
+  public boolean isHeavy(final long key, final double fraction) {
+    return total > 0 && count(key) >= fraction * total;
+  }
+
+  /**
+   * @param fraction a fraction of the stream, between 0 and 1.
+   * @return the keys known to make up at least {@code fraction} of the stream, most frequent first.
+   */
+  public long[] heavyHitters(final double fraction) {
+    final long[][] candidates = new long[size][];
+    int numHeavy = 0;
+    for (int i = 0; i < size; ++i) {
+      if (total > 0 && counts[i] >= fraction * total) {
+        candidates[numHeavy++] = new long[] {counts[i], keys[i]};
+      }
+    }
+    Arrays.sort(candidates, 0, numHeavy, (a, b) -> Long.compare(b[0], a[0]));
+    final long[] ret = new long[numHeavy];
+    for (int i = 0; i < numHeavy; ++i) {
+      ret[i] = candidates[i][1];
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,139 @@
+package edu.washington.escience.myria.util;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.storage.ReadableTable;
+
+/**
+ * A HyperLogLog cardinality estimator (Flajolet et al., 2007) over 64-bit hash codes.
+ *
+ * The estimator has {@code 2^precision} one-byte registers and a relative standard error of about
+ * {@code 1.04 / sqrt(2^precision)}, independent of the number of values offered. Estimators of the same precision can be
+ * merged, so estimates computed on different workers can be combined into an estimate over the union of their inputs.
+ */
+public final class HyperLogLog {
+  /** The smallest supported precision. */
+  public static final int MIN_PRECISION = 4;
+  /** The largest supported precision. */
+  public static final int MAX_PRECISION = 18;
+  /** The default precision: 4096 registers, about 1.6% standard error. */
+  public static final int DEFAULT_PRECISION = 12;
+
+  /** The number of hash bits used to pick a register. */
+  private final int precision;
+  /** For each register, the largest rank seen. */
+  private final byte[] registers;
+  /** Reused buffer holding the hash codes of the batch being offered. */
+  private long[] batchHashCodes;
+
+  /** Constructs an estimator with {@link #DEFAULT_PRECISION}. */
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * @param precision the number of hash bits used to pick a register, between {@link #MIN_PRECISION} and
+   *          {@link #MAX_PRECISION}.
+   */
+  public HyperLogLog(final int precision) {
+    Preconditions.checkArgument(
+        precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+        "precision must be between %s and %s, got %s",
+        MIN_PRECISION,
+        MAX_PRECISION,
+        precision);
+    this.precision = precision;
+    registers = new byte[1 << precision];
+  }
+
+  /**
+   * Offer one value, given by its 64-bit hash code.
+   *
+   * @param hash the hash code of the value.
+   */
+  public void offer(final long hash) {
+    final int index = (int) (hash >>> (Long.SIZE - precision));
+    /* The sentinel bit caps the rank when all remaining bits are zero. */
+    final long remaining = (hash << precision) | (1L << (precision - 1));
+    final byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  /**
+   * Offer the values of the specified columns of every row of the given table.
+   *
+   * @param table the table.
+   * @param columns the columns forming the value of a row.
+   */
+  public void offerRows(final ReadableTable table, final int[] columns) {
+    batchHashCodes = HashUtils.hashSubRowsLong(table, columns, batchHashCodes);
+    for (int row = 0; row < table.numTuples(); ++row) {
+      offer(batchHashCodes[row]);
+    }
+  }
+
+  /**
+   * Merge another estimator into this one, so that this one estimates the cardinality of the union of both inputs.
+   *
+   * @param other the other estimator, of the same precision.
+   */
+  public void merge(final HyperLogLog other) {
+    Preconditions.checkArgument(
+        other.precision == precision,
+        "cannot merge precision %s into precision %s",
+        other.precision,
+        precision);
+    for (int i = 0; i < registers.length; ++i) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values offered.
+   */
+  public long cardinality() {
+    final int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        ++zeros;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      /* Small range correction: linear counting is more accurate while many registers are empty. */
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /** Forget all values offered. */
+  public void clear() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  /**
+   * @param m the number of registers.
+   * @return the bias correction constant for {@code m} registers.
+   */
+  private static double alpha(final int m) {
+    switch (m) {
+      case 16:
+        return 0.673;
+      case 32:
+        return 0.697;
+      case 64:
+        return 0.709;
+      default:
+        return 0.7213 / (1 + 1.079 / m);
+    }
+  }
+}
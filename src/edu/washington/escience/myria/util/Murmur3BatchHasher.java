@@ -0,0 +1,405 @@
+package edu.washington.escience.myria.util;
+
+import java.util.Arrays;
+
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
+import edu.washington.escience.myria.storage.ReadableColumn;
+
+/**
+ * A column-at-a-time implementation of Guava's {@code Hashing.murmur3_128(seed)} that hashes every row of a batch at
+ * once.
+ *
+ * The hasher keeps one running murmur3 state per row in flat primitive arrays, so that a whole column can be fed with a
+ * single type-specialized loop and no per-row {@link com.google.common.hash.Hasher} is allocated. The byte stream fed
+ * for each value is exactly the one that {@link TypeFunnel} feeds to a Guava hasher, hence the digests are
+ * bit-compatible with the row-at-a-time methods in {@link HashUtils}.
+ *
+ * A dictionary encoded string column fed first is hashed once per distinct string: the state of each code is computed
+ * once and copied to the rows with that code. The states of a shared dictionary are kept across batches.
+ *
+ * Instances are not thread-safe; they are meant to be reused by a single thread across batches.
+ */
+final class Murmur3BatchHasher {
+  /** murmur3 mixing constant. */
+  private static final long C1 = 0x87c37b91114253d5L;
+  /** murmur3 mixing constant. */
+  private static final long C2 = 0x4cf5ad432745937fL;
+  /** murmur3 block size in bytes. */
+  private static final int CHUNK_SIZE = 16;
+
+  /** The first half of the running state of each row; after {@link #finish()}, the low 64 bits of the digest. */
+  private long[] h1 = new long[0];
+  /** The second half of the running state of each row; after {@link #finish()}, the high 64 bits of the digest. */
+  private long[] h2 = new long[0];
+  /** The first 8 buffered bytes of each row which have not been mixed yet, little-endian. */
+  private long[] pendingLow = new long[0];
+  /** The last 8 buffered bytes of each row which have not been mixed yet, little-endian. */
+  private long[] pendingHigh = new long[0];
+  /** The number of buffered bytes of each row, always less than {@link #CHUNK_SIZE}. */
+  private int[] pendingBytes = new int[0];
+  /** The number of bytes of each row which have already been mixed into the state. */
+  private long[] length = new long[0];
+  /** The number of rows currently being hashed. */
+  private int numRows;
+  /** The seed of the current batch. */
+  private int seed;
+  /** True if no column has been fed since the last {@link #reset(int, int)}. */
+  private boolean fresh;
+  /** The state of each code of {@link #codesDictionary} after feeding its string, or null. */
+  private Murmur3BatchHasher codes;
+  /** The dictionary whose codes are hashed in {@link #codes}. */
+  private StringDictionary codesDictionary;
+
+  /**
+   * Start hashing a new batch.
+   *
+   * @param rows the number of rows in the batch.
+   * @param seed the murmur3 seed.
+   */
+  void reset(final int rows, final int seed) {
+    numRows = 0;
+    extend(rows, seed);
+    this.seed = seed;
+    fresh = true;
+  }
+
+  /**
+   * Add fresh rows after the current ones, which are left untouched.
+   *
+   * @param rows the new number of rows.
+   * @param seed the murmur3 seed.
+   */
+  private void extend(final int rows, final int seed) {
+    if (h1.length < rows) {
+      h1 = Arrays.copyOf(h1, rows);
+      h2 = Arrays.copyOf(h2, rows);
+      pendingLow = Arrays.copyOf(pendingLow, rows);
+      pendingHigh = Arrays.copyOf(pendingHigh, rows);
+      pendingBytes = Arrays.copyOf(pendingBytes, rows);
+      length = Arrays.copyOf(length, rows);
+    }
+    Arrays.fill(h1, numRows, rows, seed);
+    Arrays.fill(h2, numRows, rows, seed);
+    Arrays.fill(pendingLow, numRows, rows, 0L);
+    Arrays.fill(pendingHigh, numRows, rows, 0L);
+    Arrays.fill(pendingBytes, numRows, rows, 0);
+    Arrays.fill(length, numRows, rows, 0L);
+    numRows = rows;
+  }
+
+  /**
+   * Feed the first {@link #numRows} values of the given column, one per row.
+   *
+   * @param column the column.
+   */
+  void addColumn(final ReadableColumn column) {
+    final int rows = numRows;
+    final boolean first = fresh;
+    fresh = false;
+    switch (column.getType()) {
+      case BOOLEAN_TYPE:
+        for (int row = 0; row < rows; ++row) {
+          put(row, column.getBoolean(row) ? 1L : 0L, 1);
+        }
+        return;
+      case INT_TYPE:
+        for (int row = 0; row < rows; ++row) {
+          put(row, column.getInt(row) & 0xFFFFFFFFL, 4);
+        }
+        return;
+      case FLOAT_TYPE:
+        for (int row = 0; row < rows; ++row) {
+          put(row, Float.floatToRawIntBits(column.getFloat(row)) & 0xFFFFFFFFL, 4);
+        }
+        return;
+      case LONG_TYPE:
+        for (int row = 0; row < rows; ++row) {
+          put(row, column.getLong(row), 8);
+        }
+        return;
+      case DOUBLE_TYPE:
+        for (int row = 0; row < rows; ++row) {
+          put(row, Double.doubleToRawLongBits(column.getDouble(row)), 8);
+        }
+        return;
+      case STRING_TYPE:
+        if (first
+            && column instanceof DictionaryStringColumn
+            && ((DictionaryStringColumn) column).getDictionarySize() <= rows) {
+          addCodes((DictionaryStringColumn) column);
+          return;
+        }
+        for (int row = 0; row < rows; ++row) {
+          addChars(row, column.getString(row));
+        }
+        return;
+      case DATETIME_TYPE:
+        /* TypeFunnel does not funnel DateTime objects, so they contribute no bytes to the digest. */
+        return;
+    }
+    throw new UnsupportedOperationException("Hashing a column of type " + column.getType());
+  }
+
+  /**
+   * Feed a single value of the given column to one row.
+   *
+   * @param row the row to feed.
+   * @param column the column containing the value.
+   * @param sourceRow the row of the value in {@code column}.
+   */
+  void addValue(final int row, final ReadableColumn column, final int sourceRow) {
+    fresh = false;
+    switch (column.getType()) {
+      case BOOLEAN_TYPE:
+        put(row, column.getBoolean(sourceRow) ? 1L : 0L, 1);
+        return;
+      case INT_TYPE:
+        put(row, column.getInt(sourceRow) & 0xFFFFFFFFL, 4);
+        return;
+      case FLOAT_TYPE:
+        put(row, Float.floatToRawIntBits(column.getFloat(sourceRow)) & 0xFFFFFFFFL, 4);
+        return;
+      case LONG_TYPE:
+        put(row, column.getLong(sourceRow), 8);
+        return;
+      case DOUBLE_TYPE:
+        put(row, Double.doubleToRawLongBits(column.getDouble(sourceRow)), 8);
+        return;
+      case STRING_TYPE:
+        addChars(row, column.getString(sourceRow));
+        return;
+      case DATETIME_TYPE:
+        return;
+    }
+    throw new UnsupportedOperationException("Hashing a column of type " + column.getType());
+  }
+
+  /**
+   * Feed a single boxed value to one row.
+   *
+   * @param row the row to feed.
+   * @param type the type of the value.
+   * @param value the boxed value.
+   */
+  void addValue(final int row, final Type type, final Object value) {
+    fresh = false;
+    switch (type) {
+      case BOOLEAN_TYPE:
+        put(row, (boolean) value ? 1L : 0L, 1);
+        return;
+      case INT_TYPE:
+        put(row, (int) value & 0xFFFFFFFFL, 4);
+        return;
+      case FLOAT_TYPE:
+        put(row, Float.floatToRawIntBits((float) value) & 0xFFFFFFFFL, 4);
+        return;
+      case LONG_TYPE:
+        put(row, (long) value, 8);
+        return;
+      case DOUBLE_TYPE:
+        put(row, Double.doubleToRawLongBits((double) value), 8);
+        return;
+      case STRING_TYPE:
+        addChars(row, (String) value);
+        return;
+      case DATETIME_TYPE:
+        return;
+    }
+    throw new UnsupportedOperationException("Hashing a column of type " + type);
+  }
+
+  /**
+   * Feed a dictionary encoded column to fresh rows by copying the state of the code of each row.
+   *
+   * @param column the column.
+   */
+  private void addCodes(final DictionaryStringColumn column) {
+    if (codes == null || codesDictionary != column.getDictionary() || codes.seed != seed) {
+      if (codes == null) {
+        codes = new Murmur3BatchHasher();
+      }
+      codes.reset(0, seed);
+      codesDictionary = column.getDictionary();
+    }
+    final Murmur3BatchHasher c = codes;
+    final int hashed = c.numRows;
+    if (hashed < column.getDictionarySize()) {
+      c.extend(column.getDictionarySize(), seed);
+      for (int code = hashed; code < c.numRows; ++code) {
+        c.addChars(code, column.decode(code));
+      }
+    }
+    for (int row = 0; row < numRows; ++row) {
+      final int code = column.getCode(row);
+      h1[row] = c.h1[code];
+      h2[row] = c.h2[code];
+      pendingLow[row] = c.pendingLow[code];
+      pendingHigh[row] = c.pendingHigh[code];
+      pendingBytes[row] = c.pendingBytes[code];
+      length[row] = c.length[code];
+    }
+  }
+
+  /**
+   * Feed the UTF-16 code units of a string, as {@link com.google.common.hash.Hasher#putUnencodedChars} does.
+   *
+   * @param row the row.
+   * @param s the string.
+   */
+  private void addChars(final int row, final String s) {
+    final int len = s.length();
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      put(
+          row,
+          s.charAt(i)
+              | ((long) s.charAt(i + 1) << 16)
+              | ((long) s.charAt(i + 2) << 32)
+              | ((long) s.charAt(i + 3) << 48),
+          8);
+    }
+    for (; i < len; ++i) {
+      put(row, s.charAt(i), 2);
+    }
+  }
+
+  /**
+   * Append the low {@code numBytes} bytes of {@code value}, little-endian, to the byte stream of {@code row}.
+   *
+   * @param row the row.
+   * @param value the bytes. All bits above the low {@code numBytes} bytes must be zero.
+   * @param numBytes the number of bytes, between 1 and 8.
+   */
+  private void put(final int row, final long value, final int numBytes) {
+    final int pos = pendingBytes[row];
+    if (pos < 8) {
+      pendingLow[row] |= value << (pos << 3);
+      if (pos + numBytes > 8) {
+        pendingHigh[row] |= value >>> ((8 - pos) << 3);
+      }
+      pendingBytes[row] = pos + numBytes;
+      return;
+    }
+    final int offset = pos - 8;
+    pendingHigh[row] |= value << (offset << 3);
+    final int newPos = pos + numBytes;
+    if (newPos < CHUNK_SIZE) {
+      pendingBytes[row] = newPos;
+      return;
+    }
+    mixChunk(row, pendingLow[row], pendingHigh[row]);
+    pendingLow[row] = offset + numBytes > 8 ? value >>> ((8 - offset) << 3) : 0L;
+    pendingHigh[row] = 0L;
+    pendingBytes[row] = newPos - CHUNK_SIZE;
+  }
+
+  /**
+   * Mix a full 16-byte block into the state of a row.
+   *
+   * @param row the row.
+   * @param k1 the first 8 bytes of the block.
+   * @param k2 the last 8 bytes of the block.
+   */
+  private void mixChunk(final int row, final long k1, final long k2) {
+    long a = h1[row];
+    long b = h2[row];
+    a ^= mixK1(k1);
+    a = Long.rotateLeft(a, 27);
+    a += b;
+    a = a * 5 + 0x52dce729;
+    b ^= mixK2(k2);
+    b = Long.rotateLeft(b, 31);
+    b += a;
+    b = b * 5 + 0x38495ab5;
+    h1[row] = a;
+    h2[row] = b;
+    length[row] += CHUNK_SIZE;
+  }
+
+  /**
+   * Finalize the digest of every row. Afterwards {@link #asInt(int)}, {@link #low(int)} and {@link #high(int)} are
+   * valid until the next {@link #reset(int, int)}.
+   */
+  void finish() {
+    for (int row = 0; row < numRows; ++row) {
+      long a = h1[row];
+      long b = h2[row];
+      long len = length[row];
+      if (pendingBytes[row] > 0) {
+        a ^= mixK1(pendingLow[row]);
+        b ^= mixK2(pendingHigh[row]);
+        len += pendingBytes[row];
+      }
+      a ^= len;
+      b ^= len;
+      a += b;
+      b += a;
+      a = fmix64(a);
+      b = fmix64(b);
+      a += b;
+      b += a;
+      h1[row] = a;
+      h2[row] = b;
+    }
+  }
+
+  /**
+   * @param row the row.
+   * @return the digest of the row as an int, same as {@code HashCode.asInt()}.
+   */
+  int asInt(final int row) {
+    return (int) h1[row];
+  }
+
+  /**
+   * @param row the row.
+   * @return the low 64 bits of the digest of the row, same as {@code HashCode.asLong()}.
+   */
+  long low(final int row) {
+    return h1[row];
+  }
+
+  /**
+   * @param row the row.
+   * @return the high 64 bits of the digest of the row.
+   */
+  long high(final int row) {
+    return h2[row];
+  }
+
+  /**
+   * @param k a block half.
+   * @return the mixed value.
+   */
+  private static long mixK1(final long k) {
+    long k1 = k * C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  /**
+   * @param k a block half.
+   * @return the mixed value.
+   */
+  private static long mixK2(final long k) {
+    long k2 = k * C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  /**
+   * @param k the state.
+   * @return the avalanched state.
+   */
+  private static long fmix64(final long k) {
+    long f = k;
+    f ^= f >>> 33;
+    f *= 0xff51afd7ed558ccdL;
+    f ^= f >>> 33;
+    f *= 0xc4ceb9fe1a85ec53L;
+    f ^= f >>> 33;
+    return f;
+  }
+}
@@ -0,0 +1,327 @@
+package edu.washington.escience.myria.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Preconditions;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.BooleanColumn;
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.DateTimeColumn;
+import edu.washington.escience.myria.column.DoubleBufferColumn;
+import edu.washington.escience.myria.column.FloatBufferColumn;
+import edu.washington.escience.myria.column.IntArrayColumn;
+import edu.washington.escience.myria.column.IntBufferColumn;
+import edu.washington.escience.myria.column.LongBufferColumn;
+import edu.washington.escience.myria.column.LongColumn;
+import edu.washington.escience.myria.column.StringBufferColumn;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.util.ColumnCompression.Compressed;
+import edu.washington.escience.myria.util.ColumnCompression.Encoding;
+
+/**
+ * The columnar format in which {@link TupleBatch}es are sent to other workers.
+ *
+ * A batch is a header followed by one section per column. The header is a marker byte, the number of tuples, the
+ * number of columns, and for each column its type, its {@link ColumnCompression.Encoding}, and the length of its
+ * section in bytes. An uncompressed section holds the raw values of its column: primitives one after the other,
+ * booleans as a bit set, datetimes as milliseconds since the epoch, and strings as the offsets of each string in UTF-8
+ * followed by the encoded strings. All numbers are little endian.
+ *
+ * Each uncompressed column is written with a single bulk copy into the buffer that is sent, and the uncompressed
+ * columns of a received batch read their values straight from the buffer it arrived in, except for booleans and
+ * datetimes which are decoded. Integer and string columns are compressed when that makes them smaller, see
+ * {@link ColumnCompression}.
+ */
+public final class TupleBatchWireFormat {
+
+  /**
+   * The first byte of an encoded batch. A serialized protobuf TransportMessage starts with the tag of its field 1,
+   * 0x08, so the two cannot be confused.
+   */
+  private static final byte MARKER = (byte) 0xCB;
+  /** The byte order of the numbers. */
+  private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+  /**
+   * @param numColumns the number of columns of a batch.
+   * @return the length of the header of the batch, in bytes.
+   */
+  private static int headerLength(final int numColumns) {
+    return Byte.BYTES + 2 * Integer.BYTES + numColumns * (2 * Byte.BYTES + Integer.BYTES);
+  }
+
+  /**
+   * @param buffer a serialized message.
+   * @return whether the message is a batch encoded by {@link #encode(TupleBatch)}.
+   */
+  public static boolean isEncodedTupleBatch(final ChannelBuffer buffer) {
+    return buffer.readable() && buffer.getByte(buffer.readerIndex()) == MARKER;
+  }
+
+  /**
+   * @param tb a batch which is not an EOI.
+   * @return the batch encoded in a buffer of exactly its size.
+   */
+  public static ChannelBuffer encode(final TupleBatch tb) {
+    final List<? extends Column<?>> columns = tb.getDataColumns();
+    final int numTuples = tb.numTuples();
+    final int[] lengths = new int[columns.size()];
+    final Compressed[] compressed = new Compressed[columns.size()];
+    final long[][] longs = new long[columns.size()][];
+    final byte[][][] strings = new byte[columns.size()][][];
+    int size = headerLength(columns.size());
+    for (int c = 0; c < lengths.length; ++c) {
+      final Column<?> column = columns.get(c);
+      switch (column.getType()) {
+        case BOOLEAN_TYPE:
+          lengths[c] = (numTuples + Byte.SIZE - 1) / Byte.SIZE;
+          break;
+        case FLOAT_TYPE:
+          lengths[c] = numTuples * Integer.BYTES;
+          break;
+        case DOUBLE_TYPE:
+          lengths[c] = numTuples * Long.BYTES;
+          break;
+        case INT_TYPE:
+          lengths[c] = numTuples * Integer.BYTES;
+          compressed[c] = ColumnCompression.compressInts(column.getIntArray(), numTuples);
+          break;
+        case LONG_TYPE:
+          longs[c] = column.getLongArray();
+          lengths[c] = numTuples * Long.BYTES;
+          compressed[c] = ColumnCompression.compressLongs(longs[c], numTuples);
+          break;
+        case DATETIME_TYPE:
+          {
+            longs[c] = new long[numTuples];
+            for (int row = 0; row < numTuples; ++row) {
+              longs[c][row] = column.getDateTime(row).getMillis();
+            }
+            lengths[c] = numTuples * Long.BYTES;
+            compressed[c] = ColumnCompression.compressIntegers(longs[c], Long.BYTES);
+            break;
+          }
+        case STRING_TYPE:
+          {
+            final String[] values = new String[numTuples];
+            strings[c] = new byte[numTuples][];
+            lengths[c] = (numTuples + 1) * Integer.BYTES;
+            for (int row = 0; row < numTuples; ++row) {
+              values[row] = column.getString(row);
+              strings[c][row] = values[row].getBytes(StandardCharsets.UTF_8);
+              lengths[c] += strings[c][row].length;
+            }
+            compressed[c] = ColumnCompression.compressStrings(values, strings[c], lengths[c]);
+            break;
+          }
+      }
+      if (compressed[c] != null) {
+        lengths[c] = compressed[c].getLength();
+      }
+      size += lengths[c];
+    }
+
+    /* Netty only wraps buffers of one byte order together, and the IPC layer wraps the batch after its big endian
+     * header: the buffer is big endian, and the little endian numbers are written through views of it. */
+    final ChannelBuffer buffer = ChannelBuffers.buffer(size);
+    final int headerLength = headerLength(columns.size());
+    final ByteBuffer header = buffer.toByteBuffer(0, headerLength).slice().order(ORDER);
+    header.put(MARKER);
+    header.putInt(numTuples);
+    header.putInt(columns.size());
+    for (int c = 0; c < lengths.length; ++c) {
+      header.put((byte) columns.get(c).getType().ordinal());
+      if (compressed[c] == null) {
+        header.put((byte) Encoding.PLAIN.ordinal());
+      } else {
+        header.put((byte) compressed[c].getEncoding().ordinal());
+      }
+      header.putInt(lengths[c]);
+    }
+    buffer.writerIndex(headerLength);
+    for (int c = 0; c < lengths.length; ++c) {
+      final Column<?> column = columns.get(c);
+      final ByteBuffer section =
+          buffer.toByteBuffer(buffer.writerIndex(), lengths[c]).slice().order(ORDER);
+      if (compressed[c] != null) {
+        compressed[c].write(section);
+        buffer.writerIndex(buffer.writerIndex() + lengths[c]);
+        continue;
+      }
+      switch (column.getType()) {
+        case BOOLEAN_TYPE:
+          for (int row = 0; row < numTuples; ++row) {
+            if (column.getBoolean(row)) {
+              final int index = row / Byte.SIZE;
+              section.put(index, (byte) (section.get(index) | (1 << (row % Byte.SIZE))));
+            }
+          }
+          break;
+        case INT_TYPE:
+          section.asIntBuffer().put(column.getIntArray(), 0, numTuples);
+          break;
+        case FLOAT_TYPE:
+          section.asFloatBuffer().put(column.getFloatArray(), 0, numTuples);
+          break;
+        case LONG_TYPE:
+        case DATETIME_TYPE:
+          section.asLongBuffer().put(longs[c], 0, numTuples);
+          break;
+        case DOUBLE_TYPE:
+          section.asDoubleBuffer().put(column.getDoubleArray(), 0, numTuples);
+          break;
+        case STRING_TYPE:
+          {
+            final IntBuffer offsets = section.asIntBuffer();
+            int offset = 0;
+            for (final byte[] string : strings[c]) {
+              offsets.put(offset);
+              offset += string.length;
+            }
+            offsets.put(offset);
+            section.position((numTuples + 1) * Integer.BYTES);
+            for (final byte[] string : strings[c]) {
+              section.put(string);
+            }
+            break;
+          }
+      }
+      buffer.writerIndex(buffer.writerIndex() + lengths[c]);
+    }
+    return buffer;
+  }
+
+  /**
+   * @param buffer a batch encoded by {@link #encode(TupleBatch)}. Kept by reference by the columns of the batch, and
+   *          must not be modified afterwards.
+   * @param schema the schema of the batch.
+   * @return the decoded batch.
+   */
+  public static TupleBatch decode(final ChannelBuffer buffer, final Schema schema) {
+    final ByteBuffer in = buffer.toByteBuffer().slice().order(ORDER);
+    Preconditions.checkArgument(in.get() == MARKER, "not an encoded batch");
+    final int numTuples = in.getInt();
+    final int numColumns = in.getInt();
+    Preconditions.checkArgument(
+        numColumns == schema.numColumns(),
+        "expected %s columns, got %s",
+        schema.numColumns(),
+        numColumns);
+    final Column<?>[] columns = new Column<?>[numColumns];
+    int start = headerLength(numColumns);
+    for (int c = 0; c < numColumns; ++c) {
+      final Type type = Type.values()[in.get()];
+      final Encoding encoding = Encoding.values()[in.get()];
+      final int length = in.getInt();
+      Preconditions.checkArgument(
+          type == schema.getColumnType(c),
+          "expected a column of type %s, got %s",
+          schema.getColumnType(c),
+          type);
+      final ByteBuffer section = in.duplicate();
+      section.limit(start + length).position(start);
+      if (encoding == Encoding.PLAIN) {
+        columns[c] = decodeColumn(type, section.slice().order(ORDER), numTuples);
+      } else {
+        columns[c] = decompressColumn(type, encoding, section.slice().order(ORDER), numTuples);
+      }
+      start += length;
+    }
+    return new TupleBatch(schema, Arrays.asList(columns), numTuples);
+  }
+
+  /**
+   * @param type the type of the column.
+   * @param section the section of the column, from position 0 to the limit.
+   * @param numTuples the number of tuples of the column.
+   * @return the column.
+   */
+  private static Column<?> decodeColumn(
+      final Type type, final ByteBuffer section, final int numTuples) {
+    switch (type) {
+      case BOOLEAN_TYPE:
+        return new BooleanColumn(BitSet.valueOf(section), numTuples);
+      case INT_TYPE:
+        return new IntBufferColumn(section.asIntBuffer());
+      case FLOAT_TYPE:
+        return new FloatBufferColumn(section.asFloatBuffer());
+      case LONG_TYPE:
+        return new LongBufferColumn(section.asLongBuffer());
+      case DOUBLE_TYPE:
+        return new DoubleBufferColumn(section.asDoubleBuffer());
+      case DATETIME_TYPE:
+        {
+          final LongBuffer millis = section.asLongBuffer();
+          final DateTime[] data = new DateTime[numTuples];
+          for (int row = 0; row < numTuples; ++row) {
+            data[row] = new DateTime(millis.get(row));
+          }
+          return new DateTimeColumn(data, numTuples);
+        }
+      case STRING_TYPE:
+        {
+          final int offsetsLength = (numTuples + 1) * Integer.BYTES;
+          final IntBuffer offsets = section.asIntBuffer();
+          offsets.limit(numTuples + 1);
+          section.position(offsetsLength);
+          return new StringBufferColumn(section.slice(), offsets);
+        }
+    }
+    throw new UnsupportedOperationException("Decoding a column of type " + type);
+  }
+
+  /**
+   * @param type the type of the column.
+   * @param encoding the compression of the column.
+   * @param section the section of the column, from position 0 to the limit.
+   * @param numTuples the number of tuples of the column.
+   * @return the column.
+   */
+  private static Column<?> decompressColumn(
+      final Type type, final Encoding encoding, final ByteBuffer section, final int numTuples) {
+    if (type == Type.STRING_TYPE) {
+      return ColumnCompression.decompressStrings(section, numTuples);
+    }
+    final int valueBytes = type == Type.INT_TYPE ? Integer.BYTES : Long.BYTES;
+    final long[] values =
+        ColumnCompression.decompressIntegers(encoding, section, numTuples, valueBytes);
+    switch (type) {
+      case INT_TYPE:
+        {
+          final int[] data = new int[numTuples];
+          for (int row = 0; row < numTuples; ++row) {
+            data[row] = (int) values[row];
+          }
+          return new IntArrayColumn(data, numTuples);
+        }
+      case LONG_TYPE:
+        return new LongColumn(values, numTuples);
+      case DATETIME_TYPE:
+        {
+          final DateTime[] data = new DateTime[numTuples];
+          for (int row = 0; row < numTuples; ++row) {
+            data[row] = new DateTime(values[row]);
+          }
+          return new DateTimeColumn(data, numTuples);
+        }
+      default:
+        throw new IllegalArgumentException("A column of type " + type + " cannot be " + encoding);
+    }
+  }
+
+  /** Utility class. */
+  private TupleBatchWireFormat() {}
+}
@@ -0,0 +1,546 @@
+package edu.washington.escience.myria.util.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.jboss.netty.util.internal.ConcurrentIdentityWeakKeyHashMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A fixed-size thread pool which shares its threads among groups of tasks, e.g. the fragments of the running queries,
+ * in proportion to the weights of the groups.
+ *
+ * Waiting tasks are ordered by start-time fair queuing: a task is tagged with the CPU time its group has received so
+ * far divided by the group's weight, but no less than the tag of the last task started, and the threads run tasks in
+ * the order of their tags. A group which keeps submitting long tasks thus falls behind a group submitting short ones,
+ * instead of holding it back, and a group coming back from idling cannot claim the time it did not use. Tasks should be
+ * short, or be resubmitted in slices, for the shares to be enforced. A task resubmitting itself is charged for the time
+ * it ran so far when it is tagged.
+ *
+ * Tasks wait in one queue shared by all the threads, so no task waits while a thread is idle. Only the tasks which
+ * declare an affinity, see {@link Shared#getAffinity()}, are kept on one thread, like in
+ * {@link ThreadAffinityFixedRoundRobinExecutionPool}: operators such as SQLite scans hold resources that must not move
+ * between threads. Such a task waits in the queue of its thread, and the thread runs the task of lowest tag among its
+ * own queue and the shared one.
+ *
+ * Tasks which are not submitted through {@link #share} all belong to one default group, and have no affinity.
+ */
+public class FairShareExecutionPool extends AbstractExecutorService {
+
+  /**
+   * A task which belongs to a group.
+   */
+  public interface Shared {
+    /**
+     * @return the group of this task. Groups are compared with {@link Object#equals(Object)}.
+     */
+    Object getShareGroup();
+
+    /**
+     * @return the weight of the group, at least 1.
+     */
+    int getShareWeight();
+
+    /**
+     * @return the key of the thread this task must run on, or {@code null} if it may run on any thread. The tasks of
+     *         the same key, compared by identity, always run on the same thread, which is assigned round-robin when
+     *         the first of them is submitted.
+     */
+    @Nullable
+    Object getAffinity();
+  }
+
+  /** The group of the tasks which do not specify one. */
+  private static final Object DEFAULT_GROUP = new Object();
+  /** Measures the CPU time of the threads, if the JVM supports it. */
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  /** Orders tasks by tag, then by submission. */
+  private static final Comparator<ShareTask<?>> TAG_ORDER =
+      (x, y) -> {
+        if (x.tag != y.tag) {
+          return Long.compare(x.tag, y.tag);
+        }
+        return Long.compare(x.sequence, y.sequence);
+      };
+
+  /** Guards the queues and the groups. */
+  private final ReentrantLock lock = new ReentrantLock();
+  /** Signalled when the last thread exits. */
+  private final Condition terminated = lock.newCondition();
+  /** The threads of the pool. */
+  private final Runner[] runners;
+  /** The runner of the current thread, if it is one of the pool. */
+  private final ThreadLocal<Runner> currentRunner = new ThreadLocal<>();
+  /** The next runner to assign to a new affinity. */
+  private final AtomicInteger runnerIndex = new AtomicInteger(0);
+  /** Affinity -> the runner of its tasks. */
+  private final ConcurrentMap<Object, Runner> affinities =
+      new ConcurrentIdentityWeakKeyHashMap<Object, Runner>();
+  /** The tasks which may run on any thread. */
+  @GuardedBy("lock")
+  private final PriorityQueue<ShareTask<?>> sharedQueue = new PriorityQueue<>(11, TAG_ORDER);
+  /** The runners waiting for a task. */
+  @GuardedBy("lock")
+  private final Deque<Runner> idleRunners = new ArrayDeque<>();
+  /** The groups with tasks waiting or running. */
+  @GuardedBy("lock")
+  private final Map<Object, Group> groups = new HashMap<>();
+  /** The tag of the last task started. Tags are in nanoseconds of thread time per unit of weight. */
+  @GuardedBy("lock")
+  private long virtualTime = 0;
+  /** The number of tasks submitted so far, to run tasks of the same tag in submission order. */
+  @GuardedBy("lock")
+  private long numSubmitted = 0;
+  /** If the pool is shut down. */
+  @GuardedBy("lock")
+  private boolean shutdown = false;
+  /** The number of threads which have not exited yet. */
+  @GuardedBy("lock")
+  private int numAlive;
+
+  /**
+   * @param poolSize the number of threads.
+   * @param threadFactory the factory creating the threads.
+   */
+  public FairShareExecutionPool(final int poolSize, final ThreadFactory threadFactory) {
+    Preconditions.checkArgument(poolSize > 0, "poolSize must be positive, got %s", poolSize);
+    Preconditions.checkNotNull(threadFactory, "threadFactory");
+    runners = new Runner[poolSize];
+    numAlive = poolSize;
+    for (int i = 0; i < runners.length; ++i) {
+      runners[i] = new Runner();
+      runners[i].thread = threadFactory.newThread(runners[i]);
+    }
+    for (final Runner runner : runners) {
+      runner.thread.start();
+    }
+  }
+
+  /**
+   * @param task a task.
+   * @param group the group of the task.
+   * @param weight the weight of the group, at least 1.
+   * @param <T> the type of the result of the task.
+   * @return the task, as part of the group when submitted to a {@link FairShareExecutionPool}, on any thread.
+   */
+  public static <T> Callable<T> share(
+      final Callable<T> task, final Object group, final int weight) {
+    return share(task, group, weight, null);
+  }
+
+  /**
+   * @param task a task.
+   * @param group the group of the task.
+   * @param weight the weight of the group, at least 1.
+   * @param affinity the key of the thread the task must run on, see {@link Shared#getAffinity()}, or {@code null}.
+   * @param <T> the type of the result of the task.
+   * @return the task, as part of the group when submitted to a {@link FairShareExecutionPool}.
+   */
+  public static <T> Callable<T> share(
+      final Callable<T> task,
+      final Object group,
+      final int weight,
+      @Nullable final Object affinity) {
+    Preconditions.checkNotNull(task, "task");
+    Preconditions.checkNotNull(group, "group");
+    Preconditions.checkArgument(weight > 0, "weight must be positive, got %s", weight);
+    return new SharedCallable<T>(task, group, weight, affinity);
+  }
+
+  /**
+   * @param affinity the affinity of a task.
+   * @return the runner of the affinity, assigned round-robin the first time it is seen.
+   */
+  private Runner getRunner(final Object affinity) {
+    Runner runner = affinities.get(affinity);
+    if (runner == null) {
+      runner = runners[Math.floorMod(runnerIndex.getAndIncrement(), runners.length)];
+      final Runner old = affinities.putIfAbsent(affinity, runner);
+      if (old != null) {
+        runner = old;
+      }
+    }
+    return runner;
+  }
+
+  /**
+   * @return the time the current thread has run, in nanoseconds.
+   */
+  private static long threadTime() {
+    if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+      return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+    return System.nanoTime();
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+    if (callable instanceof Shared) {
+      final Shared shared = (Shared) callable;
+      return new ShareTask<T>(
+          callable, shared.getShareGroup(), shared.getShareWeight(), shared.getAffinity());
+    }
+    return new ShareTask<T>(callable, DEFAULT_GROUP, 1, null);
+  }
+
+  @Override
+  protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value) {
+    return new ShareTask<T>(Executors.callable(runnable, value), DEFAULT_GROUP, 1, null);
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    Preconditions.checkNotNull(command);
+    final ShareTask<?> task;
+    if (command instanceof ShareTask) {
+      task = (ShareTask<?>) command;
+    } else {
+      task = (ShareTask<?>) newTaskFor(command, null);
+    }
+    final Runner pinned = task.affinity == null ? null : getRunner(task.affinity);
+    final Runner current = currentRunner.get();
+    final ShareTask<?> running = current == null ? null : current.runningTask;
+    final long now = running == null ? 0 : threadTime();
+    lock.lock();
+    try {
+      if (shutdown) {
+        throw new RejectedExecutionException("the pool is shut down");
+      }
+      Group group = groups.get(task.groupKey);
+      if (group == null) {
+        group = new Group();
+        groups.put(task.groupKey, group);
+      }
+      group.weight = task.weight;
+      ++group.numTasks;
+      task.group = group;
+      long groupTag = group.finishTag;
+      if (running != null && running.group == group) {
+        groupTag = Math.max(groupTag, running.finishTag(now));
+      }
+      task.tag = Math.max(virtualTime, groupTag);
+      task.sequence = numSubmitted++;
+      if (pinned == null) {
+        sharedQueue.add(task);
+        final Runner idle = idleRunners.poll();
+        if (idle != null) {
+          idle.wakeUp();
+        }
+      } else {
+        pinned.queue.add(task);
+        if (idleRunners.remove(pinned)) {
+          pinned.wakeUp();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    lock.lock();
+    try {
+      shutdown = true;
+      Runner idle;
+      while ((idle = idleRunners.poll()) != null) {
+        idle.wakeUp();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    final List<Runnable> ret = new ArrayList<Runnable>();
+    lock.lock();
+    try {
+      shutdown();
+      ret.addAll(sharedQueue);
+      sharedQueue.clear();
+      for (final Runner runner : runners) {
+        ret.addAll(runner.queue);
+        runner.queue.clear();
+      }
+    } finally {
+      lock.unlock();
+    }
+    for (final Runner runner : runners) {
+      runner.thread.interrupt();
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    lock.lock();
+    try {
+      return shutdown;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isTerminated() {
+    lock.lock();
+    try {
+      return numAlive == 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (numAlive > 0) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = terminated.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * One thread of the pool, with the tasks which must run on it.
+   */
+  private final class Runner implements Runnable {
+    /** The tasks which must run on this thread. */
+    @GuardedBy("lock")
+    private final PriorityQueue<ShareTask<?>> queue = new PriorityQueue<>(11, TAG_ORDER);
+    /** Signalled when a task is submitted while this runner is idle. */
+    private final Condition wakeUpCondition = lock.newCondition();
+    /** If this runner is in {@link #idleRunners}. */
+    @GuardedBy("lock")
+    private boolean idle = false;
+    /** The thread of this runner. */
+    private Thread thread;
+    /** The task running on the thread. Only accessed by the thread. */
+    private ShareTask<?> runningTask;
+
+    /** Wake up this runner, which the caller removed from {@link #idleRunners}. */
+    @GuardedBy("lock")
+    private void wakeUp() {
+      idle = false;
+      wakeUpCondition.signal();
+    }
+
+    /**
+     * @return the next task to run, or {@code null} if the pool is shut down and there is no task left.
+     */
+    private ShareTask<?> take() {
+      lock.lock();
+      try {
+        while (true) {
+          final ShareTask<?> own = queue.peek();
+          final ShareTask<?> any = sharedQueue.peek();
+          if (own != null || any != null) {
+            final ShareTask<?> task;
+            if (any == null || (own != null && TAG_ORDER.compare(own, any) < 0)) {
+              task = queue.poll();
+            } else {
+              task = sharedQueue.poll();
+            }
+            if (idle) {
+              idle = false;
+              idleRunners.remove(this);
+            }
+            virtualTime = Math.max(virtualTime, task.tag);
+            return task;
+          }
+          if (shutdown) {
+            return null;
+          }
+          if (!idle) {
+            idle = true;
+            idleRunners.push(this);
+          }
+          wakeUpCondition.awaitUninterruptibly();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void run() {
+      currentRunner.set(this);
+      try {
+        ShareTask<?> task;
+        while ((task = take()) != null) {
+          task.startTime = threadTime();
+          runningTask = task;
+          try {
+            task.run();
+          } finally {
+            runningTask = null;
+            final long finishTag = task.finishTag(threadTime());
+            lock.lock();
+            try {
+              task.group.finishTag = Math.max(task.group.finishTag, finishTag);
+              if (--task.group.numTasks == 0) {
+                groups.remove(task.groupKey);
+              }
+            } finally {
+              lock.unlock();
+            }
+          }
+        }
+      } finally {
+        lock.lock();
+        try {
+          if (--numAlive == 0) {
+            terminated.signalAll();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of a group with tasks waiting or running.
+   */
+  private static final class Group {
+    /** The weight of the group. */
+    private int weight = 1;
+    /** The tag at which the last task of the group that ran would have finished. */
+    private long finishTag = 0;
+    /** The number of tasks of the group waiting or running. */
+    private int numTasks = 0;
+  }
+
+  /**
+   * A task waiting or running in this pool.
+   *
+   * @param <T> the type of the result of the task.
+   */
+  private static final class ShareTask<T> extends FutureTask<T> {
+    /** The key of the group of the task. */
+    private final Object groupKey;
+    /** The weight of the group of the task. */
+    private final int weight;
+    /** The key of the thread the task must run on, or {@code null}. */
+    private final Object affinity;
+    /** The group of the task, once submitted. */
+    private Group group;
+    /** The tag of the task, once submitted. */
+    private long tag;
+    /** The rank of the task in submission order. */
+    private long sequence;
+    /** The thread time when the task started to run. */
+    private long startTime;
+
+    /**
+     * @param callable the task.
+     * @param groupKey the key of the group of the task.
+     * @param weight the weight of the group of the task.
+     * @param affinity the key of the thread the task must run on, or {@code null}.
+     */
+    ShareTask(
+        final Callable<T> callable,
+        final Object groupKey,
+        final int weight,
+        @Nullable final Object affinity) {
+      super(callable);
+      this.groupKey = groupKey;
+      this.weight = weight;
+      this.affinity = affinity;
+    }
+
+    /**
+     * @param now the current thread time, in nanoseconds.
+     * @return the tag at which this running task would finish if it finished now.
+     */
+    private long finishTag(final long now) {
+      return tag + (now - startTime) / group.weight;
+    }
+  }
+
+  /**
+   * A task wrapped with its group.
+   *
+   * @param <T> the type of the result of the task.
+   */
+  private static final class SharedCallable<T> implements Callable<T>, Shared {
+    /** The task. */
+    private final Callable<T> task;
+    /** The group of the task. */
+    private final Object group;
+    /** The weight of the group. */
+    private final int weight;
+    /** The key of the thread the task must run on, or {@code null}. */
+    private final Object affinity;
+
+    /**
+     * @param task the task.
+     * @param group the group of the task.
+     * @param weight the weight of the group.
+     * @param affinity the key of the thread the task must run on, or {@code null}.
+     */
+    SharedCallable(
+        final Callable<T> task,
+        final Object group,
+        final int weight,
+        @Nullable final Object affinity) {
+      this.task = task;
+      this.group = group;
+      this.weight = weight;
+      this.affinity = affinity;
+    }
+
+    @Override
+    public T call() throws Exception {
+      return task.call();
+    }
+
+    @Override
+    public Object getShareGroup() {
+      return group;
+    }
+
+    @Override
+    public int getShareWeight() {
+      return weight;
+    }
+
+    @Override
+    public Object getAffinity() {
+      return affinity;
+    }
+  }
+}
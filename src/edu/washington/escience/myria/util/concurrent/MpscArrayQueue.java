@@ -0,0 +1,161 @@
+package edu.washington.escience.myria.util.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded, array-based, lock-free queue for many producer threads and a single consumer thread.
+ *
+ * Producers claim a slot by a CAS on the producer index and then publish the element into the slot; the consumer reads
+ * slots in order and never takes a lock. Unlike a linked queue, offering an element allocates nothing. Elements
+ * offered by the same producer thread are polled in the order they were offered.
+ *
+ * {@link #offer(Object)} may be called from any thread. {@link #poll()}, {@link #peek()}, {@link #drainTo(Collection,
+ * int)} and {@link #clear()} must only be called by one consumer thread at a time.
+ *
+ * @param <E> the type of the elements.
+ */
+public final class MpscArrayQueue<E> {
+  /** The slots, indexed by queue index modulo the capacity. A null slot is free or not published yet. */
+  private final AtomicReferenceArray<E> buffer;
+  /** The capacity minus 1. */
+  private final int mask;
+  /** The index of the next slot to claim by a producer. */
+  private final AtomicLong producerIndex = new AtomicLong();
+  /** The index of the next slot to read by the consumer. Only written by the consumer. */
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  /**
+   * @param capacity the most elements in the queue, rounded up to a power of two.
+   */
+  public MpscArrayQueue(final int capacity) {
+    Preconditions.checkArgument(
+        capacity > 0 && capacity <= 1 << 30, "capacity must be in (0, 2^30]");
+    final int actual = Integer.highestOneBit(capacity - 1) << 1;
+    buffer = new AtomicReferenceArray<>(Math.max(actual, 1));
+    mask = buffer.length() - 1;
+  }
+
+  /**
+   * @return the most elements in the queue.
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @param e the element, not null.
+   * @return false if the queue is full.
+   */
+  public boolean offer(final E e) {
+    Preconditions.checkNotNull(e);
+    long index;
+    do {
+      index = producerIndex.get();
+      if (index - consumerIndex.get() > mask) {
+        return false;
+      }
+    } while (!producerIndex.compareAndSet(index, index + 1));
+    buffer.lazySet((int) index & mask, e);
+    return true;
+  }
+
+  /**
+   * @return the head of the queue, or null if the queue is empty.
+   */
+  public E poll() {
+    final long index = consumerIndex.get();
+    final int slot = (int) index & mask;
+    E e = buffer.get(slot);
+    if (e == null) {
+      if (index == producerIndex.get()) {
+        return null;
+      }
+      /* A producer claimed the slot and is about to publish its element. */
+      do {
+        e = buffer.get(slot);
+      } while (e == null);
+    }
+    buffer.lazySet(slot, null);
+    consumerIndex.lazySet(index + 1);
+    return e;
+  }
+
+  /**
+   * @return the head of the queue without removing it, or null if the queue is empty.
+   */
+  public E peek() {
+    final long index = consumerIndex.get();
+    final int slot = (int) index & mask;
+    E e = buffer.get(slot);
+    if (e == null && index != producerIndex.get()) {
+      do {
+        e = buffer.get(slot);
+      } while (e == null);
+    }
+    return e;
+  }
+
+  /**
+   * Move the published elements at the head of the queue into a collection, in order. Stops at the first slot that is
+   * not published yet instead of waiting for its producer.
+   *
+   * @param c the collection to add the elements to.
+   * @param maxElements the most elements to move.
+   * @return the number of elements moved.
+   */
+  public int drainTo(final Collection<? super E> c, final int maxElements) {
+    final long start = consumerIndex.get();
+    long index = start;
+    while (index - start < maxElements) {
+      final int slot = (int) index & mask;
+      final E e = buffer.get(slot);
+      if (e == null) {
+        break;
+      }
+      buffer.lazySet(slot, null);
+      c.add(e);
+      ++index;
+    }
+    consumerIndex.lazySet(index);
+    return (int) (index - start);
+  }
+
+  /**
+   * @return the number of elements in the queue. Producers claiming slots concurrently may make it stale at once.
+   */
+  public int size() {
+    long after = consumerIndex.get();
+    while (true) {
+      final long before = after;
+      final long producer = producerIndex.get();
+      after = consumerIndex.get();
+      if (before == after) {
+        return (int) (producer - after);
+      }
+    }
+  }
+
+  /**
+   * @return true if the queue is empty.
+   */
+  public boolean isEmpty() {
+    return consumerIndex.get() == producerIndex.get();
+  }
+
+  /**
+   * Remove all the elements.
+   *
+   * @return the number of elements removed.
+   */
+  public int clear() {
+    int ret = 0;
+    while (poll() != null) {
+      ++ret;
+    }
+    return ret;
+  }
+}
@@ -13,6 +13,7 @@ import edu.washington.escience.myria.operator.network.partition.MultiFieldHashPa
 import edu.washington.escience.myria.operator.network.partition.PartitionFunction;
 import edu.washington.escience.myria.operator.network.partition.RoundRobinPartitionFunction;
 import edu.washington.escience.myria.operator.network.partition.SingleFieldHashPartitionFunction;
+import edu.washington.escience.myria.operator.network.partition.SkewedHashPartitionFunction;
 import edu.washington.escience.myria.operator.network.partition.WholeTupleHashPartitionFunction;
 
 public class SerializationTests {
@@ -58,6 +59,18 @@ public class SerializationTests {
     assertEquals(pf.getClass(), deserialized.getClass());
     assertEquals(5, deserialized.numPartition());
 
+    /* Skewed hash */
+    serialized =
+        "{\"type\":\"SkewedHash\",\"numPartitions\":5,\"indexes\":[1,0],\"side\":\"REPLICATE\","
+            + "\"hotKeys\":[[7,\"a\"],[8,\"b\"]],\"splitFactor\":3}";
+    deserialized = reader.readValue(serialized);
+    assertEquals(SkewedHashPartitionFunction.class, deserialized.getClass());
+    assertEquals(5, deserialized.numPartition());
+    assertEquals(10, deserialized.numOutputs());
+    assertArrayEquals(new int[] {1, 0}, ((SkewedHashPartitionFunction) deserialized).getIndexes());
+    deserialized = reader.readValue(mapper.writeValueAsString(deserialized));
+    assertArrayEquals(new int[] {4, 0, 1}, deserialized.destinations(9));
+
     /* RoundRobin */
     pf = new RoundRobinPartitionFunction(5);
     serialized = mapper.writeValueAsString(pf);
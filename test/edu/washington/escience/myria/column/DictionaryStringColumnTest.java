@@ -0,0 +1,108 @@
+package edu.washington.escience.myria.column;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.builder.StringColumnBuilder;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.storage.TupleUtils;
+import edu.washington.escience.myria.util.HashUtils;
+
+public class DictionaryStringColumnTest {
+
+  private static final Schema SCHEMA =
+      Schema.ofFields("host", Type.STRING_TYPE, "id", Type.INT_TYPE);
+
+  private static List<TupleBatch> rows(final boolean encodeStrings) {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA, encodeStrings);
+    for (int i = 0; i < 2 * TupleBatch.BATCH_SIZE; ++i) {
+      tbb.putString(0, "host" + i % 7);
+      tbb.putInt(1, i);
+    }
+    return tbb.getAll();
+  }
+
+  @Test
+  public void testSharedDictionary() {
+    final List<TupleBatch> batches = rows(true);
+    assertEquals(2, batches.size());
+    final DictionaryStringColumn first =
+        (DictionaryStringColumn) batches.get(0).getDataColumns().get(0);
+    final DictionaryStringColumn second =
+        (DictionaryStringColumn) batches.get(1).getDataColumns().get(0);
+    assertTrue(first.sharesDictionary(second));
+    assertEquals(7, second.getDictionarySize());
+    for (int row = 0; row < TupleBatch.BATCH_SIZE; ++row) {
+      assertEquals("host" + row % 7, first.getString(row));
+      assertEquals("host" + (row + TupleBatch.BATCH_SIZE) % 7, second.getString(row));
+    }
+    assertEquals(first.getCode(0), second.getCode((7 - TupleBatch.BATCH_SIZE % 7) % 7));
+  }
+
+  @Test
+  public void testFullDictionary() {
+    final StringDictionary dictionary = new StringDictionary();
+    final StringColumnBuilder builder = new StringColumnBuilder(dictionary);
+    for (int i = 0; i <= StringDictionary.MAX_SIZE; ++i) {
+      builder.appendString("value" + i);
+    }
+    assertTrue(dictionary.isFull());
+    final StringColumn column = builder.build();
+    assertFalse(column instanceof DictionaryStringColumn);
+    assertEquals("value" + StringDictionary.MAX_SIZE, column.getString(StringDictionary.MAX_SIZE));
+    /* Strings already in the dictionary keep their codes. */
+    assertEquals(3, dictionary.encode("value3"));
+    assertEquals(-1, dictionary.encode("another value"));
+  }
+
+  @Test
+  public void testFullDictionaryKeepsKnownCodes() {
+    final StringDictionary dictionary = new StringDictionary();
+    for (int i = 0; i <= StringDictionary.MAX_SIZE; ++i) {
+      dictionary.encode("value" + i);
+    }
+    assertTrue(dictionary.isFull());
+    final StringColumnBuilder known = new StringColumnBuilder(dictionary);
+    known.appendString("value7").appendString("value0").appendString("value7");
+    final StringColumn column = known.build();
+    assertTrue(column instanceof DictionaryStringColumn);
+    final DictionaryStringColumn encoded = (DictionaryStringColumn) column;
+    assertEquals(7, encoded.getCode(0));
+    assertEquals(0, encoded.getCode(1));
+    assertEquals("value7", encoded.getString(2));
+    final StringColumnBuilder unknown = new StringColumnBuilder(dictionary);
+    unknown.appendString("value7").appendString("another value");
+    assertFalse(unknown.build() instanceof DictionaryStringColumn);
+  }
+
+  @Test
+  public void testHashAndEquals() {
+    final List<TupleBatch> encoded = rows(true);
+    final List<TupleBatch> plain = rows(false);
+    assertTrue(plain.get(0).getDataColumns().get(0) instanceof StringArrayColumn);
+    for (final int[] columns : new int[][] {{0}, {0, 1}, {1, 0}}) {
+      for (int batch = 0; batch < 2; ++batch) {
+        final int[] hashes = HashUtils.hashSubRows(encoded.get(batch), columns, null);
+        for (int row = 0; row < TupleBatch.BATCH_SIZE; ++row) {
+          assertEquals(HashUtils.hashSubRow(plain.get(batch), columns, row), hashes[row]);
+        }
+      }
+    }
+    final int[] host = new int[] {0};
+    for (int row = 0; row < 14; ++row) {
+      final boolean expected = row % 7 == (TupleBatch.BATCH_SIZE + 3) % 7;
+      assertEquals(
+          expected, TupleUtils.tupleEquals(encoded.get(0), host, row, encoded.get(1), host, 3));
+      assertEquals(
+          expected, TupleUtils.tupleEquals(encoded.get(0), host, row, plain.get(1), host, 3));
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.expression.ConditionalExpression;
+import edu.washington.escience.myria.expression.ConstantExpression;
+import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.ExpressionOperator;
+import edu.washington.escience.myria.expression.IntDivideExpression;
+import edu.washington.escience.myria.expression.MinusExpression;
+import edu.washington.escience.myria.expression.NotEqualsExpression;
+import edu.washington.escience.myria.expression.PlusExpression;
+import edu.washington.escience.myria.expression.SqrtExpression;
+import edu.washington.escience.myria.expression.TimesExpression;
+import edu.washington.escience.myria.expression.VariableExpression;
+import edu.washington.escience.myria.expression.WorkerIdExpression;
+import edu.washington.escience.myria.operator.Apply;
+import edu.washington.escience.myria.operator.BatchTupleSource;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.TestEnvVars;
+
+public class CommonSubexpressionsTest {
+
+  private static final Schema SCHEMA = Schema.ofFields("a", Type.LONG_TYPE, "b", Type.LONG_TYPE);
+
+  private final ExpressionOperator varA = new VariableExpression(0);
+  private final ExpressionOperator varB = new VariableExpression(1);
+
+  private static TupleBatchBuffer input() {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (long i = 0; i < 2 * TupleBatch.BATCH_SIZE + 7; ++i) {
+      tbb.putLong(0, i);
+      tbb.putLong(1, i % 5);
+    }
+    return tbb;
+  }
+
+  private static List<TupleBatch> apply(final List<Expression> expressions) throws DbException {
+    final Apply apply = new Apply(new BatchTupleSource(input()), expressions);
+    apply.open(TestEnvVars.get());
+    final ImmutableList.Builder<TupleBatch> ret = ImmutableList.builder();
+    while (!apply.eos()) {
+      final TupleBatch tb = apply.nextReady();
+      if (tb != null) {
+        ret.add(tb);
+      }
+    }
+    apply.close();
+    return ret.build();
+  }
+
+  @Test
+  public void testSharedSubexpressions() throws DbException {
+    final ExpressionOperator product = new TimesExpression(varA, varB);
+    final ExpressionOperator root = new SqrtExpression(product);
+    final List<Expression> expressions =
+        ImmutableList.of(
+            new Expression("x", new PlusExpression(root, new ConstantExpression(1))),
+            new Expression("y", new TimesExpression(root, new ConstantExpression(2))),
+            new Expression("z", product),
+            new Expression("w", new SqrtExpression(new TimesExpression(varA, varB))));
+
+    final CommonSubexpressions shared =
+        new CommonSubexpressions(expressions, new ExpressionOperatorParameter(SCHEMA, 0));
+    assertEquals(2, shared.numShared());
+    for (final int i : new int[] {2, 3}) {
+      assertTrue(
+          shared.getExpressions().get(i).getRootExpressionOperator()
+              instanceof VariableExpression);
+    }
+
+    long i = 0;
+    for (final TupleBatch tb : apply(expressions)) {
+      for (int row = 0; row < tb.numTuples(); ++row, ++i) {
+        final double sqrt = Math.sqrt(i * (i % 5));
+        assertEquals(sqrt + 1, tb.getDouble(0, row), 0.0);
+        assertEquals(sqrt * 2, tb.getDouble(1, row), 0.0);
+        assertEquals(i * (i % 5), tb.getLong(2, row));
+        assertEquals(sqrt, tb.getDouble(3, row), 0.0);
+      }
+    }
+    assertEquals(2 * TupleBatch.BATCH_SIZE + 7, i);
+  }
+
+  @Test
+  public void testFoldConstants() throws DbException {
+    final ExpressionOperator six =
+        new TimesExpression(new ConstantExpression(2), new ConstantExpression(3));
+    final ExpressionOperator minusFive =
+        new MinusExpression(new ConstantExpression(0L), new ConstantExpression(5L));
+    final ExpressionOperator workerId =
+        new PlusExpression(new WorkerIdExpression(), new ConstantExpression(1));
+    final List<Expression> expressions =
+        ImmutableList.of(
+            new Expression("x", new PlusExpression(varA, six)),
+            new Expression("y", new MinusExpression(varA, minusFive)),
+            new Expression("z", new TimesExpression(varB, workerId)));
+
+    final CommonSubexpressions shared =
+        new CommonSubexpressions(expressions, new ExpressionOperatorParameter(SCHEMA, 3));
+    final ExpressionOperatorParameter parameters = shared.getParameters();
+    assertEquals(new ConstantExpression(6), parameters.substitute(six));
+    assertEquals("(-5L)", parameters.substitute(minusFive).getJavaString(parameters));
+    assertEquals(new ConstantExpression(4), parameters.substitute(workerId));
+    assertEquals(0, shared.numShared());
+
+    final Apply apply = new Apply(new BatchTupleSource(input()), expressions);
+    apply.open(TestEnvVars.get(3));
+    long i = 0;
+    while (!apply.eos()) {
+      final TupleBatch tb = apply.nextReady();
+      if (tb == null) {
+        continue;
+      }
+      for (int row = 0; row < tb.numTuples(); ++row, ++i) {
+        assertEquals(i + 6, tb.getLong(0, row));
+        assertEquals(i + 5, tb.getLong(1, row));
+        assertEquals((i % 5) * 4, tb.getLong(2, row));
+      }
+    }
+    apply.close();
+  }
+
+  @Test
+  public void testGuardedSubexpressionsAreNotShared() throws DbException {
+    /* a / b is only computed when b != 0: sharing it would divide by zero. */
+    final ExpressionOperator quotient = new IntDivideExpression(varA, varB);
+    final ExpressionOperator zero = new ConstantExpression(0L);
+    final List<Expression> expressions =
+        ImmutableList.of(
+            new Expression(
+                "x",
+                new ConditionalExpression(new NotEqualsExpression(varB, zero), quotient, zero)),
+            new Expression(
+                "y",
+                new ConditionalExpression(
+                    new NotEqualsExpression(varB, zero),
+                    new PlusExpression(quotient, new ConstantExpression(1L)),
+                    zero)));
+
+    final CommonSubexpressions shared =
+        new CommonSubexpressions(expressions, new ExpressionOperatorParameter(SCHEMA, 0));
+    /* Only the condition is shared. */
+    assertEquals(1, shared.numShared());
+
+    long i = 0;
+    for (final TupleBatch tb : apply(expressions)) {
+      for (int row = 0; row < tb.numTuples(); ++row, ++i) {
+        final long b = i % 5;
+        assertEquals(b == 0 ? 0 : i / b, tb.getLong(0, row));
+        assertEquals(b == 0 ? 0 : i / b + 1, tb.getLong(1, row));
+      }
+    }
+    assertEquals(2 * TupleBatch.BATCH_SIZE + 7, i);
+  }
+}
@@ -0,0 +1,60 @@
+package edu.washington.escience.myria.expression.evaluate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.junit.Test;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class ExpressionCompilerTest {
+
+  private static final String[] PARAMETERS = new String[] {Expression.TB, Expression.ROW};
+
+  @Test
+  public void testSameCodeIsCompiledOnce() throws Exception {
+    final String code = "tb.getInt(0, row) > 12345";
+    final Object first =
+        ExpressionCompiler.createFastExpressionEvaluator(
+            code, BooleanEvalInterface.class, PARAMETERS);
+    final long size = ExpressionCompiler.size();
+    final Object second =
+        ExpressionCompiler.createFastExpressionEvaluator(
+            new String(code), BooleanEvalInterface.class, PARAMETERS.clone());
+    assertSame(first, second);
+    assertEquals(size, ExpressionCompiler.size());
+
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(Schema.ofFields("a", Type.INT_TYPE));
+    tbb.putInt(0, 12345);
+    tbb.putInt(0, 12346);
+    final TupleBatch tb = tbb.popAny();
+    final BooleanEvalInterface eval = (BooleanEvalInterface) second;
+    assertFalse(eval.evaluate(tb, 0));
+    assertTrue(eval.evaluate(tb, 1));
+  }
+
+  @Test
+  public void testDifferentCodeIsCompiledAgain() throws Exception {
+    final Object intEval =
+        ExpressionCompiler.createFastExpressionEvaluator(
+            "tb.getInt(0, row) > 0", BooleanEvalInterface.class, PARAMETERS);
+    final Object longEval =
+        ExpressionCompiler.createFastExpressionEvaluator(
+            "tb.getLong(0, row) > 0", BooleanEvalInterface.class, PARAMETERS);
+    assertNotSame(intEval, longEval);
+  }
+
+  @Test(expected = CompileException.class)
+  public void testCompileError() throws Exception {
+    ExpressionCompiler.createFastExpressionEvaluator(
+        "tb.getInt(0, row) >", BooleanEvalInterface.class, PARAMETERS);
+  }
+}
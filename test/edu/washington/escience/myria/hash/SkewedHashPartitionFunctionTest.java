@@ -0,0 +1,80 @@
+package edu.washington.escience.myria.hash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.network.partition.PartitionFunction;
+import edu.washington.escience.myria.operator.network.partition.SingleFieldHashPartitionFunction;
+import edu.washington.escience.myria.operator.network.partition.SkewedHashPartitionFunction;
+import edu.washington.escience.myria.operator.network.partition.SkewedHashPartitionFunction.Side;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class SkewedHashPartitionFunctionTest {
+
+  private static final int NUM_PARTITIONS = 8;
+  private static final long HOT_KEY = 7;
+  private static final Schema SCHEMA =
+      Schema.ofFields("payload", Type.INT_TYPE, "key", Type.LONG_TYPE);
+
+  /** Half of the tuples have the hot key. */
+  private static TupleBatch skewedBatch() {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < TupleBatch.BATCH_SIZE; ++i) {
+      tbb.putInt(0, i);
+      tbb.putLong(1, i % 2 == 0 ? HOT_KEY : i);
+    }
+    return tbb.popAny();
+  }
+
+  private static SkewedHashPartitionFunction function(final Side side) {
+    final List<List<Object>> hotKeys = ImmutableList.<List<Object>>of(ImmutableList.<Object>of(7));
+    return new SkewedHashPartitionFunction(NUM_PARTITIONS, new int[] {1}, side, hotKeys, 3, null);
+  }
+
+  @Test
+  public void testMatchingTuplesMeet() {
+    final PartitionFunction hash = new SingleFieldHashPartitionFunction(NUM_PARTITIONS, 1);
+    final PartitionFunction split = function(Side.SPLIT);
+    final PartitionFunction replicate = function(Side.REPLICATE);
+    assertEquals(NUM_PARTITIONS, split.numOutputs());
+    assertEquals(2 * NUM_PARTITIONS, replicate.numOutputs());
+
+    /* Twice, so that the sketch has seen enough of the input to confirm the hot key. */
+    for (int round = 0; round < 2; ++round) {
+      final TupleBatch tb = skewedBatch();
+      final int[] expected = hash.partition(tb);
+      final int[] splitPartitions = split.partition(tb);
+      final int[] replicateOutputs = replicate.partition(tb);
+      final BitSet hotPartitions = new BitSet();
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        if (tb.getLong(1, row) != HOT_KEY) {
+          assertEquals(expected[row], splitPartitions[row]);
+          assertEquals(expected[row], replicateOutputs[row]);
+          continue;
+        }
+        hotPartitions.set(splitPartitions[row]);
+        final int[] destinations = replicate.destinations(replicateOutputs[row]);
+        assertEquals(3, destinations.length);
+        assertEquals(expected[row], destinations[0]);
+        final int partition = splitPartitions[row];
+        assertTrue(
+            Arrays.toString(destinations) + " misses " + partition,
+            Arrays.stream(destinations).anyMatch(p -> p == partition));
+      }
+      if (round == 1) {
+        assertEquals(3, hotPartitions.cardinality());
+      }
+    }
+  }
+}
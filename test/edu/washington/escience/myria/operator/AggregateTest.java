@@ -1,6 +1,7 @@
 package edu.washington.escience.myria.operator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -14,6 +15,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Floats;
 import com.google.common.primitives.Ints;
@@ -442,6 +444,65 @@ public class AggregateTest
         return tbb;
     }
 
+    @Test
+    public void testMultiGroupManyGroupsNumericAggs() throws DbException
+    {
+        final int numG1 = 50;
+        final int numG2 = 7;
+        final Schema schema =
+                Schema.ofFields(
+                        "g1", Type.INT_TYPE, "g2", Type.INT_TYPE, "i", Type.INT_TYPE, "l", Type.LONG_TYPE,
+                        "d", Type.DOUBLE_TYPE);
+        final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+        final long[] counts = new long[numG1 * numG2];
+        final long[] intSums = new long[numG1 * numG2];
+        final long[] longMaxs = new long[numG1 * numG2];
+        final double[] doubleMins = new double[numG1 * numG2];
+        Arrays.fill(longMaxs, Long.MIN_VALUE);
+        Arrays.fill(doubleMins, Double.MAX_VALUE);
+        final Random rand = new Random(7);
+        for (int row = 0; row < 3 * TupleBatch.BATCH_SIZE + 3; ++row)
+        {
+            int g1 = row % numG1;
+            int g2 = rand.nextInt(numG2);
+            int i = rand.nextInt(1000) - 500;
+            long l = rand.nextLong();
+            double d = rand.nextDouble();
+            tbb.putInt(0, g1);
+            tbb.putInt(1, g2);
+            tbb.putInt(2, i);
+            tbb.putLong(3, l);
+            tbb.putDouble(4, d);
+            int g = g1 * numG2 + g2;
+            counts[g]++;
+            intSums[g] += i;
+            longMaxs[g] = Math.max(longMaxs[g], l);
+            doubleMins[g] = Math.min(doubleMins[g], d);
+        }
+        MultiGroupByAggregate mga =
+                new MultiGroupByAggregate(
+                        new BatchTupleSource(tbb),
+                        new int[]{0, 1},
+                        new SingleColumnAggregatorFactory(2, AggregationOp.COUNT, AggregationOp.SUM),
+                        new SingleColumnAggregatorFactory(3, AggregationOp.MAX),
+                        new SingleColumnAggregatorFactory(4, AggregationOp.MIN));
+        TupleBatchBuffer result = drain(mga);
+        int numGroups = 0;
+        for (TupleBatch tb : result.getAll())
+        {
+            for (int row = 0; row < tb.numTuples(); ++row)
+            {
+                int g = tb.getInt(0, row) * numG2 + tb.getInt(1, row);
+                assertEquals(counts[g], tb.getLong(2, row));
+                assertEquals(intSums[g], tb.getLong(3, row));
+                assertEquals(longMaxs[g], tb.getLong(4, row));
+                assertEquals(doubleMins[g], tb.getDouble(5, row), 0.0);
+                numGroups++;
+            }
+        }
+        assertEquals(numG1 * numG2, numGroups);
+    }
+
     @Test
     public void testSingleGroupAvg() throws DbException, InterruptedException
     {
@@ -559,6 +620,225 @@ public class AggregateTest
         }
     }
 
+    @Test
+    public void testMultiGroupCountDebugSketch() throws DbException
+    {
+        final int rows = SketchBuffer.DEFAULT_ROWS;
+        final int columns = SketchBuffer.DEFAULT_COLUMN;
+        //two cells, as many as groups, so the adviser would aggregate exactly
+        SketchBuffer.DEFAULT_ROWS = 1;
+        SketchBuffer.DEFAULT_COLUMN = 2;
+        try
+        {
+            final Schema schema = Schema.ofFields("g1", Type.INT_TYPE, "g2", Type.INT_TYPE, "v", Type.INT_TYPE);
+            final TupleBatchBuffer testBase = new TupleBatchBuffer(schema);
+            final long[] counts = new long[2];
+            for (int i = 0; i < 2 * TupleBatch.BATCH_SIZE + 1; i++)
+            {
+                int g = i % 3 == 0 ? 1 : 0;
+                testBase.putInt(0, 0);
+                testBase.putInt(1, g);
+                testBase.putInt(2, i);
+                counts[g]++;
+            }
+            MultiGroupByAggregate agg =
+                    new MultiGroupByAggregate(
+                            new BatchTupleSource(testBase),
+                            new int[]{0, 1},
+                            new SingleColumnAggregatorFactory(2, AggregationSketchOption.UseSketch, AggregationOp.COUNT));
+            agg.open(ImmutableMap.<String, Object>of("Debug_Sketch", true));
+            TupleBatchBuffer result = new TupleBatchBuffer(agg.getSchema());
+            while (!agg.eos())
+            {
+                TupleBatch tb = agg.nextReady();
+                if (tb != null)
+                {
+                    tb.compactInto(result);
+                }
+            }
+            agg.close();
+            assertEquals(2, result.numTuples());
+            //whether the groups share a cell or are neighbours, the count sketch cannot recover both exact counts
+            boolean exact = true;
+            for (TupleBatch tb : result.getAll())
+            {
+                for (int row = 0; row < tb.numTuples(); row++)
+                {
+                    exact &= counts[tb.getInt(1, row)] == tb.getLong(2, row);
+                }
+            }
+            assertFalse(exact);
+        } finally
+        {
+            SketchBuffer.DEFAULT_ROWS = rows;
+            SketchBuffer.DEFAULT_COLUMN = columns;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSketchSumOfLongRejected()
+    {
+        new SingleColumnAggregatorFactory(1, AggregationSketchOption.UseSketchMin, AggregationOp.SUM)
+                .get(Schema.ofFields("g", Type.INT_TYPE, "v", Type.LONG_TYPE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSketchDoubleRejected()
+    {
+        new SingleColumnAggregatorFactory(1, AggregationSketchOption.UseSketchMin, AggregationOp.COUNT)
+                .get(Schema.ofFields("g", Type.INT_TYPE, "v", Type.DOUBLE_TYPE));
+    }
+
+    @Test
+    public void testSketchSumAndAvgFromLeastCollidedCell()
+    {
+        final Schema schema = Schema.ofFields("g", Type.INT_TYPE, "v", Type.INT_TYPE);
+        IntegerAggregator agg =
+                (IntegerAggregator) new SingleColumnAggregatorFactory(
+                                1, AggregationSketchOption.UseSketchMin, AggregationOp.SUM, AggregationOp.AVG)
+                        .get(schema);
+        SketchBuffer sketch = new SketchBuffer(2, 2, agg);
+        TupleBatchBuffer input = new TupleBatchBuffer(schema);
+        //group 0 has a single negative value, group 1 two positive ones
+        input.putInt(0, 0);
+        input.putInt(1, -100);
+        input.putInt(0, 1);
+        input.putInt(1, 10);
+        input.putInt(0, 1);
+        input.putInt(1, 10);
+        //both groups share cell 0 of sketch row 0; group 1 is alone in cell 1 of sketch row 1
+        final int[] hashes = {0, 0, 0, 1, 0, 1};
+        sketch.addBatch(input.popAny(), hashes);
+        TupleBatchBuffer result = new TupleBatchBuffer(agg.getResultSchema());
+        sketch.getResult(result, 0, hashes, 2);
+        TupleBatch tb = result.popAny();
+        assertEquals(20, tb.getLong(0, 0));
+        assertEquals(10.0, tb.getDouble(1, 0), 0.0);
+    }
+
+    /**
+     * Drain an operator into a buffer.
+     */
+    private static TupleBatchBuffer drain(final Operator op) throws DbException
+    {
+        op.open(null);
+        TupleBatchBuffer result = new TupleBatchBuffer(op.getSchema());
+        while (!op.eos())
+        {
+            TupleBatch tb = op.nextReady();
+            if (tb != null)
+            {
+                tb.compactInto(result);
+            }
+        }
+        op.close();
+        return result;
+    }
+
+    @Test
+    public void testSketchMergeMatchesSingleSketch() throws DbException
+    {
+        final int[] groupColumns = {0};
+        final int columns = 50;
+        final int rows = 4;
+        TupleBatchBuffer[] parts = new TupleBatchBuffer[3];
+        for (int i = 0; i < parts.length; i++)
+        {
+            parts[i] = TestUtils.generateRandomTuples(2 * TupleBatch.BATCH_SIZE + i * 17, 500, false);
+        }
+
+        TupleBatchBuffer all = new TupleBatchBuffer(parts[0].getSchema());
+        SketchOperator[] partials = new SketchOperator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            for (TupleBatch tb : parts[i].getAll())
+            {
+                tb.compactInto(all);
+            }
+            partials[i] = new SketchOperator(new BatchTupleSource(parts[i]), groupColumns, columns, rows, true);
+        }
+
+        TupleBatchBuffer expected =
+                drain(new SketchOperator(new BatchTupleSource(all), groupColumns, columns, rows));
+        TupleBatchBuffer merged = drain(new SketchMerge(new UnionAll(partials), false));
+        assertEquals(expected.getSchema(), merged.getSchema());
+        assertEquals(rows * columns, merged.numTuples());
+        List<TupleBatch> expectedBatches = expected.getAll();
+        List<TupleBatch> mergedBatches = merged.getAll();
+        assertEquals(expectedBatches.size(), mergedBatches.size());
+        for (int b = 0; b < expectedBatches.size(); b++)
+        {
+            for (int col = 0; col < 3; col++)
+            {
+                for (int row = 0; row < expectedBatches.get(b).numTuples(); row++)
+                {
+                    assertEquals(expectedBatches.get(b).getInt(col, row), mergedBatches.get(b).getInt(col, row));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSingleGroupSumMinMaxSketchMin() throws DbException
+    {
+        //a sketch much wider than the number of groups is exact with overwhelming probability
+        SketchBuffer.DEFAULT_ROWS = 5;
+        SketchBuffer.DEFAULT_COLUMN = 1000;
+        final int numGroups = 5;
+        final Schema schema =
+                new Schema(ImmutableList.of(Type.INT_TYPE, Type.INT_TYPE), ImmutableList.of("g", "v"));
+        final TupleBatchBuffer testBase = new TupleBatchBuffer(schema);
+        final long[] sums = new long[numGroups];
+        final int[] mins = new int[numGroups];
+        final int[] maxs = new int[numGroups];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        final Random rand = new Random(1);
+        for (int i = 0; i < 3 * TupleBatch.BATCH_SIZE; i++)
+        {
+            int g = i % numGroups;
+            int v = rand.nextInt(1000);
+            testBase.putInt(0, g);
+            testBase.putInt(1, v);
+            sums[g] += v;
+            mins[g] = Math.min(mins[g], v);
+            maxs[g] = Math.max(maxs[g], v);
+        }
+        SingleGroupByAggregate agg =
+                new SingleGroupByAggregate(
+                        new BatchTupleSource(testBase),
+                        0,
+                        new SingleColumnAggregatorFactory(
+                                1,
+                                AggregationSketchOption.UseSketchMin,
+                                AggregationOp.SUM,
+                                AggregationOp.MIN,
+                                AggregationOp.MAX));
+        //force the sketch, the adviser would aggregate so few groups exactly
+        agg.open(ImmutableMap.<String, Object>of("Debug_Sketch", true));
+        TupleBatchBuffer result = new TupleBatchBuffer(agg.getSchema());
+        while (!agg.eos())
+        {
+            TupleBatch tb = agg.nextReady();
+            if (tb != null)
+            {
+                tb.compactInto(result);
+            }
+        }
+        agg.close();
+        assertEquals(numGroups, result.numTuples());
+        for (TupleBatch tb : result.getAll())
+        {
+            for (int row = 0; row < tb.numTuples(); row++)
+            {
+                int g = tb.getInt(0, row);
+                assertEquals(sums[g], tb.getLong(1, row));
+                assertEquals(mins[g], tb.getInt(2, row));
+                assertEquals(maxs[g], tb.getInt(3, row));
+            }
+        }
+    }
+
     @Test
     public void testSingleGroupMin() throws DbException, InterruptedException
     {
@@ -862,6 +1142,53 @@ public class AggregateTest
         mga.close();
     }
 
+    @Test
+    public void testMaxAllNegative() throws DbException
+    {
+        final Schema schema =
+                Schema.ofFields("g", Type.LONG_TYPE, "d", Type.DOUBLE_TYPE, "f", Type.FLOAT_TYPE);
+        final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+        for (long i = 0; i < 10; i++)
+        {
+            tbb.putLong(0, i % 2);
+            tbb.putDouble(1, -1.5 - i);
+            tbb.putFloat(2, -2.5f - i);
+        }
+
+        /* One state per group. */
+        SingleGroupByAggregate sga =
+                new SingleGroupByAggregate(
+                        new BatchTupleSource(tbb),
+                        0,
+                        new SingleColumnAggregatorFactory(1, AggregationOp.MAX),
+                        new SingleColumnAggregatorFactory(2, AggregationOp.MAX));
+        sga.open(null);
+        TupleBatch result = sga.nextReady();
+        assertNotNull(result);
+        assertEquals(2, result.numTuples());
+        for (int row = 0; row < result.numTuples(); row++)
+        {
+            final long group = result.getLong(0, row);
+            assertEquals(-1.5 - group, result.getDouble(1, row), 0);
+            assertEquals(-2.5f - group, result.getFloat(2, row), 0);
+        }
+        sga.close();
+
+        /* A single state object. */
+        Aggregate agg =
+                new Aggregate(
+                        new BatchTupleSource(tbb),
+                        new SingleColumnAggregatorFactory(1, AggregationOp.MAX),
+                        new SingleColumnAggregatorFactory(2, AggregationOp.MAX));
+        agg.open(null);
+        result = agg.nextReady();
+        assertNotNull(result);
+        assertEquals(1, result.numTuples());
+        assertEquals(-1.5, result.getDouble(0, 0), 0);
+        assertEquals(-2.5f, result.getFloat(1, 0), 0);
+        agg.close();
+    }
+
     @Test
     public void testMultiGroupMaxAndMin() throws DbException
     {
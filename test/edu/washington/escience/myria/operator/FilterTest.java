@@ -10,11 +10,17 @@ import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.expression.AndExpression;
+import edu.washington.escience.myria.expression.ConstantExpression;
+import edu.washington.escience.myria.expression.EqualsExpression;
 import edu.washington.escience.myria.expression.Expression;
 import edu.washington.escience.myria.expression.ExpressionOperator;
 import edu.washington.escience.myria.expression.LessThanExpression;
 import edu.washington.escience.myria.expression.MinusExpression;
+import edu.washington.escience.myria.expression.ModuloExpression;
+import edu.washington.escience.myria.expression.NotEqualsExpression;
+import edu.washington.escience.myria.expression.OrExpression;
 import edu.washington.escience.myria.expression.PlusExpression;
+import edu.washington.escience.myria.expression.TimesExpression;
 import edu.washington.escience.myria.expression.VariableExpression;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
@@ -148,6 +154,108 @@ public class FilterTest {
     assertEquals(2, getRowCount(filter));
   }
 
+  @Test
+  public void testConjunctsAcrossBatches() throws DbException {
+    final Schema schema =
+        Schema.ofFields("a", Type.INT_TYPE, "b", Type.LONG_TYPE, "c", Type.STRING_TYPE);
+    final TupleBatchBuffer testBase = new TupleBatchBuffer(schema);
+    final int numTuples = 5 * TupleBatch.BATCH_SIZE;
+    long expectedSum = 0;
+    for (int i = 0; i < numTuples; ++i) {
+      final long b = i % 13;
+      final String c = "c" + (i % 3);
+      testBase.putInt(0, i);
+      testBase.putLong(1, b);
+      testBase.putString(2, c);
+      /* The selectivity of the first conjunct changes half-way. */
+      if ((i < numTuples / 2 || i % 5 == 0) && b != 4 && !c.equals("c1")) {
+        expectedSum += i;
+      }
+    }
+
+    ExpressionOperator varA = new VariableExpression(0);
+    ExpressionOperator varB = new VariableExpression(1);
+    ExpressionOperator varC = new VariableExpression(2);
+    ExpressionOperator first =
+        new OrExpression(
+            new LessThanExpression(varA, new ConstantExpression(numTuples / 2)),
+            new EqualsExpression(
+                new ModuloExpression(varA, new ConstantExpression(5)), new ConstantExpression(0)));
+    ExpressionOperator second = new NotEqualsExpression(varB, new ConstantExpression(4L));
+    ExpressionOperator third = new NotEqualsExpression(varC, new ConstantExpression("c1"));
+    Filter filter =
+        new Filter(
+            new Expression("conjuncts", new AndExpression(first, new AndExpression(second, third))),
+            new BatchTupleSource(testBase));
+
+    filter.open(TestEnvVars.get());
+    long sum = 0;
+    while (!filter.eos()) {
+      TupleBatch tb = filter.nextReady();
+      if (tb != null) {
+        for (int row = 0; row < tb.numTuples(); ++row) {
+          sum += tb.getInt(0, row);
+        }
+      }
+    }
+    filter.close();
+    assertEquals(expectedSum, sum);
+  }
+
+  @Test
+  public void testGuardedConjunct() throws DbException {
+    final Schema schema = Schema.ofFields("a", Type.INT_TYPE, "b", Type.INT_TYPE);
+    final TupleBatchBuffer testBase = new TupleBatchBuffer(schema);
+    final int numTuples = 5 * TupleBatch.BATCH_SIZE;
+    int expected = 0;
+    for (int i = 0; i < numTuples; ++i) {
+      final int b = i % 100 == 0 ? 0 : 7;
+      testBase.putInt(0, i);
+      testBase.putInt(1, b);
+      if (b != 0 && i % b == 0) {
+        ++expected;
+      }
+    }
+
+    /* b != 0 AND a % b = 0: the guard drops few rows, but the modulo must never run before it. */
+    ExpressionOperator varA = new VariableExpression(0);
+    ExpressionOperator varB = new VariableExpression(1);
+    ExpressionOperator guard = new NotEqualsExpression(varB, new ConstantExpression(0));
+    ExpressionOperator modulo =
+        new EqualsExpression(new ModuloExpression(varA, varB), new ConstantExpression(0));
+    Filter filter =
+        new Filter(
+            new Expression("guarded", new AndExpression(guard, modulo)),
+            new BatchTupleSource(testBase));
+    assertEquals(expected, getRowCount(filter));
+  }
+
+  @Test
+  public void testOverflowGuardedConjunct() throws DbException {
+    final Schema schema = Schema.ofFields("x", Type.INT_TYPE);
+    final TupleBatchBuffer testBase = new TupleBatchBuffer(schema);
+    final int numTuples = 5 * TupleBatch.BATCH_SIZE;
+    int expected = 0;
+    for (int i = 0; i < numTuples; ++i) {
+      final int x = i % 100 == 0 ? 50000 + i : i;
+      testBase.putInt(0, x);
+      if (x < 46341 && x < 100) {
+        ++expected;
+      }
+    }
+
+    /* x < 46341 AND x * x < 10000: the guard drops few rows, but the product overflows without it. */
+    ExpressionOperator varX = new VariableExpression(0);
+    ExpressionOperator guard = new LessThanExpression(varX, new ConstantExpression(46341));
+    ExpressionOperator square =
+        new LessThanExpression(new TimesExpression(varX, varX), new ConstantExpression(10000));
+    Filter filter =
+        new Filter(
+            new Expression("overflowGuarded", new AndExpression(guard, square)),
+            new BatchTupleSource(testBase));
+    assertEquals(expected, getRowCount(filter));
+  }
+
   /*
    * helper method for getting the row count
    */
@@ -0,0 +1,232 @@
+package edu.washington.escience.myria.operator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.DbException;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.expression.ConstantExpression;
+import edu.washington.escience.myria.expression.EqualsExpression;
+import edu.washington.escience.myria.expression.Expression;
+import edu.washington.escience.myria.expression.ModuloExpression;
+import edu.washington.escience.myria.expression.TimesExpression;
+import edu.washington.escience.myria.expression.VariableExpression;
+import edu.washington.escience.myria.operator.agg.Aggregate;
+import edu.washington.escience.myria.operator.agg.CountAllAggregatorFactory;
+import edu.washington.escience.myria.operator.agg.PrimitiveAggregator.AggregationOp;
+import edu.washington.escience.myria.operator.agg.SingleColumnAggregatorFactory;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.TestEnvVars;
+
+public class ParallelPipelineTest {
+
+  private static final int NUM_TUPLES = 20 * TupleBatch.BATCH_SIZE + 3;
+
+  private static BatchTupleSource input() {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(Schema.ofFields("x", Type.LONG_TYPE));
+    for (long i = 0; i < NUM_TUPLES; ++i) {
+      tbb.putLong(0, i);
+    }
+    return new BatchTupleSource(tbb);
+  }
+
+  /** Keeps the multiples of 3, doubled. */
+  private static UnaryOperator pipeline() {
+    final Filter filter =
+        new Filter(
+            new Expression(
+                "isMultiple",
+                new EqualsExpression(
+                    new ModuloExpression(new VariableExpression(0), new ConstantExpression(3L)),
+                    new ConstantExpression(0L))),
+            null);
+    return new Apply(
+        filter,
+        ImmutableList.of(
+            new Expression(
+                "y", new TimesExpression(new VariableExpression(0), new ConstantExpression(2L)))));
+  }
+
+  @Test
+  public void testStatelessPipeline() throws DbException {
+    final ParallelPipeline parallel = new ParallelPipeline(input(), pipeline(), 4);
+    assertEquals(Schema.ofFields("y", Type.LONG_TYPE), parallel.getSchema());
+    parallel.open(TestEnvVars.get());
+    final BitSet seen = new BitSet();
+    while (!parallel.eos()) {
+      final TupleBatch tb = parallel.nextReady();
+      if (tb == null) {
+        continue;
+      }
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        final long y = tb.getLong(0, row);
+        assertEquals(0, y % 6);
+        assertEquals(false, seen.get((int) (y / 2)));
+        seen.set((int) (y / 2));
+      }
+    }
+    parallel.close();
+    assertEquals((NUM_TUPLES + 2) / 3, seen.cardinality());
+  }
+
+  @Test
+  public void testPartialAggregates() throws DbException {
+    /* Each copy counts the tuples it saw, and the counts are summed above. */
+    final ParallelPipeline parallel =
+        new ParallelPipeline(
+            input(), new Aggregate(pipeline(), new CountAllAggregatorFactory()), 3);
+    final Aggregate sum =
+        new Aggregate(parallel, new SingleColumnAggregatorFactory(0, AggregationOp.SUM));
+    sum.open(TestEnvVars.get());
+    long count = -1;
+    while (!sum.eos()) {
+      final TupleBatch tb = sum.nextReady();
+      if (tb != null) {
+        assertEquals(1, tb.numTuples());
+        count = tb.getLong(0, 0);
+      }
+    }
+    sum.close();
+    assertEquals((NUM_TUPLES + 2) / 3, count);
+  }
+
+  @Test
+  public void testEOIForwardedToEveryCopy() throws DbException {
+    final Schema schema = Schema.ofFields("x", Type.LONG_TYPE);
+    final List<TupleBatch> batches = new ArrayList<>();
+    final int[] iterationSizes = {5 * TupleBatch.BATCH_SIZE, 2 * TupleBatch.BATCH_SIZE + 1};
+    for (final int numTuples : iterationSizes) {
+      final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+      for (long i = 0; i < numTuples; ++i) {
+        tbb.putLong(0, i);
+      }
+      batches.addAll(tbb.getAll());
+      batches.add(TupleBatch.eoiTupleBatch(schema));
+    }
+    final ParallelPipeline parallel =
+        new ParallelPipeline(new BatchTupleSource(batches), new IterationCounter(), 3);
+    parallel.open(TestEnvVars.get());
+    final long[] counts = new long[3];
+    final int[] numPartialCounts = new int[3];
+    int iteration = 0;
+    while (!parallel.eos()) {
+      final TupleBatch tb = parallel.nextReady();
+      if (tb != null) {
+        counts[iteration] += tb.getLong(0, 0);
+        ++numPartialCounts[iteration];
+      } else if (parallel.eoi()) {
+        parallel.setEOI(false);
+        ++iteration;
+      }
+    }
+    parallel.close();
+    assertEquals(2, iteration);
+    assertEquals(iterationSizes[0], counts[0]);
+    assertEquals(iterationSizes[1], counts[1]);
+    /* Every copy reports its count of each iteration. */
+    assertEquals(3, numPartialCounts[0]);
+    assertEquals(3, numPartialCounts[1]);
+  }
+
+  @Test
+  public void testCloseWaitsForBusyCopies() throws DbException {
+    SlowPassThrough.RUNNING.set(0);
+    SlowPassThrough.CLOSED_WHILE_RUNNING.set(0);
+    SlowPassThrough.CLOSED.set(0);
+    final ParallelPipeline parallel = new ParallelPipeline(input(), new SlowPassThrough(), 4);
+    parallel.open(TestEnvVars.get());
+    /* Hands a batch to every copy, then closes while they are still processing them. */
+    parallel.nextReady();
+    parallel.close();
+    assertEquals(0, SlowPassThrough.RUNNING.get());
+    assertEquals(0, SlowPassThrough.CLOSED_WHILE_RUNNING.get());
+    assertEquals(4, SlowPassThrough.CLOSED.get());
+  }
+
+  /** Counts the tuples of each iteration of its child, and emits the count at the end of the iteration. */
+  private static final class IterationCounter extends UnaryOperator {
+    private static final long serialVersionUID = 1L;
+    private static final Schema SCHEMA = Schema.ofFields("count", Type.LONG_TYPE);
+    private transient long count;
+    private transient boolean reported;
+
+    IterationCounter() {
+      super(null);
+    }
+
+    @Override
+    protected TupleBatch fetchNextReady() throws DbException {
+      final Operator child = getChild();
+      for (TupleBatch tb = child.nextReady(); tb != null; tb = child.nextReady()) {
+        count += tb.numTuples();
+      }
+      if (child.eoi() && !reported) {
+        final TupleBatchBuffer ret = new TupleBatchBuffer(SCHEMA);
+        ret.putLong(0, count);
+        count = 0;
+        reported = true;
+        return ret.popAny();
+      }
+      return null;
+    }
+
+    @Override
+    protected void checkEOSAndEOI() {
+      if (getChild().eoi()) {
+        reported = false;
+      }
+      super.checkEOSAndEOI();
+    }
+
+    @Override
+    protected Schema generateSchema() {
+      return SCHEMA;
+    }
+  }
+
+  /** Passes the batches of its child through, slowly, and counts how it is closed. */
+  private static final class SlowPassThrough extends UnaryOperator {
+    private static final long serialVersionUID = 1L;
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final AtomicInteger CLOSED_WHILE_RUNNING = new AtomicInteger();
+    private static final AtomicInteger CLOSED = new AtomicInteger();
+
+    SlowPassThrough() {
+      super(null);
+    }
+
+    @Override
+    protected TupleBatch fetchNextReady() throws Exception {
+      RUNNING.incrementAndGet();
+      try {
+        Thread.sleep(50);
+        return getChild().nextReady();
+      } finally {
+        RUNNING.decrementAndGet();
+      }
+    }
+
+    @Override
+    protected void cleanup() {
+      if (RUNNING.get() > 0) {
+        CLOSED_WHILE_RUNNING.incrementAndGet();
+      }
+      CLOSED.incrementAndGet();
+    }
+
+    @Override
+    protected Schema generateSchema() {
+      return getChild().getSchema();
+    }
+  }
+}
@@ -1,14 +1,25 @@
 package edu.washington.escience.myria.operator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
 import edu.washington.escience.myria.util.JoinTestUtils;
 import edu.washington.escience.myria.util.TestEnvVars;
+import edu.washington.escience.myria.util.TestUtils;
+import edu.washington.escience.myria.util.Tuple;
 
 public class RightHashJoinTest {
 
@@ -32,6 +43,73 @@ public class RightHashJoinTest {
     assertEquals(7L, count);
   }
 
+  @Test
+  public void testManyMatchesAcrossBatches() throws DbException {
+    JoinTestUtils.checkManyMatchesAcrossBatches(RightHashJoin::new);
+  }
+
+  @Test
+  public void testBloomFilterProbeSide() throws DbException {
+    TupleBatchBuffer leftInput = TestUtils.generateRandomTuples(2000, 1000, false);
+    TupleBatchBuffer rightInput = TestUtils.generateRandomTuples(200, 1000, false);
+    /* The join fills the filter while building its hash table; the probe drops the left tuples which cannot join. */
+    Operator filteredLeft =
+        new BloomFilterProbe(
+            new BatchTupleSource(leftInput), new BloomFilterSource("right"), new int[] {0});
+    RightHashJoin join =
+        new RightHashJoin(
+            ImmutableList.of("id1", "name1", "id2", "name2"),
+            filteredLeft,
+            new BatchTupleSource(rightInput),
+            new int[] {0},
+            new int[] {0});
+    join.setBloomFilter("right", 1 << 12, 3);
+    Map<String, Object> execEnvVars = TestEnvVars.get();
+    join.open(execEnvVars);
+    TupleBatchBuffer result = new TupleBatchBuffer(join.getSchema());
+    while (!join.eos()) {
+      TupleBatch tb = join.nextReady();
+      if (tb != null) {
+        result.appendTB(tb);
+      }
+    }
+    join.close();
+    HashMap<Tuple, Integer> expected = TestUtils.naturalJoin(leftInput, rightInput, 0, 0);
+    TestUtils.assertTupleBagEqual(expected, TestUtils.tupleBatchToTupleBag(result));
+
+    /* The probe keeps every left tuple that joins, and drops most of the others. */
+    Set<Long> rightKeys = new HashSet<>();
+    for (TupleBatch tb : rightInput.getAll()) {
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        rightKeys.add(tb.getLong(0, row));
+      }
+    }
+    int numJoining = 0;
+    for (TupleBatch tb : leftInput.getAll()) {
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        if (rightKeys.contains(tb.getLong(0, row))) {
+          ++numJoining;
+        }
+      }
+    }
+    Operator probe =
+        new BloomFilterProbe(
+            new BatchTupleSource(leftInput), new BloomFilterSource("right"), new int[] {0});
+    probe.open(execEnvVars);
+    int numProbed = 0;
+    while (!probe.eos()) {
+      TupleBatch tb = probe.nextReady();
+      if (tb != null) {
+        numProbed += tb.numTuples();
+      }
+    }
+    probe.close();
+    int numNotJoining = leftInput.numTuples() - numJoining;
+    assertTrue(numNotJoining > 0);
+    assertTrue(numProbed >= numJoining);
+    assertTrue(leftInput.numTuples() - numProbed > numNotJoining / 2);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void testIncompatibleJoinKeys() throws DbException {
     BatchTupleSource left = new BatchTupleSource(JoinTestUtils.leftInput);
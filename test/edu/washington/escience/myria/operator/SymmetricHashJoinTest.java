@@ -1,14 +1,35 @@
 package edu.washington.escience.myria.operator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.BloomFilter;
 import edu.washington.escience.myria.util.JoinTestUtils;
 import edu.washington.escience.myria.util.TestEnvVars;
+import edu.washington.escience.myria.util.TestUtils;
+import edu.washington.escience.myria.util.Tuple;
 
 public class SymmetricHashJoinTest {
 
@@ -32,6 +53,153 @@ public class SymmetricHashJoinTest {
     assertEquals(7L, count);
   }
 
+  @Test
+  public void testManyMatchesAcrossBatches() throws DbException {
+    JoinTestUtils.checkManyMatchesAcrossBatches(SymmetricHashJoin::new);
+  }
+
+  @Test
+  public void testSpillToDisk() throws DbException {
+    TupleBatchBuffer leftInput = TestUtils.generateRandomTuples(2000, 100, false);
+    TupleBatchBuffer rightInput = TestUtils.generateRandomTuples(2000, 100, false);
+    SymmetricHashJoin join =
+        new SymmetricHashJoin(
+            ImmutableList.of("id1", "name1", "id2", "name2"),
+            new BatchTupleSource(splitBatches(leftInput, 100)),
+            new BatchTupleSource(splitBatches(rightInput, 100)),
+            new int[] {0},
+            new int[] {0});
+    /* Small enough to spill after a few batches and to partition the spilled tuples more than once. */
+    join.setMemoryBudget(2000);
+    join.open(TestEnvVars.get());
+    TupleBatchBuffer result = new TupleBatchBuffer(join.getSchema());
+    while (!join.eos()) {
+      TupleBatch tb = join.nextReady();
+      if (tb != null) {
+        result.appendTB(tb);
+      }
+    }
+    join.close();
+    HashMap<Tuple, Integer> expected = TestUtils.naturalJoin(leftInput, rightInput, 0, 0);
+    TestUtils.assertTupleBagEqual(expected, TestUtils.tupleBatchToTupleBag(result));
+  }
+
+  @Test
+  public void testBloomFilterOfSpilledJoin() throws DbException {
+    TupleBatchBuffer leftInput = TestUtils.generateRandomTuples(2000, 100, false);
+    TupleBatchBuffer rightInput = TestUtils.generateRandomTuples(2000, 100, false);
+    SymmetricHashJoin join =
+        new SymmetricHashJoin(
+            ImmutableList.of("id1", "name1", "id2", "name2"),
+            new BatchTupleSource(splitBatches(leftInput, 100)),
+            new BatchTupleSource(splitBatches(rightInput, 100)),
+            new int[] {0},
+            new int[] {0});
+    join.setMemoryBudget(2000);
+    join.setBloomFilter("right", 1 << 12, 3);
+    Map<String, Object> execEnvVars = TestEnvVars.get();
+    join.open(execEnvVars);
+    while (!join.eos()) {
+      join.nextReady();
+    }
+    join.close();
+
+    /* The keys of the right tuples which arrived after the join spilled are in the filter too. */
+    Operator source = new BloomFilterSource("right");
+    source.open(execEnvVars);
+    TupleBatch packed = source.nextReady();
+    assertEquals(1, packed.numTuples());
+    assertNull(source.nextReady());
+    assertTrue(source.eos());
+    source.close();
+    BloomFilter filter =
+        BloomFilter.unpack(packed.getInt(0, 0), packed.getInt(1, 0), packed.getString(2, 0));
+    for (TupleBatch tb : rightInput.getAll()) {
+      assertEquals(tb.numTuples(), filter.mightContainRows(tb, new int[] {0}).cardinality());
+    }
+  }
+
+  @Test
+  public void testCloseWhileSpilling() throws Exception {
+    Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+    final int numOpenBefore = numOpenSpillFiles();
+    TupleBatchBuffer leftInput = TestUtils.generateRandomTuples(2000, 100, false);
+    TupleBatchBuffer rightInput = TestUtils.generateRandomTuples(2000, 100, false);
+    TupleBatchBuffer ans =
+        new TupleBatchBuffer(
+            Schema.ofFields(
+                "id1",
+                Type.LONG_TYPE,
+                "name1",
+                Type.STRING_TYPE,
+                "id2",
+                Type.LONG_TYPE,
+                "name2",
+                Type.STRING_TYPE));
+    SpilledHashJoin spilled =
+        new SpilledHashJoin(
+            leftInput.getSchema(),
+            rightInput.getSchema(),
+            new int[] {0},
+            new int[] {0},
+            new int[] {0, 1},
+            new int[] {0, 1},
+            2000,
+            ans);
+    for (TupleBatch tb : leftInput.getAll()) {
+      spilled.add(tb, true);
+    }
+    for (TupleBatch tb : rightInput.getAll()) {
+      spilled.add(tb, false);
+    }
+    /* Stops once a TupleBatch of results is filled, in the middle of a partition join. */
+    spilled.drain();
+    assertTrue(ans.hasFilledTB());
+    /* New tuples arriving meanwhile open new runs. */
+    for (TupleBatch tb : leftInput.getAll()) {
+      spilled.add(tb, true);
+    }
+    assertTrue(numOpenSpillFiles() > numOpenBefore);
+    spilled.close();
+    assertEquals(numOpenBefore, numOpenSpillFiles());
+  }
+
+  /** @return the number of files of spilled joins this process has open. */
+  private static int numOpenSpillFiles() throws IOException {
+    int count = 0;
+    try (DirectoryStream<Path> fds = Files.newDirectoryStream(Paths.get("/proc/self/fd"))) {
+      for (Path fd : fds) {
+        try {
+          if (Files.readSymbolicLink(fd).toString().contains("myria-join-spill")) {
+            ++count;
+          }
+        } catch (IOException e) {
+          /* Closed meanwhile, e.g. the descriptor listing the directory. */
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Split the tuples of a buffer into batches of the given size, so that a join sees them arrive gradually. */
+  private static List<TupleBatch> splitBatches(final TupleBatchBuffer input, final int size) {
+    TupleBatchBuffer split = new TupleBatchBuffer(input.getSchema());
+    List<TupleBatch> ret = new ArrayList<>();
+    for (TupleBatch tb : input.getAll()) {
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        split.append(tb, row);
+        if (split.numTuples() == size) {
+          ret.add(split.popAny());
+        }
+      }
+    }
+    TupleBatch last = split.popAny();
+    if (last != null) {
+      ret.add(last);
+    }
+    return ret;
+  }
+
   @Test(expected = IllegalStateException.class)
   public void testIncompatibleJoinKeys() throws DbException {
     BatchTupleSource left = new BatchTupleSource(JoinTestUtils.leftInput);
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -13,6 +15,9 @@ import com.google.common.hash.Hashing;
 import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.Column;
+import edu.washington.escience.myria.column.builder.ColumnBuilder;
+import edu.washington.escience.myria.column.builder.ColumnFactory;
 import edu.washington.escience.myria.expression.AbsExpression;
 import edu.washington.escience.myria.expression.AndExpression;
 import edu.washington.escience.myria.expression.CeilExpression;
@@ -655,6 +660,61 @@ public class ApplyTest {
     apply.close();
   }
 
+  @Test
+  public void testBatchEvaluation() throws Exception {
+    final Schema schema =
+        Schema.ofFields(
+            "a", Type.INT_TYPE, "b", Type.LONG_TYPE, "c", Type.FLOAT_TYPE, "d", Type.DOUBLE_TYPE, "e",
+            Type.STRING_TYPE);
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+    for (int i = 0; i < TupleBatch.BATCH_SIZE; i++) {
+      tbb.putInt(0, i);
+      tbb.putLong(1, 3L * i - 7);
+      tbb.putFloat(2, i / 4.0f);
+      tbb.putDouble(3, Math.sqrt(i));
+      tbb.putString(4, "Foo" + i);
+    }
+    final TupleBatch tb = tbb.popAny();
+    final BitSet evenRows = new BitSet(tb.numTuples());
+    for (int i = 0; i < tb.numTuples(); i += 2) {
+      evenRows.set(i);
+    }
+
+    ExpressionOperator vara = new VariableExpression(0);
+    ExpressionOperator varb = new VariableExpression(1);
+    ExpressionOperator varc = new VariableExpression(2);
+    ExpressionOperator vard = new VariableExpression(3);
+    ExpressionOperator vare = new VariableExpression(4);
+    final List<Expression> expressions =
+        ImmutableList.of(
+            new Expression("long", new TimesExpression(new PlusExpression(vara, varb), varb)),
+            new Expression("float", new MinusExpression(varc, new ConstantExpression(0.5f))),
+            new Expression("double", new DivideExpression(vard, new PlusExpression(varc, vara))),
+            new Expression("int", new PlusExpression(new LenExpression(vare), vara)),
+            new Expression(
+                "conditional",
+                new ConditionalExpression(
+                    new GreaterThanExpression(varb, vara), new ModuloExpression(vara, varb), vara)));
+
+    final ExpressionOperatorParameter parameters = new ExpressionOperatorParameter(schema);
+    for (final Expression expr : expressions) {
+      final GenericEvaluator eval = new GenericEvaluator(expr, parameters);
+      eval.compile();
+      for (final TupleBatch input : ImmutableList.of(tb, tb.filter(evenRows))) {
+        final Column<?> batchResult = eval.evaluateColumn(input).getResultColumns().get(0);
+        final ColumnBuilder<?> rowResult = ColumnFactory.allocateColumn(eval.getOutputType());
+        for (int row = 0; row < input.numTuples(); ++row) {
+          eval.eval(input, row, null, rowResult, null);
+        }
+        assertEquals(eval.getOutputType(), batchResult.getType());
+        assertEquals(input.numTuples(), batchResult.size());
+        for (int row = 0; row < input.numTuples(); ++row) {
+          assertEquals(rowResult.getObject(row), batchResult.getObject(row));
+        }
+      }
+    }
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void conditionalNeedsBooleancondition() throws IllegalArgumentException {
     ExpressionOperator a = new ConstantExpression(Type.INT_TYPE, "1");
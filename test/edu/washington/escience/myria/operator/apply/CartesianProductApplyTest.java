@@ -2,6 +2,7 @@ package edu.washington.escience.myria.operator.apply;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Stream;
@@ -17,6 +18,7 @@ import edu.washington.escience.myria.Type;
 import edu.washington.escience.myria.expression.ConstantExpression;
 import edu.washington.escience.myria.expression.Expression;
 import edu.washington.escience.myria.expression.ExpressionOperator;
+import edu.washington.escience.myria.expression.SequenceExpression;
 import edu.washington.escience.myria.expression.SplitExpression;
 import edu.washington.escience.myria.expression.VariableExpression;
 import edu.washington.escience.myria.operator.Apply;
@@ -70,4 +72,64 @@ public class CartesianProductApplyTest {
     assertEquals(input1.size() * input2.size(), rowIdx);
     apply.close();
   }
+
+  @Test
+  public void testApplyAcrossBatches() throws DbException {
+    final Schema schema =
+        Schema.ofFields("id", Type.LONG_TYPE, "n1", Type.LONG_TYPE, "n2", Type.LONG_TYPE);
+    final TupleBatchBuffer input = new TupleBatchBuffer(schema);
+    final int numInputRows = 2 * TupleBatch.BATCH_SIZE + 17;
+    for (long i = 0; i < numInputRows; ++i) {
+      input.putLong(0, i);
+      input.putLong(1, i % 5);
+      input.putLong(2, i % 3);
+    }
+    final List<Expression> expressions =
+        ImmutableList.of(
+            new Expression("id", new VariableExpression(0)),
+            new Expression("s1", new SequenceExpression(new VariableExpression(1))),
+            new Expression("s2", new SequenceExpression(new VariableExpression(2))));
+
+    final Apply apply = new Apply(new BatchTupleSource(input), expressions);
+    apply.open(TestEnvVars.get());
+    final List<TupleBatch> results = new ArrayList<>();
+    while (!apply.eos()) {
+      final TupleBatch result = apply.nextReady();
+      if (result != null) {
+        results.add(result);
+      }
+    }
+    apply.close();
+
+    long id = 0;
+    long s1 = 0;
+    long s2 = 0;
+    int numOutputRows = 0;
+    for (int batchIdx = 0; batchIdx < results.size(); ++batchIdx) {
+      final TupleBatch result = results.get(batchIdx);
+      if (batchIdx < results.size() - 1) {
+        assertEquals(TupleBatch.BATCH_SIZE, result.numTuples());
+      }
+      for (int row = 0; row < result.numTuples(); ++row, ++numOutputRows) {
+        /* Skip the input rows without output, and advance to the next element of the Cartesian product. */
+        while (s1 >= id % 5 || s2 >= id % 3) {
+          ++id;
+          s1 = 0;
+          s2 = 0;
+        }
+        assertEquals(id, result.getLong(0, row));
+        assertEquals(s1, result.getLong(1, row));
+        assertEquals(s2, result.getLong(2, row));
+        if (++s2 == id % 3) {
+          s2 = 0;
+          ++s1;
+        }
+      }
+    }
+    int expected = 0;
+    for (int i = 0; i < numInputRows; ++i) {
+      expected += (i % 5) * (i % 3);
+    }
+    assertEquals(expected, numOutputRows);
+  }
 }
@@ -0,0 +1,87 @@
+package edu.washington.escience.myria.operator.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.network.partition.SkewedHashPartitionFunction;
+import edu.washington.escience.myria.operator.network.partition.SkewedHashPartitionFunction.Side;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+import edu.washington.escience.myria.util.MyriaArrayUtils;
+
+public class GenericShuffleProducerTest {
+
+  private static final int NUM_PARTITIONS = 4;
+  private static final long HOT_KEY = 7;
+  private static final Schema SCHEMA =
+      Schema.ofFields("payload", Type.INT_TYPE, "key", Type.LONG_TYPE);
+
+  @Test
+  public void testEOIAfterReplicatedHotKeys() {
+    final SkewedHashPartitionFunction pf =
+        new SkewedHashPartitionFunction(
+            NUM_PARTITIONS,
+            new int[] {1},
+            Side.REPLICATE,
+            ImmutableList.<List<Object>>of(ImmutableList.<Object>of(HOT_KEY)),
+            2,
+            null);
+    final int[][] channelIndices =
+        GenericShuffleProducer.outputToChannel(
+            pf, MyriaArrayUtils.create2DVerticalIndex(NUM_PARTITIONS));
+
+    /* A few tuples of every key, left in the buffers as partial batches, as between two EOIs. */
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < 100; ++i) {
+      tbb.putInt(0, i);
+      tbb.putLong(1, i % 2 == 0 ? HOT_KEY : i);
+    }
+    final TupleBatch[] partitions = tbb.popAny().partition(pf);
+    final TupleBatchBuffer[] buffers = new TupleBatchBuffer[pf.numOutputs()];
+    final int[] expectedTuples = new int[NUM_PARTITIONS];
+    for (int output = 0; output < buffers.length; ++output) {
+      buffers[output] = new TupleBatchBuffer(SCHEMA);
+      if (partitions[output] != null) {
+        buffers[output].absorb(partitions[output]);
+        for (final int channel : channelIndices[output]) {
+          expectedTuples[channel] += partitions[output].numTuples();
+        }
+      }
+    }
+
+    /* What childEOI writes. */
+    final List<LinkedList<TupleBatch>> pending = new ArrayList<>();
+    for (int channel = 0; channel < NUM_PARTITIONS; ++channel) {
+      pending.add(new LinkedList<TupleBatch>());
+    }
+    Producer.bufferPartitions(
+        buffers,
+        channelIndices,
+        TupleBatch.eoiTupleBatch(SCHEMA).partition(pf),
+        false,
+        channel -> false,
+        pending);
+
+    for (int channel = 0; channel < NUM_PARTITIONS; ++channel) {
+      final LinkedList<TupleBatch> batches = pending.get(channel);
+      assertTrue(batches.getLast().isEOI());
+      int numTuples = 0;
+      for (final TupleBatch tb : batches.subList(0, batches.size() - 1)) {
+        assertFalse(tb.isEOI());
+        numTuples += tb.numTuples();
+      }
+      assertEquals(expectedTuples[channel], numTuples);
+    }
+  }
+}
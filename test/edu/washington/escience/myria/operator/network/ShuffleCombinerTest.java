@@ -0,0 +1,131 @@
+package edu.washington.escience.myria.operator.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.agg.PrimitiveAggregator.AggregationOp;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class ShuffleCombinerTest {
+
+  private static final Schema SCHEMA =
+      Schema.ofFields(
+          "sum", Type.LONG_TYPE, "key", Type.STRING_TYPE, "max", Type.INT_TYPE, "isum", Type.INT_TYPE);
+
+  private static ShuffleCombiner combiner(final Integer maxGroups) {
+    return new ShuffleCombiner(
+        new int[] {1},
+        new AggregationOp[] {AggregationOp.SUM, AggregationOp.MAX, AggregationOp.SUM},
+        maxGroups,
+        null);
+  }
+
+  /** Tuple i has key (i / run) % numKeys. */
+  private static List<TupleBatch> input(final int numKeys, final int run, final int numTuples) {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < numTuples; ++i) {
+      tbb.putLong(0, i);
+      tbb.putString(1, "key" + (i / run) % numKeys);
+      tbb.putInt(2, i);
+      tbb.putInt(3, (i / run) % numKeys == 0 ? Integer.MAX_VALUE / 3 : 1);
+    }
+    return tbb.getAll();
+  }
+
+  /** Aggregates the batches by key into {sum, max, isum}, as the aggregate after the shuffle would. */
+  private static Map<String, long[]> aggregate(final List<TupleBatch> batches) {
+    final Map<String, long[]> ret = new HashMap<>();
+    for (final TupleBatch tb : batches) {
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        final long[] agg = ret.get(tb.getString(1, row));
+        if (agg == null) {
+          ret.put(
+              tb.getString(1, row),
+              new long[] {tb.getLong(0, row), tb.getInt(2, row), tb.getInt(3, row)});
+        } else {
+          agg[0] += tb.getLong(0, row);
+          agg[1] = Math.max(agg[1], tb.getInt(2, row));
+          agg[2] += tb.getInt(3, row);
+        }
+      }
+    }
+    return ret;
+  }
+
+  private static List<TupleBatch> combineAll(
+      final ShuffleCombiner combiner, final List<TupleBatch> batches) {
+    final List<TupleBatch> ret = new ArrayList<>();
+    for (final TupleBatch tb : batches) {
+      ret.addAll(combiner.combine(tb));
+    }
+    ret.addAll(combiner.flush());
+    return ret;
+  }
+
+  private static int numTuples(final List<TupleBatch> batches) {
+    int ret = 0;
+    for (final TupleBatch tb : batches) {
+      ret += tb.numTuples();
+    }
+    return ret;
+  }
+
+  @Test
+  public void testFewGroups() {
+    final List<TupleBatch> batches = input(7, 1, 5 * TupleBatch.BATCH_SIZE);
+    final ShuffleCombiner combiner = combiner(null);
+    final List<TupleBatch> output = combineAll(combiner, batches);
+    assertFalse(combiner.isDisabled());
+    /* The sum of isum of key0 overflows an int every 3 tuples and sends a partial row each time. */
+    assertTrue(numTuples(output) <= 7 + 5 * TupleBatch.BATCH_SIZE / 7 / 3 + 1);
+    for (final TupleBatch tb : output) {
+      assertEquals(SCHEMA, tb.getSchema());
+    }
+    final Map<String, long[]> expected = aggregate(batches);
+    final Map<String, long[]> actual = aggregate(output);
+    assertEquals(expected.keySet(), actual.keySet());
+    for (final String key : expected.keySet()) {
+      for (int i = 0; i < 3; ++i) {
+        assertEquals(expected.get(key)[i], actual.get(key)[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testFullTable() {
+    /* More keys than the table holds, but each key comes in runs. */
+    final List<TupleBatch> batches = input(20, 100, 10 * TupleBatch.BATCH_SIZE);
+    final ShuffleCombiner combiner = combiner(16);
+    final List<TupleBatch> output = combineAll(combiner, batches);
+    assertFalse(combiner.isDisabled());
+    final Map<String, long[]> expected = aggregate(batches);
+    final Map<String, long[]> actual = aggregate(output);
+    for (final String key : expected.keySet()) {
+      for (int i = 0; i < 3; ++i) {
+        assertEquals(expected.get(key)[i], actual.get(key)[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testDisabled() {
+    final List<TupleBatch> batches = input(Integer.MAX_VALUE, 1, 4 * TupleBatch.BATCH_SIZE);
+    final ShuffleCombiner combiner = combiner(TupleBatch.BATCH_SIZE / 2);
+    final List<TupleBatch> output = combineAll(combiner, batches);
+    assertTrue(combiner.isDisabled());
+    assertEquals(4 * TupleBatch.BATCH_SIZE, numTuples(output));
+    /* Once disabled, batches pass through. */
+    assertTrue(output.contains(batches.get(3)));
+  }
+}
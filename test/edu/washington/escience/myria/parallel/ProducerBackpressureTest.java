@@ -0,0 +1,291 @@
+package edu.washington.escience.myria.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.MyriaConstants.FTMode;
+import edu.washington.escience.myria.MyriaConstants.ProfilingMode;
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.BatchTupleSource;
+import edu.washington.escience.myria.operator.network.GenericShuffleProducer;
+import edu.washington.escience.myria.operator.network.partition.RoundRobinPartitionFunction;
+import edu.washington.escience.myria.parallel.ipc.FlowControlBagInputBuffer;
+import edu.washington.escience.myria.parallel.ipc.IPCConnectionPool;
+import edu.washington.escience.myria.parallel.ipc.IPCMessage;
+import edu.washington.escience.myria.parallel.ipc.InJVMLoopbackChannelSink;
+import edu.washington.escience.myria.parallel.ipc.ShortMessageProcessor;
+import edu.washington.escience.myria.parallel.ipc.StreamIOChannelID;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+/**
+ * A fragment whose output channel is full parks, and is rescheduled when the channel drains.
+ */
+public class ProducerBackpressureTest {
+
+  /** The IPC ID of the worker, which sends to itself through an in JVM channel. */
+  private static final int MY_ID = 0;
+  /** The operator ID of the exchange. */
+  private static final ExchangePairID OPERATOR_ID = ExchangePairID.newID();
+  /** The tuples of each batch of the child. */
+  private static final int BATCH_SIZE = 10;
+  /** The batches of the child. */
+  private static final int NUM_BATCHES = 2;
+  /** How long to wait for the fragment. */
+  private static final long TIMEOUT_MS = 10 * 1000;
+  /** How long a parked fragment must stay parked. */
+  private static final long PARKED_MS = 200;
+
+  /** The connection pool of the worker. */
+  private IPCConnectionPool pool;
+  /** The executor of the fragment. */
+  private CountingExecutor executor;
+  /** The input buffer of the consumer, which pauses the channel as soon as it holds a message. */
+  private FlowControlBagInputBuffer<TupleBatch> buffer;
+  /** The producing fragment. */
+  private LocalFragment fragment;
+
+  /** Counts the tasks submitted and the tasks running. */
+  private static final class CountingExecutor extends ThreadPoolExecutor {
+    /** The tasks submitted. */
+    private final AtomicInteger numSubmitted = new AtomicInteger();
+    /** The tasks running. */
+    private final AtomicInteger numRunning = new AtomicInteger();
+
+    CountingExecutor() {
+      super(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+      numSubmitted.incrementAndGet();
+      super.execute(command);
+    }
+
+    @Override
+    protected void beforeExecute(final Thread t, final Runnable r) {
+      numRunning.incrementAndGet();
+    }
+
+    @Override
+    protected void afterExecute(final Runnable r, final Throwable t) {
+      numRunning.decrementAndGet();
+    }
+
+    /**
+     * @return true if no task of the fragment runs or waits to run.
+     */
+    boolean isIdle() {
+      return numRunning.get() == 0 && getQueue().isEmpty();
+    }
+  }
+
+  /** The subquery of the fragment, which is only asked for its modes. */
+  private static final class TestSubQuery extends LocalSubQuery {
+    TestSubQuery() {
+      super(new SubQueryId(1, 0), FTMode.NONE, ImmutableSet.<ProfilingMode>of(), 1);
+    }
+
+    @Override
+    void startExecution() {}
+
+    @Override
+    void init() {}
+
+    @Override
+    void kill() {}
+
+    @Override
+    public Set<Integer> getMissingWorkers() {
+      return ImmutableSet.of();
+    }
+
+    @Override
+    LocalSubQueryFuture getExecutionFuture() {
+      return null;
+    }
+
+    @Override
+    Set<LocalFragment> getFragments() {
+      return ImmutableSet.of();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    pool =
+        new IPCConnectionPool(
+            MY_ID,
+            ImmutableMap.of(MY_ID, new SocketInfo(0)),
+            /* Only the in JVM channel is used, so the sockets need no options. */
+            new ServerBootstrap(),
+            new ClientBootstrap(),
+            new TransportMessageSerializer(),
+            new ShortMessageProcessor<Object>() {
+              @Override
+              public boolean processMessage(
+                  final Channel ch, final IPCMessage.Data<Object> message) {
+                return true;
+              }
+
+              @Override
+              public Object getAttachment() {
+                return null;
+              }
+
+              @Override
+              public Object setAttachment(final Object attachment) {
+                return null;
+              }
+            },
+            1,
+            0,
+            0);
+    pool.start(
+        new NioServerSocketChannelFactory(
+            Executors.newCachedThreadPool(), Executors.newCachedThreadPool()),
+        new IPCPipelineFactories.WorkerServerPipelineFactory(pool, null),
+        new NioClientSocketChannelFactory(
+            Executors.newCachedThreadPool(), Executors.newCachedThreadPool()),
+        new IPCPipelineFactories.WorkerClientPipelineFactory(pool, null),
+        new IPCPipelineFactories.WorkerInJVMPipelineFactory(pool),
+        new InJVMLoopbackChannelSink());
+
+    buffer =
+        new FlowControlBagInputBuffer<>(
+            pool, ImmutableSet.of(new StreamIOChannelID(OPERATOR_ID.getLong(), MY_ID)), 1, 0);
+    buffer.start(new Object());
+
+    final List<TupleBatch> batches = new ArrayList<>();
+    for (int b = 0; b < NUM_BATCHES; ++b) {
+      final TupleBatchBuffer tuples = new TupleBatchBuffer(Schema.ofFields("x", Type.LONG_TYPE));
+      for (int i = 0; i < BATCH_SIZE; ++i) {
+        tuples.putLong(0, b * BATCH_SIZE + i);
+      }
+      batches.add(tuples.popAny());
+    }
+    /* Both partitions go to the one channel, so each batch of the child is written as two messages. */
+    final GenericShuffleProducer producer =
+        new GenericShuffleProducer(
+            new BatchTupleSource(batches),
+            OPERATOR_ID,
+            new int[][] {{0}, {0}},
+            new int[] {MY_ID},
+            new RoundRobinPartitionFunction(2));
+    executor = new CountingExecutor();
+    fragment = new LocalFragment(pool, new TestSubQuery(), producer, executor);
+    fragment.init(
+        ImmutableMap.<String, Object>of(
+            MyriaConstants.EXEC_ENV_VAR_EXECUTION_MODE, QueryExecutionMode.BLOCKING));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    pool.releaseExternalResources();
+  }
+
+  /**
+   * Wait until the fragment has filled the channel and stopped, then check that it stays stopped: no thread runs it
+   * and it is not resubmitted while its output channel is full.
+   */
+  private void assertParks() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!(buffer.size() > 0 && executor.isIdle())) {
+      assertTrue("the fragment did not park: " + fragment, System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+    final int numSubmitted = executor.numSubmitted.get();
+    Thread.sleep(PARKED_MS);
+    assertTrue(executor.isIdle());
+    assertEquals(numSubmitted, executor.numSubmitted.get());
+    assertEquals(1, buffer.size());
+    assertFalse(buffer.isEOS());
+    assertFalse(fragment.isFinished());
+  }
+
+  /**
+   * Take the message out of the full buffer, which makes the channel writable, and check that the fragment is
+   * rescheduled.
+   *
+   * @param received the tuples received so far.
+   */
+  private void drainAndResume(final List<Long> received) throws InterruptedException {
+    final int numSubmitted = executor.numSubmitted.get();
+    final TupleBatch tb = buffer.poll().getPayload();
+    assertNotNull(tb);
+    for (int i = 0; i < tb.numTuples(); ++i) {
+      received.add(tb.getLong(0, i));
+    }
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (executor.numSubmitted.get() == numSubmitted) {
+      assertTrue(
+          "OUTPUT_RECOVERED did not resume the fragment", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testParksAndResumesWhenTheChannelDrains() throws Exception {
+    fragment.start();
+    final List<Long> received = new ArrayList<>();
+
+    /* The first message of each batch of the child fills the channel, and the second one waits for it. */
+    for (int b = 0; b < NUM_BATCHES; ++b) {
+      assertParks();
+      drainAndResume(received);
+    }
+
+    /* The child is at EOS, but the last message waits for the channel, so the end of the channel waits too. */
+    assertParks();
+    drainAndResume(received);
+
+    /* The deferred end of the channel is sent once the last message is written. */
+    final IPCMessage.StreamData<TupleBatch> last = buffer.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(last);
+    final TupleBatch tb = last.getPayload();
+    for (int i = 0; i < tb.numTuples(); ++i) {
+      received.add(tb.getLong(0, i));
+    }
+    final IPCMessage.StreamData<TupleBatch> eos = buffer.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(eos);
+    assertNull(eos.getPayload());
+    assertTrue(
+        "the fragment did not finish: " + fragment,
+        fragment.getExecutionFuture().await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertTrue(fragment.getExecutionFuture().isSuccess());
+
+    Collections.sort(received);
+    assertEquals(NUM_BATCHES * BATCH_SIZE, received.size());
+    for (int i = 0; i < received.size(); ++i) {
+      assertEquals(i, (long) received.get(i));
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package edu.washington.escience.myria.parallel.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class FlowControlBagInputBufferTest {
+
+  /** The ID of the remote sending the streams. */
+  private static final int REMOTE_ID = 2;
+  /** The estimated bytes of every message. */
+  private static final long MESSAGE_BYTES = 100;
+  /** The messages the budget holds. */
+  private static final int BUDGET_MESSAGES = 10;
+  /** The soft capacity, and recover trigger, of the buffers: large enough that only the budget pauses them. */
+  private static final int SOFT_CAPACITY = 100;
+
+  /** The budget the two buffers share. */
+  private InputBufferMemoryBudget budget;
+  /** A buffer. */
+  private FlowControlBagInputBuffer<Integer> first;
+  /** The other buffer. */
+  private FlowControlBagInputBuffer<Integer> second;
+  /** If the events of the first buffer paused its reads. */
+  private PauseTracker firstPaused;
+  /** If the events of the second buffer paused its reads. */
+  private PauseTracker secondPaused;
+
+  /** Tracks if the events of a buffer last paused or resumed the reads of its input channels. */
+  private static final class PauseTracker {
+    /** If the reads are paused. */
+    private volatile boolean paused = false;
+
+    /**
+     * @param buffer the buffer.
+     */
+    PauseTracker(final FlowControlBagInputBuffer<?> buffer) {
+      buffer.addListener(FlowControlBagInputBuffer.INPUT_BUFFER_FULL, e -> paused = true);
+      buffer.addListener(FlowControlBagInputBuffer.INPUT_BUFFER_RECOVER, e -> paused = false);
+      buffer.addListener(FlowControlBagInputBuffer.INPUT_BUFFER_EMPTY, e -> paused = false);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    budget = new InputBufferMemoryBudget(BUDGET_MESSAGES * MESSAGE_BYTES);
+    first = newBuffer(1L);
+    second = newBuffer(2L);
+    firstPaused = new PauseTracker(first);
+    secondPaused = new PauseTracker(second);
+  }
+
+  /**
+   * @param streamID the ID of the stream of the buffer.
+   * @return a started buffer, accounted against {@link #budget}.
+   */
+  private FlowControlBagInputBuffer<Integer> newBuffer(final long streamID) {
+    /* Messages are offered through the channel, so the buffer needs no connection pool. */
+    final FlowControlBagInputBuffer<Integer> buffer =
+        new FlowControlBagInputBuffer<>(
+            null,
+            ImmutableSet.of(new StreamIOChannelID(streamID, REMOTE_ID)),
+            SOFT_CAPACITY,
+            SOFT_CAPACITY,
+            payload -> MESSAGE_BYTES,
+            budget);
+    buffer.start(new Object());
+    return buffer;
+  }
+
+  /**
+   * @param buffer the buffer.
+   * @param numMessages the number of messages to offer to its input channel.
+   */
+  private static void offer(
+      final FlowControlBagInputBuffer<Integer> buffer, final int numMessages) {
+    final StreamIOChannelID id = buffer.getSourceChannels().iterator().next();
+    for (int i = 0; i < numMessages; ++i) {
+      assertTrue(
+          buffer
+              .getInputChannel(id)
+              .offerOrDefer(IPCMessage.StreamData.wrap(REMOTE_ID, id.getStreamID(), i)));
+    }
+  }
+
+  /**
+   * @param buffer the buffer.
+   * @param numMessages the number of messages to take out of it.
+   */
+  private static void poll(
+      final FlowControlBagInputBuffer<Integer> buffer, final int numMessages) {
+    for (int i = 0; i < numMessages; ++i) {
+      assertNotNull(buffer.poll());
+    }
+  }
+
+  @Test
+  public void testPausesWhenTheBudgetIsExhausted() {
+    offer(second, BUDGET_MESSAGES - 4);
+    offer(first, 3);
+    assertFalse(firstPaused.paused);
+    assertFalse(secondPaused.paused);
+
+    /* Far below its soft capacity, the buffer which exhausts the budget pauses. */
+    offer(first, 1);
+    assertTrue(budget.isExhausted());
+    assertTrue(firstPaused.paused);
+    assertFalse(secondPaused.paused);
+    /* So does any buffer receiving a message while the budget is exhausted. */
+    offer(second, 1);
+    assertTrue(secondPaused.paused);
+    assertEquals((BUDGET_MESSAGES + 1) * MESSAGE_BYTES, budget.getUsed());
+  }
+
+  @Test
+  public void testResumesWhenTheBudgetRecovers() {
+    offer(second, BUDGET_MESSAGES - 4);
+    offer(first, 4);
+    assertTrue(firstPaused.paused);
+
+    /* The budget is no longer exhausted, but not back to 80% of it yet. */
+    poll(first, 1);
+    assertFalse(budget.isExhausted());
+    assertFalse(budget.isRecovered());
+    assertTrue(firstPaused.paused);
+
+    /* Back to 80% of the budget. */
+    poll(first, 1);
+    assertEquals(BUDGET_MESSAGES * MESSAGE_BYTES * 8 / 10, budget.getUsed());
+    assertFalse(firstPaused.paused);
+    assertEquals(2, first.size());
+  }
+
+  @Test
+  public void testResumesWhenEmpty() {
+    offer(second, BUDGET_MESSAGES - 1);
+    offer(first, 1);
+    assertTrue(firstPaused.paused);
+
+    /* An empty buffer resumes even though the other one still holds most of the budget. */
+    poll(first, 1);
+    assertFalse(budget.isRecovered());
+    assertFalse(firstPaused.paused);
+  }
+}
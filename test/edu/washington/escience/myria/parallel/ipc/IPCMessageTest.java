@@ -0,0 +1,43 @@
+package edu.washington.escience.myria.parallel.ipc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.parallel.TransportMessageSerializer;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class IPCMessageTest {
+
+  @Test
+  public void testTupleBatchAfterSerializeHead() throws Exception {
+    final Schema schema =
+        Schema.ofFields("id", Type.LONG_TYPE, "count", Type.INT_TYPE, "name", Type.STRING_TYPE);
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+    for (int i = 0; i < 100; ++i) {
+      tbb.putLong(0, 7L * i);
+      tbb.putInt(1, -i);
+      tbb.putString(2, "name" + i);
+    }
+    final TupleBatch tb = tbb.popAny();
+    final TransportMessageSerializer serializer = new TransportMessageSerializer();
+    /* As IPCMessageHandler writes a batch to a remote channel. */
+    final ChannelBuffer sent =
+        ChannelBuffers.wrappedBuffer(IPCMessage.Data.SERIALIZE_HEAD, serializer.serialize(tb));
+    final ChannelBuffer received = ChannelBuffers.buffer(sent.readableBytes());
+    received.writeBytes(sent);
+    assertEquals(IPCMessage.Data.SERIALIZE_HEAD.getByte(0), received.readByte());
+    final TupleBatch decoded = (TupleBatch) serializer.deSerialize(received, null, schema);
+    assertEquals(tb.numTuples(), decoded.numTuples());
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      assertEquals(tb.getLong(0, row), decoded.getLong(0, row));
+      assertEquals(tb.getInt(1, row), decoded.getInt(1, row));
+      assertEquals(tb.getString(2, row), decoded.getString(2, row));
+    }
+  }
+}
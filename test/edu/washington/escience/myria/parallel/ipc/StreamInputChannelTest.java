@@ -0,0 +1,116 @@
+package edu.washington.escience.myria.parallel.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class StreamInputChannelTest {
+
+  /** The ID of the stream. */
+  private static final long STREAM_ID = 1L;
+  /** The ID of the remote sending the stream. */
+  private static final int REMOTE_ID = 2;
+  /** The messages the ring of the buffer holds. */
+  private static final int RING_SIZE = 4;
+
+  private SimpleBagInputBuffer<Integer> buffer;
+  private StreamInputChannel<Integer> channel;
+
+  @Before
+  public void setUp() {
+    final StreamIOChannelID id = new StreamIOChannelID(STREAM_ID, REMOTE_ID);
+    /* Messages are offered through the channel, so the buffer needs no connection pool. */
+    buffer = new SimpleBagInputBuffer<>(null, ImmutableSet.of(id), RING_SIZE);
+    buffer.start(new Object());
+    channel = buffer.getInputChannel(id);
+  }
+
+  private static IPCMessage.StreamData<Integer> data(final int value) {
+    return IPCMessage.StreamData.wrap(REMOTE_ID, STREAM_ID, value);
+  }
+
+  /**
+   * Fill the ring, then offer {@code numDeferred} more values and the EOS, which are all deferred.
+   *
+   * @param numDeferred the number of values deferred before the EOS.
+   */
+  private void fillAndDefer(final int numDeferred) {
+    for (int i = 0; i < RING_SIZE; ++i) {
+      assertTrue(channel.offerOrDefer(data(i)));
+    }
+    for (int i = RING_SIZE; i < RING_SIZE + numDeferred; ++i) {
+      assertFalse(channel.offerOrDefer(data(i)));
+    }
+    assertFalse(channel.offerOrDefer(IPCMessage.StreamData.<Integer>eos(REMOTE_ID, STREAM_ID)));
+    assertTrue(channel.hasDeferred());
+    assertTrue(channel.isPausedForDeferral());
+    assertFalse(buffer.isEOS());
+  }
+
+  /**
+   * @param numValues the number of values expected before the EOS.
+   */
+  private void drainInOrder(final int numValues) {
+    final List<IPCMessage.StreamData<Integer>> drained = new ArrayList<>();
+    while (buffer.drainTo(drained, RING_SIZE) > 0) {
+      continue;
+    }
+    assertEquals(numValues + 1, drained.size());
+    for (int i = 0; i < numValues; ++i) {
+      assertEquals(i, (int) drained.get(i).getPayload());
+    }
+    assertNull(drained.get(numValues).getPayload());
+    assertTrue(buffer.isEOS());
+    assertFalse(channel.hasDeferred());
+    assertFalse(channel.isPausedForDeferral());
+  }
+
+  @Test
+  public void testDeferredMessagesArriveInOrder() {
+    for (int i = 0; i < RING_SIZE; ++i) {
+      assertTrue(channel.offerOrDefer(data(i)));
+    }
+    assertFalse(channel.offerOrDefer(data(RING_SIZE)));
+    assertTrue(channel.isPausedForDeferral());
+    /* A message queues behind the deferred one even once the ring has room. */
+    final List<IPCMessage.StreamData<Integer>> drained = new ArrayList<>();
+    drained.add(buffer.poll());
+    assertFalse(channel.offerOrDefer(data(RING_SIZE + 1)));
+    assertFalse(channel.offerOrDefer(IPCMessage.StreamData.<Integer>eos(REMOTE_ID, STREAM_ID)));
+    while (buffer.drainTo(drained, RING_SIZE) > 0) {
+      continue;
+    }
+    assertEquals(RING_SIZE + 3, drained.size());
+    for (int i = 0; i < RING_SIZE + 2; ++i) {
+      assertEquals(i, (int) drained.get(i).getPayload());
+    }
+    assertNull(drained.get(RING_SIZE + 2).getPayload());
+    assertTrue(buffer.isEOS());
+    assertFalse(channel.isPausedForDeferral());
+  }
+
+  @Test
+  public void testDeferredEOSArrivesLast() {
+    fillAndDefer(RING_SIZE - 1);
+    drainInOrder(2 * RING_SIZE - 1);
+  }
+
+  @Test
+  public void testKeepsPauseOfInputBuffer() {
+    /* The input buffer pauses the channel, e.g. because its soft capacity is reached. */
+    channel.pauseRead();
+    fillAndDefer(2);
+    drainInOrder(RING_SIZE + 2);
+    /* Storing the deferred messages lifted the pause for deferral only: the channel was still paused. */
+    assertFalse(channel.resumeRead().isSuccess());
+  }
+}
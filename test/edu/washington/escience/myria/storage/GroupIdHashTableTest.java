@@ -0,0 +1,95 @@
+package edu.washington.escience.myria.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+
+public class GroupIdHashTableTest {
+
+  private static final Schema SCHEMA =
+      new Schema(ImmutableList.of(Type.LONG_TYPE, Type.STRING_TYPE), ImmutableList.of("a", "b"));
+
+  private static final int[] KEY = new int[] {0, 1};
+
+  @Test
+  public void testInsertAndFindAcrossGrowth() {
+    MutableTupleBuffer keys = new MutableTupleBuffer(SCHEMA);
+    GroupIdHashTable table = new GroupIdHashTable(keys, KEY);
+    final int n = 10000;
+    for (int i = 0; i < n; ++i) {
+      keys.putLong(0, i);
+      keys.putString(1, "s" + i);
+      /* Only 7 distinct hash codes, so most keys collide and must be told apart by their values. */
+      table.insert(i % 7, i, keys, KEY, i);
+    }
+    assertEquals(n, table.size());
+
+    TupleBatchBuffer probes = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < n; ++i) {
+      probes.putLong(0, i);
+      probes.putString(1, "s" + i);
+    }
+    int i = 0;
+    for (TupleBatch tb : probes.getAll()) {
+      for (int row = 0; row < tb.numTuples(); ++row, ++i) {
+        assertEquals(i, table.find(i % 7, tb, KEY, row));
+        assertEquals(-1, table.find((i + 1) % 7, tb, KEY, row));
+      }
+    }
+  }
+
+  @Test
+  public void testFindMissing() {
+    MutableTupleBuffer keys = new MutableTupleBuffer(SCHEMA);
+    GroupIdHashTable table = new GroupIdHashTable(keys, KEY);
+    keys.putLong(0, 1);
+    keys.putString(1, "x");
+    table.insert(42, 0, keys, KEY, 0);
+
+    TupleBatchBuffer probes = new TupleBatchBuffer(SCHEMA);
+    probes.putLong(0, 1);
+    probes.putString(1, "y");
+    assertEquals(-1, table.find(42, probes.popAny(), KEY, 0));
+  }
+
+  @Test
+  public void testDictionaryEncodedKeys() {
+    /* Two batches of the same scan share a dictionary; a plain batch and another scan do not. */
+    TupleBatchBuffer scan = new TupleBatchBuffer(SCHEMA, true);
+    TupleBatchBuffer otherScan = new TupleBatchBuffer(SCHEMA, true);
+    TupleBatchBuffer plain = new TupleBatchBuffer(SCHEMA);
+    for (TupleBatchBuffer buffer : new TupleBatchBuffer[] {scan, otherScan, plain}) {
+      for (int i = 0; i < TupleBatch.BATCH_SIZE + 10; ++i) {
+        buffer.putLong(0, 1);
+        buffer.putString(1, "s" + (i % 10));
+      }
+    }
+    TupleBatch first = scan.popAny();
+    assertTrue(first.asColumn(1) instanceof DictionaryStringColumn);
+    MutableTupleBuffer keys = new MutableTupleBuffer(SCHEMA);
+    GroupIdHashTable table = new GroupIdHashTable(keys, KEY);
+    for (int row = 0; row < 5; ++row) {
+      TupleUtils.copyValue(first, 0, row, keys, 0);
+      TupleUtils.copyValue(first, 1, row, keys, 1);
+      table.insert(0, row, first, KEY, row);
+    }
+    for (TupleBatch probes : new TupleBatch[] {scan.popAny(), otherScan.popAny(), plain.popAny()}) {
+      for (int row = 0; row < 10; ++row) {
+        assertEquals(row < 5 ? row : -1, table.find(0, probes, KEY, row));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIdsMustBeDense() {
+    GroupIdHashTable table = new GroupIdHashTable(new MutableTupleBuffer(SCHEMA), KEY);
+    table.insert(0, 1, new MutableTupleBuffer(SCHEMA), KEY, 0);
+  }
+}
@@ -0,0 +1,89 @@
+package edu.washington.escience.myria.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.column.StringDictionary;
+import edu.washington.escience.myria.parallel.ipc.InputBufferMemoryBudget;
+
+public class TupleBatchEstimatedBytesTest {
+
+  @Test
+  public void testFixedWidth() {
+    final TupleBatchBuffer tbb =
+        new TupleBatchBuffer(Schema.ofFields("i", Type.INT_TYPE, "l", Type.LONG_TYPE));
+    for (int i = 0; i < 100; ++i) {
+      tbb.putInt(0, i);
+      tbb.putLong(1, i);
+    }
+    final TupleBatch tb = tbb.popAny();
+    assertEquals(100 * (4 + 8), tb.getEstimatedBytes());
+    assertEquals(10 * (4 + 8), tb.prefix(10).getEstimatedBytes());
+  }
+
+  @Test
+  public void testStrings() {
+    final Schema schema = Schema.ofFields("s", Type.STRING_TYPE);
+    final TupleBatchBuffer shortStrings = new TupleBatchBuffer(schema);
+    final TupleBatchBuffer longStrings = new TupleBatchBuffer(schema);
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      sb.append('x');
+    }
+    for (int i = 0; i < 100; ++i) {
+      shortStrings.putString(0, "x");
+      longStrings.putString(0, sb.toString());
+    }
+    final long shortBytes = shortStrings.popAny().getEstimatedBytes();
+    final long longBytes = longStrings.popAny().getEstimatedBytes();
+    assertEquals(100 * 999 * Character.BYTES, longBytes - shortBytes);
+
+    /* Repeated strings in a dictionary column are counted once. */
+    final StringDictionary dictionary = new StringDictionary();
+    final int[] codes = new int[100];
+    for (int i = 0; i < codes.length; ++i) {
+      codes[i] = dictionary.encode(sb.toString());
+    }
+    final TupleBatch encoded =
+        new TupleBatch(
+            schema, ImmutableList.of(new DictionaryStringColumn(dictionary, codes, codes.length)));
+    assertTrue(encoded.getEstimatedBytes() < longBytes / 50);
+
+    /* Only the strings the values refer to are counted, not the first strings of the dictionary. */
+    final StringDictionary shared = new StringDictionary();
+    for (int i = 0; i < 100; ++i) {
+      shared.encode(sb.toString() + i);
+    }
+    final int[] shortCodes = new int[100];
+    Arrays.fill(shortCodes, shared.encode("x"));
+    final TupleBatch shortEncoded =
+        new TupleBatch(
+            schema,
+            ImmutableList.of(new DictionaryStringColumn(shared, shortCodes, shortCodes.length)));
+    assertTrue(shortEncoded.getEstimatedBytes() < sb.length() * Character.BYTES);
+  }
+
+  @Test
+  public void testBudget() {
+    final InputBufferMemoryBudget budget = new InputBufferMemoryBudget(1000);
+    assertTrue(budget.isRecovered());
+    budget.add(1000);
+    assertTrue(budget.isExhausted());
+    budget.add(-100);
+    assertFalse(budget.isExhausted());
+    assertFalse(budget.isRecovered());
+    budget.add(-100);
+    assertTrue(budget.isRecovered());
+    assertTrue(new InputBufferMemoryBudget(0).getCapacity() > 0);
+  }
+}
@@ -0,0 +1,83 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class BloomFilterTest {
+
+  private static final Schema SCHEMA =
+      new Schema(ImmutableList.of(Type.LONG_TYPE, Type.STRING_TYPE), ImmutableList.of("a", "b"));
+
+  private static final int[] KEY = new int[] {0, 1};
+
+  /** Rows (i, "s" + i) for i in [from, to). */
+  private static TupleBatch rows(final int from, final int to) {
+    TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = from; i < to; ++i) {
+      tbb.putLong(0, i);
+      tbb.putString(1, "s" + i);
+    }
+    return tbb.popAny();
+  }
+
+  @Test
+  public void testNoFalseNegatives() {
+    BloomFilter filter = new BloomFilter(1 << 14, 3);
+    TupleBatch added = rows(0, 1000);
+    filter.addRows(added, KEY);
+    assertEquals(1000, filter.mightContainRows(added, KEY).cardinality());
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    /* 16 bits per key and 3 hash functions: about 0.3% false positives. */
+    BloomFilter filter = new BloomFilter(1 << 14, 3);
+    filter.addRows(rows(0, 1000), KEY);
+    int falsePositives = filter.mightContainRows(rows(1000, 6000), KEY).cardinality();
+    assertTrue("too many false positives: " + falsePositives, falsePositives < 50);
+  }
+
+  @Test
+  public void testManyHashFunctions() {
+    /* The hash family is derived from one digest, so the number of hash functions is not bounded by a seed pool. */
+    BloomFilter filter = new BloomFilter(1 << 14, 40);
+    TupleBatch added = rows(0, 100);
+    filter.addRows(added, KEY);
+    assertEquals(100, filter.mightContainRows(added, KEY).cardinality());
+  }
+
+  @Test
+  public void testMergeAndPack() {
+    BloomFilter first = new BloomFilter(1 << 12, 2);
+    first.addRows(rows(0, 100), KEY);
+    BloomFilter second = new BloomFilter(1 << 12, 2);
+    second.addRows(rows(100, 200), KEY);
+
+    BloomFilter merged =
+        BloomFilter.unpack(first.numBits(), first.numHashes(), first.pack());
+    merged.merge(BloomFilter.unpack(second.numBits(), second.numHashes(), second.pack()));
+    BitSet found = merged.mightContainRows(rows(0, 200), KEY);
+    assertEquals(200, found.cardinality());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentDimensions() {
+    new BloomFilter(1 << 12, 2).merge(new BloomFilter(1 << 12, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNumBitsPowerOfTwo() {
+    new BloomFilter(1000, 2);
+  }
+}
@@ -0,0 +1,160 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.washington.escience.myria.column.DictionaryStringColumn;
+import edu.washington.escience.myria.util.ColumnCompression.Compressed;
+import edu.washington.escience.myria.util.ColumnCompression.Encoding;
+
+public class ColumnCompressionTest {
+
+  private static final int NUM_VALUES = 1000;
+
+  /** Compress the values, check the encoding, and check that they decompress to the same values. */
+  private static void checkIntegers(
+      final long[] values, final int valueBytes, final Encoding expected) {
+    final Compressed compressed = ColumnCompression.compressIntegers(values, valueBytes);
+    if (expected == Encoding.PLAIN) {
+      assertNull(compressed);
+      return;
+    }
+    assertEquals(expected, compressed.getEncoding());
+    final ByteBuffer section =
+        ByteBuffer.allocate(compressed.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+    compressed.write(section);
+    assertEquals(compressed.getLength(), section.position());
+    section.flip();
+    assertArrayEquals(
+        values,
+        ColumnCompression.decompressIntegers(
+            compressed.getEncoding(), section, values.length, valueBytes));
+  }
+
+  @Test
+  public void testIntegers() {
+    final long[] constant = new long[NUM_VALUES];
+    final long[] runs = new long[NUM_VALUES];
+    final long[] smallRange = new long[NUM_VALUES];
+    final long[] increasing = new long[NUM_VALUES];
+    final long[] random = new long[NUM_VALUES];
+    final long[] extremes = new long[NUM_VALUES];
+    final Random rand = new Random(42);
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      constant[i] = -7;
+      runs[i] = i / 100;
+      smallRange[i] = 1000000 + rand.nextInt(100);
+      increasing[i] = (1L << 40) + 3L * i + rand.nextInt(3);
+      random[i] = rand.nextLong();
+      extremes[i] = i % 2 == 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+    checkIntegers(constant, Integer.BYTES, Encoding.FRAME_OF_REFERENCE);
+    checkIntegers(runs, Long.BYTES, Encoding.RUN_LENGTH);
+    checkIntegers(smallRange, Integer.BYTES, Encoding.FRAME_OF_REFERENCE);
+    checkIntegers(increasing, Long.BYTES, Encoding.DELTA);
+    checkIntegers(random, Long.BYTES, Encoding.PLAIN);
+    /* The differences wrap around, and so does their sum. */
+    checkIntegers(extremes, Long.BYTES, Encoding.DELTA);
+    checkIntegers(new long[] {5}, Long.BYTES, Encoding.PLAIN);
+  }
+
+  @Test
+  public void testIntsMatchWidenedIntegers() {
+    final Random rand = new Random(7);
+    final int[][] columns = new int[4][NUM_VALUES + 10];
+    for (int i = 0; i < NUM_VALUES + 10; ++i) {
+      columns[0][i] = i / 100;
+      columns[1][i] = -1000 + rand.nextInt(100);
+      columns[2][i] = Integer.MIN_VALUE + 5 * i;
+      columns[3][i] = rand.nextInt();
+    }
+    for (final int[] column : columns) {
+      /* Only the first NUM_VALUES slots are values, as in a column backed by a longer array. */
+      final long[] widened = new long[NUM_VALUES];
+      for (int i = 0; i < NUM_VALUES; ++i) {
+        widened[i] = column[i];
+      }
+      checkSameCompression(
+          ColumnCompression.compressIntegers(widened, Integer.BYTES),
+          ColumnCompression.compressInts(column, NUM_VALUES));
+    }
+  }
+
+  @Test
+  public void testLongsMatchCopiedIntegers() {
+    final Random rand = new Random(11);
+    final long[][] columns = new long[4][NUM_VALUES + 10];
+    for (int i = 0; i < NUM_VALUES + 10; ++i) {
+      columns[0][i] = i / 100;
+      columns[1][i] = (1L << 40) + rand.nextInt(100);
+      columns[2][i] = Long.MIN_VALUE + 5L * i;
+      columns[3][i] = rand.nextLong();
+    }
+    for (final long[] column : columns) {
+      /* Only the first NUM_VALUES slots are values, as in a column backed by a longer array. */
+      checkSameCompression(
+          ColumnCompression.compressIntegers(Arrays.copyOf(column, NUM_VALUES), Long.BYTES),
+          ColumnCompression.compressLongs(column, NUM_VALUES));
+    }
+  }
+
+  /** Check that both compressions pick the same encoding and write the same bytes. */
+  private static void checkSameCompression(final Compressed expected, final Compressed actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.getEncoding(), actual.getEncoding());
+    assertEquals(expected.getLength(), actual.getLength());
+    final ByteBuffer expectedBytes =
+        ByteBuffer.allocate(expected.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+    expected.write(expectedBytes);
+    final ByteBuffer actualBytes =
+        ByteBuffer.allocate(actual.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+    actual.write(actualBytes);
+    assertArrayEquals(expectedBytes.array(), actualBytes.array());
+  }
+
+  @Test
+  public void testStrings() {
+    final String[] strings = new String[NUM_VALUES];
+    final byte[][] encoded = new byte[NUM_VALUES][];
+    int plainLength = (NUM_VALUES + 1) * Integer.BYTES;
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      strings[i] = new String("category ü" + i % 5);
+      encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+      plainLength += encoded[i].length;
+    }
+    final Compressed compressed =
+        ColumnCompression.compressStrings(strings, encoded, plainLength);
+    assertEquals(Encoding.DICTIONARY, compressed.getEncoding());
+    final ByteBuffer section =
+        ByteBuffer.allocate(compressed.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+    compressed.write(section);
+    section.flip();
+    final DictionaryStringColumn decoded = ColumnCompression.decompressStrings(section, NUM_VALUES);
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      assertEquals(strings[i], decoded.getString(i));
+    }
+    assertSame(decoded.getString(0), decoded.getString(5));
+    assertEquals(5, decoded.getDictionarySize());
+
+    plainLength = (NUM_VALUES + 1) * Integer.BYTES;
+    for (int i = 0; i < NUM_VALUES; ++i) {
+      strings[i] = "unique " + i;
+      encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+      plainLength += encoded[i].length;
+    }
+    assertNull(ColumnCompression.compressStrings(strings, encoded, plainLength));
+  }
+}
@@ -0,0 +1,133 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class HashUtilsTest {
+
+  private static final Schema SCHEMA =
+      new Schema(
+          ImmutableList.of(
+              Type.BOOLEAN_TYPE,
+              Type.INT_TYPE,
+              Type.LONG_TYPE,
+              Type.FLOAT_TYPE,
+              Type.DOUBLE_TYPE,
+              Type.STRING_TYPE,
+              Type.DATETIME_TYPE),
+          ImmutableList.of("bool", "int", "long", "float", "double", "string", "datetime"));
+
+  private Random rand;
+
+  @Before
+  public void setUp() {
+    rand = new Random(4747);
+  }
+
+  private TupleBatch randomBatch(final int numTuples) {
+    TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < numTuples; ++i) {
+      tbb.putBoolean(0, rand.nextBoolean());
+      tbb.putInt(1, rand.nextInt());
+      tbb.putLong(2, rand.nextLong());
+      tbb.putFloat(3, rand.nextFloat());
+      tbb.putDouble(4, rand.nextDouble());
+      StringBuilder sb = new StringBuilder();
+      int len = rand.nextInt(40);
+      for (int j = 0; j < len; ++j) {
+        sb.append((char) rand.nextInt(Character.MAX_VALUE));
+      }
+      tbb.putString(5, sb.toString());
+      tbb.putDateTime(6, new DateTime(rand.nextInt()));
+    }
+    return tbb.popAny();
+  }
+
+  @Test
+  public void testHashRowsMatchesHashRow() {
+    TupleBatch tb = randomBatch(1000);
+    int[] hashes = HashUtils.hashRows(tb, null);
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      assertEquals(HashUtils.hashRow(tb, row), hashes[row]);
+    }
+  }
+
+  @Test
+  public void testHashSubRowsMatchesHashSubRow() {
+    TupleBatch tb = randomBatch(1000);
+    int[][] columnSets = {{0}, {1}, {5}, {1, 0}, {0, 1, 2}, {5, 2, 3}, {3, 4, 5, 6}, {5, 5, 0, 5}};
+    int[] hashes = null;
+    for (int[] columns : columnSets) {
+      hashes = HashUtils.hashSubRows(tb, columns, hashes);
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        assertEquals(HashUtils.hashSubRow(tb, columns, row), hashes[row]);
+      }
+    }
+  }
+
+  @Test
+  public void testHashValuesMatchesHashValue() {
+    TupleBatch tb = randomBatch(500);
+    for (int seedIndex = 0; seedIndex < HashUtils.NUM_OF_HASHFUNCTIONS; ++seedIndex) {
+      for (int column = 0; column < tb.numColumns(); ++column) {
+        int[] hashes = HashUtils.hashValues(tb, column, seedIndex, null);
+        for (int row = 0; row < tb.numTuples(); ++row) {
+          assertEquals(HashUtils.hashValue(tb, column, row, seedIndex), hashes[row]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHashSubRowsFamilyMatchesHashSubRowFamily() {
+    TupleBatch tb = randomBatch(500);
+    final int[] columns = {1, 5, 2};
+    final int k = 7;
+    int[] family = HashUtils.hashSubRowsFamily(tb, columns, k, null);
+    int[] buffer = new int[k];
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      int[] expected = HashUtils.hashSubRowFamily(tb, columns, row, k);
+      assertSame(buffer, HashUtils.hashSubRowFamily(tb, columns, row, buffer, k));
+      for (int i = 0; i < k; ++i) {
+        assertEquals(expected[i], family[row * k + i]);
+        assertEquals(expected[i], buffer[i]);
+      }
+    }
+  }
+
+  @Test
+  public void testHashValueFamilyMatchesHashSubRowFamily() {
+    TupleBatch tb = randomBatch(100);
+    final int k = 5;
+    for (int column = 0; column < tb.numColumns(); ++column) {
+      for (int row = 0; row < tb.numTuples(); ++row) {
+        assertArrayEquals(
+            HashUtils.hashSubRowFamily(tb, new int[] {column}, row, k),
+            HashUtils.hashValueFamily(
+                tb.getObject(column, row), tb.getSchema().getColumnType(column), k));
+      }
+    }
+  }
+
+  @Test
+  public void testResultBufferIsReused() {
+    int[] buffer = new int[TupleBatch.BATCH_SIZE];
+    TupleBatch tb = randomBatch(100);
+    assertSame(buffer, HashUtils.hashSubRows(tb, new int[] {1, 2}, buffer));
+    assertSame(buffer, HashUtils.hashRows(tb, buffer));
+  }
+}
@@ -0,0 +1,42 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeavyHitterSketchTest {
+
+  @Test
+  public void testHeavyHitters() {
+    final HeavyHitterSketch sketch = new HeavyHitterSketch(16);
+    final Random rand = new Random(7);
+    int heavy = 0;
+    int heavier = 0;
+    for (int i = 0; i < 100000; ++i) {
+      final int r = rand.nextInt(100);
+      if (r < 10) {
+        sketch.add(-3);
+        ++heavy;
+      } else if (r < 30) {
+        sketch.add(42);
+        ++heavier;
+      } else {
+        sketch.add(rand.nextLong());
+      }
+    }
+    assertEquals(100000, sketch.total());
+    /* Counts are lower bounds, off by at most total / (capacity + 1). */
+    assertTrue(sketch.count(42) <= heavier);
+    assertTrue(sketch.count(42) >= heavier - sketch.total() / 17);
+    assertTrue(sketch.count(-3) <= heavy);
+    assertTrue(sketch.isHeavy(42, 0.1));
+    assertFalse(sketch.isHeavy(42, 0.25));
+    assertArrayEquals(new long[] {42, -3}, sketch.heavyHitters(0.03));
+    assertEquals(0, sketch.count(5));
+  }
+}
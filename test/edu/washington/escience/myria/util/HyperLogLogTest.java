@@ -0,0 +1,66 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class HyperLogLogTest {
+
+  private static final Schema SCHEMA =
+      new Schema(ImmutableList.of(Type.LONG_TYPE, Type.STRING_TYPE), ImmutableList.of("a", "b"));
+
+  /** Offer rows (i % distinct, "s" + i % distinct) for i in [from, to). */
+  private static void offer(final HyperLogLog hll, final int from, final int to, final int distinct) {
+    TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = from; i < to; ++i) {
+      tbb.putLong(0, i % distinct);
+      tbb.putString(1, "s" + (i % distinct));
+    }
+    for (TupleBatch tb : tbb.getAll()) {
+      hll.offerRows(tb, new int[] {0, 1});
+    }
+  }
+
+  private static void assertClose(final long expected, final long actual) {
+    assertTrue(
+        "expected about " + expected + ", got " + actual,
+        Math.abs(actual - expected) <= Math.max(2, expected * 0.05));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, new HyperLogLog().cardinality());
+  }
+
+  @Test
+  public void testSmallCardinality() {
+    HyperLogLog hll = new HyperLogLog();
+    offer(hll, 0, 10000, 37);
+    assertClose(37, hll.cardinality());
+  }
+
+  @Test
+  public void testLargeCardinality() {
+    HyperLogLog hll = new HyperLogLog();
+    offer(hll, 0, 200000, 200000);
+    assertClose(200000, hll.cardinality());
+  }
+
+  @Test
+  public void testMerge() {
+    HyperLogLog left = new HyperLogLog();
+    HyperLogLog right = new HyperLogLog();
+    offer(left, 0, 60000, 100000);
+    offer(right, 40000, 100000, 100000);
+    left.merge(right);
+    assertClose(100000, left.cardinality());
+  }
+}
@@ -1,12 +1,16 @@
 package edu.washington.escience.myria.util;
 
+import java.util.HashMap;
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import edu.washington.escience.myria.DbException;
 import edu.washington.escience.myria.Schema;
 import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.operator.BatchTupleSource;
+import edu.washington.escience.myria.operator.Operator;
 import edu.washington.escience.myria.storage.TupleBatch;
 import edu.washington.escience.myria.storage.TupleBatchBuffer;
 
@@ -24,6 +28,44 @@ public final class JoinTestUtils {
   /** Utility class can't be constructed. */
   private JoinTestUtils() {}
 
+  /** Constructs an equijoin, e.g. {@code RightHashJoin::new}. */
+  public interface JoinConstructor {
+    Operator create(
+        List<String> outputColumns,
+        Operator left,
+        Operator right,
+        int[] compareIndx1,
+        int[] compareIndx2);
+  }
+
+  /**
+   * Join two random inputs with about 20 tuples per key on each side, so a probing batch produces several output
+   * batches, and compare the result with a naive join.
+   */
+  public static void checkManyMatchesAcrossBatches(final JoinConstructor constructor)
+      throws DbException {
+    TupleBatchBuffer leftInput = TestUtils.generateRandomTuples(2000, 100, false);
+    TupleBatchBuffer rightInput = TestUtils.generateRandomTuples(2000, 100, false);
+    Operator join =
+        constructor.create(
+            ImmutableList.of("id1", "name1", "id2", "name2"),
+            new BatchTupleSource(leftInput),
+            new BatchTupleSource(rightInput),
+            new int[] {0},
+            new int[] {0});
+    join.open(TestEnvVars.get());
+    TupleBatchBuffer result = new TupleBatchBuffer(join.getSchema());
+    while (!join.eos()) {
+      TupleBatch tb = join.nextReady();
+      if (tb != null) {
+        result.appendTB(tb);
+      }
+    }
+    join.close();
+    HashMap<Tuple, Integer> expected = TestUtils.naturalJoin(leftInput, rightInput, 0, 0);
+    TestUtils.assertTupleBagEqual(expected, TestUtils.tupleBatchToTupleBag(result));
+  }
+
   private static List<TupleBatch> getLeftInput() {
     TupleBatchBuffer tbb = new TupleBatchBuffer(leftSchema);
     List<TupleBatch> ret = Lists.newLinkedList();
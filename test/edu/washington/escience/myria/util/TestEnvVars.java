@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import edu.washington.escience.myria.MyriaConstants;
+import edu.washington.escience.myria.operator.SharedBloomFilters;
 import edu.washington.escience.myria.parallel.QueryExecutionMode;
 
 public final class TestEnvVars {
@@ -32,6 +33,7 @@ public final class TestEnvVars {
 
     vars.put(MyriaConstants.EXEC_ENV_VAR_NODE_ID, nodeId);
     vars.put(MyriaConstants.EXEC_ENV_VAR_EXECUTION_MODE, QueryExecutionMode.NON_BLOCKING);
+    vars.put(MyriaConstants.EXEC_ENV_VAR_BLOOM_FILTERS, new SharedBloomFilters());
 
     return vars;
   }
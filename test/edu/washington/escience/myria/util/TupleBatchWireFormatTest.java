@@ -0,0 +1,111 @@
+package edu.washington.escience.myria.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.washington.escience.myria.Schema;
+import edu.washington.escience.myria.Type;
+import edu.washington.escience.myria.parallel.TransportMessageSerializer;
+import edu.washington.escience.myria.storage.TupleBatch;
+import edu.washington.escience.myria.storage.TupleBatchBuffer;
+
+public class TupleBatchWireFormatTest {
+
+  private static final Schema SCHEMA =
+      new Schema(
+          ImmutableList.of(
+              Type.BOOLEAN_TYPE,
+              Type.INT_TYPE,
+              Type.LONG_TYPE,
+              Type.FLOAT_TYPE,
+              Type.DOUBLE_TYPE,
+              Type.STRING_TYPE,
+              Type.DATETIME_TYPE),
+          ImmutableList.of("bool", "int", "long", "float", "double", "string", "datetime"));
+
+  private static TupleBatch rows(final int numRows) {
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(SCHEMA);
+    for (int i = 0; i < numRows; ++i) {
+      tbb.putBoolean(0, i % 3 == 0);
+      tbb.putInt(1, -i);
+      tbb.putLong(2, (long) i << 40);
+      tbb.putFloat(3, i / 4.0f);
+      tbb.putDouble(4, i / 3.0);
+      tbb.putString(5, i % 7 == 0 ? "" : "sé" + i);
+      tbb.putDateTime(6, new DateTime(1000L * i));
+    }
+    return tbb.popAny();
+  }
+
+  private static void assertSameRows(final TupleBatch expected, final TupleBatch actual) {
+    assertEquals(expected.numTuples(), actual.numTuples());
+    for (int row = 0; row < expected.numTuples(); ++row) {
+      assertEquals(expected.getBoolean(0, row), actual.getBoolean(0, row));
+      assertEquals(expected.getInt(1, row), actual.getInt(1, row));
+      assertEquals(expected.getLong(2, row), actual.getLong(2, row));
+      assertEquals(expected.getFloat(3, row), actual.getFloat(3, row), 0.0f);
+      assertEquals(expected.getDouble(4, row), actual.getDouble(4, row), 0.0);
+      assertEquals(expected.getString(5, row), actual.getString(5, row));
+      assertEquals(expected.getDateTime(6, row), actual.getDateTime(6, row));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    for (final int numRows : new int[] {1, 9, TupleBatch.BATCH_SIZE}) {
+      final TupleBatch tb = rows(numRows);
+      final ChannelBuffer buffer = TupleBatchWireFormat.encode(tb);
+      assertEquals(buffer.capacity(), buffer.readableBytes());
+      assertTrue(TupleBatchWireFormat.isEncodedTupleBatch(buffer));
+      /* As received: a big endian buffer, past the header of the IPC layer. */
+      final ChannelBuffer received = ChannelBuffers.buffer(buffer.readableBytes() + 1);
+      received.writeByte(0);
+      received.writeBytes(buffer);
+      received.readByte();
+      final TupleBatch decoded = TupleBatchWireFormat.decode(received, SCHEMA);
+      assertSameRows(tb, decoded);
+      assertEquals(
+          tb.getDataColumns().get(1).toString(), decoded.getDataColumns().get(1).toString());
+    }
+  }
+
+  @Test
+  public void testCompression() {
+    final Schema schema = Schema.ofFields("id", Type.LONG_TYPE, "country", Type.STRING_TYPE);
+    final TupleBatchBuffer tbb = new TupleBatchBuffer(schema);
+    for (int i = 0; i < TupleBatch.BATCH_SIZE; ++i) {
+      tbb.putLong(0, 1000000L + i);
+      tbb.putString(1, i % 3 == 0 ? "Canada" : "United States");
+    }
+    final TupleBatch tb = tbb.popAny();
+    final ChannelBuffer buffer = TupleBatchWireFormat.encode(tb);
+    /* A few bits per value instead of 8 bytes per id, and about 17 bytes per country. */
+    assertTrue(buffer.readableBytes() < TupleBatch.BATCH_SIZE);
+    final TupleBatch decoded = TupleBatchWireFormat.decode(buffer, schema);
+    for (int row = 0; row < tb.numTuples(); ++row) {
+      assertEquals(tb.getLong(0, row), decoded.getLong(0, row));
+      assertEquals(tb.getString(1, row), decoded.getString(1, row));
+    }
+  }
+
+  @Test
+  public void testSerializer() throws Exception {
+    final TransportMessageSerializer serializer = new TransportMessageSerializer();
+    final TupleBatch tb = rows(100);
+    final ChannelBuffer buffer = serializer.serialize(tb);
+    assertSameRows(tb, (TupleBatch) serializer.deSerialize(buffer.duplicate(), null, SCHEMA));
+    /* Without a schema, the batch cannot be decoded. */
+    assertNull(serializer.deSerialize(buffer.duplicate(), null, null));
+    /* Other messages are still protobufs. */
+    assertFalse(TupleBatchWireFormat.isEncodedTupleBatch(serializer.serialize(IPCUtils.EOI)));
+  }
+}
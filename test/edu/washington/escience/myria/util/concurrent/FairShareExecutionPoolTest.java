@@ -0,0 +1,164 @@
+package edu.washington.escience.myria.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class FairShareExecutionPoolTest {
+
+  /** The number of slices recorded by the test. */
+  private static final int NUM_SLICES = 80;
+  /** The work units of a slice. */
+  private static final int SLICE_WORK = 200 * 1000;
+  /** Keeps the work of the slices from being optimized away. */
+  private static volatile long sink;
+
+  /** A task running one busy slice, then resubmitting itself, like a yielding fragment. */
+  private static final class Slicer implements Callable<Void> {
+    private final FairShareExecutionPool pool;
+    private final String group;
+    private final int weight;
+    private final List<String> slices;
+    private final CountDownLatch done;
+
+    Slicer(
+        final FairShareExecutionPool pool,
+        final String group,
+        final int weight,
+        final List<String> slices,
+        final CountDownLatch done) {
+      this.pool = pool;
+      this.group = group;
+      this.weight = weight;
+      this.slices = slices;
+      this.done = done;
+    }
+
+    @Override
+    public Void call() {
+      /* A fixed amount of work rather than of wall time, which other processes on the machine would stretch. */
+      long x = sink;
+      for (int i = 0; i < SLICE_WORK; ++i) {
+        x = x * 31 + i;
+      }
+      sink = x;
+      slices.add(group);
+      if (slices.size() < NUM_SLICES) {
+        pool.submit(FairShareExecutionPool.share(this, group, weight));
+      } else {
+        done.countDown();
+      }
+      return null;
+    }
+  }
+
+  @Test
+  public void testWeightedShares() throws Exception {
+    final FairShareExecutionPool pool =
+        new FairShareExecutionPool(1, new RenamingThreadFactory("fair share test"));
+    try {
+      final List<String> slices = new CopyOnWriteArrayList<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      final CountDownLatch blocked = new CountDownLatch(1);
+      /* Hold the only thread until both groups are waiting. */
+      pool.submit(
+          () -> {
+            blocked.await();
+            return null;
+          });
+      pool.submit(FairShareExecutionPool.share(new Slicer(pool, "a", 1, slices, done), "a", 1));
+      pool.submit(FairShareExecutionPool.share(new Slicer(pool, "b", 3, slices, done), "b", 3));
+      blocked.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+
+      int numA = 0;
+      for (final String group : slices.subList(0, NUM_SLICES)) {
+        if (group.equals("a")) {
+          ++numA;
+        }
+      }
+      final int numB = NUM_SLICES - numA;
+      assertTrue("a: " + numA + ", b: " + numB, numA > 0 && numB >= 2 * numA);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testThreadAffinity() throws Exception {
+    final FairShareExecutionPool pool =
+        new FairShareExecutionPool(4, new RenamingThreadFactory("fair share test"));
+    try {
+      final Object affinity = new Object();
+      final Callable<Thread> task =
+          FairShareExecutionPool.share(() -> Thread.currentThread(), "a", 1, affinity);
+      final Callable<Thread> other =
+          FairShareExecutionPool.share(() -> Thread.currentThread(), "b", 1, affinity);
+      final Thread first = pool.submit(task).get();
+      for (int i = 0; i < 10; ++i) {
+        /* Other tasks are spread over the other threads, but the tasks of the affinity stay on its own. */
+        pool.submit(() -> null).get();
+        assertSame(first, pool.submit(task).get());
+        assertSame(first, pool.submit(other).get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIdleThreadRunsWaitingTask() throws Exception {
+    final FairShareExecutionPool pool =
+        new FairShareExecutionPool(2, new RenamingThreadFactory("fair share test"));
+    try {
+      final Callable<Thread> task =
+          FairShareExecutionPool.share(() -> Thread.currentThread(), "a", 1);
+      final Thread first = pool.submit(task).get();
+      /* Keep the thread the task ran on busy. */
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch blocked = new CountDownLatch(1);
+      /* Each thread takes one of two blockers, and the one on the other thread returns once the first one is held. */
+      final Callable<Void> blocker =
+          () -> {
+            if (Thread.currentThread() == first) {
+              started.countDown();
+              blocked.await();
+            } else {
+              started.await();
+            }
+            return null;
+          };
+      pool.submit(blocker);
+      pool.submit(blocker);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      /* Without affinity, the task does not wait for its previous thread while the other one is idle. */
+      assertNotSame(first, pool.submit(task).get(10, TimeUnit.SECONDS));
+      blocked.countDown();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPlainTasks() throws Exception {
+    final FairShareExecutionPool pool =
+        new FairShareExecutionPool(2, new RenamingThreadFactory("fair share test"));
+    try {
+      assertEquals(Integer.valueOf(42), pool.submit(() -> 42).get());
+      final CountDownLatch ran = new CountDownLatch(1);
+      pool.execute(ran::countDown);
+      assertTrue(ran.await(10, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package edu.washington.escience.myria.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MpscArrayQueueTest {
+
+  @Test
+  public void testBounded() {
+    final MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(5);
+    assertEquals(8, queue.capacity());
+    assertNull(queue.poll());
+    for (int i = 0; i < 8; ++i) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(8));
+    assertEquals(8, queue.size());
+    assertEquals(0, (int) queue.peek());
+    assertEquals(0, (int) queue.poll());
+    assertTrue(queue.offer(8));
+
+    final List<Integer> drained = new ArrayList<>();
+    assertEquals(3, queue.drainTo(drained, 3));
+    assertEquals(5, queue.size());
+    assertEquals(5, queue.clear());
+    assertTrue(queue.isEmpty());
+    assertEquals(3, drained.size());
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(i + 1, (int) drained.get(i));
+    }
+  }
+
+  @Test
+  public void testManyProducers() throws InterruptedException {
+    final int numProducers = 8;
+    final int numPerProducer = 20000;
+    final MpscArrayQueue<long[]> queue = new MpscArrayQueue<>(256);
+    final List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < numProducers; ++p) {
+      final int producer = p;
+      final Thread t =
+          new Thread() {
+            @Override
+            public void run() {
+              for (int i = 0; i < numPerProducer; ++i) {
+                final long[] e = new long[] {producer, i};
+                while (!queue.offer(e)) {
+                  Thread.yield();
+                }
+              }
+            }
+          };
+      t.start();
+      producers.add(t);
+    }
+
+    /* Each producer's elements arrive in order. */
+    final int[] next = new int[numProducers];
+    final List<long[]> batch = new ArrayList<>();
+    int received = 0;
+    while (received < numProducers * numPerProducer) {
+      batch.clear();
+      if (queue.drainTo(batch, 16) == 0) {
+        final long[] e = queue.poll();
+        if (e != null) {
+          batch.add(e);
+        } else {
+          Thread.yield();
+        }
+      }
+      for (final long[] e : batch) {
+        assertEquals(next[(int) e[0]]++, e[1]);
+      }
+      received += batch.size();
+    }
+    for (final Thread t : producers) {
+      t.join();
+    }
+    assertTrue(queue.isEmpty());
+  }
+}